@@ -3,6 +3,7 @@ package at.rovo.classifier.decissionTrees.c45;
 import at.rovo.classifier.dataset.DataSet;
 import at.rovo.classifier.dataset.UciDataSet;
 import at.rovo.classifier.decissionTrees.c45.util.Statistics;
+import at.rovo.classifier.distributed.Coordinator;
 import java.util.Random;
 
 /**
@@ -29,6 +30,8 @@ public class CrossValidator
      * the test error ratios in different folds of cross validation.
      */
     private float[] testErrorRatios;
+    /** The coordinator distributing the folds to workers or null to cross validate in this process **/
+    private Coordinator coordinator;
 
     /**
      * Initialize a cross validator with the specified fold of cross validation.
@@ -43,9 +46,26 @@ public class CrossValidator
      *         The folds of cross validation
      */
     public CrossValidator(DataSet dataSet, int fold)
+    {
+        this(dataSet, fold, null);
+    }
+
+    /**
+     * Initialize a cross validator with the specified fold of cross validation, whose folds are built and tested by
+     * the workers of a coordinator.
+     *
+     * @param dataSet
+     *         The data set to be cross validated
+     * @param fold
+     *         The folds of cross validation
+     * @param coordinator
+     *         The coordinator distributing the folds to its workers or <em>null</em> to cross validate in this process
+     */
+    public CrossValidator(DataSet dataSet, int fold, Coordinator coordinator)
     {
         // Load the data for cross validation
         this.dataSet = dataSet;
+        this.coordinator = coordinator;
         this.crossValidationData = new String[dataSet.getCaseCount()][];
         System.arraycopy(dataSet.getTrainData(), 0, crossValidationData, 0, dataSet.getCaseCount());
         this.fold = fold;
@@ -151,15 +171,10 @@ public class CrossValidator
         // The default size of the test data
         int testSize = crossValidationData.length / fold + 1;
 
-        // Ready to record the error ratio of each fold
-        float[] testErrorRatios = new float[fold];
-        // Ready to record the
-        float[] treeSizes = new float[fold];
-
-        // The start index of the train data in the crossValidationData
+        // The start index of the train data and the size of the test data of each fold
+        int[] starts = new int[fold];
+        int[] testSizes = new int[fold];
         int start = 0;
-        int attributeCount = dataSet.getAttributeCount();
-        // Execute tree construction and test data evaluation for each fold of cross validation
         for (int i = 0; i < fold; i++)
         {
             /* For the folds belonging to [0, fraction), their testSize equals the default testSize
@@ -171,56 +186,93 @@ public class CrossValidator
             {
                 testSize = crossValidationData.length / fold;
             }
-            int trainSize = crossValidationData.length - testSize;
-
-            // Train data used for tree construction (it changes with cross validation)
-            String[][] trainData = new String[trainSize][attributeCount];
-            // Test data used for classification (it changes with cross validation)
-            String[][] testData = new String[testSize][attributeCount];
+            starts[i] = start;
+            testSizes[i] = testSize;
+            // Ready to partite the train data and the test data for the next fold
+            start += testSize;
+        }
 
-            // Partition the train data and the test data for the current fold
-            int trainCount = 0;
-            int testCount = 0;
-            for (int k = start; (trainCount + testCount) < crossValidationData.length; k++)
+        // Execute tree construction and test data evaluation for each fold of cross validation
+        int[][] results;
+        if (coordinator != null)
+        {
+            results = coordinator.crossValidate(dataSet, crossValidationData, starts, testSizes);
+        }
+        else
+        {
+            results = new int[fold][];
+            for (int i = 0; i < fold; i++)
             {
-                // Traverse the whole crossValidationData cyclically
-                int index = k % crossValidationData.length;
-                // Copy the train data
-                if (trainCount < trainSize)
-                {
-                    trainData[trainCount++] = crossValidationData[index];
-                }
-                // Copy the test data
-                else
-                {
-                    testData[testCount++] = crossValidationData[index];
-                }
+                results[i] = validateFold(dataSet, crossValidationData, starts[i], testSizes[i]);
             }
+        }
 
-            // Renew the data set for the classifier construction in different folds
-            dataSet.setTrainData(trainData);
-            dataSet.addColumnSetView();
-
-            // Construct the tree classifier
-            TreeClassifier tree = new DecisionTree(dataSet);
-            tree.prune();
+        // Record the tree size and the test error ratio in the CrossValidator instance
+        this.testErrorRatios = new float[fold];
+        this.treeSizes = new float[fold];
+        for (int i = 0; i < fold; i++)
+        {
+            this.treeSizes[i] = results[i][0];
+            this.testErrorRatios[i] = 100.0f * results[i][1] / testSizes[i];
+        }
+    }
 
-            // Compute the tree size and the test error ratio of the constructed tree classifier
-            int size = tree.size();
-            int error = tree.getTestError(testData);
-            float errorRatio = (float) (100.0f * error / testCount);
+    /**
+     * Builds a pruned tree classifier on the train data of one fold and classifies the test data of the fold.
+     * <p/>
+     * The cross validation data is traversed cyclically, where the train data consists of the cases starting at
+     * <em>start</em> and the test data of the <em>testSize</em> cases following the train data.
+     *
+     * @param dataSet
+     *         The data set the tree is built for. Its train data and attribute view are replaced by the ones of the
+     *         fold
+     * @param crossValidationData
+     *         The cases of all folds
+     * @param start
+     *         The index of the first train case of the fold
+     * @param testSize
+     *         The number of test cases of the fold
+     *
+     * @return The size of the tree and the number of misclassified test cases
+     */
+    public static int[] validateFold(DataSet dataSet, String[][] crossValidationData, int start, int testSize)
+    {
+        int trainSize = crossValidationData.length - testSize;
 
-            // Record the tree size and the test error ratio
-            testErrorRatios[i] = errorRatio;
-            treeSizes[i] = size;
+        // Train data used for tree construction (it changes with cross validation)
+        String[][] trainData = new String[trainSize][];
+        // Test data used for classification (it changes with cross validation)
+        String[][] testData = new String[testSize][];
 
-            // Ready to partite the train data and the test data for the next fold
-            start += testSize;
+        // Partition the train data and the test data for the current fold
+        int trainCount = 0;
+        int testCount = 0;
+        for (int k = start; (trainCount + testCount) < crossValidationData.length; k++)
+        {
+            // Traverse the whole crossValidationData cyclically
+            int index = k % crossValidationData.length;
+            // Copy the train data
+            if (trainCount < trainSize)
+            {
+                trainData[trainCount++] = crossValidationData[index];
+            }
+            // Copy the test data
+            else
+            {
+                testData[testCount++] = crossValidationData[index];
+            }
         }
 
-        // Record the tree size and the test error ratio in the CrossValidator instance
-        this.testErrorRatios = testErrorRatios;
-        this.treeSizes = treeSizes;
+        // Renew the data set for the classifier construction in different folds
+        dataSet.setTrainData(trainData);
+        dataSet.addColumnSetView();
+
+        // Construct the tree classifier
+        TreeClassifier tree = new DecisionTree(dataSet);
+        tree.prune();
+
+        // Compute the tree size and the test error of the constructed tree classifier
+        return new int[] {tree.size(), tree.getTestError(testData)};
     }
 
     /**
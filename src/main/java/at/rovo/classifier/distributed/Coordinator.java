@@ -0,0 +1,578 @@
+package at.rovo.classifier.distributed;
+
+import at.rovo.classifier.dataset.DataSet;
+import at.rovo.classifier.dataset.MetaData;
+import at.rovo.classifier.svm.struct.CompactProblem;
+import at.rovo.classifier.svm.struct.CsrMatrix;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Distributes the folds of a cross-validation to {@link Worker}s running in other JVMs, either on the same machine or
+ * on other hosts.
+ * <p>
+ * The training data is streamed once per cross-validation to every worker in a compact binary format. Afterwards the
+ * folds are handed out one after another to the next idle worker, which trains a model on the remaining folds and
+ * sends back its predictions of the instances of the fold (for SVMs) or the size of the tree and its number of test
+ * errors (for C4.5). A worker whose connection breaks is dropped and its fold is handed out again, while a fold which
+ * fails on the worker, i.e. due to infeasible parameters, fails the whole cross-validation.
+ * <p>
+ * A worker processes the requests of a connection one after another, so a worker which should train several folds
+ * concurrently has to be listed several times. A worker which does not answer a request within the timeout of the
+ * coordinator is treated like a worker whose connection broke.
+ * <p>
+ * The coordinator is used via {@link at.rovo.classifier.svm.SVM#crossValidation(Parameter, Coordinator)}, {@link
+ * at.rovo.classifier.svm.GridSearch#setCoordinator(Coordinator)} and {@link
+ * at.rovo.classifier.decissionTrees.c45.CrossValidator#CrossValidator(DataSet, int, Coordinator)}. Only one
+ * cross-validation may run at a time.
+ *
+ * @author Roman Vottner
+ */
+public class Coordinator implements Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    /** The milliseconds a worker may take to answer a request by default **/
+    public static final int DEFAULT_TIMEOUT = 60 * 60 * 1000;
+
+    /** The connections to the workers **/
+    private final List<Connection> connections = new ArrayList<>();
+
+    /**
+     * Connects to the provided workers, which may take up to {@link #DEFAULT_TIMEOUT} milliseconds to answer a
+     * request.
+     *
+     * @param workers
+     *         The addresses of the workers. An address listed several times opens several connections to the worker
+     *
+     * @throws IOException
+     *         If a worker is not reachable or does not speak the protocol of this coordinator
+     */
+    public Coordinator(List<InetSocketAddress> workers) throws IOException
+    {
+        this(workers, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Connects to the provided workers.
+     *
+     * @param workers
+     *         The addresses of the workers. An address listed several times opens several connections to the worker
+     * @param timeout
+     *         The milliseconds a worker may take to answer a request, i.e. to train a fold for all values of C, or 0
+     *         to wait forever
+     *
+     * @throws IOException
+     *         If a worker is not reachable or does not speak the protocol of this coordinator
+     */
+    public Coordinator(List<InetSocketAddress> workers, int timeout) throws IOException
+    {
+        if (timeout < 0)
+        {
+            throw new IllegalArgumentException("The timeout must not be negative");
+        }
+        try
+        {
+            for (InetSocketAddress address : workers)
+            {
+                this.connections.add(new Connection(address, timeout));
+            }
+        }
+        catch (IOException e)
+        {
+            close();
+            throw e;
+        }
+        if (this.connections.isEmpty())
+        {
+            throw new IllegalArgumentException("At least one worker is required");
+        }
+    }
+
+    /**
+     * Parses a comma separated list of workers in the form <em>host:port</em>, where the port is optional.
+     *
+     * @param workers
+     *         The workers to parse
+     *
+     * @return The addresses of the workers
+     */
+    public static List<InetSocketAddress> parseWorkers(String workers)
+    {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String worker : workers.split(","))
+        {
+            worker = worker.trim();
+            int colon = worker.lastIndexOf(':');
+            if (colon < 0)
+            {
+                addresses.add(new InetSocketAddress(worker, Protocol.DEFAULT_PORT));
+            }
+            else
+            {
+                addresses.add(new InetSocketAddress(worker.substring(0, colon),
+                                                    Integer.parseInt(worker.substring(colon + 1))));
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Performs a SVM cross-validation for several sets of parameters on the same folds.
+     * <p>
+     * Every combination of parameters and fold is trained by a single worker. If more than one value of C is given,
+     * the worker trains the fold for all values in the given order and predicts the fold with each model.
+     *
+     * @param prob
+     *         The training data
+     * @param perm
+     *         The indices of the training instances ordered by their fold
+     * @param fold_start
+     *         The position of the first instance of each fold inside <em>perm</em>, followed by the number of instances
+     * @param params
+     *         The parameters to cross-validate
+     * @param C
+     *         The values of C each set of parameters is trained with
+     * @param warmStart
+     *         Whether the training of a value of C starts from the solution of the previous value
+     *
+     * @return The predicted value of every instance for every set of parameters and value of C
+     *
+     * @throws IllegalArgumentException
+     *         If the problem holds more than {@link Integer#MAX_VALUE} features, which can not be sent to a worker
+     * @throws IllegalStateException
+     *         If a fold fails or no worker is left
+     */
+    public double[][][] crossValidate(Problem prob, int[] perm, int[] fold_start, Parameter[] params, double[] C,
+                                      boolean warmStart)
+    {
+        int nr_fold = fold_start.length - 1;
+        double[][][] target = new double[params.length][C.length][prob.numInstances];
+        CsrMatrix matrix = prob instanceof CompactProblem ? ((CompactProblem) prob).getMatrix()
+                                                          : CsrMatrix.fromNodes(prob.x);
+        if (matrix.nnz() > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("The problem holds more features than can be sent to a worker");
+        }
+        Message problem = out -> writeProblem(out, prob, matrix, perm, fold_start);
+        List<Request> folds = new ArrayList<>(params.length * nr_fold);
+        for (int p = 0; p < params.length; p++)
+        {
+            Parameter param = params[p];
+            double[][] t = target[p];
+            for (int fold = 0; fold < nr_fold; fold++)
+            {
+                int f = fold;
+                folds.add(new Request()
+                {
+                    @Override
+                    public void send(DataOutputStream out) throws IOException
+                    {
+                        out.writeByte(Protocol.SVM_FOLD);
+                        Protocol.writeParameter(out, param);
+                        out.writeInt(f);
+                        out.writeInt(C.length);
+                        for (double c : C)
+                        {
+                            out.writeDouble(c);
+                        }
+                        out.writeBoolean(warmStart);
+                    }
+
+                    @Override
+                    public void receive(DataInputStream in) throws IOException
+                    {
+                        for (double[] predictions : t)
+                        {
+                            for (int j = fold_start[f]; j < fold_start[f + 1]; j++)
+                            {
+                                predictions[perm[j]] = in.readDouble();
+                            }
+                        }
+                    }
+                });
+            }
+        }
+        execute(problem, folds);
+        return target;
+    }
+
+    /**
+     * Performs a C4.5 cross-validation. The test data of a fold consists of the <em>testSize</em> cases following the
+     * train data, which starts at <em>start</em>, where the cases are traversed cyclically.
+     *
+     * @param dataSet
+     *         The data set to cross-validate
+     * @param crossValidationData
+     *         The cases of all folds
+     * @param start
+     *         The index of the first train case of each fold
+     * @param testSize
+     *         The number of test cases of each fold
+     *
+     * @return The size of the tree and the number of misclassified test cases of each fold
+     *
+     * @throws IllegalStateException
+     *         If a fold fails or no worker is left
+     */
+    public int[][] crossValidate(DataSet dataSet, String[][] crossValidationData, int[] start, int[] testSize)
+    {
+        int[][] results = new int[start.length][2];
+        Message data = out -> writeDataSet(out, dataSet, crossValidationData);
+        List<Request> folds = new ArrayList<>(start.length);
+        for (int fold = 0; fold < start.length; fold++)
+        {
+            int f = fold;
+            folds.add(new Request()
+            {
+                @Override
+                public void send(DataOutputStream out) throws IOException
+                {
+                    out.writeByte(Protocol.C45_FOLD);
+                    out.writeInt(start[f]);
+                    out.writeInt(testSize[f]);
+                }
+
+                @Override
+                public void receive(DataInputStream in) throws IOException
+                {
+                    results[f][0] = in.readInt();
+                    results[f][1] = in.readInt();
+                }
+            });
+        }
+        execute(data, folds);
+        return results;
+    }
+
+    /**
+     * Ships the data to every worker and hands out the folds until all of them are processed. Folds of workers whose
+     * connection broke are handed out again to the remaining workers.
+     */
+    private void execute(Message data, List<Request> folds)
+    {
+        Queue<Request> pending = new ConcurrentLinkedQueue<>(folds);
+        while (!pending.isEmpty())
+        {
+            List<Connection> alive = new ArrayList<>();
+            for (Connection connection : this.connections)
+            {
+                if (connection.isAlive())
+                {
+                    alive.add(connection);
+                }
+            }
+            if (alive.isEmpty())
+            {
+                throw new IllegalStateException("No worker left to cross-validate " + pending.size() + " folds");
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(alive.size());
+            try
+            {
+                List<Future<?>> futures = new ArrayList<>(alive.size());
+                for (Connection connection : alive)
+                {
+                    futures.add(executor.submit(() -> connection.process(data, pending)));
+                }
+                ExecutionException failure = null;
+                for (Future<?> future : futures)
+                {
+                    try
+                    {
+                        future.get();
+                    }
+                    catch (ExecutionException e)
+                    {
+                        // the other workers finish their current fold, so their connections stay usable
+                        pending.clear();
+                        failure = failure != null ? failure : e;
+                    }
+                }
+                if (failure != null)
+                {
+                    throw new IllegalStateException("Distributed cross-validation failed", failure.getCause());
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Distributed cross-validation got interrupted", e);
+            }
+            finally
+            {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Writes the training data of a SVM in compressed sparse row format and its assignment to folds.
+     */
+    private static void writeProblem(DataOutputStream out, Problem prob, CsrMatrix matrix, int[] perm,
+                                     int[] fold_start) throws IOException
+    {
+        int l = prob.numInstances;
+        int nnz = (int) matrix.nnz();
+        int maxIndex = prob.getMaxIndex();
+        for (int i = 0; i < l; i++)
+        {
+            // problems assembled by hand do not track their highest index
+            CsrMatrix block = matrix.block(i);
+            int r = matrix.blockRow(i);
+            for (int k = block.start(r), end = block.end(r); k < end; k++)
+            {
+                maxIndex = Math.max(maxIndex, block.index(k));
+            }
+        }
+        boolean singlePrecision = matrix.isSinglePrecision();
+        out.writeByte(Protocol.SVM_PROBLEM);
+        out.writeInt(l);
+        out.writeInt(maxIndex);
+        out.writeInt(nnz);
+        out.writeBoolean(singlePrecision);
+        for (int i = 0; i < l; i++)
+        {
+            out.writeDouble(prob.y.get(i));
+        }
+        // the positions of a matrix of multiple blocks are defined per block, so the rows are sent one by one
+        int position = 0;
+        for (int i = 0; i < l; i++)
+        {
+            CsrMatrix block = matrix.block(i);
+            int r = matrix.blockRow(i);
+            out.writeInt(position);
+            position += block.end(r) - block.start(r);
+        }
+        out.writeInt(nnz);
+        for (int i = 0; i < l; i++)
+        {
+            CsrMatrix block = matrix.block(i);
+            int r = matrix.blockRow(i);
+            for (int k = block.start(r), end = block.end(r); k < end; k++)
+            {
+                out.writeInt(block.index(k));
+            }
+        }
+        for (int i = 0; i < l; i++)
+        {
+            CsrMatrix block = matrix.block(i);
+            int r = matrix.blockRow(i);
+            for (int k = block.start(r), end = block.end(r); k < end; k++)
+            {
+                // single precision values are shipped as they are stored, so the workers train on the same values
+                if (singlePrecision)
+                {
+                    out.writeFloat((float) block.value(k));
+                }
+                else
+                {
+                    out.writeDouble(block.value(k));
+                }
+            }
+        }
+        out.writeInt(fold_start.length - 1);
+        Protocol.writeInts(out, perm, l);
+        Protocol.writeInts(out, fold_start, fold_start.length);
+    }
+
+    /**
+     * Writes the description and the cross validation cases of a C4.5 data set.
+     */
+    private static void writeDataSet(DataOutputStream out, DataSet dataSet, String[][] data) throws IOException
+    {
+        MetaData metaData = dataSet.getMetaData();
+        int attributeCount = metaData.getAttributeCount();
+        out.writeByte(Protocol.C45_DATA);
+        Protocol.writeString(out, dataSet.getName());
+        Protocol.writeStrings(out, dataSet.getClassValues());
+        out.writeInt(dataSet.getClassAttributeIndex());
+        out.writeInt(attributeCount);
+        for (int i = 0; i < attributeCount; i++)
+        {
+            Protocol.writeString(out, metaData.getAttributeNameAt(i));
+            out.writeBoolean(metaData.isAttributeContinuousAt(i));
+            Protocol.writeStrings(out, metaData.getAttributeNominalValuesAt(i));
+        }
+        out.writeInt(data.length);
+        for (String[] row : data)
+        {
+            Protocol.writeStrings(out, row);
+        }
+    }
+
+    /**
+     * Closes the connections to all workers. The workers keep running and accept further coordinators.
+     */
+    @Override
+    public void close()
+    {
+        for (Connection connection : this.connections)
+        {
+            connection.close();
+        }
+    }
+
+    /**
+     * Writes a message to a worker. The message is written to the connection of every worker separately, so the data
+     * is streamed to the workers instead of being held in memory a second time.
+     */
+    private interface Message
+    {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * A fold sent to a worker, which receives the result of the fold if the worker succeeded.
+     */
+    private interface Request
+    {
+        void send(DataOutputStream out) throws IOException;
+
+        void receive(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * The connection to a worker.
+     */
+    private static class Connection
+    {
+        private final InetSocketAddress address;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        /** The data the worker currently holds **/
+        private Message data;
+        private volatile boolean alive = true;
+
+        Connection(InetSocketAddress address, int timeout) throws IOException
+        {
+            this.address = address;
+            this.socket = new Socket();
+            try
+            {
+                this.socket.connect(address, Protocol.READ_TIMEOUT);
+                this.socket.setSoTimeout(timeout);
+            }
+            catch (IOException e)
+            {
+                this.socket.close();
+                throw e;
+            }
+            this.socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream(), 1 << 16));
+            this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream(), 1 << 16));
+            try
+            {
+                this.out.writeInt(Protocol.MAGIC);
+                this.out.writeInt(Protocol.VERSION);
+                this.out.flush();
+                receiveStatus();
+            }
+            catch (IOException | IllegalStateException e)
+            {
+                this.socket.close();
+                throw new IOException("Handshake with worker " + address + " failed", e);
+            }
+        }
+
+        boolean isAlive()
+        {
+            return this.alive;
+        }
+
+        /**
+         * Ships the data to the worker unless it already holds it and sends pending folds to the worker until none is
+         * left. A fold whose connection breaks is put back into the queue.
+         */
+        void process(Message data, Queue<Request> pending)
+        {
+            Request fold = null;
+            try
+            {
+                if (this.data != data)
+                {
+                    data.write(this.out);
+                    this.out.flush();
+                    receiveStatus();
+                    this.data = data;
+                }
+                while ((fold = pending.poll()) != null)
+                {
+                    call(fold);
+                    fold = null;
+                }
+            }
+            catch (IOException e)
+            {
+                LOG.warn("Lost connection to worker {}", this.address, e);
+                close();
+                if (fold != null)
+                {
+                    pending.add(fold);
+                }
+            }
+        }
+
+        private void call(Request request) throws IOException
+        {
+            request.send(this.out);
+            this.out.flush();
+            receiveStatus();
+            request.receive(this.in);
+        }
+
+        private void receiveStatus() throws IOException
+        {
+            if (this.in.readByte() != Protocol.OK)
+            {
+                throw new IllegalStateException("Worker " + this.address + " failed: " + this.in.readUTF());
+            }
+        }
+
+        void close()
+        {
+            if (!this.alive)
+            {
+                return;
+            }
+            this.alive = false;
+            try
+            {
+                this.out.writeByte(Protocol.CLOSE);
+                this.out.flush();
+            }
+            catch (IOException e)
+            {
+                // the connection is already broken
+            }
+            try
+            {
+                this.socket.close();
+            }
+            catch (IOException e)
+            {
+                LOG.debug("Could not close the connection to worker {}", this.address, e);
+            }
+        }
+    }
+}
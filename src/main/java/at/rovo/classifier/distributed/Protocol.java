@@ -0,0 +1,298 @@
+package at.rovo.classifier.distributed;
+
+import at.rovo.classifier.svm.KernelType;
+import at.rovo.classifier.svm.SVMType;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Scaling;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The messages exchanged between a {@link Coordinator} and its {@link Worker}s.
+ * <p>
+ * A connection starts with the coordinator sending <code>int magic, int version</code>. Afterwards the coordinator
+ * sends requests, each starting with a type byte, and the worker answers every request with a status byte, which is
+ * followed by the result of the request on {@link #OK} and by a UTF string describing the failure on {@link #ERROR}.
+ * All values are written in the big endian byte order of {@link DataOutputStream}:
+ * <ul>
+ * <li>{@link #SVM_PROBLEM}: <code>int l, int maxIndex, int nnz, boolean singlePrecision, double labels[l], int
+ * rowPtr[l+1], int indices[nnz], double|float values[nnz], int nrFold, int perm[l], int foldStart[nrFold+1]</code>,
+ * the training data in compressed sparse row format and its assignment to folds, where the values are floats if
+ * <code>singlePrecision</code> is set. Answered without a result</li>
+ * <li>{@link #SVM_FOLD}: <code>parameter, int fold, int nrC, double C[nrC], boolean warmStart</code>, where the
+ * parameters are written field by field, see {@link #writeParameter(DataOutputStream, Parameter)}. Answered by the
+ * predictions <code>double target[nrC][m]</code> of the m instances of the fold in the order of the permutation</li>
+ * <li>{@link #C45_DATA}: the name, class values, class attribute index, meta data and cross validation cases of a data
+ * set, where arrays are prefixed by their length and a length of -1 marks a <em>null</em> array. Answered without a
+ * result</li>
+ * <li>{@link #C45_FOLD}: <code>int start, int testSize</code>. Answered by <code>int treeSize, int
+ * testError</code></li>
+ * <li>{@link #CLOSE}: ends the connection without an answer</li>
+ * </ul>
+ * A worker keeps the data of the last {@link #SVM_PROBLEM} and {@link #C45_DATA} request of a connection, so the data
+ * is only shipped once for all folds.
+ * <p>
+ * Every received length is checked before anything is allocated, and arrays grow with the values actually received,
+ * so a malformed request can not make a worker allocate more memory than the request contains.
+ *
+ * @author Roman Vottner
+ */
+final class Protocol
+{
+    /** Identifies a connection of a coordinator **/
+    static final int MAGIC = 0x52435644;
+    /** The version of the protocol **/
+    static final int VERSION = 2;
+    /** The port a worker listens on by default **/
+    static final int DEFAULT_PORT = 7437;
+    /** The milliseconds to wait for a connection or for the next part of a message which is being transferred **/
+    static final int READ_TIMEOUT = 60000;
+    /** The maximum length of an array **/
+    static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+    /** The number of values an array is grown by while it is read **/
+    private static final int CHUNK = 1 << 16;
+
+    static final byte CLOSE = 0;
+    static final byte SVM_PROBLEM = 1;
+    static final byte SVM_FOLD = 2;
+    static final byte C45_DATA = 3;
+    static final byte C45_FOLD = 4;
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    private Protocol()
+    {
+
+    }
+
+    /**
+     * Writes the parameters of a SVM field by field. Transient fields like a shared kernel cache and the settings of
+     * the command line tools, like the names of the input files, are not transferred.
+     */
+    static void writeParameter(DataOutputStream out, Parameter param) throws IOException
+    {
+        out.writeInt(param.svmType.valueOf());
+        out.writeInt(param.kernelType.valueOf());
+        out.writeInt(param.degree);
+        out.writeDouble(param.gamma);
+        out.writeDouble(param.coef0);
+        out.writeDouble(param.cache_size);
+        out.writeDouble(param.eps);
+        out.writeDouble(param.C);
+        out.writeInt(param.nrWeight);
+        writeInts(out, param.weightLabel, param.nrWeight);
+        writeDoubles(out, param.weight, param.nrWeight);
+        out.writeDouble(param.nu);
+        out.writeDouble(param.p);
+        out.writeInt(param.shrinking);
+        out.writeInt(param.probability);
+        out.writeInt(param.linearSolver);
+        out.writeDouble(param.linearEps);
+        out.writeInt(param.multiClass);
+        out.writeInt(param.singlePrecision);
+        out.writeInt(param.nrThreads);
+        out.writeInt(param.approximation);
+        out.writeInt(param.approximationSize);
+        out.writeBoolean(param.scaling != null);
+        if (param.scaling != null)
+        {
+            out.writeDouble(param.scaling.getLower());
+            out.writeDouble(param.scaling.getUpper());
+            double[] min = param.scaling.getMin();
+            double[] max = param.scaling.getMax();
+            out.writeInt(min != null ? min.length : -1);
+            if (min != null)
+            {
+                writeDoubles(out, min, min.length);
+                writeDoubles(out, max, max.length);
+            }
+        }
+    }
+
+    static Parameter readParameter(DataInputStream in) throws IOException
+    {
+        Parameter param = new Parameter();
+        param.svmType = SVMType.get(readLength(in, SVMType.length() - 1));
+        param.kernelType = KernelType.get(readLength(in, KernelType.length() - 1));
+        param.degree = in.readInt();
+        param.gamma = in.readDouble();
+        param.coef0 = in.readDouble();
+        param.cache_size = in.readDouble();
+        param.eps = in.readDouble();
+        param.C = in.readDouble();
+        param.nrWeight = readLength(in, MAX_LENGTH);
+        param.weightLabel = readInts(in, param.nrWeight);
+        param.weight = readDoubles(in, param.nrWeight);
+        param.nu = in.readDouble();
+        param.p = in.readDouble();
+        param.shrinking = in.readInt();
+        param.probability = in.readInt();
+        param.linearSolver = in.readInt();
+        param.linearEps = in.readDouble();
+        param.multiClass = in.readInt();
+        param.singlePrecision = in.readInt();
+        param.nrThreads = in.readInt();
+        param.approximation = in.readInt();
+        param.approximationSize = in.readInt();
+        if (in.readBoolean())
+        {
+            double lower = in.readDouble();
+            double upper = in.readDouble();
+            int n = in.readInt();
+            if (n < -1 || n > MAX_LENGTH)
+            {
+                throw new IOException("Invalid length " + n);
+            }
+            double[] min = n >= 0 ? readDoubles(in, n) : null;
+            double[] max = n >= 0 ? readDoubles(in, n) : null;
+            try
+            {
+                param.scaling = new Scaling(lower, upper, min, max);
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new IOException("Invalid scaling", e);
+            }
+        }
+        return param;
+    }
+
+    /**
+     * Reads a length or an index and checks that it is within [0, max].
+     *
+     * @throws IOException
+     *         If the value is out of range
+     */
+    static int readLength(DataInputStream in, int max) throws IOException
+    {
+        int n = in.readInt();
+        if (n < 0 || n > max)
+        {
+            throw new IOException("Invalid length " + n + ", expected a value from 0 to " + max);
+        }
+        return n;
+    }
+
+    static void writeInts(DataOutputStream out, int[] values, int n) throws IOException
+    {
+        for (int i = 0; i < n; i++)
+        {
+            out.writeInt(values[i]);
+        }
+    }
+
+    /**
+     * Reads n values, where the array is grown with the values received instead of being allocated upfront.
+     */
+    static int[] readInts(DataInputStream in, int n) throws IOException
+    {
+        int[] values = new int[Math.min(n, CHUNK)];
+        for (int i = 0; i < n; i++)
+        {
+            if (i == values.length)
+            {
+                values = Arrays.copyOf(values, grow(i, n));
+            }
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    static void writeDoubles(DataOutputStream out, double[] values, int n) throws IOException
+    {
+        for (int i = 0; i < n; i++)
+        {
+            out.writeDouble(values[i]);
+        }
+    }
+
+    static double[] readDoubles(DataInputStream in, int n) throws IOException
+    {
+        double[] values = new double[Math.min(n, CHUNK)];
+        for (int i = 0; i < n; i++)
+        {
+            if (i == values.length)
+            {
+                values = Arrays.copyOf(values, grow(i, n));
+            }
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    static float[] readFloats(DataInputStream in, int n) throws IOException
+    {
+        float[] values = new float[Math.min(n, CHUNK)];
+        for (int i = 0; i < n; i++)
+        {
+            if (i == values.length)
+            {
+                values = Arrays.copyOf(values, grow(i, n));
+            }
+            values[i] = in.readFloat();
+        }
+        return values;
+    }
+
+    /**
+     * Returns the new length of an array of the given length, which is doubled but at most the required length.
+     */
+    private static int grow(int length, int n)
+    {
+        return (int) Math.min((long) length * 2, n);
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        out.writeBoolean(value != null);
+        if (value != null)
+        {
+            out.writeUTF(value);
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeStrings(DataOutputStream out, String[] values) throws IOException
+    {
+        if (values == null)
+        {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.length);
+        for (String value : values)
+        {
+            writeString(out, value);
+        }
+    }
+
+    static String[] readStrings(DataInputStream in) throws IOException
+    {
+        int n = in.readInt();
+        if (n < 0)
+        {
+            return null;
+        }
+        if (n > MAX_LENGTH)
+        {
+            throw new IOException("Invalid length " + n);
+        }
+        String[] values = new String[Math.min(n, CHUNK)];
+        for (int i = 0; i < n; i++)
+        {
+            if (i == values.length)
+            {
+                values = Arrays.copyOf(values, grow(i, n));
+            }
+            values[i] = readString(in);
+        }
+        return values;
+    }
+}
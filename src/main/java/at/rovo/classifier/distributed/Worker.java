@@ -0,0 +1,477 @@
+package at.rovo.classifier.distributed;
+
+import at.rovo.classifier.dataset.DataSet;
+import at.rovo.classifier.dataset.MetaData;
+import at.rovo.classifier.decissionTrees.c45.CrossValidator;
+import at.rovo.classifier.svm.Model;
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.struct.CompactProblem;
+import at.rovo.classifier.svm.struct.CsrMatrix;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Trains and evaluates the folds of cross-validations on behalf of a {@link Coordinator}.
+ * <p>
+ * A worker listens on a TCP port and serves every connection of a coordinator in its own thread. The data shipped by
+ * a coordinator is kept per connection until it is replaced or the connection is closed. A worker is started via
+ * <code>java at.rovo.classifier.distributed.Worker [port] [interface]</code> or, i.e. for workers on the local
+ * machine, via {@link #launch(int)}.
+ * <p>
+ * The protocol is neither authenticated nor encrypted, so a worker only listens on the loopback interface unless
+ * another interface is given explicitly. A worker reachable from other hosts should only be bound to an interface of
+ * a trusted network. The resources a coordinator may request for a training are limited by the worker: the number of
+ * threads to the available processors and the kernel cache to {@link #setMaxCacheSize(double)}.
+ *
+ * @author Roman Vottner
+ */
+public class Worker implements Runnable, Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    /** Accepts the connections of coordinators **/
+    private final ServerSocket serverSocket;
+    /** Serves the accepted connections **/
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    /** The largest kernel cache in megabytes a training may use, a quarter of the maximum heap by default **/
+    private volatile double maxCacheSize = Runtime.getRuntime().maxMemory() / 4. / (1 << 20);
+
+    /**
+     * Creates a new worker listening on the given port of the loopback interface, so only coordinators on the same
+     * machine can connect. Connections are accepted once the worker is {@link #run()}.
+     *
+     * @param port
+     *         The port to listen on or 0 to pick a free port
+     *
+     * @throws IOException
+     *         If the port can not be bound
+     */
+    public Worker(int port) throws IOException
+    {
+        this(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Creates a new worker listening on the given port of an interface. Connections are accepted once the worker is
+     * {@link #run()}.
+     *
+     * @param bindAddress
+     *         The address of the interface to listen on or the wildcard address to listen on all interfaces
+     * @param port
+     *         The port to listen on or 0 to pick a free port
+     *
+     * @throws IOException
+     *         If the port can not be bound
+     */
+    public Worker(InetAddress bindAddress, int port) throws IOException
+    {
+        this.serverSocket = new ServerSocket(port, 0, bindAddress);
+    }
+
+    /**
+     * Returns the port this worker is listening on.
+     *
+     * @return The port of the worker
+     */
+    public int getPort()
+    {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * Limits the kernel cache of every training on this worker. Coordinators requesting a larger cache get a cache of
+     * this size. As every connection trains its folds concurrently, the limit should leave room for the caches of
+     * all coordinators.
+     *
+     * @param megabytes
+     *         The largest kernel cache of a training in megabytes
+     */
+    public void setMaxCacheSize(double megabytes)
+    {
+        if (!(megabytes > 0))
+        {
+            throw new IllegalArgumentException("The cache size must be positive");
+        }
+        this.maxCacheSize = megabytes;
+    }
+
+    /**
+     * Restricts the resources requested by the parameters of a coordinator to the limits of this worker. The worker
+     * applies this to the parameters of every fold it trains.
+     *
+     * @param param
+     *         The parameters whose number of threads and cache size are reduced to the limits of this worker
+     */
+    public void limit(Parameter param)
+    {
+        param.nrThreads = Math.min(param.nrThreads, Runtime.getRuntime().availableProcessors());
+        double maxCacheSize = this.maxCacheSize;
+        if (!(param.cache_size <= maxCacheSize))
+        {
+            param.cache_size = maxCacheSize;
+        }
+    }
+
+    /**
+     * Accepts connections of coordinators until the worker is closed.
+     */
+    @Override
+    public void run()
+    {
+        while (!this.serverSocket.isClosed())
+        {
+            try
+            {
+                Socket socket = this.serverSocket.accept();
+                this.executor.execute(() -> serve(socket));
+            }
+            catch (IOException e)
+            {
+                if (!this.serverSocket.isClosed())
+                {
+                    LOG.warn("Could not accept a connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections and aborts the connections being served.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        this.serverSocket.close();
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Processes the requests of a coordinator until it closes the connection. A connection may be idle for any time
+     * between two requests, but a coordinator which stalls while sending a request is dropped.
+     */
+    private void serve(Socket socket)
+    {
+        try (Socket s = socket)
+        {
+            s.setTcpNoDelay(true);
+            s.setSoTimeout(Protocol.READ_TIMEOUT);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16));
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != Protocol.MAGIC || version != Protocol.VERSION)
+            {
+                out.writeByte(Protocol.ERROR);
+                out.writeUTF("Unsupported protocol " + Integer.toHexString(magic) + " version " + version);
+                out.flush();
+                return;
+            }
+            out.writeByte(Protocol.OK);
+            out.flush();
+
+            Session session = new Session(this);
+            while (true)
+            {
+                s.setSoTimeout(0);
+                byte type = in.readByte();
+                if (type == Protocol.CLOSE)
+                {
+                    break;
+                }
+                s.setSoTimeout(Protocol.READ_TIMEOUT);
+                session.process(type, in, out);
+                out.flush();
+            }
+        }
+        catch (EOFException e)
+        {
+            LOG.debug("Coordinator {} disconnected", socket.getRemoteSocketAddress());
+        }
+        catch (IOException e)
+        {
+            LOG.warn("Connection to coordinator {} failed", socket.getRemoteSocketAddress(), e);
+        }
+    }
+
+    /**
+     * Starts a worker in a new JVM on the local machine, which uses the class path of this JVM and listens on the
+     * loopback interface.
+     *
+     * @param port
+     *         The port the worker should listen on
+     *
+     * @return The process of the worker, which has to be destroyed once the worker is not needed anymore
+     *
+     * @throws IOException
+     *         If the JVM can not be started
+     */
+    public static Process launch(int port) throws IOException
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Worker.class.getName(),
+                                  String.valueOf(port)).inheritIO().start();
+    }
+
+    /**
+     * Runs a worker until the JVM is terminated.
+     * <br>
+     * Usage: java Worker [port] [interface], where the worker listens on the loopback interface if no interface is
+     * given and on all interfaces if the interface is 0.0.0.0
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Protocol.DEFAULT_PORT;
+        InetAddress bindAddress = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+        try (Worker worker = new Worker(bindAddress, port))
+        {
+            System.out.println("Worker listening on " + bindAddress.getHostAddress() + ":" + worker.getPort());
+            worker.run();
+        }
+    }
+
+    /**
+     * The data shipped by a coordinator over one connection.
+     */
+    private static class Session
+    {
+        /** The worker limiting the requested resources **/
+        private final Worker worker;
+        private Problem prob;
+        private int[] perm;
+        private int[] fold_start;
+        private DataSet dataSet;
+        private String[][] crossValidationData;
+
+        Session(Worker worker)
+        {
+            this.worker = worker;
+        }
+
+        /**
+         * Reads a request and writes its answer. A request which fails on this worker is answered with an error, so
+         * the coordinator can decide how to continue.
+         */
+        void process(byte type, DataInputStream in, DataOutputStream out) throws IOException
+        {
+            switch (type)
+            {
+                case Protocol.SVM_PROBLEM:
+                    readProblem(in);
+                    out.writeByte(Protocol.OK);
+                    break;
+                case Protocol.SVM_FOLD:
+                    Parameter param = Protocol.readParameter(in);
+                    this.worker.limit(param);
+                    int fold = Protocol.readLength(in, this.fold_start != null ? this.fold_start.length - 2 : 0);
+                    double[] C = Protocol.readDoubles(in, Protocol.readLength(in, Protocol.MAX_LENGTH));
+                    boolean warmStart = in.readBoolean();
+                    double[][] target;
+                    try
+                    {
+                        target = trainFold(param, fold, C, warmStart);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        fail(out, "SVM fold " + fold, e);
+                        break;
+                    }
+                    out.writeByte(Protocol.OK);
+                    for (double[] t : target)
+                    {
+                        for (int j = this.fold_start[fold]; j < this.fold_start[fold + 1]; j++)
+                        {
+                            out.writeDouble(t[this.perm[j]]);
+                        }
+                    }
+                    break;
+                case Protocol.C45_DATA:
+                    readDataSet(in);
+                    out.writeByte(Protocol.OK);
+                    break;
+                case Protocol.C45_FOLD:
+                    int cases = this.crossValidationData != null ? this.crossValidationData.length : 0;
+                    int start = Protocol.readLength(in, Math.max(cases - 1, 0));
+                    int testSize = Protocol.readLength(in, cases);
+                    int[] result;
+                    try
+                    {
+                        if (this.dataSet == null)
+                        {
+                            throw new IllegalStateException("No data set received");
+                        }
+                        result = CrossValidator.validateFold(this.dataSet, this.crossValidationData, start, testSize);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        fail(out, "C4.5 fold starting at " + start, e);
+                        break;
+                    }
+                    out.writeByte(Protocol.OK);
+                    out.writeInt(result[0]);
+                    out.writeInt(result[1]);
+                    break;
+                default:
+                    throw new IOException("Unknown request " + type);
+            }
+        }
+
+        /**
+         * Trains the fold for all values of C and returns the predictions of every model.
+         */
+        private double[][] trainFold(Parameter param, int fold, double[] C, boolean warmStart)
+        {
+            if (this.prob == null)
+            {
+                throw new IllegalStateException("No problem received");
+            }
+            SVM svm = new SVM(param, this.prob);
+            double[][] target = new double[C.length][this.prob.numInstances];
+            Model previous = null;
+            for (int c = 0; c < C.length; c++)
+            {
+                Parameter p = (Parameter) param.clone();
+                p.C = C[c];
+                previous = svm.trainFold(p, this.perm, this.fold_start, fold, target[c], warmStart ? previous : null);
+            }
+            return target;
+        }
+
+        private static void fail(DataOutputStream out, String request, RuntimeException e) throws IOException
+        {
+            LOG.warn("{} failed", request, e);
+            out.writeByte(Protocol.ERROR);
+            out.writeUTF(request + " failed: " + e);
+        }
+
+        /**
+         * Reads the training data of a SVM, which replaces the previous one.
+         *
+         * @throws IOException
+         *         If the data is inconsistent, i.e. if the rows or folds are not ordered or if the permutation refers
+         *         to an unknown instance
+         */
+        private void readProblem(DataInputStream in) throws IOException
+        {
+            this.prob = null;
+            this.perm = null;
+            this.fold_start = null;
+            int l = Protocol.readLength(in, Protocol.MAX_LENGTH - 1);
+            int maxIndex = Protocol.readLength(in, Integer.MAX_VALUE);
+            int nnz = Protocol.readLength(in, Protocol.MAX_LENGTH);
+            boolean singlePrecision = in.readBoolean();
+            double[] labels = Protocol.readDoubles(in, l);
+            int[] rowPtr = Protocol.readInts(in, l + 1);
+            checkAscending(rowPtr, nnz, "row");
+            int[] indices = Protocol.readInts(in, nnz);
+            for (int index : indices)
+            {
+                if (index < 1 || index > maxIndex)
+                {
+                    throw new IOException("Invalid feature index " + index);
+                }
+            }
+            CsrMatrix matrix = singlePrecision ? new CsrMatrix(rowPtr, indices, Protocol.readFloats(in, nnz))
+                                               : new CsrMatrix(rowPtr, indices, Protocol.readDoubles(in, nnz));
+            int nr_fold = Protocol.readLength(in, Math.max(l, 1));
+            int[] perm = Protocol.readInts(in, l);
+            for (int i : perm)
+            {
+                if (i < 0 || i >= l)
+                {
+                    throw new IOException("Invalid instance " + i);
+                }
+            }
+            int[] fold_start = Protocol.readInts(in, nr_fold + 1);
+            checkAscending(fold_start, l, "fold");
+            this.perm = perm;
+            this.fold_start = fold_start;
+            this.prob = new CompactProblem(matrix, labels, maxIndex);
+        }
+
+        /**
+         * Checks that the start positions of rows or folds start with 0, do not decrease and end with the given size.
+         */
+        private static void checkAscending(int[] start, int size, String name) throws IOException
+        {
+            if (start[0] != 0 || start[start.length - 1] != size)
+            {
+                throw new IOException("The " + name + "s do not cover the range from 0 to " + size);
+            }
+            for (int i = 1; i < start.length; i++)
+            {
+                if (start[i] < start[i - 1])
+                {
+                    throw new IOException("The " + name + "s are not ordered");
+                }
+            }
+        }
+
+        /**
+         * Reads the description and the cross validation cases of a C4.5 data set, which replace the previous ones.
+         */
+        private void readDataSet(DataInputStream in) throws IOException
+        {
+            this.dataSet = null;
+            this.crossValidationData = null;
+            DataSet dataSet = new ReceivedDataSet(Protocol.readString(in));
+            dataSet.setClassValues(Protocol.readStrings(in));
+            dataSet.setClassAttributeIndex(in.readInt());
+            int attributeCount = Protocol.readLength(in, Protocol.MAX_LENGTH);
+            List<String> names = new ArrayList<>();
+            List<Boolean> continuous = new ArrayList<>();
+            List<String[]> nominalValues = new ArrayList<>();
+            for (int i = 0; i < attributeCount; i++)
+            {
+                names.add(Protocol.readString(in));
+                continuous.add(in.readBoolean());
+                nominalValues.add(Protocol.readStrings(in));
+            }
+            dataSet.setMetaData(new MetaData(names.toArray(new String[attributeCount]),
+                                             continuous.toArray(new Boolean[attributeCount]),
+                                             nominalValues.toArray(new String[attributeCount][])));
+            int caseCount = Protocol.readLength(in, Protocol.MAX_LENGTH);
+            List<String[]> data = new ArrayList<>(Math.min(caseCount, 1 << 16));
+            for (int i = 0; i < caseCount; i++)
+            {
+                data.add(Protocol.readStrings(in));
+            }
+            this.crossValidationData = data.toArray(new String[caseCount][]);
+            this.dataSet = dataSet;
+        }
+    }
+
+    /**
+     * A data set which is received from a coordinator instead of being loaded from files.
+     */
+    private static class ReceivedDataSet extends DataSet
+    {
+        ReceivedDataSet(String name)
+        {
+            super(name != null ? name : "");
+        }
+
+        @Override
+        public void load(String baseName)
+        {
+            // the content is received from the coordinator
+        }
+    }
+}
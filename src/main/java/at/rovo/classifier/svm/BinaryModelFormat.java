@@ -0,0 +1,513 @@
+package at.rovo.classifier.svm;
+
+import at.rovo.classifier.svm.struct.CsrMatrix;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Scaling;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes {@link Model}s in a binary format which can be memory mapped. In contrast to the text format of
+ * libSVM no parsing is required on loading a model. The support vectors are kept in compressed sparse row format inside
+ * the mapped file and are used directly by the prediction. As the squared norms and shifts the prediction requires are
+ * stored along with the support vectors, loading a model reads only the offsets of the rows of the support vectors,
+ * while their features are paged in by the operating system once they are accessed. Only linear models read all
+ * support vectors on loading, as they are collapsed into weight vectors, see {@link Model#collapseLinear()}.
+ * <p>
+ * All values are stored in little endian byte order. A file consists of the following sections, where every section
+ * starts at an offset which is a multiple of 8:
+ * <p>
+ * <code> int magic, int version, int svm_type, int kernel_type, int degree, int nr_class, int total_sv, int flags,
+ * double gamma, double coef0, long nnz<br/> double rho[k*(k-1)/2]<br/> double probA[k*(k-1)/2] (optional)<br/> double
+ * probB[k*(k-1)/2] (optional)<br/> int label[k] (optional)<br/> int nr_sv[k] (optional)<br/> int sv_indices[l]
+ * (optional)<br/> double sv_coef[k-1][l]<br/> double values[nnz]<br/> int row_ptr[l+1]<br/> int indices[nnz]<br/>
+ * </code>
+ * <p>
+ * One-vs-rest models are marked by a flag and store k instead of k*(k-1)/2 values of rho, probA and probB as well as
+ * k rows of sv_coef.
+ * <p>
+ * Models whose support vectors are stored in single precision are marked by a flag and store <code>float
+ * values[nnz]</code> instead of double values.
+ * <p>
+ * Models which scale their features are marked by another flag and continue with <code>double lower, double upper,
+ * long n, double min[n], double max[n]</code>.
+ * <p>
+ * Models whose prediction evaluates the kernel via dot products are marked by a flag and end with <code>long
+ * max_index, double sv_square[l], double sv_shift[l]</code>, the highest feature index, the squared norm and the shift
+ * of the (scaled) support vectors.
+ *
+ * @author Roman Vottner
+ */
+final class BinaryModelFormat
+{
+    /** The first four bytes of every binary model file ("RSVM") **/
+    static final int MAGIC = 0x4D565352;
+    /** The version of the format written by this class **/
+    static final int VERSION = 2;
+
+    private static final int HAS_PROB_A = 1;
+    private static final int HAS_PROB_B = 1 << 1;
+    private static final int HAS_LABEL = 1 << 2;
+    private static final int HAS_NR_SV = 1 << 3;
+    private static final int HAS_SV_INDICES = 1 << 4;
+    private static final int ONE_VS_REST = 1 << 5;
+    private static final int HAS_SCALING = 1 << 6;
+    private static final int SINGLE_PRECISION = 1 << 7;
+    private static final int HAS_NORMS = 1 << 8;
+
+    /** The size of the fixed part of the header in bytes **/
+    private static final int HEADER_SIZE = 56;
+    /** The size of the buffer used on writing a model **/
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private BinaryModelFormat()
+    {
+
+    }
+
+    /**
+     * Checks whether the file starts with the magic number of the binary model format.
+     *
+     * @param modelFileName
+     *         The name of the file to check
+     *
+     * @return <em>true</em> if the file contains a binary model
+     *
+     * @throws IOException
+     *         If the file could not be read
+     */
+    static boolean isBinary(String modelFileName) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(modelFileName), StandardOpenOption.READ))
+        {
+            ByteBuffer buf = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (buf.hasRemaining() && channel.read(buf) >= 0)
+            {
+                // read until the magic number is complete or the end of the file is reached
+            }
+            return !buf.hasRemaining() && buf.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Writes the model to the given file.
+     *
+     * @param model
+     *         The model to persist
+     * @param modelFileName
+     *         The name of the file to write the model to
+     *
+     * @throws IOException
+     *         If the file could not be written
+     */
+    static void write(Model model, String modelFileName) throws IOException
+    {
+        Parameter param = model.param;
+        int nr_class = model.nrClass;
+        int l = model.numInstances;
+        int pairs = model.nrDecisionFunctions();
+        CsrMatrix sv = model.svMatrix();
+
+        int flags = 0;
+        flags |= model.probA != null ? HAS_PROB_A : 0;
+        flags |= model.probB != null ? HAS_PROB_B : 0;
+        flags |= model.label != null ? HAS_LABEL : 0;
+        flags |= model.nSV != null ? HAS_NR_SV : 0;
+        flags |= model.svIndices != null ? HAS_SV_INDICES : 0;
+        flags |= model.oneVsRest ? ONE_VS_REST : 0;
+        flags |= param.scaling != null ? HAS_SCALING : 0;
+        flags |= sv.isSinglePrecision() ? SINGLE_PRECISION : 0;
+        flags |= model.svSquare != null ? HAS_NORMS : 0;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(modelFileName), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            Writer out = new Writer(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(param.svmType.ordinal());
+            out.putInt(param.kernelType.ordinal());
+            out.putInt(param.degree);
+            out.putInt(nr_class);
+            out.putInt(l);
+            out.putInt(flags);
+            out.putDouble(param.gamma);
+            out.putDouble(param.coef0);
+            out.putLong(sv.nnz());
+
+            out.putDoubles(model.rho, pairs);
+            if (model.probA != null)
+            {
+                out.putDoubles(model.probA, pairs);
+            }
+            if (model.probB != null)
+            {
+                out.putDoubles(model.probB, pairs);
+            }
+            if (model.label != null)
+            {
+                out.putInts(model.label, nr_class);
+            }
+            if (model.nSV != null)
+            {
+                out.putInts(model.nSV, nr_class);
+            }
+            if (model.svIndices != null)
+            {
+                out.putInts(model.svIndices, l);
+            }
+
+            for (double[] coef : model.svCoef)
+            {
+                out.putDoubles(coef, l);
+            }
+            int nnz = (int) sv.nnz();
+            for (int k = 0; k < nnz; k++)
+            {
+                if (sv.isSinglePrecision())
+                {
+                    out.putFloat((float) sv.value(k));
+                }
+                else
+                {
+                    out.putDouble(sv.value(k));
+                }
+            }
+            out.align();
+            for (int i = 0; i < l; i++)
+            {
+                out.putInt(sv.start(i));
+            }
+            out.putInt(nnz);
+            out.align();
+            int maxIndex = -1;
+            for (int k = 0; k < nnz; k++)
+            {
+                out.putInt(sv.index(k));
+                maxIndex = Math.max(maxIndex, sv.index(k));
+            }
+            out.align();
+            if (param.scaling != null)
+            {
+                double[] min = param.scaling.getMin();
+                out.putDouble(param.scaling.getLower());
+                out.putDouble(param.scaling.getUpper());
+                out.putLong(min.length);
+                out.putDoubles(min, min.length);
+                out.putDoubles(param.scaling.getMax(), min.length);
+            }
+            if (model.svSquare != null)
+            {
+                out.putLong(maxIndex);
+                out.putDoubles(model.svSquare, l);
+                out.putDoubles(model.svShift, l);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Maps the model stored in the given file into memory. The support vectors are not copied to the heap but remain
+     * inside the mapped file.
+     *
+     * @param modelFileName
+     *         The name of the file containing the binary model
+     *
+     * @return The loaded model
+     *
+     * @throws IOException
+     *         If the file could not be read or does not contain a valid binary model of a supported version
+     */
+    static Model read(String modelFileName) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(modelFileName), StandardOpenOption.READ))
+        {
+            Reader in = new Reader(channel, modelFileName);
+            ByteBuffer header = in.map(HEADER_SIZE, 1);
+            if (header.getInt() != MAGIC)
+            {
+                throw new IOException("File " + modelFileName + " does not contain a binary model");
+            }
+            int version = header.getInt();
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported binary model version " + version);
+            }
+
+            Model model = new Model();
+            Parameter param = new Parameter();
+            model.param = param;
+            int svmType = header.getInt();
+            int kernelType = header.getInt();
+            param.degree = header.getInt();
+            int nr_class = header.getInt();
+            int l = header.getInt();
+            int flags = header.getInt();
+            param.gamma = header.getDouble();
+            param.coef0 = header.getDouble();
+            long nnz = header.getLong();
+            if (svmType < 0 || svmType >= SVMType.values().length || kernelType < 0 ||
+                kernelType >= KernelType.values().length)
+            {
+                throw in.corrupt("unknown SVM or kernel type");
+            }
+            if (nr_class < 1 || l < 0 || nnz < 0 || nnz > Integer.MAX_VALUE)
+            {
+                throw in.corrupt("invalid number of classes, support vectors or features");
+            }
+            param.svmType = SVMType.get(svmType);
+            param.kernelType = KernelType.get(kernelType);
+            model.nrClass = nr_class;
+            model.numInstances = l;
+            model.oneVsRest = (flags & ONE_VS_REST) != 0;
+
+            long pairs = model.oneVsRest ? nr_class : (long) nr_class * (nr_class - 1) / 2;
+            model.rho = in.getDoubles(pairs);
+            if ((flags & HAS_PROB_A) != 0)
+            {
+                model.probA = in.getDoubles(pairs);
+            }
+            if ((flags & HAS_PROB_B) != 0)
+            {
+                model.probB = in.getDoubles(pairs);
+            }
+            if ((flags & HAS_LABEL) != 0)
+            {
+                model.label = in.getInts(nr_class);
+            }
+            if ((flags & HAS_NR_SV) != 0)
+            {
+                model.nSV = in.getInts(nr_class);
+                long total = 0;
+                for (int n : model.nSV)
+                {
+                    if (n < 0)
+                    {
+                        throw in.corrupt("negative number of support vectors");
+                    }
+                    total += n;
+                }
+                if (total != l)
+                {
+                    throw in.corrupt("the numbers of support vectors of the classes do not sum up to " + l);
+                }
+            }
+            if ((flags & HAS_SV_INDICES) != 0)
+            {
+                model.svIndices = in.getInts(l);
+            }
+
+            model.svCoef = new double[model.oneVsRest ? nr_class : nr_class - 1][];
+            for (int c = 0; c < model.svCoef.length; c++)
+            {
+                model.svCoef[c] = in.getDoubles(l);
+            }
+
+            boolean singlePrecision = (flags & SINGLE_PRECISION) != 0;
+            ByteBuffer values = in.map(nnz, singlePrecision ? 4 : 8);
+            IntBuffer rowPtr = in.map(l + 1L, 4).asIntBuffer();
+            IntBuffer indices = in.map(nnz, 4).asIntBuffer();
+            // the offsets of the rows are read on every access to a support vector, so they are checked once
+            for (int i = 0; i < l; i++)
+            {
+                if (rowPtr.get(i) < 0 || rowPtr.get(i) > rowPtr.get(i + 1))
+                {
+                    throw in.corrupt("row " + i + " of the support vectors is out of order");
+                }
+            }
+            if (rowPtr.get(0) != 0 || rowPtr.get(l) != nnz)
+            {
+                throw in.corrupt("the rows of the support vectors do not cover their " + nnz + " features");
+            }
+            model.setSupportVectors(singlePrecision ? new CsrMatrix(rowPtr, indices, values.asFloatBuffer())
+                                                    : new CsrMatrix(rowPtr, indices, values.asDoubleBuffer()));
+            param.singlePrecision = singlePrecision ? 1 : 0;
+
+            if ((flags & HAS_SCALING) != 0)
+            {
+                ByteBuffer range = in.map(3, 8);
+                double lower = range.getDouble();
+                double upper = range.getDouble();
+                long n = range.getLong();
+                double[] min = in.getDoubles(n);
+                double[] max = in.getDoubles(n);
+                param.scaling = new Scaling(lower, upper, min, max);
+            }
+
+            if ((flags & HAS_NORMS) != 0)
+            {
+                long maxIndex = in.map(1, 8).getLong();
+                if (maxIndex < -1 || maxIndex > Integer.MAX_VALUE)
+                {
+                    throw in.corrupt("invalid highest feature index " + maxIndex);
+                }
+                double[] svSquare = in.getDoubles(l);
+                double[] svShift = in.getDoubles(l);
+                model.prepare(svSquare, svShift, (int) maxIndex);
+            }
+            else
+            {
+                model.prepare();
+            }
+            return model;
+        }
+    }
+
+    /**
+     * Maps the sections of a file one after another and checks that every section is contained in the file before any
+     * memory is allocated for it.
+     */
+    private static class Reader
+    {
+        private final FileChannel channel;
+        private final String fileName;
+        private final long size;
+        private long pos = 0;
+
+        Reader(FileChannel channel, String fileName) throws IOException
+        {
+            this.channel = channel;
+            this.fileName = fileName;
+            this.size = channel.size();
+        }
+
+        /**
+         * Maps the next section of <em>count</em> elements of the given size and moves to the start of the section
+         * thereafter.
+         */
+        ByteBuffer map(long count, int elementSize) throws IOException
+        {
+            if (count < 0 || count > (this.size - this.pos) / elementSize)
+            {
+                throw new IOException("File " + this.fileName + " is truncated or corrupt");
+            }
+            long length = count * elementSize;
+            if (length > Integer.MAX_VALUE)
+            {
+                throw new IOException("Model section of " + length + " bytes exceeds the maximum mappable size");
+            }
+            ByteBuffer buf = this.channel.map(FileChannel.MapMode.READ_ONLY, this.pos, length)
+                                         .order(ByteOrder.LITTLE_ENDIAN);
+            this.pos = align(this.pos + length);
+            return buf;
+        }
+
+        double[] getDoubles(long count) throws IOException
+        {
+            ByteBuffer buf = map(count, 8);
+            double[] values = new double[(int) count];
+            buf.asDoubleBuffer().get(values);
+            return values;
+        }
+
+        int[] getInts(long count) throws IOException
+        {
+            ByteBuffer buf = map(count, 4);
+            int[] values = new int[(int) count];
+            buf.asIntBuffer().get(values);
+            return values;
+        }
+
+        IOException corrupt(String reason)
+        {
+            return new IOException("File " + this.fileName + " contains an invalid binary model: " + reason);
+        }
+    }
+
+    private static long align(long pos)
+    {
+        return (pos + 7) & ~7L;
+    }
+
+    /**
+     * Buffers the values written to a channel and keeps track of the current position in order to align sections.
+     */
+    private static class Writer
+    {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long pos = 0;
+
+        Writer(FileChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        private void ensure(int bytes) throws IOException
+        {
+            if (this.buf.remaining() < bytes)
+            {
+                this.flush();
+            }
+            this.pos += bytes;
+        }
+
+        void putInt(int value) throws IOException
+        {
+            this.ensure(4);
+            this.buf.putInt(value);
+        }
+
+        void putLong(long value) throws IOException
+        {
+            this.ensure(8);
+            this.buf.putLong(value);
+        }
+
+        void putDouble(double value) throws IOException
+        {
+            this.ensure(8);
+            this.buf.putDouble(value);
+        }
+
+        void putFloat(float value) throws IOException
+        {
+            this.ensure(4);
+            this.buf.putFloat(value);
+        }
+
+        /**
+         * Writes a section of int values, which is padded to the next multiple of 8.
+         */
+        void putInts(int[] values, int count) throws IOException
+        {
+            for (int i = 0; i < count; i++)
+            {
+                this.putInt(values[i]);
+            }
+            this.align();
+        }
+
+        void putDoubles(double[] values, int count) throws IOException
+        {
+            for (int i = 0; i < count; i++)
+            {
+                this.putDouble(values[i]);
+            }
+        }
+
+        void align() throws IOException
+        {
+            while ((this.pos & 7) != 0)
+            {
+                this.ensure(1);
+                this.buf.put((byte) 0);
+            }
+        }
+
+        void flush() throws IOException
+        {
+            this.buf.flip();
+            while (this.buf.hasRemaining())
+            {
+                this.channel.write(this.buf);
+            }
+            this.buf.clear();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package at.rovo.classifier.svm;
 
+import at.rovo.classifier.svm.struct.SolverMetrics;
 import at.rovo.classifier.svm.utils.Utils;
 
 /**
@@ -13,6 +14,16 @@ public class Cache
 {
     /** The available cache size limit in bytes **/
     private long size;
+    /** The total number of floats the cache is able to hold **/
+    private final long capacity;
+    /** The maximum number of floats held by the cache so far **/
+    private long peak;
+    /** The number of requests which could be served without computing any data **/
+    private long hits;
+    /** The number of requests which required (partly) computing the data **/
+    private long misses;
+    /** The number of entries removed from the cache in order to free space **/
+    private long evictions;
 
     private final class head_t
     {
@@ -46,6 +57,7 @@ public class Cache
         this.size -= totalDataItems * (16 / 4); // sizeof(head_t) == 16
         // cache must be large enough for two columns
         this.size = Math.max(this.size, 2 * (long) totalDataItems);
+        this.capacity = this.size;
 
         this.lruHead = new head_t();
         this.lruHead.next = this.lruHead.prev = this.lruHead;
@@ -104,6 +116,7 @@ public class Cache
         // more space is required, so we need to free some old space
         if (more > 0)
         {
+            this.misses++;
             // free old space
             while (this.size < more)
             {
@@ -112,6 +125,7 @@ public class Cache
                 this.size += old.len;
                 old.data = null;
                 old.len = 0;
+                this.evictions++;
             }
 
             // allocate new space and set the data for this element
@@ -122,11 +136,16 @@ public class Cache
             }
             h.data = new_data;
             this.size -= more;
+            this.peak = Math.max(this.peak, this.capacity - this.size);
             // swap the length
             int _i = h.len;
             h.len = len;
             len = _i;
         }
+        else
+        {
+            this.hits++;
+        }
 
         // enough space is available, so add the element with the data to the
         // end of the cache
@@ -207,8 +226,25 @@ public class Cache
                     this.size += h.len;
                     h.data = null;
                     h.len = 0;
+                    this.evictions++;
                 }
             }
         }
     }
+
+    /**
+     * Writes the current hit, miss and eviction counters as well as the occupied memory of this cache into the
+     * provided metrics instance.
+     *
+     * @param metrics
+     *         The metrics to update
+     */
+    public void updateMetrics(SolverMetrics metrics)
+    {
+        metrics.cacheHits = this.hits;
+        metrics.cacheMisses = this.misses;
+        metrics.cacheEvictions = this.evictions;
+        metrics.bytesCached = 4 * (this.capacity - this.size);
+        metrics.peakBytesCached = 4 * this.peak;
+    }
 }
\ No newline at end of file
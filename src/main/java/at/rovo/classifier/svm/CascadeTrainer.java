@@ -0,0 +1,571 @@
+package at.rovo.classifier.svm;
+
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import at.rovo.classifier.svm.struct.ProblemView;
+import at.rovo.classifier.svm.struct.SolverMetrics;
+import at.rovo.classifier.svm.struct.TrainingBudget;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Trains a support vector machine on a problem which is too large to be trained efficiently at once with a cascade of
+ * smaller SVMs (Graf et al., Parallel Support Vector Machines: The Cascade SVM, NIPS 2004).
+ * <p>
+ * The problem is split into stratified partitions which are trained independently and in parallel. Only the support
+ * vectors of each sub-SVM are passed on to the next layer, where the support vectors of two sub-SVMs are merged and
+ * trained again until a single SVM remains. As the support vectors of a layer are usually a small fraction of its
+ * training data, every training works on a problem whose kernel matrix fits into the cache.
+ * <p>
+ * The cascade may miss support vectors which were filtered in a lower layer. A feedback pass therefore checks the
+ * optimality conditions of the final solution on all samples and retrains with the samples violating them until no
+ * violations remain or the maximum number of passes is reached. For C-SVC and epsilon-SVR this yields the solution of
+ * the full problem. The constraints of the nu formulations and one-class SVMs depend on the number of training samples,
+ * so the cascade only approximates their solution. The feedback pass is not available for nu-SVR, as the width of the
+ * tube is part of its solution.
+ * <p>
+ * Each training of a layer uses a kernel cache of {@link Parameter#cache_size} megabytes, so up to nrThreads caches
+ * exist at the same time.
+ *
+ * @author Roman Vottner
+ */
+public class CascadeTrainer
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    /** The parameters of every sub-SVM **/
+    private final Parameter param;
+    /** The full training data **/
+    private final Problem prob;
+    /** The number of partitions of the first layer **/
+    private int partitions = 8;
+    /** The number of sub-SVMs trained concurrently **/
+    private int nrThreads = 1;
+    /** The maximum number of feedback passes performed after the cascade **/
+    private int maxFeedbackPasses = 5;
+    /** The seed used to partition the problem **/
+    private long seed = 0;
+    /** An optional limit of the resources all sub-SVMs may spend **/
+    private TrainingBudget budget;
+    /** The accumulated metrics of all trainings of the last run **/
+    private SolverMetrics metrics;
+
+    /**
+     * Creates a new cascade trainer for the given problem.
+     *
+     * @param param
+     *         The parameters of the SVM to train
+     * @param prob
+     *         The training data
+     */
+    public CascadeTrainer(Parameter param, Problem prob)
+    {
+        this.param = param;
+        this.prob = prob;
+    }
+
+    /**
+     * Specifies the number of partitions the problem is split into. The size of a partition should be chosen so that
+     * its kernel matrix fits into the cache.
+     *
+     * @param partitions
+     *         The number of partitions of the first layer
+     */
+    public void setPartitions(int partitions)
+    {
+        if (partitions < 1)
+        {
+            throw new IllegalArgumentException("At least one partition is required");
+        }
+        this.partitions = partitions;
+    }
+
+    /**
+     * Specifies the number of threads used to train the sub-SVMs of a layer concurrently.
+     *
+     * @param nrThreads
+     *         The number of threads
+     */
+    public void setNrThreads(int nrThreads)
+    {
+        this.nrThreads = Math.max(1, nrThreads);
+    }
+
+    /**
+     * Specifies how often the final solution is checked against all samples and retrained with the violating samples.
+     *
+     * @param maxFeedbackPasses
+     *         The maximum number of feedback passes, 0 disables the feedback
+     */
+    public void setMaxFeedbackPasses(int maxFeedbackPasses)
+    {
+        this.maxFeedbackPasses = Math.max(0, maxFeedbackPasses);
+    }
+
+    /**
+     * Specifies the seed of the random number generator which assigns the samples to partitions.
+     *
+     * @param seed
+     *         The seed of the random number generator
+     */
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Limits the resources all trainings of the cascade may spend together. The budget is started by {@link #train()};
+     * once it is exhausted, the remaining sub-SVMs keep the solutions they start from.
+     *
+     * @param budget
+     *         The budget shared by all sub-SVMs or <em>null</em> to train without limit
+     */
+    public void setTrainingBudget(TrainingBudget budget)
+    {
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the accumulated solver metrics of all sub-SVMs trained by the last invocation of {@link #train()}. In
+     * contrast to {@link Model#getMetrics()} of the returned model, which only covers the final training, these metrics
+     * include all layers and feedback passes.
+     *
+     * @return The metrics of all trainings or <em>null</em> if no training was performed yet
+     */
+    public SolverMetrics getMetrics()
+    {
+        return this.metrics;
+    }
+
+    /**
+     * Trains the cascade and returns the model of the last training. The support vector indices of the model refer to
+     * the samples of the full problem.
+     *
+     * @return The trained model
+     *
+     * @throws IllegalArgumentException
+     *         If the parameters are not feasible for the problem
+     */
+    public Model train()
+    {
+        Parameter p = (Parameter) this.param.clone();
+        if (p.gamma == 0 && this.prob.getMaxIndex() > 0)
+        {
+            p.gamma = 1.0 / this.prob.getMaxIndex();
+        }
+        if (p.scaling != null && !p.scaling.isFitted())
+        {
+            // the support vectors of all sub problems get merged, so they have to share the scaling
+            p.scaling = p.scaling.fit(this.prob);
+        }
+        String error = new SVM(p, this.prob).checkParameter();
+        if (error != null)
+        {
+            throw new IllegalArgumentException(error);
+        }
+        this.metrics = new SolverMetrics();
+        if (this.budget != null)
+        {
+            this.budget.start();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.nrThreads);
+        try
+        {
+            List<SubSVM> layer = new ArrayList<>();
+            for (int[] partition : partition(p))
+            {
+                layer.add(new SubSVM(partition, (double[]) null));
+            }
+
+            int level = 0;
+            while (true)
+            {
+                List<Future<SubSVM>> futures = new ArrayList<>(layer.size());
+                for (SubSVM node : layer)
+                {
+                    futures.add(executor.submit(() -> train(node, p)));
+                }
+                List<SubSVM> trained = new ArrayList<>(layer.size());
+                for (Future<SubSVM> future : futures)
+                {
+                    trained.add(future.get());
+                }
+                LOG.debug("Trained layer {} with {} sub-SVMs", level++, trained.size());
+                if (trained.size() == 1)
+                {
+                    layer = trained;
+                    break;
+                }
+
+                // merge the support vectors of neighbouring sub-SVMs, an odd one is passed on with its support vectors only
+                layer = new ArrayList<>((trained.size() + 1) / 2);
+                for (int i = 0; i < trained.size(); i += 2)
+                {
+                    layer.add(i + 1 < trained.size() ? merge(trained.get(i), trained.get(i + 1))
+                                                     : extend(trained.get(i), new int[0]));
+                }
+            }
+
+            SubSVM result = layer.get(0);
+            for (int pass = 0; pass < this.maxFeedbackPasses; pass++)
+            {
+                int[] violators = findViolators(result, p, executor);
+                LOG.debug("Feedback pass {} found {} violating samples", pass, violators.length);
+                if (violators.length == 0)
+                {
+                    break;
+                }
+                result = train(extend(result, violators), p);
+            }
+
+            Model model = result.model;
+            for (int k = 0; k < model.numInstances; k++)
+            {
+                model.svIndices[k] = result.samples[model.svIndices[k] - 1] + 1;
+            }
+            return model;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Cascade training got interrupted", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Cascade training failed", e.getCause());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Splits the samples into partitions. Samples of the same class are distributed evenly among the partitions, so
+     * every sub-SVM is trained with all classes if possible.
+     */
+    private List<int[]> partition(Parameter p)
+    {
+        int l = this.prob.numInstances;
+        int parts = Math.max(1, Math.min(this.partitions, l));
+        Random random = new Random(this.seed);
+
+        // group the samples by class, regression problems use a single group
+        Map<Double, List<Integer>> groups = new LinkedHashMap<>();
+        boolean classification = SVMType.C_SVC.equals(p.svmType) || SVMType.NU_SVC.equals(p.svmType);
+        for (int i = 0; i < l; i++)
+        {
+            Double key = classification ? this.prob.y.get(i) : 0.;
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+        }
+
+        List<List<Integer>> members = new ArrayList<>(parts);
+        for (int i = 0; i < parts; i++)
+        {
+            members.add(new ArrayList<>(l / parts + 1));
+        }
+        int next = 0;
+        for (List<Integer> group : groups.values())
+        {
+            int[] order = new int[group.size()];
+            for (int i = 0; i < order.length; i++)
+            {
+                int j = random.nextInt(i + 1);
+                order[i] = order[j];
+                order[j] = group.get(i);
+            }
+            for (int index : order)
+            {
+                members.get(next).add(index);
+                next = (next + 1) % parts;
+            }
+        }
+
+        List<int[]> result = new ArrayList<>(parts);
+        for (List<Integer> member : members)
+        {
+            int[] samples = new int[member.size()];
+            for (int i = 0; i < samples.length; i++)
+            {
+                samples[i] = member.get(i);
+            }
+            Arrays.sort(samples);
+            result.add(samples);
+        }
+        return result;
+    }
+
+    /**
+     * Trains a sub-SVM on a view of the samples of the given node.
+     */
+    private SubSVM train(SubSVM node, Parameter p)
+    {
+        SVM svm = new SVM(p, new ProblemView(this.prob, node.samples));
+        svm.setTrainingBudget(this.budget);
+        if (node.initialAlpha != null)
+        {
+            svm.setInitialAlpha(node.initialAlpha);
+        }
+        Model model = svm.getTrainedModel();
+        synchronized (this)
+        {
+            this.metrics.add(model.getMetrics());
+        }
+        return new SubSVM(node.samples, model);
+    }
+
+    /**
+     * Merges the support vectors of two trained sub-SVMs into a new node. If the models consist of a single decision
+     * function, the coefficients of both solutions are used as starting point, as their union is a feasible solution
+     * of the merged problem. The label order of the two models may differ, which does not matter for classification,
+     * as the solver only starts from the magnitudes of the coefficients and takes their signs from the labels of the
+     * samples.
+     */
+    private static SubSVM merge(SubSVM a, SubSVM b)
+    {
+        double[] coefA = a.coefficients();
+        double[] coefB = b.coefficients();
+        int[] svA = a.supportVectors();
+        int[] svB = b.supportVectors();
+
+        int[] samples = new int[svA.length + svB.length];
+        double[] alpha = coefA != null && coefB != null ? new double[samples.length] : null;
+        for (int k = 0; k < svA.length; k++)
+        {
+            samples[k] = a.samples[svA[k]];
+            if (alpha != null)
+            {
+                alpha[k] = coefA[k];
+            }
+        }
+        for (int k = 0; k < svB.length; k++)
+        {
+            samples[svA.length + k] = b.samples[svB[k]];
+            if (alpha != null)
+            {
+                alpha[svA.length + k] = coefB[k];
+            }
+        }
+        return new SubSVM(samples, alpha);
+    }
+
+    /**
+     * Adds the violating samples to the support vectors of a trained node. The previous solution is used as starting
+     * point, where the violators start with a coefficient of 0.
+     */
+    private static SubSVM extend(SubSVM node, int[] violators)
+    {
+        double[] coef = node.coefficients();
+        int[] sv = node.supportVectors();
+
+        int[] samples = new int[sv.length + violators.length];
+        double[] alpha = coef != null ? new double[samples.length] : null;
+        for (int k = 0; k < sv.length; k++)
+        {
+            samples[k] = node.samples[sv[k]];
+            if (alpha != null)
+            {
+                alpha[k] = coef[k];
+            }
+        }
+        System.arraycopy(violators, 0, samples, sv.length, violators.length);
+        return new SubSVM(samples, alpha);
+    }
+
+    /**
+     * Checks the optimality conditions of the trained node on all samples which are no support vectors of its model.
+     * Such samples have a coefficient of 0, which requires them to lie outside of the margin for classification,
+     * inside the epsilon tube for regression and inside the estimated support for one-class SVMs.
+     *
+     * @return The indices of all samples violating the optimality conditions
+     */
+    private int[] findViolators(SubSVM node, Parameter p, ExecutorService executor)
+            throws InterruptedException, ExecutionException
+    {
+        if (SVMType.NU_SVR.equals(p.svmType))
+        {
+            return new int[0];
+        }
+
+        int l = this.prob.numInstances;
+        boolean[] isSV = new boolean[l];
+        for (int sv : node.supportVectors())
+        {
+            isSV[node.samples[sv]] = true;
+        }
+
+        Model model = node.model;
+        boolean[] violating = new boolean[l];
+        int part = (l + this.nrThreads - 1) / this.nrThreads;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = 0; from < l; from += part)
+        {
+            final int begin = from;
+            final int end = Math.min(l, from + part);
+            Callable<Void> check = () -> {
+                double[] decValues = new double[Math.max(1, model.nrDecisionFunctions())];
+                for (int i = begin; i < end; i++)
+                {
+                    if (!isSV[i])
+                    {
+                        violating[i] = violates(model, p, this.prob.x.get(i), this.prob.y.get(i), decValues);
+                    }
+                }
+                return null;
+            };
+            futures.add(executor.submit(check));
+        }
+        for (Future<?> future : futures)
+        {
+            future.get();
+        }
+
+        int count = 0;
+        for (boolean v : violating)
+        {
+            count += v ? 1 : 0;
+        }
+        int[] violators = new int[count];
+        for (int i = 0, k = 0; i < l; i++)
+        {
+            if (violating[i])
+            {
+                violators[k++] = i;
+            }
+        }
+        return violators;
+    }
+
+    private static boolean violates(Model model, Parameter p, Node[] x, double y, double[] decValues)
+    {
+        double predicted = model.predictValues(x, decValues);
+        if (SVMType.EPSILON_SVR.equals(p.svmType))
+        {
+            return Math.abs(y - predicted) > p.p + p.eps;
+        }
+        if (SVMType.ONE_CLASS.equals(p.svmType))
+        {
+            return decValues[0] < -p.eps;
+        }
+
+        int c = -1;
+        for (int i = 0; i < model.nrClass; i++)
+        {
+            if (model.label[i] == (int) y)
+            {
+                c = i;
+            }
+        }
+        if (c < 0)
+        {
+            // the class was not part of the training data of the model
+            return true;
+        }
+        if (model.isOneVsRest())
+        {
+            for (int i = 0; i < model.nrClass; i++)
+            {
+                if ((i == c ? decValues[i] : -decValues[i]) < 1 - p.eps)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        int pair = 0;
+        for (int i = 0; i < model.nrClass; i++)
+        {
+            for (int j = i + 1; j < model.nrClass; j++)
+            {
+                if ((i == c && decValues[pair] < 1 - p.eps) || (j == c && -decValues[pair] < 1 - p.eps))
+                {
+                    return true;
+                }
+                pair++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A sub-SVM of the cascade, consisting of the indices of its samples inside the full problem and the model trained
+     * on them.
+     */
+    private static class SubSVM
+    {
+        /** The indices of the samples of this node inside the full problem **/
+        final int[] samples;
+        /** The coefficients the training starts from or <em>null</em> **/
+        final double[] initialAlpha;
+        /** The trained model or <em>null</em> if the node was not trained yet **/
+        final Model model;
+
+        SubSVM(int[] samples, double[] initialAlpha)
+        {
+            this.samples = samples;
+            this.initialAlpha = initialAlpha;
+            this.model = null;
+        }
+
+        SubSVM(int[] samples, Model model)
+        {
+            this.samples = samples;
+            this.initialAlpha = null;
+            this.model = model;
+        }
+
+        /**
+         * Returns the positions of the support vectors of the model inside {@link #samples}. A model without support
+         * vectors, i.e. of a training stopped by an exhausted budget, did not filter any samples, so all of its samples
+         * are passed on.
+         */
+        int[] supportVectors()
+        {
+            if (this.model.numInstances == 0)
+            {
+                int[] all = new int[this.samples.length];
+                for (int k = 0; k < all.length; k++)
+                {
+                    all[k] = k;
+                }
+                return all;
+            }
+            int[] sv = new int[this.model.numInstances];
+            for (int k = 0; k < sv.length; k++)
+            {
+                sv[k] = this.model.svIndices[k] - 1;
+            }
+            return sv;
+        }
+
+        /**
+         * Returns the coefficients of the support vectors if the model consists of a single decision function.
+         */
+        double[] coefficients()
+        {
+            if (this.model.svCoef.length != 1)
+            {
+                return null;
+            }
+            if (this.model.numInstances == 0)
+            {
+                return new double[this.samples.length];
+            }
+            return this.model.svCoef[0];
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package at.rovo.classifier.svm;
+
+import at.rovo.classifier.distributed.Coordinator;
+import at.rovo.classifier.svm.kernel.SharedKernelCache;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import at.rovo.classifier.svm.struct.TrainingBudget;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Searches the combination of the hyper-parameters C, gamma and nu which yields the best cross-validation result on a
+ * problem.
+ * <p>
+ * In contrast to running {@link SVM#crossValidation(Parameter)} for every grid point, all grid points are evaluated on
+ * the same folds and the search avoids redundant work:
+ * <ul>
+ * <li>The kernel matrix only depends on gamma, so all trainings with the same gamma share a {@link
+ * SharedKernelCache}</li>
+ * <li>The values of C of a fold are trained in ascending order, where each training starts from the solution of the
+ * previous value of C</li>
+ * <li>The folds of the different combinations of gamma and nu are trained in parallel</li>
+ * <li>Parameters which are not used by the SVM type or the kernel, like C of a nu-SVC or gamma of a linear kernel,
+ * are not searched but kept at the value of the base parameters</li>
+ * </ul>
+ * The kernel cache of each gamma value may use up to {@link Parameter#cache_size} megabytes in addition to the caches
+ * of the running trainings.
+ * <p>
+ * If a {@link Coordinator} is set, the folds of the grid points are trained by its workers instead. The values of C of
+ * a fold are still trained in ascending order by the same worker, but the kernel caches are not shared.
+ *
+ * @author Roman Vottner
+ */
+public class GridSearch
+{
+    /** The base parameters of every grid point **/
+    private final Parameter param;
+    /** The training data **/
+    private final Problem prob;
+    /** The values of C to evaluate, sorted in ascending order **/
+    private double[] C;
+    /** The values of gamma to evaluate **/
+    private double[] gamma;
+    /** The values of nu to evaluate **/
+    private double[] nu;
+    /** The number of folds of the cross-validation **/
+    private int nrFold;
+    /** The number of grid points trained concurrently **/
+    private int nrThreads = 1;
+    /** The seed used to assign the instances to folds **/
+    private long seed = 0;
+    /** The coordinator distributing the folds to workers or null to train them in this process **/
+    private Coordinator coordinator;
+    /** An optional limit of the resources the trainings of all grid points may spend **/
+    private TrainingBudget budget;
+    /** The results of the last search **/
+    private List<Result> results = Collections.emptyList();
+
+    /**
+     * Creates a new grid search which evaluates the values of C, gamma and nu specified in the given parameters unless
+     * other values are set.
+     *
+     * @param param
+     *         The parameters shared by all grid points
+     * @param prob
+     *         The training data
+     */
+    public GridSearch(Parameter param, Problem prob)
+    {
+        this.param = param;
+        this.prob = prob;
+        this.C = new double[] {param.C};
+        this.gamma = new double[] {param.gamma};
+        this.nu = new double[] {param.nu};
+        this.nrFold = param.nrFold >= 2 ? param.nrFold : 5;
+    }
+
+    /**
+     * Specifies the values of C to evaluate. C is not used by nu-SVC and one-class SVMs, which only evaluate the C of
+     * the base parameters.
+     *
+     * @param values
+     *         The values of C
+     */
+    public void setC(double... values)
+    {
+        this.C = checkValues(values, "C");
+        Arrays.sort(this.C);
+    }
+
+    /**
+     * Specifies the values of gamma to evaluate. Gamma is not used by the linear and the precomputed kernel, which only
+     * evaluate the gamma of the base parameters.
+     *
+     * @param values
+     *         The values of gamma
+     */
+    public void setGamma(double... values)
+    {
+        this.gamma = checkValues(values, "gamma");
+    }
+
+    /**
+     * Specifies the values of nu to evaluate. Nu is only used by nu-SVC, nu-SVR and one-class SVMs, the other SVM types
+     * only evaluate the nu of the base parameters.
+     *
+     * @param values
+     *         The values of nu
+     */
+    public void setNu(double... values)
+    {
+        this.nu = checkValues(values, "nu");
+    }
+
+    /**
+     * Specifies the number of folds of the cross-validation performed for every grid point.
+     *
+     * @param nrFold
+     *         The number of folds, at least 2
+     */
+    public void setNrFold(int nrFold)
+    {
+        if (nrFold < 2)
+        {
+            throw new IllegalArgumentException("n-fold cross validation: n must >= 2");
+        }
+        this.nrFold = nrFold;
+    }
+
+    /**
+     * Specifies the number of threads used to train the folds of the grid points concurrently.
+     *
+     * @param nrThreads
+     *         The number of threads
+     */
+    public void setNrThreads(int nrThreads)
+    {
+        this.nrThreads = Math.max(1, nrThreads);
+    }
+
+    /**
+     * Specifies the seed of the random number generator which assigns the instances to folds. Searches with the same
+     * seed use the same folds.
+     *
+     * @param seed
+     *         The seed of the random number generator
+     */
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Specifies a coordinator whose workers train the folds of the grid points instead of the threads of this
+     * process.
+     *
+     * @param coordinator
+     *         The coordinator distributing the folds or <em>null</em> to train them in this process
+     */
+    public void setCoordinator(Coordinator coordinator)
+    {
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * Limits the resources the trainings of all grid points may spend in this process. The budget is started by {@link
+     * #search()}; grid points trained after it is exhausted yield the starting points of their solvers. Folds trained
+     * by the workers of a coordinator are not limited.
+     *
+     * @param budget
+     *         The budget shared by all trainings or <em>null</em> to search without limit
+     */
+    public void setTrainingBudget(TrainingBudget budget)
+    {
+        this.budget = budget;
+    }
+
+    private static double[] checkValues(double[] values, String name)
+    {
+        if (values == null || values.length == 0)
+        {
+            throw new IllegalArgumentException("At least one value of " + name + " is required");
+        }
+        return values.clone();
+    }
+
+    /**
+     * Performs a cross-validation for every combination of the specified values of C, gamma and nu which are used by
+     * the SVM type and the kernel of the base parameters.
+     *
+     * @return The result of every grid point
+     *
+     * @throws IllegalArgumentException
+     *         If a combination of the parameters is not feasible
+     */
+    public List<Result> search()
+    {
+        // the shared kernel caches identify the samples by their arrays or, for a compact problem, by their rows, so
+        // the folds of all grid points are views on the same data, which is copied once in single precision
+        Problem data = SVM.compact(this.prob, this.param);
+        if (this.budget != null)
+        {
+            this.budget.start();
+        }
+
+        Parameter base = (Parameter) this.param.clone();
+        base.probability = 0;
+        base.crossValidation = 0;
+        if (base.scaling != null && !base.scaling.isFitted())
+        {
+            // fitted once like scaling the data set before the search, so all folds can share the kernel cache
+            base.scaling = base.scaling.fit(data);
+        }
+        // every value of an unused parameter yields the same result, so only the value of the base parameters is
+        // evaluated
+        double[] C = usesC(base) ? this.C : new double[] {base.C};
+        double[] gamma = usesGamma(base) ? this.gamma : new double[] {base.gamma};
+        double[] nu = usesNu(base) ? this.nu : new double[] {base.nu};
+
+        SVM folding = new SVM(base, data);
+        int[] fold_start = new int[this.nrFold + 1];
+        int[] perm = folding.createFolds(base, this.nrFold, fold_start, new Random(this.seed));
+
+        int l = data.numInstances;
+        double[][][][] target;
+        if (this.coordinator != null)
+        {
+            target = distribute(data, base, perm, fold_start, C, gamma, nu);
+        }
+        else
+        {
+            target = new double[gamma.length][nu.length][C.length][l];
+            search(data, base, perm, fold_start, C, gamma, nu, target);
+        }
+
+        List<Result> results = new ArrayList<>(gamma.length * nu.length * C.length);
+        for (int g = 0; g < gamma.length; g++)
+        {
+            for (int n = 0; n < nu.length; n++)
+            {
+                for (int c = 0; c < C.length; c++)
+                {
+                    results.add(new Result(this.param, C[c], gamma[g], nu[n], data, target[g][n][c]));
+                }
+            }
+        }
+        this.results = results;
+        return results;
+    }
+
+    /**
+     * Trains the folds of all grid points in this process, where trainings with the same gamma share a kernel cache.
+     */
+    private void search(Problem data, Parameter base, int[] perm, int[] fold_start, double[] C, double[] gamma,
+                        double[] nu, double[][][][] target)
+    {
+        Map<Double, SharedKernelCache> caches = new HashMap<>();
+        for (double g : gamma)
+        {
+            Parameter p = (Parameter) base.clone();
+            p.gamma = g;
+            checkParameter(p, data);
+            caches.computeIfAbsent(g, key -> new SharedKernelCache(data, p, (long) (p.cache_size * (1 << 20))));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.nrThreads);
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int g = 0; g < gamma.length; g++)
+            {
+                for (int n = 0; n < nu.length; n++)
+                {
+                    Parameter p = (Parameter) base.clone();
+                    p.gamma = gamma[g];
+                    p.nu = nu[n];
+                    p.kernelCache = caches.get(p.gamma);
+                    double[][] t = target[g][n];
+                    for (int fold = 0; fold < this.nrFold; fold++)
+                    {
+                        final int f = fold;
+                        futures.add(executor.submit(() -> trainFold(data, p, perm, fold_start, f, C, t)));
+                    }
+                }
+            }
+            for (Future<?> future : futures)
+            {
+                future.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Grid search got interrupted", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Grid search failed", e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Trains the folds of all grid points by the workers of the coordinator.
+     */
+    private double[][][][] distribute(Problem data, Parameter base, int[] perm, int[] fold_start, double[] C,
+                                      double[] gamma, double[] nu)
+    {
+        Parameter[] params = new Parameter[gamma.length * nu.length];
+        for (int g = 0; g < gamma.length; g++)
+        {
+            for (int n = 0; n < nu.length; n++)
+            {
+                Parameter p = (Parameter) base.clone();
+                p.gamma = gamma[g];
+                p.nu = nu[n];
+                for (double c : C)
+                {
+                    Parameter q = (Parameter) p.clone();
+                    q.C = c;
+                    checkParameter(q, data);
+                }
+                params[g * nu.length + n] = p;
+            }
+        }
+        double[][][] result = this.coordinator.crossValidate(data, perm, fold_start, params, C,
+                                                             supportsWarmStart(base));
+        double[][][][] target = new double[gamma.length][nu.length][][];
+        for (int g = 0; g < gamma.length; g++)
+        {
+            for (int n = 0; n < nu.length; n++)
+            {
+                target[g][n] = result[g * nu.length + n];
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Trains one fold for all values of C in ascending order, where each training starts from the solution of the
+     * previous one.
+     */
+    private void trainFold(Problem data, Parameter param, int[] perm, int[] fold_start, int fold, double[] C,
+                           double[][] target)
+    {
+        SVM svm = new SVM(param, data);
+        svm.setTrainingBudget(this.budget);
+        Model previous = null;
+        for (int c = 0; c < C.length; c++)
+        {
+            Parameter p = (Parameter) param.clone();
+            p.C = C[c];
+            checkParameter(p, data);
+            previous = svm.trainFold(p, perm, fold_start, fold, target[c], supportsWarmStart(p) ? previous : null);
+        }
+    }
+
+    private static boolean usesC(Parameter param)
+    {
+        return SVMType.C_SVC.equals(param.svmType) || SVMType.EPSILON_SVR.equals(param.svmType) ||
+               SVMType.NU_SVR.equals(param.svmType);
+    }
+
+    private static boolean usesGamma(Parameter param)
+    {
+        return !KernelType.LINEAR.equals(param.kernelType) && !KernelType.PRECOMPUTED.equals(param.kernelType);
+    }
+
+    private static boolean usesNu(Parameter param)
+    {
+        return SVMType.NU_SVC.equals(param.svmType) || SVMType.ONE_CLASS.equals(param.svmType) ||
+               SVMType.NU_SVR.equals(param.svmType);
+    }
+
+    private static boolean supportsWarmStart(Parameter param)
+    {
+        return SVMType.C_SVC.equals(param.svmType) || SVMType.EPSILON_SVR.equals(param.svmType);
+    }
+
+    private static void checkParameter(Parameter param, Problem data)
+    {
+        String error = new SVM(param, data).checkParameter();
+        if (error != null)
+        {
+            throw new IllegalArgumentException(error);
+        }
+    }
+
+    /**
+     * Returns the grid point with the best cross-validation result of the last search, which is the highest accuracy
+     * for classification and the lowest mean squared error for regression.
+     *
+     * @return The best grid point or <em>null</em> if no search was performed yet
+     */
+    public Result getBest()
+    {
+        Result best = null;
+        for (Result result : this.results)
+        {
+            if (best == null || result.isBetterThan(best))
+            {
+                best = result;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The cross-validation result of a single grid point.
+     */
+    public static class Result
+    {
+        /** The parameters of the grid point **/
+        private final Parameter param;
+        /** The value of C of the grid point **/
+        public final double C;
+        /** The value of gamma of the grid point **/
+        public final double gamma;
+        /** The value of nu of the grid point **/
+        public final double nu;
+        /** The percentage of correctly predicted instances, only set for classification **/
+        public final double accuracy;
+        /** The mean squared error of the predictions, only set for regression **/
+        public final double meanSquaredError;
+        /** The squared correlation coefficient of the predictions, only set for regression **/
+        public final double squaredCorrelation;
+
+        Result(Parameter base, double C, double gamma, double nu, Problem prob, double[] target)
+        {
+            this.param = (Parameter) base.clone();
+            this.param.C = C;
+            this.param.gamma = gamma;
+            this.param.nu = nu;
+            this.param.kernelCache = null;
+            this.C = C;
+            this.gamma = gamma;
+            this.nu = nu;
+
+            int l = prob.numInstances;
+            if (isRegression())
+            {
+                double total_error = 0;
+                double sumv = 0, sumy = 0, sumvv = 0, sumyy = 0, sumvy = 0;
+                for (int i = 0; i < l; i++)
+                {
+                    double y = prob.y.get(i);
+                    double v = target[i];
+                    total_error += (v - y) * (v - y);
+                    sumv += v;
+                    sumy += y;
+                    sumvv += v * v;
+                    sumyy += y * y;
+                    sumvy += v * y;
+                }
+                this.accuracy = Double.NaN;
+                this.meanSquaredError = total_error / l;
+                this.squaredCorrelation = ((l * sumvy - sumv * sumy) * (l * sumvy - sumv * sumy)) /
+                                          ((l * sumvv - sumv * sumv) * (l * sumyy - sumy * sumy));
+            }
+            else
+            {
+                int total_correct = 0;
+                for (int i = 0; i < l; i++)
+                {
+                    if (target[i] == prob.y.get(i))
+                    {
+                        ++total_correct;
+                    }
+                }
+                this.accuracy = 100.0 * total_correct / l;
+                this.meanSquaredError = Double.NaN;
+                this.squaredCorrelation = Double.NaN;
+            }
+        }
+
+        private boolean isRegression()
+        {
+            return SVMType.EPSILON_SVR.equals(this.param.svmType) || SVMType.NU_SVR.equals(this.param.svmType);
+        }
+
+        private boolean isBetterThan(Result other)
+        {
+            return isRegression() ? this.meanSquaredError < other.meanSquaredError : this.accuracy > other.accuracy;
+        }
+
+        /**
+         * Returns the parameters of this grid point, which can be used to train the final model.
+         *
+         * @return A copy of the parameters of this grid point
+         */
+        public Parameter getParameter()
+        {
+            return (Parameter) this.param.clone();
+        }
+
+        @Override
+        public String toString()
+        {
+            String result = isRegression() ? "mse = " + this.meanSquaredError + ", scc = " + this.squaredCorrelation
+                                           : "accuracy = " + this.accuracy + "%";
+            return "C = " + this.C + ", gamma = " + this.gamma + ", nu = " + this.nu + ": " + result;
+        }
+    }
+}
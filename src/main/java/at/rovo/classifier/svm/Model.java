@@ -1,17 +1,31 @@
 package at.rovo.classifier.svm;
 
+import at.rovo.classifier.svm.approximation.FeatureMap;
+import at.rovo.classifier.svm.kernel.GramMatrix;
 import at.rovo.classifier.svm.kernel.Kernel;
+import at.rovo.classifier.svm.struct.CsrMatrix;
 import at.rovo.classifier.svm.struct.Node;
 import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Scaling;
+import at.rovo.classifier.svm.struct.SolverMetrics;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.DataOutputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,6 +40,21 @@ public class Model implements Serializable
 
     /** Unique identifier necessary for serialization **/
     private static final long serialVersionUID = 3286349814636287449L;
+    /** The number of samples evaluated together against the support vectors on batch prediction **/
+    private static final int BLOCK_SIZE = 64;
+    /** The maximum number of elements of the buffer the samples of a block are scattered into **/
+    private static final long MAX_BLOCK_BUFFER = 1L << 22;
+    /** The threads shared by batch predictions without an executor of their own, idle threads terminate after 60s **/
+    private static final ExecutorService PREDICTION_THREADS = Executors.newCachedThreadPool(r ->
+    {
+        Thread thread = new Thread(r, "svm-prediction");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** The size up to which the dense buffer is used regardless of the stored features of the support vectors **/
+    private static final int MIN_DENSE_SIZE = 1 << 10;
+    /** The maximum size of the dense buffer a sample is scattered into, which every predicting thread allocates **/
+    private static final int MAX_DENSE_SIZE = 1 << 20;
 
     /** The parameters passed to the application **/
     Parameter param;
@@ -33,11 +62,11 @@ public class Model implements Serializable
     int nrClass;
     /** The number of instances trained **/
     int numInstances; // total #SV
-    /** SVs (SV[l]) **/
+    /** SVs (SV[l]). Only set until the model is prepared, which replaces them with {@link #svMatrix} **/
     Node[][] SV;
-    /** Coefficients for SVs in decision functions (sv_coef[k-1][l]) **/
+    /** Coefficients for SVs in decision functions (sv_coef[k-1][l], sv_coef[k][l] for one-vs-rest models) **/
     double[][] svCoef;
-    /** constants in decision functions (rho[k*(k-1)/2]) **/
+    /** constants in decision functions (rho[k*(k-1)/2], rho[k] for one-vs-rest models) **/
     double[] rho;
     /** pairwise probability information **/
     double[] probA;
@@ -53,6 +82,56 @@ public class Model implements Serializable
     int[] label;
     /** number of SVs for each class (nSV[k]) nSV[0] + nSV[1] + ... + nSV[k-1] = l **/
     int[] nSV;
+    /**
+     * specifies whether the model consists of one classifier per class, which separates the class from all other
+     * classes, instead of one classifier per pair of classes. The coefficients of the SVs in classifier c are stored in
+     * svCoef[c]
+     **/
+    boolean oneVsRest;
+
+    /**
+     * weight vectors of the decision functions of linear models (w[k*(k-1)/2][]). If available prediction only requires
+     * a sparse dot product per decision function instead of evaluating every support vector
+     **/
+    double[][] w;
+
+    /**
+     * the feature indices of sparse weight vectors in ascending order, where w[f][n] is the weight of feature
+     * wIndex[f][n]. If <em>null</em> or wIndex[f] is <em>null</em>, w[f] is dense and indexed by the feature index
+     **/
+    int[][] wIndex;
+
+    /** accumulated metrics of all solver runs executed while training this model **/
+    SolverMetrics metrics;
+
+    /** maps samples into the feature space of the linear model if the model was trained on an approximated kernel **/
+    FeatureMap featureMap;
+
+    /** SVs in compressed sparse row format, which are copied from SV or mapped from a binary model file **/
+    private transient CsrMatrix svMatrix;
+
+    /** start position of the SVs of each class inside SV (start[k]), precomputed on preparing the model **/
+    private transient int[] start;
+    /**
+     * The squared euclidean norm of each support vector, used to evaluate the RBF kernel via dot products, or
+     * <em>null</em> if the kernel values are evaluated on the support vectors directly
+     **/
+    transient double[] svSquare;
+    /** The shift of each scaled support vector plus the constant of the scaling, see {@link Scaling#shift(Node[])} **/
+    transient double[] svShift;
+    /**
+     * The size of the dense buffer a sample is scattered into on prediction (highest feature index of the SVs + 1) or 0
+     * if the dot products with the support vectors are computed by merging the sparse features
+     **/
+    transient int denseSize;
+    /** the prediction contexts used by threads which do not provide their own context **/
+    private transient ThreadLocal<PredictionContext> contexts;
+    /** combines the pairwise classifiers on prediction, <em>null</em> equals {@link VotingStrategy#VOTING} **/
+    private transient VotingStrategy votingStrategy;
+    /** The support vectors with a non-zero coefficient in each pairwise classifier, used by lazy voting strategies **/
+    private transient int[][] pairSV;
+    /** The coefficients of the support vectors in {@link #pairSV} **/
+    private transient double[][] pairCoef;
 
     /**
      * Loads a model from the file and returns it as an object.
@@ -67,6 +146,11 @@ public class Model implements Serializable
      */
     public static Model load(String modelFileName) throws IOException
     {
+        if (BinaryModelFormat.isBinary(modelFileName))
+        {
+            return loadBinary(modelFileName);
+        }
+
         // read parameters
 
         Model model = new Model();
@@ -133,6 +217,14 @@ public class Model implements Serializable
             {
                 param.coef0 = Double.parseDouble(arg);
             }
+            else if (cmd.startsWith("multiclass"))
+            {
+                model.oneVsRest = "one_vs_rest".equals(arg);
+            }
+            else if (cmd.startsWith("scaling"))
+            {
+                param.scaling = parseScaling(arg);
+            }
             else if (cmd.startsWith("nr_class"))
             {
                 model.nrClass = Integer.parseInt(arg);
@@ -143,7 +235,7 @@ public class Model implements Serializable
             }
             else if (cmd.startsWith("rho"))
             {
-                int n = model.nrClass * (model.nrClass - 1) / 2;
+                int n = model.nrDecisionFunctions();
                 model.rho = new double[n];
                 StringTokenizer st = new StringTokenizer(arg);
                 for (int i = 0; i < n; i++)
@@ -163,7 +255,7 @@ public class Model implements Serializable
             }
             else if (cmd.startsWith("probA"))
             {
-                int n = model.nrClass * (model.nrClass - 1) / 2;
+                int n = model.nrDecisionFunctions();
                 model.probA = new double[n];
                 StringTokenizer st = new StringTokenizer(arg);
                 for (int i = 0; i < n; i++)
@@ -173,7 +265,7 @@ public class Model implements Serializable
             }
             else if (cmd.startsWith("probB"))
             {
-                int n = model.nrClass * (model.nrClass - 1) / 2;
+                int n = model.nrDecisionFunctions();
                 model.probB = new double[n];
                 StringTokenizer st = new StringTokenizer(arg);
                 for (int i = 0; i < n; i++)
@@ -205,7 +297,7 @@ public class Model implements Serializable
 
         // read sv_coef and SV
 
-        int m = model.nrClass - 1;
+        int m = model.oneVsRest ? model.nrClass : model.nrClass - 1;
         int l = model.numInstances;
         model.svCoef = new double[m][l];
         model.SV = new Node[l][];
@@ -230,9 +322,316 @@ public class Model implements Serializable
         }
 
         fp.close();
+
+        model.prepare();
         return model;
     }
 
+    /**
+     * Parses the arguments of the <em>scaling</em> line of a model file, which consist of the lower and upper bound of
+     * the scaled features followed by index:min:max of every feature which is not dropped.
+     */
+    private static Scaling parseScaling(String arg)
+    {
+        StringTokenizer st = new StringTokenizer(arg);
+        double lower = Double.parseDouble(st.nextToken());
+        double upper = Double.parseDouble(st.nextToken());
+        List<String[]> features = new ArrayList<>();
+        int maxIndex = 0;
+        while (st.hasMoreTokens())
+        {
+            String[] feature = st.nextToken().split(":");
+            features.add(feature);
+            maxIndex = Math.max(maxIndex, Integer.parseInt(feature[0]));
+        }
+        double[] min = new double[maxIndex + 1];
+        double[] max = new double[maxIndex + 1];
+        for (String[] feature : features)
+        {
+            int index = Integer.parseInt(feature[0]);
+            min[index] = Double.parseDouble(feature[1]);
+            max[index] = Double.parseDouble(feature[2]);
+        }
+        return new Scaling(lower, upper, min, max);
+    }
+
+    /**
+     * Precomputes data which is derived from the model and required on every prediction, like the start position of the
+     * support vectors of each class. Models using a linear kernel are furthermore collapsed into weight vectors.
+     * <p>
+     * Support vectors held as {@link Node}s are copied into compressed sparse row format, which replaces the nodes, and
+     * the squared norm of every support vector is cached. A prediction scatters the sample into a dense buffer once, so
+     * every dot product with a support vector is a single gather loop over the features of the support vector, and the
+     * RBF kernel is evaluated as exp(-gamma*(|x|^2 + |sv|^2 - 2*x^T sv)) like the training does. If the model scales
+     * its features, the sample is scattered multiplied with the squared scale of each feature and the norms and shifts
+     * of the support vectors refer to the scaled support vectors, so the sparse support vectors are used as they are.
+     * <p>
+     * Every predicting thread holds its own dense buffer of the size of the highest feature index. If this exceeds the
+     * number of stored features of the support vectors, or {@link #MAX_DENSE_SIZE}, the dot products merge the sparse
+     * features of the sample and the support vector instead.
+     * <p>
+     * This method has to be invoked whenever the structure of the model got modified.
+     */
+    void prepare()
+    {
+        prepare(null, null, 0);
+    }
+
+    /**
+     * Prepares the model like {@link #prepare()} does, but uses the provided squared norms and shifts of the support
+     * vectors instead of computing them from the support vectors, so a model mapped from a binary file does not read
+     * its support vectors on loading.
+     *
+     * @param svSquare
+     *         The squared norm of each support vector as computed by {@link #prepare()} or <em>null</em> to compute them
+     * @param svShift
+     *         The shift of each support vector as computed by {@link #prepare()}
+     * @param maxIndex
+     *         The highest feature index of the support vectors or -1 if they have no features, which is only used
+     *         along with the provided norms
+     */
+    void prepare(double[] svSquare, double[] svShift, int maxIndex)
+    {
+        this.start = svStart();
+        if (this.SV != null)
+        {
+            boolean singlePrecision = this.param.singlePrecision == 1;
+            this.svMatrix =
+                    CsrMatrix.fromNodes(Arrays.asList(this.SV).subList(0, this.numInstances), singlePrecision);
+            // the matrix replaces the nodes, which take several times the memory of its values
+            this.SV = null;
+        }
+        if (KernelType.LINEAR.equals(this.param.kernelType))
+        {
+            this.collapseLinear();
+        }
+
+        CsrMatrix sv = this.svMatrix;
+        Scaling scaling = this.param.scaling;
+        this.svSquare = null;
+        this.svShift = null;
+        this.denseSize = 0;
+        if (this.w == null && sv != null && !KernelType.PRECOMPUTED.equals(this.param.kernelType))
+        {
+            if (svSquare != null)
+            {
+                this.svSquare = svSquare;
+                this.svShift = svShift;
+            }
+            else
+            {
+                this.svSquare = new double[this.numInstances];
+                this.svShift = new double[this.numInstances];
+                maxIndex = -1;
+                for (int i = 0; i < this.numInstances; i++)
+                {
+                    double sum = 0;
+                    double shift = 0;
+                    for (int k = sv.start(i); k < sv.end(i); k++)
+                    {
+                        double v = sv.value(k);
+                        if (scaling != null)
+                        {
+                            sum += scaling.weight(sv.index(k)) * v * v;
+                            shift += scaling.shiftWeight(sv.index(k)) * v;
+                        }
+                        else
+                        {
+                            sum += v * v;
+                        }
+                        maxIndex = Math.max(maxIndex, sv.index(k));
+                    }
+                    if (scaling != null)
+                    {
+                        sum += 2 * shift + scaling.constant();
+                        shift += scaling.constant();
+                    }
+                    this.svSquare[i] = sum;
+                    this.svShift[i] = shift;
+                }
+            }
+            if (maxIndex < Math.min(MAX_DENSE_SIZE, Math.max(MIN_DENSE_SIZE, sv.nnz())))
+            {
+                this.denseSize = maxIndex + 1;
+            }
+        }
+        this.contexts = ThreadLocal.withInitial(this::createPredictionContext);
+    }
+
+    /**
+     * Loads a model which was stored via {@link #saveBinary(String)}. The file is memory mapped and the support vectors
+     * are used directly from the mapped file, so loading does neither parse any text nor create {@link Node}s for the
+     * support vectors. {@link #load(String)} detects binary models automatically.
+     *
+     * @param modelFileName
+     *         The name of the file to load the model from
+     *
+     * @return The mapped model
+     *
+     * @throws IOException
+     *         If the file could not be read or does not contain a binary model of a supported version
+     */
+    public static Model loadBinary(String modelFileName) throws IOException
+    {
+        return BinaryModelFormat.read(modelFileName);
+    }
+
+    /**
+     * Stores the model in a versioned binary format which can be memory mapped by {@link #loadBinary(String)}. In
+     * contrast to {@link #save(String)} the resulting file is not compatible with libSVM.
+     *
+     * @param modelFileName
+     *         The name of the file to save the model to
+     *
+     * @throws IOException
+     *         If the provided model file could not get accessed
+     */
+    public void saveBinary(String modelFileName) throws IOException
+    {
+        checkPersistable();
+        BinaryModelFormat.write(this, modelFileName);
+    }
+
+    /**
+     * Checks whether this model can be stored in the libSVM or the binary format. The feature map of a model trained on
+     * an approximated kernel can not be represented in these formats.
+     */
+    private void checkPersistable()
+    {
+        if (this.featureMap != null)
+        {
+            throw new IllegalStateException(
+                    "Models trained on an approximated kernel can only be persisted via Java serialization");
+        }
+    }
+
+    /**
+     * Returns the feature map which transforms samples into the feature space of this model if it was trained on an
+     * approximated kernel.
+     *
+     * @return The feature map or <em>null</em> if the model was trained on the exact kernel
+     */
+    public FeatureMap getFeatureMap()
+    {
+        return this.featureMap;
+    }
+
+    /**
+     * Replaces the support vectors of this model with the rows of the provided matrix.
+     *
+     * @param svMatrix
+     *         The support vectors in compressed sparse row format
+     */
+    void setSupportVectors(CsrMatrix svMatrix)
+    {
+        this.svMatrix = svMatrix;
+        this.SV = null;
+    }
+
+    /**
+     * Returns the support vectors of this model in compressed sparse row format. If the model was not loaded from a
+     * binary file the matrix is created from the support vectors on the heap.
+     *
+     * @return The support vectors as sparse matrix
+     */
+    CsrMatrix svMatrix()
+    {
+        if (this.svMatrix != null)
+        {
+            return this.svMatrix;
+        }
+        return CsrMatrix.fromNodes(Arrays.asList(this.SV).subList(0, this.numInstances));
+    }
+
+    /**
+     * Returns the i-th support vector of the model. For memory mapped models the support vector gets materialized on
+     * each invocation.
+     *
+     * @param i
+     *         The index of the support vector
+     *
+     * @return The features of the support vector
+     */
+    Node[] supportVector(int i)
+    {
+        if (this.SV != null)
+        {
+            return this.SV[i];
+        }
+        return this.svMatrix.getRow(i);
+    }
+
+    /**
+     * Evaluates the kernel function of a sample and the i-th support vector.
+     */
+    private double kernel(Node[] x, int i)
+    {
+        return Kernel.function(x, this.svMatrix, i, this.param);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        // the support vectors are only held by the matrix, which may be a mapped buffer and is not serializable, so
+        // they are written as nodes which are discarded again afterwards
+        boolean materialized = this.SV == null && this.svMatrix != null;
+        if (materialized)
+        {
+            this.SV = new Node[this.numInstances][];
+            for (int i = 0; i < this.numInstances; i++)
+            {
+                this.SV[i] = this.svMatrix.getRow(i);
+            }
+        }
+        try
+        {
+            out.defaultWriteObject();
+        }
+        finally
+        {
+            if (materialized)
+            {
+                this.SV = null;
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        this.prepare();
+    }
+
+    /**
+     * Creates a new context holding the scratch buffers required to predict samples with this model. A context must
+     * only be used by one thread at a time.
+     *
+     * @return A new prediction context for this model
+     */
+    public PredictionContext createPredictionContext()
+    {
+        return new PredictionContext(this);
+    }
+
+    /**
+     * Returns the prediction context of the current thread.
+     *
+     * @return The prediction context of the current thread
+     */
+    private PredictionContext context()
+    {
+        if (this.contexts == null)
+        {
+            this.prepare();
+        }
+        PredictionContext context = this.contexts.get();
+        if (!context.fits(this))
+        {
+            context = this.createPredictionContext();
+            this.contexts.set(context);
+        }
+        return context;
+    }
+
     /**
      * Saves a trained model and stores the data into a file <em>modelFileName</em> is pointing to.
      * <p>
@@ -257,11 +656,17 @@ public class Model implements Serializable
      */
     public void save(String modelFileName) throws IOException
     {
+        checkPersistable();
         DataOutputStream fp = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(modelFileName)));
 
         Parameter param = this.param;
 
         fp.writeBytes("svm_type " + param.svmType + "\n");
+        if (this.oneVsRest)
+        {
+            // not part of the libSVM format, which only knows one-vs-one models
+            fp.writeBytes("multiclass one_vs_rest\n");
+        }
         fp.writeBytes("kernel_type " + param.kernelType + "\n");
 
         if (KernelType.POLYNOMIAL.equals(param.kernelType))
@@ -280,12 +685,30 @@ public class Model implements Serializable
             fp.writeBytes("coef0 " + param.coef0 + "\n");
         }
 
+        if (param.scaling != null)
+        {
+            // not part of the libSVM format: the range followed by index:min:max of every feature which is not dropped
+            Scaling scaling = param.scaling;
+            double[] min = scaling.getMin();
+            double[] max = scaling.getMax();
+            fp.writeBytes("scaling " + scaling.getLower() + " " + scaling.getUpper());
+            for (int f = 0; f < min.length; f++)
+            {
+                if (max[f] > min[f])
+                {
+                    fp.writeBytes(" " + f + ":" + min[f] + ":" + max[f]);
+                }
+            }
+            fp.writeBytes("\n");
+        }
+
         int nr_class = this.nrClass;
         fp.writeBytes("nr_class " + nr_class + "\n");
         int l = this.numInstances;
         fp.writeBytes("total_sv " + l + "\n");
+        int nr_decision = nrDecisionFunctions();
         fp.writeBytes("rho");
-        for (int i = 0; i < nr_class * (nr_class - 1) / 2; i++)
+        for (int i = 0; i < nr_decision; i++)
         {
             fp.writeBytes(" " + this.rho[i]);
         }
@@ -304,7 +727,7 @@ public class Model implements Serializable
         if (this.probA != null) // regression has probA only
         {
             fp.writeBytes("probA");
-            for (int i = 0; i < nr_class * (nr_class - 1) / 2; i++)
+            for (int i = 0; i < nr_decision; i++)
             {
                 fp.writeBytes(" " + this.probA[i]);
             }
@@ -313,7 +736,7 @@ public class Model implements Serializable
         if (this.probB != null)
         {
             fp.writeBytes("probB");
-            for (int i = 0; i < nr_class * (nr_class - 1) / 2; i++)
+            for (int i = 0; i < nr_decision; i++)
             {
                 fp.writeBytes(" " + this.probB[i]);
             }
@@ -332,16 +755,15 @@ public class Model implements Serializable
 
         fp.writeBytes("SV\n");
         double[][] sv_coef = this.svCoef;
-        Node[][] SV = this.SV;
 
         for (int i = 0; i < l; i++)
         {
-            for (int j = 0; j < nr_class - 1; j++)
+            for (int j = 0; j < sv_coef.length; j++)
             {
                 fp.writeBytes(sv_coef[j][i] + " ");
             }
 
-            Node[] p = SV[i];
+            Node[] p = supportVector(i);
             if (KernelType.PRECOMPUTED.equals(param.kernelType))
             {
                 fp.writeBytes("0:" + (int) (p[0].value));
@@ -379,6 +801,28 @@ public class Model implements Serializable
         return this.nrClass;
     }
 
+    /**
+     * Specifies whether this model consists of one classifier per class, which separates the class from all other
+     * classes, instead of one classifier per pair of classes.
+     *
+     * @return <em>true</em> for a one-vs-rest model
+     */
+    public boolean isOneVsRest()
+    {
+        return this.oneVsRest;
+    }
+
+    /**
+     * Returns the number of decision functions of this model, which is k*(k-1)/2 for one-vs-one models, k for
+     * one-vs-rest models and 1 for regression and one-class models.
+     *
+     * @return The number of decision values of a prediction
+     */
+    int nrDecisionFunctions()
+    {
+        return this.oneVsRest ? this.nrClass : this.nrClass * (this.nrClass - 1) / 2;
+    }
+
     /**
      * Fills a provided array of labels with the labels contained in this model.
      *
@@ -417,6 +861,106 @@ public class Model implements Serializable
         return this.numInstances;
     }
 
+    /**
+     * Returns the accumulated metrics of all solver runs which were necessary to train this model. For a multi-class
+     * model this contains the sum of all k*(k-1)/2 or, for one-vs-rest models, k binary problems.
+     *
+     * @return The solver metrics or <em>null</em> if the model was loaded from a file
+     */
+    public SolverMetrics getMetrics()
+    {
+        return this.metrics;
+    }
+
+    /**
+     * Sets the memory-mapped kernel matrix the values of a precomputed kernel are read from on prediction. The rows of
+     * the matrix belong to the samples to predict, which consist of the node 0:row_number, and the columns to the
+     * training samples the serial numbers of the support vectors refer to.
+     *
+     * @param gram
+     *         The kernel matrix of the samples to predict or <em>null</em> to read the kernel values from the samples
+     */
+    public void setGramMatrix(GramMatrix gram)
+    {
+        if (!KernelType.PRECOMPUTED.equals(this.param.kernelType))
+        {
+            throw new IllegalStateException("Only models of a precomputed kernel read a kernel matrix");
+        }
+        // the parameters may be shared with the training, which has to keep its own matrix
+        this.param = (Parameter) this.param.clone();
+        this.param.gramMatrix = gram;
+    }
+
+    /**
+     * Specifies how the pairwise classifiers of a multi-class model are combined on prediction. Predictions including
+     * probability estimates always evaluate all pairwise classifiers.
+     *
+     * @param strategy
+     *         The strategy to use or <em>null</em> to restore the default, {@link VotingStrategy#VOTING}
+     */
+    public void setVotingStrategy(VotingStrategy strategy)
+    {
+        this.votingStrategy = strategy;
+        if (isLazy() && this.w == null && this.pairSV == null)
+        {
+            preparePairs();
+        }
+    }
+
+    /**
+     * Collects the support vectors with a non-zero coefficient of each pairwise classifier, so a classifier only visits
+     * the support vectors which contribute to its decision value.
+     */
+    private void preparePairs()
+    {
+        int nr_class = this.nrClass;
+        int[] start = svStart();
+        int[][] sv = new int[nr_class * (nr_class - 1) / 2][];
+        double[][] coef = new double[sv.length][];
+        int p = 0;
+        for (int i = 0; i < nr_class; i++)
+        {
+            for (int j = i + 1; j < nr_class; j++)
+            {
+                // the same order as on voting, so the decision values are identical
+                int[] index = new int[this.nSV[i] + this.nSV[j]];
+                double[] value = new double[index.length];
+                int n = 0;
+                for (int k = start[i]; k < start[i] + this.nSV[i]; k++)
+                {
+                    if (this.svCoef[j - 1][k] != 0)
+                    {
+                        index[n] = k;
+                        value[n++] = this.svCoef[j - 1][k];
+                    }
+                }
+                for (int k = start[j]; k < start[j] + this.nSV[j]; k++)
+                {
+                    if (this.svCoef[i][k] != 0)
+                    {
+                        index[n] = k;
+                        value[n++] = this.svCoef[i][k];
+                    }
+                }
+                sv[p] = Arrays.copyOf(index, n);
+                coef[p] = Arrays.copyOf(value, n);
+                p++;
+            }
+        }
+        this.pairCoef = coef;
+        this.pairSV = sv;
+    }
+
+    /**
+     * Returns the strategy which combines the pairwise classifiers of a multi-class model on prediction.
+     *
+     * @return The voting strategy of this model
+     */
+    public VotingStrategy getVotingStrategy()
+    {
+        return this.votingStrategy != null ? this.votingStrategy : VotingStrategy.VOTING;
+    }
+
     /**
      * Returns the probability for a regression based model.
      *
@@ -446,18 +990,30 @@ public class Model implements Serializable
      */
     public double predict(Node[] x)
     {
-        int nr_class = this.nrClass;
-        double[] decValues;
-        if (SVMType.ONE_CLASS.equals(this.param.svmType) || SVMType.EPSILON_SVR.equals(this.param.svmType) ||
-            SVMType.NU_SVR.equals(this.param.svmType))
-        {
-            decValues = new double[1];
-        }
-        else
+        return predict(x, context());
+    }
+
+    /**
+     * Predicts the class a certain sample belongs to using the scratch buffers of the provided context. This method does
+     * not allocate any memory. The decision values are available via {@link PredictionContext#getDecisionValues()}
+     * afterwards. If the {@link #setVotingStrategy(VotingStrategy) voting strategy} skips pairwise classifiers, their
+     * decision values are NaN.
+     *
+     * @param x
+     *         A sample consisting of multiple features
+     * @param context
+     *         The context created by {@link #createPredictionContext()} which is used by the current thread only
+     *
+     * @return The predicted class the sample belongs to
+     */
+    public double predict(Node[] x, PredictionContext context)
+    {
+        if (isLazy())
         {
-            decValues = new double[nr_class * (nr_class - 1) / 2];
+            Node[] sample = this.featureMap != null ? mapFeatures(x, context) : x;
+            return decideLazily(sample, context);
         }
-        return predictValues(x, decValues);
+        return predictValues(x, context.decValues, context);
     }
 
     /**
@@ -481,134 +1037,1109 @@ public class Model implements Serializable
      */
     double predictValues(Node[] x, double[] decValues)
     {
-        int i;
-        if (SVMType.ONE_CLASS.equals(this.param.svmType) || SVMType.EPSILON_SVR.equals(this.param.svmType) ||
-            SVMType.NU_SVR.equals(this.param.svmType))
+        return predictValues(x, decValues, context());
+    }
+
+    private double predictValues(Node[] x, double[] decValues, PredictionContext context)
+    {
+        if (this.featureMap != null)
+        {
+            x = mapFeatures(x, context);
+        }
+        double[] kvalue = null;
+        if (this.w == null)
         {
-            double[] sv_coef = this.svCoef[0];
-            double sum = 0;
             // application of the kernel function for each feature
-            for (i = 0; i < this.numInstances; i++)
+            kvalue = context.kvalue;
+            if (this.svSquare != null)
             {
-                sum += sv_coef[i] * Kernel.function(x, this.SV[i], this.param);
+                kernelValues(x, kvalue, context.dense);
             }
-            sum -= this.rho[0];
-            decValues[0] = sum;
+            else
+            {
+                for (int i = 0; i < this.numInstances; i++)
+                {
+                    kvalue[i] = kernel(x, i);
+                }
+            }
+        }
+        return decide(x, kvalue, decValues, this.start, context.vote);
+    }
+
+    /**
+     * Evaluates the kernel function of a sample with all support vectors. The sample is scattered into the dense buffer
+     * once, so the dot product with a support vector only iterates the features of the support vector. Without a dense
+     * buffer the features of the sample are merged with the features of each support vector.
+     *
+     * @param x
+     *         The sample to evaluate the kernel values for
+     * @param kvalue
+     *         The array receiving the kernel values K(x, SV[i])
+     * @param dense
+     *         A buffer of {@link #denseSize} elements which contains only zeros, which may be empty. It is cleared
+     *         again before returning
+     */
+    private void kernelValues(Node[] x, double[] kvalue, double[] dense)
+    {
+        double xSquare = scatter(x, dense);
+        double xShift = shift(x);
+        for (int i = 0; i < this.numInstances; i++)
+        {
+            kvalue[i] = kernel(x, xSquare, xShift, i, dense);
+        }
+        clear(x, dense);
+    }
 
-            if (SVMType.ONE_CLASS.equals(this.param.svmType))
+    /**
+     * Scatters a sample into a dense buffer. If the model scales its features, each value is multiplied with the
+     * squared scale of its feature.
+     *
+     * @return The squared euclidean norm of the (scaled) sample
+     */
+    private double scatter(Node[] x, double[] dense)
+    {
+        Scaling scaling = this.param.scaling;
+        double xSquare = 0;
+        for (Node n : x)
+        {
+            double value = scaling != null ? scaling.weight(n.index) * n.value : n.value;
+            xSquare += value * n.value;
+            if (n.index < dense.length)
             {
-                return (sum > 0) ? 1 : -1;
+                dense[n.index] = value;
             }
-            else
+        }
+        if (scaling != null)
+        {
+            xSquare += 2 * scaling.shift(x) + scaling.constant();
+        }
+        return xSquare;
+    }
+
+    /**
+     * Returns the shift of a sample within the dot products of the scaled samples.
+     *
+     * @return The shift of the sample or 0 if the model does not scale its features
+     */
+    private double shift(Node[] x)
+    {
+        return this.param.scaling != null ? this.param.scaling.shift(x) : 0;
+    }
+
+    /**
+     * Resets the elements of a dense buffer a sample was scattered into to zero.
+     */
+    private static void clear(Node[] x, double[] dense)
+    {
+        for (Node n : x)
+        {
+            if (n.index < dense.length)
+            {
+                dense[n.index] = 0;
+            }
+        }
+    }
+
+    /**
+     * Evaluates the kernel function of the sample and the i-th support vector via their dot product. If the sample is
+     * scattered into the dense buffer, the features of the support vector are gathered from it, otherwise the sparse
+     * features of both are merged.
+     */
+    private double kernel(Node[] x, double xSquare, double xShift, int i, double[] dense)
+    {
+        CsrMatrix sv = this.svMatrix;
+        double dot = xShift + this.svShift[i];
+        if (dense.length > 0)
+        {
+            for (int k = sv.start(i), end = sv.end(i); k < end; k++)
             {
-                return sum;
+                dot += dense[sv.index(k)] * sv.value(k);
             }
         }
         else
         {
-            int nr_class = this.nrClass;
-            int l = this.numInstances;
-
-            // application of the kernel function for each feature
-            double[] kvalue = new double[l];
-            for (i = 0; i < l; i++)
+            Scaling scaling = this.param.scaling;
+            int n = 0;
+            for (int k = sv.start(i), end = sv.end(i); k < end && n < x.length; )
             {
-                kvalue[i] = Kernel.function(x, this.SV[i], this.param);
+                int index = sv.index(k);
+                if (x[n].index == index)
+                {
+                    double value = sv.value(k++) * x[n++].value;
+                    dot += scaling != null ? scaling.weight(index) * value : value;
+                }
+                else if (x[n].index > index)
+                {
+                    k++;
+                }
+                else
+                {
+                    n++;
+                }
             }
+        }
+        return Kernel.function(dot, xSquare, this.svSquare[i], this.param);
+    }
 
-            int[] start = new int[nr_class];
-            start[0] = 0;
-            for (i = 1; i < nr_class; i++)
+    /**
+     * Specifies whether predictions without probability estimates evaluate the pairwise classifiers one by one instead
+     * of voting with all of them.
+     *
+     * @return <em>true</em> if the voting strategy and the type of this model allow to skip pairwise classifiers
+     */
+    private boolean isLazy()
+    {
+        return this.votingStrategy != null && this.votingStrategy != VotingStrategy.VOTING && this.nrClass > 2 &&
+               !this.oneVsRest &&
+               (SVMType.C_SVC.equals(this.param.svmType) || SVMType.NU_SVC.equals(this.param.svmType));
+    }
+
+    /**
+     * Predicts the class of a sample with the {@link #votingStrategy} by evaluating the pairwise classifiers one after
+     * another. Kernel values are evaluated on first use and remembered until the prediction completes. The decision
+     * values of skipped classifiers are NaN.
+     *
+     * @param x
+     *         The sample to predict, already mapped by the feature map of the model
+     * @param context
+     *         The context providing the scratch buffers
+     *
+     * @return The predicted class of the sample
+     */
+    private double decideLazily(Node[] x, PredictionContext context)
+    {
+        int nr_class = this.nrClass;
+        double[] decValues = context.decValues;
+        Arrays.fill(decValues, Double.NaN);
+        context.nextPrediction();
+        double xSquare = 0;
+        double xShift = 0;
+        if (this.w == null && this.svSquare != null)
+        {
+            xSquare = scatter(x, context.dense);
+            xShift = shift(x);
+        }
+        // every class takes part in a decision before the winner of early voting is certain, so nearly all kernel values
+        // are required and they are evaluated at once instead of checking each support vector on every decision
+        boolean allEvaluated = this.w == null && this.votingStrategy == VotingStrategy.EARLY_VOTING;
+        if (allEvaluated)
+        {
+            double[] kvalue = context.kvalue;
+            for (int k = 0; k < this.numInstances; k++)
             {
-                start[i] = start[i - 1] + this.nSV[i - 1];
+                kvalue[k] = this.svSquare != null ? kernel(x, xSquare, xShift, k, context.dense) : kernel(x, k);
             }
+        }
 
-            int[] vote = new int[nr_class];
-            for (i = 0; i < nr_class; i++)
+        int winner;
+        if (this.votingStrategy == VotingStrategy.DAG)
+        {
+            // the remaining candidates are always the classes between first and last
+            int first = 0;
+            int last = nr_class - 1;
+            while (first < last)
+            {
+                if (pairDecision(x, xSquare, xShift, first, last, context, false) > 0)
+                {
+                    last--;
+                }
+                else
+                {
+                    first++;
+                }
+            }
+            winner = first;
+        }
+        else
+        {
+            int[] vote = context.vote;
+            // the votes a class can still reach if it wins all of its remaining decisions
+            int[] possible = context.possible;
+            // the number of classes which can still reach exactly the given number of votes
+            int[] reaching = context.reaching;
+            for (int i = 0; i < nr_class; i++)
             {
                 vote[i] = 0;
+                possible[i] = nr_class - 1;
+                reaching[i] = 0;
+            }
+            reaching[nr_class - 1] = nr_class;
+            winner = 0;
+            // the classes which can still reach the votes of the leading class, including the leading class itself
+            int contenders = nr_class;
+            decided:
+            for (int i = 0; i < nr_class; i++)
+            {
+                for (int j = i + 1; j < nr_class; j++)
+                {
+                    int won = i;
+                    int lost = j;
+                    if (pairDecision(x, xSquare, xShift, i, j, context, allEvaluated) <= 0)
+                    {
+                        won = j;
+                        lost = i;
+                    }
+                    int leading = vote[winner];
+                    --reaching[possible[lost]];
+                    if (possible[lost]-- == leading)
+                    {
+                        contenders--;
+                    }
+                    ++reaching[possible[lost]];
+                    ++vote[won];
+                    if (vote[won] > leading)
+                    {
+                        // the classes which can reach the previous but not the new number of votes drop out
+                        contenders -= reaching[leading];
+                        winner = won;
+                    }
+                    else if (vote[won] == leading && won < winner)
+                    {
+                        // ties are resolved in favor of the first class, like on voting with all classifiers
+                        winner = won;
+                    }
+                    // a tie with a class which can still reach the votes of the leader is decided by evaluating the
+                    // remaining classifiers
+                    if (contenders == 1)
+                    {
+                        break decided;
+                    }
+                }
+            }
+        }
+
+        if (this.w == null && this.svSquare != null)
+        {
+            clear(x, context.dense);
+        }
+        return this.label[winner];
+    }
+
+    /**
+     * Evaluates the pairwise classifier of the classes i and j with i &lt; j and stores its decision value. Only the
+     * support vectors with a non-zero coefficient in this classifier are evaluated, unless the kernel values of all
+     * support vectors are evaluated already.
+     *
+     * @return The decision value, which is positive if the sample belongs to class i
+     */
+    private double pairDecision(Node[] x, double xSquare, double xShift, int i, int j, PredictionContext context,
+                                boolean allEvaluated)
+    {
+        int p = i * (2 * this.nrClass - i - 1) / 2 + j - i - 1;
+        double sum = 0;
+        if (this.w != null)
+        {
+            sum = linearDecision(p, x);
+        }
+        else if (allEvaluated)
+        {
+            double[] kvalue = context.kvalue;
+            int[] sv = this.pairSV[p];
+            double[] coef = this.pairCoef[p];
+            for (int n = 0; n < sv.length; n++)
+            {
+                sum += coef[n] * kvalue[sv[n]];
+            }
+        }
+        else
+        {
+            // kernel values which were not evaluated for the current prediction yet are evaluated on first use
+            double[] kvalue = context.kvalue;
+            int[] evaluated = context.evaluated;
+            int prediction = context.prediction;
+            boolean cached = this.svSquare != null;
+            int[] sv = this.pairSV[p];
+            double[] coef = this.pairCoef[p];
+            for (int n = 0; n < sv.length; n++)
+            {
+                int k = sv[n];
+                if (evaluated[k] != prediction)
+                {
+                    kvalue[k] = cached ? kernel(x, xSquare, xShift, k, context.dense) : kernel(x, k);
+                    evaluated[k] = prediction;
+                }
+                sum += coef[n] * kvalue[k];
             }
+        }
+        sum -= this.rho[p];
+        context.decValues[p] = sum;
+        return sum;
+    }
 
+    /**
+     * Calculates the decision values for a sample based on the already evaluated kernel values of the support vectors
+     * and returns the predicted class or regression value.
+     *
+     * @param x
+     *         The sample to predict the value for. Only used for linear models with collapsed weight vectors
+     * @param kvalue
+     *         The kernel values K(x, SV[i]) of the sample with all support vectors or <em>null</em> for linear models
+     *         with collapsed weight vectors
+     * @param decValues
+     *         The array to be filled with the decision values
+     * @param start
+     *         The start positions of the support vectors of each class
+     * @param vote
+     *         Scratch array used to count the votes of each class
+     *
+     * @return The predicted class or regression value of the sample
+     */
+    private double decide(Node[] x, double[] kvalue, double[] decValues, int[] start, int[] vote)
+    {
+        int i;
+        if (SVMType.ONE_CLASS.equals(this.param.svmType) || SVMType.EPSILON_SVR.equals(this.param.svmType) ||
+            SVMType.NU_SVR.equals(this.param.svmType))
+        {
+            double sum = 0;
+            if (this.w != null)
+            {
+                sum = linearDecision(0, x);
+            }
+            else
+            {
+                double[] sv_coef = this.svCoef[0];
+                for (i = 0; i < this.numInstances; i++)
+                {
+                    sum += sv_coef[i] * kvalue[i];
+                }
+            }
+            sum -= this.rho[0];
+            decValues[0] = sum;
+        }
+        else if (this.oneVsRest)
+        {
+            for (int c = 0; c < this.nrClass; c++)
+            {
+                double sum = 0;
+                if (this.w != null)
+                {
+                    sum = linearDecision(c, x);
+                }
+                else
+                {
+                    double[] coef = this.svCoef[c];
+                    for (i = 0; i < this.numInstances; i++)
+                    {
+                        sum += coef[i] * kvalue[i];
+                    }
+                }
+                decValues[c] = sum - this.rho[c];
+            }
+        }
+        else
+        {
+            int nr_class = this.nrClass;
             int p = 0;
             for (i = 0; i < nr_class; i++)
             {
                 for (int j = i + 1; j < nr_class; j++)
                 {
                     double sum = 0;
-                    int si = start[i];
-                    int sj = start[j];
-                    int ci = this.nSV[i];
-                    int cj = this.nSV[j];
-
-                    int k;
-                    double[] coef1 = this.svCoef[j - 1];
-                    double[] coef2 = this.svCoef[i];
-                    for (k = 0; k < ci; k++)
+                    if (this.w != null)
                     {
-                        sum += coef1[si + k] * kvalue[si + k];
+                        sum = linearDecision(p, x);
                     }
-                    for (k = 0; k < cj; k++)
+                    else
                     {
-                        sum += coef2[sj + k] * kvalue[sj + k];
+                        int si = start[i];
+                        int sj = start[j];
+                        int ci = this.nSV[i];
+                        int cj = this.nSV[j];
+
+                        int k;
+                        double[] coef1 = this.svCoef[j - 1];
+                        double[] coef2 = this.svCoef[i];
+                        for (k = 0; k < ci; k++)
+                        {
+                            sum += coef1[si + k] * kvalue[si + k];
+                        }
+                        for (k = 0; k < cj; k++)
+                        {
+                            sum += coef2[sj + k] * kvalue[sj + k];
+                        }
                     }
                     sum -= this.rho[p];
                     decValues[p] = sum;
+                    p++;
+                }
+            }
+        }
+        return predictFromDecisionValues(decValues, vote);
+    }
 
-                    if (decValues[p] > 0)
-                    {
-                        ++vote[i];
-                    }
-                    else
+    /**
+     * Predicts a sample from its decision values, i.e. to track the predictions of samples while support vectors are
+     * removed from the model without evaluating the remaining support vectors again.
+     *
+     * @param decValues
+     *         The decision values of the sample, which include the thresholds rho
+     * @param vote
+     *         Scratch array used to count the votes of each class
+     *
+     * @return The predicted class or regression value of the sample
+     */
+    double predictFromDecisionValues(double[] decValues, int[] vote)
+    {
+        if (SVMType.ONE_CLASS.equals(this.param.svmType))
+        {
+            return (decValues[0] > 0) ? 1 : -1;
+        }
+        if (SVMType.EPSILON_SVR.equals(this.param.svmType) || SVMType.NU_SVR.equals(this.param.svmType))
+        {
+            return decValues[0];
+        }
+        if (this.oneVsRest)
+        {
+            // the class whose classifier yields the highest decision value wins
+            int best = 0;
+            for (int c = 1; c < this.nrClass; c++)
+            {
+                if (decValues[c] > decValues[best])
+                {
+                    best = c;
+                }
+            }
+            return this.label[best];
+        }
+
+        int nr_class = this.nrClass;
+        for (int i = 0; i < nr_class; i++)
+        {
+            vote[i] = 0;
+        }
+        int p = 0;
+        for (int i = 0; i < nr_class; i++)
+        {
+            for (int j = i + 1; j < nr_class; j++)
+            {
+                if (decValues[p++] > 0)
+                {
+                    ++vote[i];
+                }
+                else
+                {
+                    ++vote[j];
+                }
+            }
+        }
+
+        int vote_max_idx = 0;
+        for (int i = 1; i < nr_class; i++)
+        {
+            if (vote[i] > vote[vote_max_idx])
+            {
+                vote_max_idx = i;
+            }
+        }
+        return this.label[vote_max_idx];
+    }
+
+    /**
+     * Calculates the start positions of the support vectors of each class within {@link #SV}.
+     *
+     * @return The start positions of the support vectors per class
+     */
+    private int[] svStart()
+    {
+        int[] start = new int[this.nrClass];
+        if (this.nSV != null)
+        {
+            for (int i = 1; i < this.nrClass; i++)
+            {
+                start[i] = start[i - 1] + this.nSV[i - 1];
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Predicts the classes or regression values of multiple samples at once.
+     * <p>
+     * Samples are processed in blocks of {@value #BLOCK_SIZE} instances where every support vector is evaluated against
+     * all samples of a block before the next support vector is accessed. The scratch arrays required for prediction are
+     * allocated once per batch instead of once per sample.
+     *
+     * @param x
+     *         The samples to predict
+     *
+     * @return The predicted classes or regression values in the order of the provided samples
+     */
+    public double[] predict(List<Node[]> x)
+    {
+        return predict(x, 1);
+    }
+
+    /**
+     * Predicts the classes or regression values of multiple samples at once by splitting the samples into equally sized
+     * parts which are predicted by <em>nrThreads</em> threads concurrently. The threads are shared by all batch
+     * predictions and kept alive between them.
+     *
+     * @param x
+     *         The samples to predict
+     * @param nrThreads
+     *         The number of threads to use
+     *
+     * @return The predicted classes or regression values in the order of the provided samples
+     */
+    public double[] predict(List<Node[]> x, int nrThreads)
+    {
+        return predictBatch(x, null, PREDICTION_THREADS, nrThreads);
+    }
+
+    /**
+     * Predicts the classes or regression values of multiple samples at once by splitting the samples into
+     * <em>nrParts</em> equally sized parts which are predicted by the threads of the given executor. The calling thread
+     * waits for all parts, so the executor must not be a bounded pool whose threads are all waiting for predictions.
+     *
+     * @param x
+     *         The samples to predict
+     * @param executor
+     *         The executor predicting the parts
+     * @param nrParts
+     *         The number of parts, usually the number of threads of the executor
+     *
+     * @return The predicted classes or regression values in the order of the provided samples
+     */
+    public double[] predict(List<Node[]> x, ExecutorService executor, int nrParts)
+    {
+        return predictBatch(x, null, executor, nrParts);
+    }
+
+    /**
+     * Predicts the classes of multiple samples including the probability estimates for each class. If the model does
+     * not contain probability information the result equals {@link #predict(List)}.
+     *
+     * @param x
+     *         The samples to predict
+     * @param probEstimates
+     *         An array of <em>x.size()</em> arrays with the length of the number of classes, which will be filled with
+     *         the probability estimates of each sample
+     *
+     * @return The predicted classes in the order of the provided samples
+     */
+    public double[] predictProbability(List<Node[]> x, double[][] probEstimates)
+    {
+        return predictProbability(x, probEstimates, 1);
+    }
+
+    /**
+     * Predicts the classes of multiple samples including the probability estimates for each class using
+     * <em>nrThreads</em> threads concurrently.
+     *
+     * @param x
+     *         The samples to predict
+     * @param probEstimates
+     *         An array of <em>x.size()</em> arrays with the length of the number of classes, which will be filled with
+     *         the probability estimates of each sample
+     * @param nrThreads
+     *         The number of threads to use
+     *
+     * @return The predicted classes in the order of the provided samples
+     */
+    public double[] predictProbability(List<Node[]> x, double[][] probEstimates, int nrThreads)
+    {
+        return predictBatch(x, probEstimates, PREDICTION_THREADS, nrThreads);
+    }
+
+    /**
+     * Predicts the classes of multiple samples including the probability estimates for each class, where
+     * <em>nrParts</em> equally sized parts of the samples are predicted by the threads of the given executor.
+     *
+     * @param x
+     *         The samples to predict
+     * @param probEstimates
+     *         An array of <em>x.size()</em> arrays with the length of the number of classes, which will be filled with
+     *         the probability estimates of each sample
+     * @param executor
+     *         The executor predicting the parts
+     * @param nrParts
+     *         The number of parts, usually the number of threads of the executor
+     *
+     * @return The predicted classes in the order of the provided samples
+     *
+     * @see #predict(List, ExecutorService, int)
+     */
+    public double[] predictProbability(List<Node[]> x, double[][] probEstimates, ExecutorService executor,
+                                       int nrParts)
+    {
+        return predictBatch(x, probEstimates, executor, nrParts);
+    }
+
+    private double[] predictBatch(List<Node[]> x, double[][] probEstimates, ExecutorService executor, int nrParts)
+    {
+        int n = x.size();
+        double[] result = new double[n];
+        if (nrParts <= 1 || n <= BLOCK_SIZE)
+        {
+            predictRange(x, 0, n, result, probEstimates);
+            return result;
+        }
+
+        // split the samples into parts which are a multiple of the block size
+        int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int part = ((blocks + nrParts - 1) / nrParts) * BLOCK_SIZE;
+        List<Future<?>> futures = new ArrayList<>();
+        try
+        {
+            for (int from = 0; from < n; from += part)
+            {
+                final int begin = from;
+                final int end = Math.min(n, from + part);
+                futures.add(executor.submit(() -> predictRange(x, begin, end, result, probEstimates)));
+            }
+            for (Future<?> future : futures)
+            {
+                future.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Prediction got interrupted", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Prediction failed", e.getCause());
+        }
+        finally
+        {
+            // the remaining parts of a failed prediction must not occupy the threads of the executor
+            for (Future<?> future : futures)
+            {
+                future.cancel(true);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Predicts the samples in the range of [from, to) block by block and stores the results in the provided array.
+     */
+    private void predictRange(List<Node[]> x, int from, int to, double[] result, double[][] probEstimates)
+    {
+        boolean probability = probEstimates != null && hasClassProbabilities();
+        int l = this.numInstances;
+        PredictionContext context = context();
+        if (!probability && isLazy())
+        {
+            // the kernel values required depend on the decisions of the previous classifiers of each sample
+            for (int b = from; b < to; b++)
+            {
+                result[b] = predict(x.get(b), context);
+            }
+            return;
+        }
+
+        double[][] kvalue = null;
+        if (this.w == null)
+        {
+            kvalue = new double[Math.min(BLOCK_SIZE, to - from)][l];
+        }
+        // the samples of a block are scattered feature-major, so the features of a support vector are gathered for
+        // all samples of the block at once
+        double[] block = null;
+        double[] dots = null;
+        double[] xSquare = null;
+        double[] xShift = null;
+        if (kvalue != null && this.denseSize > 0 && (long) this.denseSize * BLOCK_SIZE <= MAX_BLOCK_BUFFER)
+        {
+            block = new double[this.denseSize * BLOCK_SIZE];
+            dots = new double[BLOCK_SIZE];
+            xSquare = new double[BLOCK_SIZE];
+            xShift = new double[BLOCK_SIZE];
+        }
+
+        for (int blockStart = from; blockStart < to; blockStart += BLOCK_SIZE)
+        {
+            int blockEnd = Math.min(to, blockStart + BLOCK_SIZE);
+            if (kvalue != null && block != null)
+            {
+                blockKernelValues(x, blockStart, blockEnd, kvalue, block, dots, xSquare, xShift);
+            }
+            else if (kvalue != null && this.svSquare != null)
+            {
+                for (int b = blockStart; b < blockEnd; b++)
+                {
+                    kernelValues(x.get(b), kvalue[b - blockStart], context.dense);
+                }
+            }
+            else if (kvalue != null)
+            {
+                // evaluate each support vector against all samples of the block while it is hot in the CPU cache
+                for (int i = 0; i < l; i++)
+                {
+                    for (int b = blockStart; b < blockEnd; b++)
                     {
-                        ++vote[j];
+                        kvalue[b - blockStart][i] = kernel(x.get(b), i);
                     }
-                    p++;
                 }
             }
 
-            int vote_max_idx = 0;
-            for (i = 1; i < nr_class; i++)
+            for (int b = blockStart; b < blockEnd; b++)
+            {
+                Node[] sample = this.featureMap != null ? mapFeatures(x.get(b), context) : x.get(b);
+                double predicted = decide(sample, kvalue == null ? null : kvalue[b - blockStart],
+                                          context.decValues, this.start, context.vote);
+                if (probability)
+                {
+                    predicted = probabilityFromDecisionValues(context.decValues, probEstimates[b], context);
+                }
+                result[b] = predicted;
+            }
+        }
+    }
+
+    /**
+     * Evaluates the kernel function of a block of samples with all support vectors. The samples are scattered into
+     * <em>block</em>, where feature f of the b-th sample of the block is stored at f*{@link #BLOCK_SIZE}+b, so each
+     * feature of a support vector is multiplied with the consecutive values of all samples of the block.
+     */
+    private void blockKernelValues(List<Node[]> x, int from, int to, double[][] kvalue, double[] block, double[] dots,
+                                   double[] xSquare, double[] xShift)
+    {
+        CsrMatrix sv = this.svMatrix;
+        Scaling scaling = this.param.scaling;
+        int n = to - from;
+        for (int b = 0; b < n; b++)
+        {
+            double sum = 0;
+            for (Node node : x.get(from + b))
+            {
+                double value = scaling != null ? scaling.weight(node.index) * node.value : node.value;
+                sum += value * node.value;
+                if (node.index < this.denseSize)
+                {
+                    block[node.index * BLOCK_SIZE + b] = value;
+                }
+            }
+            xShift[b] = shift(x.get(from + b));
+            xSquare[b] = scaling != null ? sum + 2 * xShift[b] + scaling.constant() : sum;
+        }
+
+        for (int i = 0; i < this.numInstances; i++)
+        {
+            for (int b = 0; b < n; b++)
+            {
+                dots[b] = xShift[b] + this.svShift[i];
+            }
+            for (int k = sv.start(i), end = sv.end(i); k < end; k++)
+            {
+                double value = sv.value(k);
+                int base = sv.index(k) * BLOCK_SIZE;
+                for (int b = 0; b < n; b++)
+                {
+                    dots[b] += block[base + b] * value;
+                }
+            }
+            for (int b = 0; b < n; b++)
+            {
+                kvalue[b][i] = Kernel.function(dots[b], xSquare[b], this.svSquare[i], this.param);
+            }
+        }
+
+        for (int b = 0; b < n; b++)
+        {
+            for (Node node : x.get(from + b))
             {
-                if (vote[i] > vote[vote_max_idx])
+                if (node.index < this.denseSize)
                 {
-                    vote_max_idx = i;
+                    block[node.index * BLOCK_SIZE + b] = 0;
                 }
             }
+        }
+    }
 
-            return this.label[vote_max_idx];
+    /**
+     * Maps a sample into the feature space of a model trained on an approximated kernel. The returned sample is a
+     * buffer of the context which is overwritten by the next invocation.
+     */
+    private Node[] mapFeatures(Node[] x, PredictionContext context)
+    {
+        this.featureMap.map(x, context.featureValues, 0);
+        Node[] features = context.features;
+        for (int d = 0; d < features.length; d++)
+        {
+            features[d].value = context.featureValues[d];
         }
+        return features;
     }
 
-    public double predictProbability(Node[] x, double[] prob_estimates)
+    /**
+     * Collapses the support vectors and their coefficients of a model using a linear kernel into one weight vector per
+     * decision function. As K(x, sv) = x^T sv for the linear kernel, the decision function sum_i coef_i K(x, sv_i) - rho
+     * equals w^T x - rho with w = sum_i coef_i sv_i. Afterwards prediction only requires a sparse dot product per
+     * decision function, which is independent of the number of support vectors.
+     * <p>
+     * The support vectors are kept, so the model can still be persisted in the libSVM format.
+     * <p>
+     * A weight vector only covers the features of the support vectors of its decision function. It is stored sparse
+     * if these features cover less than half of the feature indices, i.e. for text models with a high feature index,
+     * and dense otherwise.
+     *
+     * @return <em>true</em> if the model was collapsed, <em>false</em> if the model does not use a linear kernel or
+     *         scales its features
+     */
+    public boolean collapseLinear()
     {
-        if ((SVMType.C_SVC.equals(this.param.svmType) || SVMType.NU_SVC.equals(this.param.svmType)) &&
-            this.probA != null && this.probB != null)
+        if (!KernelType.LINEAR.equals(this.param.kernelType) || this.param.scaling != null)
         {
-            int i;
-            int nr_class = this.nrClass;
-            double[] dec_values = new double[nr_class * (nr_class - 1) / 2];
-            this.predictValues(x, dec_values);
+            return false;
+        }
+        if (this.w != null)
+        {
+            return true;
+        }
 
-            double min_prob = 1e-7;
-            double[][] pairwise_prob = new double[nr_class][nr_class];
+        CsrMatrix sv = this.svMatrix();
+        int maxIndex = 0;
+        for (int k = 0; k < sv.nnz(); k++)
+        {
+            maxIndex = Math.max(maxIndex, sv.index(k));
+        }
 
-            int k = 0;
-            for (i = 0; i < nr_class; i++)
+        double[][] weights;
+        int[][] indices;
+        if (SVMType.ONE_CLASS.equals(this.param.svmType) || SVMType.EPSILON_SVR.equals(this.param.svmType) ||
+            SVMType.NU_SVR.equals(this.param.svmType))
+        {
+            weights = new double[1][];
+            indices = new int[1][];
+            collapse(sv, maxIndex, weights, indices, 0, this.svCoef[0], 0, this.numInstances, null, 0, 0);
+        }
+        else if (this.oneVsRest)
+        {
+            weights = new double[this.nrClass][];
+            indices = new int[this.nrClass][];
+            for (int c = 0; c < this.nrClass; c++)
+            {
+                collapse(sv, maxIndex, weights, indices, c, this.svCoef[c], 0, this.numInstances, null, 0, 0);
+            }
+        }
+        else
+        {
+            int nr_class = this.nrClass;
+            int[] start = new int[nr_class];
+            for (int i = 1; i < nr_class; i++)
+            {
+                start[i] = start[i - 1] + this.nSV[i - 1];
+            }
+
+            weights = new double[nr_class * (nr_class - 1) / 2][];
+            indices = new int[weights.length][];
+            int p = 0;
+            for (int i = 0; i < nr_class; i++)
             {
                 for (int j = i + 1; j < nr_class; j++)
                 {
-                    pairwise_prob[i][j] =
-                            Math.min(Math.max(sigmoidPredict(dec_values[k], this.probA[k], this.probB[k]), min_prob),
-                                     1 - min_prob);
-                    pairwise_prob[j][i] = 1 - pairwise_prob[i][j];
-                    k++;
+                    // classifier (i,j): coefficients of class i are in svCoef[j-1], the ones of class j in svCoef[i]
+                    collapse(sv, maxIndex, weights, indices, p, this.svCoef[j - 1], start[i], this.nSV[i],
+                             this.svCoef[i], start[j], this.nSV[j]);
+                    p++;
                 }
             }
-            multiclassProbability(nr_class, pairwise_prob, prob_estimates);
+        }
+        this.wIndex = indices;
+        this.w = weights;
+        return true;
+    }
+
+    /**
+     * Collapses the support vectors of up to two ranges [start, start+count), weighted by their coefficient, into the
+     * weight vector of decision function f, which is stored sparse if the support vectors cover less than half of the
+     * feature indices.
+     */
+    private static void collapse(CsrMatrix sv, int maxIndex, double[][] weights, int[][] indices, int f,
+                                 double[] coef, int start, int count, double[] otherCoef, int otherStart,
+                                 int otherCount)
+    {
+        int nnz = sv.start(start + count) - sv.start(start);
+        if (otherCoef != null)
+        {
+            nnz += sv.start(otherStart + otherCount) - sv.start(otherStart);
+        }
+        int[] features = new int[nnz];
+        int n = copyIndices(sv, start, count, features, 0);
+        if (otherCoef != null)
+        {
+            copyIndices(sv, otherStart, otherCount, features, n);
+        }
+        Arrays.sort(features);
+        int distinct = 0;
+        for (int k = 0; k < nnz; k++)
+        {
+            if (distinct == 0 || features[distinct - 1] != features[k])
+            {
+                features[distinct++] = features[k];
+            }
+        }
 
+        int[] index = null;
+        if (2L * distinct < maxIndex + 1)
+        {
+            index = Arrays.copyOf(features, distinct);
+        }
+        double[] weight = new double[index != null ? distinct : maxIndex + 1];
+        addWeighted(sv, weight, index, coef, start, count);
+        if (otherCoef != null)
+        {
+            addWeighted(sv, weight, index, otherCoef, otherStart, otherCount);
+        }
+        weights[f] = weight;
+        indices[f] = index;
+    }
+
+    /**
+     * Copies the feature indices of the support vectors in the range of [start, start+count) to the given position.
+     *
+     * @return The position following the last copied index
+     */
+    private static int copyIndices(CsrMatrix sv, int start, int count, int[] features, int position)
+    {
+        for (int k = sv.start(start), end = sv.start(start + count); k < end; k++)
+        {
+            features[position++] = sv.index(k);
+        }
+        return position;
+    }
+
+    /**
+     * Adds the support vectors in the range of [start, start+count) weighted by their coefficient to the provided
+     * weight vector, which is dense if no feature indices are given.
+     */
+    private static void addWeighted(CsrMatrix sv, double[] weights, int[] index, double[] coef, int start, int count)
+    {
+        for (int k = start; k < start + count; k++)
+        {
+            for (int f = sv.start(k); f < sv.end(k); f++)
+            {
+                int position = index != null ? Arrays.binarySearch(index, sv.index(f)) : sv.index(f);
+                weights[position] += coef[k] * sv.value(f);
+            }
+        }
+    }
+
+    /**
+     * Calculates the sparse dot product of a sample with the weight vector of a linear decision function. Features
+     * which were not seen during training do not contribute to the result.
+     *
+     * @param f
+     *         The decision function whose weight vector is used
+     * @param x
+     *         The sample to calculate the dot product for
+     *
+     * @return The dot product of the weight vector and <em>x</em>
+     */
+    private double linearDecision(int f, Node[] x)
+    {
+        double[] w = this.w[f];
+        int[] index = this.wIndex != null ? this.wIndex[f] : null;
+        double sum = 0;
+        if (index == null)
+        {
+            for (Node n : x)
+            {
+                if (n.index < w.length)
+                {
+                    sum += w[n.index] * n.value;
+                }
+            }
+            return sum;
+        }
+        // the features of the sample are ordered by their index, so each one is searched behind the previous one
+        int from = 0;
+        for (Node n : x)
+        {
+            int position = Arrays.binarySearch(index, from, index.length, n.index);
+            if (position >= 0)
+            {
+                sum += w[position] * n.value;
+                from = position + 1;
+            }
+            else
+            {
+                from = -position - 1;
+            }
+            if (from == index.length)
+            {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    public double predictProbability(Node[] x, double[] prob_estimates)
+    {
+        return predictProbability(x, prob_estimates, context());
+    }
+
+    /**
+     * Predicts the class of a sample including the probability estimates for each class using the scratch buffers of
+     * the provided context. If the model does not contain probability information the result equals {@link
+     * #predict(Node[], PredictionContext)}.
+     *
+     * @param x
+     *         A sample consisting of multiple features
+     * @param prob_estimates
+     *         The array to be filled with the probability estimates of each class
+     * @param context
+     *         The context created by {@link #createPredictionContext()} which is used by the current thread only
+     *
+     * @return The predicted class the sample belongs to
+     */
+    public double predictProbability(Node[] x, double[] prob_estimates, PredictionContext context)
+    {
+        if (hasClassProbabilities())
+        {
+            this.predictValues(x, context.decValues, context);
+            return probabilityFromDecisionValues(context.decValues, prob_estimates, context);
+        }
+        else
+        {
+            return this.predict(x, context);
+        }
+    }
+
+    /**
+     * Specifies whether this model is a classification model which is able to estimate class probabilities.
+     *
+     * @return <em>true</em> if probability estimates are available for the classes of this model
+     */
+    private boolean hasClassProbabilities()
+    {
+        return (SVMType.C_SVC.equals(this.param.svmType) || SVMType.NU_SVC.equals(this.param.svmType)) &&
+               this.probA != null && this.probB != null;
+    }
+
+    /**
+     * Estimates the probabilities of each class based on the decision values of the pairwise classifiers.
+     *
+     * @param dec_values
+     *         The decision values of the k*(k-1)/2 classifiers
+     * @param prob_estimates
+     *         The array to be filled with the probability estimates of each class
+     *
+     * @return The class with the highest probability
+     */
+    private double probabilityFromDecisionValues(double[] dec_values, double[] prob_estimates,
+                                                 PredictionContext context)
+    {
+        int i;
+        int nr_class = this.nrClass;
+
+        double min_prob = 1e-7;
+        if (this.oneVsRest)
+        {
+            // the probability of each class against all other classes, normalized to a sum of 1
+            double sum = 0;
+            for (i = 0; i < nr_class; i++)
+            {
+                prob_estimates[i] = Math.max(sigmoidPredict(dec_values[i], this.probA[i], this.probB[i]), min_prob);
+                sum += prob_estimates[i];
+            }
             int prob_max_idx = 0;
-            for (i = 1; i < nr_class; i++)
+            for (i = 0; i < nr_class; i++)
             {
+                prob_estimates[i] /= sum;
                 if (prob_estimates[i] > prob_estimates[prob_max_idx])
                 {
                     prob_max_idx = i;
@@ -616,18 +2147,40 @@ public class Model implements Serializable
             }
             return this.label[prob_max_idx];
         }
-        else
+        double[][] pairwise_prob = context.pairwiseProb;
+
+        int k = 0;
+        for (i = 0; i < nr_class; i++)
         {
-            return this.predict(x);
+            for (int j = i + 1; j < nr_class; j++)
+            {
+                pairwise_prob[i][j] =
+                        Math.min(Math.max(sigmoidPredict(dec_values[k], this.probA[k], this.probB[k]), min_prob),
+                                 1 - min_prob);
+                pairwise_prob[j][i] = 1 - pairwise_prob[i][j];
+                k++;
+            }
         }
+        multiclassProbability(nr_class, pairwise_prob, prob_estimates, context.Q, context.Qp);
+
+        int prob_max_idx = 0;
+        for (i = 1; i < nr_class; i++)
+        {
+            if (prob_estimates[i] > prob_estimates[prob_max_idx])
+            {
+                prob_max_idx = i;
+            }
+        }
+        return this.label[prob_max_idx];
     }
 
-    private double sigmoidPredict(double decision_value, double A, double B)
+    private static double sigmoidPredict(double decision_value, double A, double B)
     {
         double fApB = decision_value * A + B;
         if (fApB >= 0)
         {
-            return Math.exp(-fApB) / (1.0 + Math.exp(-fApB));
+            double e = Math.exp(-fApB);
+            return e / (1.0 + e);
         }
         else
         {
@@ -635,15 +2188,27 @@ public class Model implements Serializable
         }
     }
 
-    // Method 2 from the multiclass_prob paper by Wu, Lin, and Weng
-    private void multiclassProbability(int k, double[][] r, double[] p)
+    /**
+     * Couples the pairwise probabilities r[i][j] = P(y = i | y = i or j, x) to the probabilities of the k classes
+     * using method 2 from the multiclass_prob paper by Wu, Lin, and Weng. The buffers Q and Qp are provided by the
+     * {@link PredictionContext}, so no memory is allocated.
+     * <p>
+     * The solution of two classes is the pairwise probability itself, as r[1][0] * r[0][1] - r[0][1] * r[1][0] = 0
+     * satisfies the optimality condition, so no iterations are required.
+     */
+    private static void multiclassProbability(int k, double[][] r, double[] p, double[][] Q, double[] Qp)
     {
         int t, j;
         int iter, max_iter = Math.max(100, k);
-        double[][] Q = new double[k][k];
-        double[] Qp = new double[k];
         double pQp, eps = 0.005 / k;
 
+        if (k == 2)
+        {
+            p[0] = r[0][1];
+            p[1] = r[1][0];
+            return;
+        }
+
         for (t = 0; t < k; t++)
         {
             p[t] = 1.0 / k; // Valid if k = 1
@@ -665,12 +2230,14 @@ public class Model implements Serializable
             pQp = 0;
             for (t = 0; t < k; t++)
             {
-                Qp[t] = 0;
+                double[] Q_t = Q[t];
+                double sum = 0;
                 for (j = 0; j < k; j++)
                 {
-                    Qp[t] += Q[t][j] * p[j];
+                    sum += Q_t[j] * p[j];
                 }
-                pQp += p[t] * Qp[t];
+                Qp[t] = sum;
+                pQp += p[t] * sum;
             }
             double max_error = 0;
             for (t = 0; t < k; t++)
@@ -688,13 +2255,15 @@ public class Model implements Serializable
 
             for (t = 0; t < k; t++)
             {
-                double diff = (-Qp[t] + pQp) / Q[t][t];
+                double[] Q_t = Q[t];
+                double diff = (-Qp[t] + pQp) / Q_t[t];
                 p[t] += diff;
-                pQp = (pQp + diff * (diff * Q[t][t] + 2 * Qp[t])) / (1 + diff) / (1 + diff);
+                double scale = 1 / (1 + diff);
+                pQp = (pQp + diff * (diff * Q_t[t] + 2 * Qp[t])) * scale * scale;
                 for (j = 0; j < k; j++)
                 {
-                    Qp[j] = (Qp[j] + diff * Q[t][j]) / (1 + diff);
-                    p[j] /= (1 + diff);
+                    Qp[j] = (Qp[j] + diff * Q_t[j]) * scale;
+                    p[j] *= scale;
                 }
             }
         }
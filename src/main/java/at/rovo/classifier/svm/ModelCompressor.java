@@ -0,0 +1,379 @@
+package at.rovo.classifier.svm;
+
+import at.rovo.classifier.svm.kernel.Kernel;
+import at.rovo.classifier.svm.struct.Node;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reduces the number of support vectors of a trained {@link Model}, which reduces the number of kernel evaluations per
+ * prediction accordingly.
+ * <p>
+ * {@link #deduplicate(Model)} merges identical support vectors of the same class by adding up their coefficients. The
+ * resulting model predicts exactly the same values. {@link #prune(Model, List, List, double)} removes the support
+ * vectors with the least influence on the decision functions as long as the quality of the predictions on a validation
+ * set does not drop by more than a given tolerance.
+ * <p>
+ * Both methods return a new model and leave the provided model untouched. The compressed models can be persisted like
+ * any other model.
+ *
+ * @author Roman Vottner
+ */
+public final class ModelCompressor
+{
+    private ModelCompressor()
+    {
+
+    }
+
+    /**
+     * Merges identical support vectors of the same class into a single support vector whose coefficients are the sum of
+     * the coefficients of the merged ones. As the kernel values of identical vectors are equal, the decision values of
+     * the compressed model are the same as the ones of the original model apart from rounding errors.
+     * <p>
+     * Identical vectors usually stem from duplicate samples in the training data. Duplicates of different classes are
+     * kept, as their coefficients belong to different decision functions.
+     *
+     * @param model
+     *         The model to compress
+     *
+     * @return The model without duplicate support vectors, or the provided model if it does not contain duplicates
+     */
+    public static Model deduplicate(Model model)
+    {
+        int l = model.numInstances;
+        int[] start = classStart(model);
+        double[][] coef = new double[model.svCoef.length][];
+        for (int r = 0; r < coef.length; r++)
+        {
+            coef[r] = model.svCoef[r].clone();
+        }
+
+        boolean[] keep = new boolean[l];
+        int removed = 0;
+        for (int c = 0; c < start.length - 1; c++)
+        {
+            Map<Key, Integer> seen = new HashMap<>();
+            for (int k = start[c]; k < start[c + 1]; k++)
+            {
+                Integer first = seen.putIfAbsent(new Key(model.supportVector(k)), k);
+                if (first == null)
+                {
+                    keep[k] = true;
+                }
+                else
+                {
+                    for (double[] row : coef)
+                    {
+                        row[first] += row[k];
+                    }
+                    removed++;
+                }
+            }
+        }
+        return removed == 0 ? model : select(model, keep, coef);
+    }
+
+    /**
+     * Removes the support vectors with the smallest influence on the decision functions, as long as the predictions of
+     * the compressed model on the given validation samples do not get worse than the predictions of the original model
+     * by more than the given tolerance. The influence of a support vector is estimated by the sum of its absolute
+     * coefficients weighted by its norm in the feature space of the kernel.
+     * <p>
+     * The support vectors are removed one by one in the order of their influence, where the kernel values of each
+     * removed support vector with the validation samples are subtracted from the decision values of the samples. This
+     * evaluates the loss of every number of removed support vectors at the cost of evaluating the kernel values of all
+     * validation samples with all support vectors once, while only the decision values of the validation samples are
+     * kept in memory. The largest number of removed support vectors within the tolerance is chosen, which does not
+     * require the loss to increase monotonically with the number of removed support vectors. The thresholds rho of the
+     * decision functions are kept unchanged.
+     *
+     * @param model
+     *         The model to compress
+     * @param x
+     *         The validation samples, which should not be part of the training data
+     * @param y
+     *         The labels or target values of the validation samples
+     * @param tolerance
+     *         The maximum decrease of the accuracy in percentage points for classification or the maximum increase of
+     *         the mean squared error for regression
+     *
+     * @return The compressed model, or the provided model if no support vector can be removed
+     */
+    public static Model prune(Model model, List<Node[]> x, List<Double> y, double tolerance)
+    {
+        if (x.size() != y.size() || x.isEmpty())
+        {
+            throw new IllegalArgumentException("A non-empty validation set with a label per sample is required");
+        }
+
+        int l = model.numInstances;
+        Integer[] order = new Integer[l];
+        double[] influence = new double[l];
+        for (int k = 0; k < l; k++)
+        {
+            Node[] sv = model.supportVector(k);
+            double weight = 0;
+            for (double[] row : model.svCoef)
+            {
+                weight += Math.abs(row[k]);
+            }
+            influence[k] = weight * Math.sqrt(Math.abs(Kernel.function(sv, sv, model.param)));
+            order[k] = k;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(influence[a], influence[b]));
+
+        int n = x.size();
+        // the support vectors of a model trained on an approximated kernel refer to the mapped samples
+        Node[][] samples = new Node[n][];
+        double[][] decValues = new double[n][Math.max(1, model.nrDecisionFunctions())];
+        double[] predicted = new double[n];
+        int[] vote = new int[model.nrClass];
+        for (int i = 0; i < n; i++)
+        {
+            samples[i] = model.featureMap != null ? model.featureMap.map(x.get(i)) : x.get(i);
+            model.predictValues(x.get(i), decValues[i]);
+            predicted[i] = model.predictFromDecisionValues(decValues[i], vote);
+        }
+        double baseline = loss(predicted, model, y);
+
+        int[] start = classStart(model);
+        int[] remaining = new int[start.length - 1];
+        for (int c = 0; c < remaining.length; c++)
+        {
+            remaining[c] = start[c + 1] - start[c];
+        }
+        int bestRemoved = 0;
+        for (int remove = 1; remove <= l; remove++)
+        {
+            int k = order[remove - 1];
+            int c = 0;
+            while (k >= start[c + 1])
+            {
+                c++;
+            }
+            // keeping at least one support vector per class keeps every decision function defined
+            if (--remaining[c] == 0)
+            {
+                break;
+            }
+            Node[] sv = model.supportVector(k);
+            for (int i = 0; i < n; i++)
+            {
+                subtract(model, c, k, Kernel.function(samples[i], sv, model.param), decValues[i]);
+                predicted[i] = model.predictFromDecisionValues(decValues[i], vote);
+            }
+            if (loss(predicted, model, y) <= baseline + tolerance)
+            {
+                bestRemoved = remove;
+            }
+        }
+        return bestRemoved == 0 ? model : select(model, keepLargest(model, order, bestRemoved), model.svCoef);
+    }
+
+    /**
+     * Selects all support vectors except the <em>remove</em> ones of the least influence.
+     *
+     * @return The support vectors to keep
+     */
+    private static boolean[] keepLargest(Model model, Integer[] order, int remove)
+    {
+        boolean[] keep = new boolean[model.numInstances];
+        Arrays.fill(keep, true);
+        for (int k = 0; k < remove; k++)
+        {
+            keep[order[k]] = false;
+        }
+        return keep;
+    }
+
+    /**
+     * Removes the contribution of a support vector from the decision values of a sample.
+     *
+     * @param model
+     *         The model the support vector belongs to
+     * @param c
+     *         The class of the support vector
+     * @param k
+     *         The index of the support vector
+     * @param kvalue
+     *         The kernel value of the sample and the support vector
+     * @param decValues
+     *         The decision values of the sample
+     */
+    private static void subtract(Model model, int c, int k, double kvalue, double[] decValues)
+    {
+        if (model.nSV == null || model.oneVsRest)
+        {
+            // the support vector takes part in every decision function with the coefficient of its row
+            for (int r = 0; r < decValues.length; r++)
+            {
+                decValues[r] -= model.svCoef[r][k] * kvalue;
+            }
+            return;
+        }
+        int nr_class = model.nrClass;
+        for (int j = 0; j < nr_class; j++)
+        {
+            if (j != c)
+            {
+                int i = Math.min(c, j);
+                int p = i * (2 * nr_class - i - 1) / 2 + Math.max(c, j) - i - 1;
+                // the coefficient of a support vector of class c in the classifier of c and j is stored in row j - 1
+                // if c < j and in row j otherwise
+                decValues[p] -= model.svCoef[j > c ? j - 1 : j][k] * kvalue;
+            }
+        }
+    }
+
+    /**
+     * Measures the quality of the predictions on the validation samples as the error rate in percent for
+     * classification and the mean squared error for regression.
+     */
+    private static double loss(double[] predicted, Model model, List<Double> y)
+    {
+        boolean regression = SVMType.EPSILON_SVR.equals(model.param.svmType) ||
+                             SVMType.NU_SVR.equals(model.param.svmType);
+        double loss = 0;
+        for (int i = 0; i < predicted.length; i++)
+        {
+            double target = y.get(i);
+            if (regression)
+            {
+                loss += (predicted[i] - target) * (predicted[i] - target);
+            }
+            else if (predicted[i] != target)
+            {
+                loss += 100;
+            }
+        }
+        return loss / predicted.length;
+    }
+
+    /**
+     * Returns the start position of the support vectors of each class followed by the total number of support vectors.
+     * Regression and one-class models consist of a single group.
+     */
+    private static int[] classStart(Model model)
+    {
+        if (model.nSV == null)
+        {
+            return new int[] {0, model.numInstances};
+        }
+        int[] start = new int[model.nrClass + 1];
+        for (int c = 0; c < model.nrClass; c++)
+        {
+            start[c + 1] = start[c] + model.nSV[c];
+        }
+        return start;
+    }
+
+    /**
+     * Creates a new model consisting of the selected support vectors. The order of the support vectors is kept, so the
+     * support vectors of each class remain in a contiguous block.
+     */
+    private static Model select(Model model, boolean[] keep, double[][] coef)
+    {
+        int l = 0;
+        for (boolean k : keep)
+        {
+            l += k ? 1 : 0;
+        }
+
+        Model compressed = new Model();
+        compressed.param = model.param;
+        compressed.nrClass = model.nrClass;
+        compressed.oneVsRest = model.oneVsRest;
+        compressed.numInstances = l;
+        compressed.rho = model.rho;
+        compressed.probA = model.probA;
+        compressed.probB = model.probB;
+        compressed.label = model.label;
+        compressed.metrics = model.metrics;
+        compressed.featureMap = model.featureMap;
+        compressed.SV = new Node[l][];
+        compressed.svCoef = new double[coef.length][l];
+        compressed.svIndices = model.svIndices != null ? new int[l] : null;
+
+        int[] start = classStart(model);
+        compressed.nSV = model.nSV != null ? new int[model.nrClass] : null;
+        for (int c = 0, j = 0; c < start.length - 1; c++)
+        {
+            for (int k = start[c]; k < start[c + 1]; k++)
+            {
+                if (!keep[k])
+                {
+                    continue;
+                }
+                compressed.SV[j] = model.supportVector(k);
+                for (int r = 0; r < coef.length; r++)
+                {
+                    compressed.svCoef[r][j] = coef[r][k];
+                }
+                if (compressed.svIndices != null)
+                {
+                    compressed.svIndices[j] = model.svIndices[k];
+                }
+                if (compressed.nSV != null)
+                {
+                    compressed.nSV[c]++;
+                }
+                j++;
+            }
+        }
+        compressed.prepare();
+        return compressed;
+    }
+
+    /**
+     * Compares support vectors by their content instead of their identity.
+     */
+    private static final class Key
+    {
+        private final Node[] nodes;
+        private final int hash;
+
+        Key(Node[] nodes)
+        {
+            this.nodes = nodes;
+            int h = 1;
+            for (Node n : nodes)
+            {
+                h = 31 * h + n.index;
+                h = 31 * h + Double.hashCode(n.value);
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Node[] other = ((Key) obj).nodes;
+            if (other.length != this.nodes.length)
+            {
+                return false;
+            }
+            for (int i = 0; i < other.length; i++)
+            {
+                if (other[i].index != this.nodes[i].index ||
+                    Double.compare(other[i].value, this.nodes[i].value) != 0)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,764 @@
+package at.rovo.classifier.svm;
+
+import at.rovo.classifier.Classifier;
+import at.rovo.classifier.svm.kernel.Kernel;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A kernel SVM which is trained online, one sample at a time, by budgeted stochastic gradient descent (Wang, Crammer
+ * and Vucetic, Breaking the Curse of Kernelization: Budgeted Stochastic Gradient Descent for Large-Scale SVM Training,
+ * JMLR 2012). In contrast to {@link SVM}, which collects the samples and solves the whole problem on requesting the
+ * model, {@link #train(Node[], Double)} updates the model immediately and every subsequent classification uses the
+ * updated model.
+ * <p>
+ * The multi-class hinge loss of Crammer and Singer is minimized by Pegasos steps: after t samples the decision function
+ * of class c is
+ * <p>
+ * <code>f_c(x) = 1/(lambda*t) * sum_j beta_j[c] K(x_j, x)</code>
+ * <p>
+ * where a sample (x, y) whose margin f_y(x) - max_{c != y} f_c(x) is below 1 gets added as support vector with
+ * beta[y] = 1 and beta[r] = -1 for the most competing class r. Classes are added as soon as a sample with a new label
+ * arrives. The number of support vectors is limited by a budget, so an update costs O(budget) kernel evaluations
+ * regardless of the number of samples seen. If the budget is exceeded, the support vector m with the smallest
+ * contribution ||beta_m|| * sqrt(K(x_m, x_m)) to the decision functions is
+ * <ul>
+ * <li>merged with the support vector n for which the weight degradation is the smallest on using the RBF kernel. The
+ * two vectors are replaced by z = h*x_m + (1-h)*x_n with beta_z = beta_m K(x_m, z) + beta_n K(x_n, z), where h is
+ * determined by a golden section search</li>
+ * <li>removed on using any other kernel</li>
+ * </ul>
+ * <p>
+ * The kernel function and its parameters are taken from the provided {@link Parameter}s. As the kernel can not change
+ * while learning, gamma has to be specified for the polynomial, RBF and sigmoid kernel. Precomputed kernels are not
+ * supported. Training and classification are synchronized, so samples may be learned while other threads classify.
+ * <p>
+ * {@link #saveData(File, String)} persists the learned model via Java serialization, so {@link #loadData(File)} can
+ * continue learning from it with the same kernel function.
+ *
+ * @author Roman Vottner
+ */
+public class OnlineSVM extends Classifier<Node[], Double>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    /** The parameters of the kernel function **/
+    private final Parameter param;
+    /** The maximum number of support vectors **/
+    private int budget = 500;
+    /** The regularization parameter of the primal objective **/
+    private double lambda = 1e-4;
+
+    /** The labels of the classes in the order of their appearance **/
+    private final List<Double> labels = new ArrayList<>();
+    /** Maps a label to its position in {@link #labels} **/
+    private final Map<Double, Integer> classIndex = new HashMap<>();
+    /** The support vectors **/
+    private final List<Node[]> sv = new ArrayList<>();
+    /** The unscaled coefficients beta_j[c] of each support vector and class **/
+    private final List<double[]> coef = new ArrayList<>();
+    /** The squared norm of each support vector **/
+    private double[] svSquare = new double[16];
+    /** The sample currently classified scattered into a dense array, which is zero between classifications **/
+    private double[] dense = new double[0];
+    /** The decision value of each class for the currently classified sample **/
+    private double[] scores = new double[0];
+    /** The number of samples learned so far **/
+    private long t = 0;
+    /** The number of samples which got added as support vector **/
+    private long updates = 0;
+    /** The number of support vectors removed to keep the budget **/
+    private long removals = 0;
+
+    /**
+     * Initializes a new online SVM.
+     *
+     * @param param
+     *         The parameters specifying the kernel function. The SVM type and the training parameters of the batch
+     *         solvers are ignored
+     *
+     * @throws IllegalArgumentException
+     *         If the kernel is precomputed or gamma is not specified for a kernel which requires it
+     */
+    public OnlineSVM(Parameter param)
+    {
+        if (KernelType.PRECOMPUTED.equals(param.kernelType))
+        {
+            throw new IllegalArgumentException("Precomputed kernels are not supported by online training");
+        }
+        if (param.scaling != null)
+        {
+            throw new IllegalArgumentException("Scaled features are not supported by online training");
+        }
+        if (!KernelType.LINEAR.equals(param.kernelType) && param.gamma <= 0)
+        {
+            throw new IllegalArgumentException("gamma has to be specified for online training");
+        }
+        this.param = (Parameter) param.clone();
+        this.param.kernelCache = null;
+    }
+
+    /**
+     * Sets the maximum number of support vectors kept by the model. Lowering the budget below the current number of
+     * support vectors removes the ones of the least influence.
+     *
+     * @param budget
+     *         The maximum number of support vectors (default: 500)
+     */
+    public synchronized void setBudget(int budget)
+    {
+        if (budget < 1)
+        {
+            throw new IllegalArgumentException("The budget has to be positive");
+        }
+        this.budget = budget;
+        while (this.sv.size() > budget)
+        {
+            maintainBudget();
+        }
+    }
+
+    /**
+     * Sets the regularization parameter lambda, which roughly corresponds to 1/(C*l) of a batch trained C-SVC with l
+     * samples. Larger values yield a smoother decision function and require less support vectors.
+     *
+     * @param lambda
+     *         The regularization parameter (default: 1e-4)
+     */
+    public synchronized void setLambda(double lambda)
+    {
+        if (lambda <= 0)
+        {
+            throw new IllegalArgumentException("lambda has to be positive");
+        }
+        this.lambda = lambda;
+    }
+
+    /**
+     * Returns the current number of support vectors.
+     *
+     * @return The number of support vectors
+     */
+    public synchronized int getNrSV()
+    {
+        return this.sv.size();
+    }
+
+    /**
+     * Returns the number of samples learned so far.
+     *
+     * @return The number of learned samples
+     */
+    public synchronized long getNrSamples()
+    {
+        return this.t;
+    }
+
+    /**
+     * Returns the number of samples which violated the margin and therefore got added as support vector.
+     *
+     * @return The number of updates of the model
+     */
+    public synchronized long getNrUpdates()
+    {
+        return this.updates;
+    }
+
+    /**
+     * Returns the number of support vectors which got removed to keep the budget.
+     *
+     * @return The number of removed support vectors
+     */
+    public synchronized long getNrRemovals()
+    {
+        return this.removals;
+    }
+
+    /**
+     * Returns the labels of the classes seen so far.
+     *
+     * @return The labels in the order of their first appearance
+     */
+    public synchronized double[] getLabels()
+    {
+        double[] result = new double[this.labels.size()];
+        for (int c = 0; c < result.length; c++)
+        {
+            result[c] = this.labels.get(c);
+        }
+        return result;
+    }
+
+    /**
+     * Learns a sample and updates the model immediately.
+     *
+     * @param item
+     *         The sample sorted in ascending order of its feature indices. The array is referenced by the model if the
+     *         sample becomes a support vector and must therefore not be modified afterwards
+     * @param category
+     *         The label of the sample
+     */
+    @Override
+    public synchronized void train(Node[] item, Double category)
+    {
+        int y = this.classIndex.computeIfAbsent(category, label -> {
+            this.labels.add(label);
+            int nrClass = this.labels.size();
+            for (int j = 0; j < this.coef.size(); j++)
+            {
+                this.coef.set(j, Arrays.copyOf(this.coef.get(j), nrClass));
+            }
+            return nrClass - 1;
+        });
+        this.t++;
+        if (this.labels.size() < 2)
+        {
+            return;
+        }
+
+        double xSquare = decisionValues(item);
+        // the most competing class
+        int r = -1;
+        for (int c = 0; c < this.scores.length; c++)
+        {
+            if (c != y && (r < 0 || this.scores[c] > this.scores[r]))
+            {
+                r = c;
+            }
+        }
+        if (this.scores[y] - this.scores[r] >= 1)
+        {
+            return;
+        }
+
+        double[] beta = new double[this.labels.size()];
+        beta[y] = 1;
+        beta[r] = -1;
+        int j = this.sv.size();
+        this.sv.add(item);
+        this.coef.add(beta);
+        if (j == this.svSquare.length)
+        {
+            this.svSquare = Arrays.copyOf(this.svSquare, 2 * j);
+        }
+        this.svSquare[j] = xSquare;
+        for (Node n : item)
+        {
+            if (n.index >= this.dense.length)
+            {
+                this.dense = Arrays.copyOf(this.dense, n.index + 1);
+            }
+        }
+        this.updates++;
+        if (this.sv.size() > this.budget)
+        {
+            maintainBudget();
+        }
+    }
+
+    @Override
+    public void train(Node[][] items, Double category)
+    {
+        for (Node[] nodes : items)
+        {
+            this.train(nodes, category);
+        }
+    }
+
+    @Override
+    public void train(List<Node[]> items, Double category)
+    {
+        for (Node[] nodes : items)
+        {
+            this.train(nodes, category);
+        }
+    }
+
+    /**
+     * Classifies a sample with the current model.
+     *
+     * @param item
+     *         The sample sorted in ascending order of its feature indices
+     *
+     * @return The label of the class with the highest decision value, or 0 if no sample was learned yet
+     */
+    public synchronized Double classify(Node ... item)
+    {
+        if (this.labels.isEmpty())
+        {
+            return 0.;
+        }
+        decisionValues(item);
+        int best = 0;
+        for (int c = 1; c < this.scores.length; c++)
+        {
+            if (this.scores[c] > this.scores[best])
+            {
+                best = c;
+            }
+        }
+        return this.labels.get(best);
+    }
+
+    /**
+     * Classifies every provided sample and returns the class which got predicted most often. On a tie the class which
+     * reached the highest count first is returned.
+     *
+     * @param items
+     *         The samples to classify
+     *
+     * @return The most frequently predicted class of the samples
+     */
+    @Override
+    public synchronized Double classify(Node[]... items)
+    {
+        if (this.labels.isEmpty() || items.length == 0)
+        {
+            return 0.;
+        }
+
+        Map<Double, Integer> counts = new HashMap<>();
+        Double best = null;
+        int bestCount = 0;
+        for (Node[] item : items)
+        {
+            Double predicted = classify(item);
+            int count = counts.merge(predicted, 1, Integer::sum);
+            if (count > bestCount)
+            {
+                best = predicted;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Calculates the decision value of each class for the given sample into {@link #scores}. The sample is scattered
+     * into {@link #dense} once, so each dot product with a support vector only iterates the features of the support
+     * vector.
+     *
+     * @return The squared norm of the sample
+     */
+    private double decisionValues(Node[] x)
+    {
+        int nrClass = this.labels.size();
+        if (this.scores.length != nrClass)
+        {
+            this.scores = new double[nrClass];
+        }
+        Arrays.fill(this.scores, 0);
+
+        double xSquare = 0;
+        for (Node n : x)
+        {
+            xSquare += n.value * n.value;
+            if (n.index < this.dense.length)
+            {
+                this.dense[n.index] = n.value;
+            }
+        }
+        for (int j = 0; j < this.sv.size(); j++)
+        {
+            double dot = 0;
+            for (Node n : this.sv.get(j))
+            {
+                dot += this.dense[n.index] * n.value;
+            }
+            double k = Kernel.function(dot, xSquare, this.svSquare[j], this.param);
+            double[] beta = this.coef.get(j);
+            for (int c = 0; c < beta.length; c++)
+            {
+                this.scores[c] += beta[c] * k;
+            }
+        }
+        for (Node n : x)
+        {
+            if (n.index < this.dense.length)
+            {
+                this.dense[n.index] = 0;
+            }
+        }
+
+        if (this.t > 0)
+        {
+            double scale = 1. / (this.lambda * this.t);
+            for (int c = 0; c < nrClass; c++)
+            {
+                this.scores[c] *= scale;
+            }
+        }
+        return xSquare;
+    }
+
+    /**
+     * Reduces the number of support vectors by one, by merging the support vector of the least influence with its best
+     * partner for the RBF kernel or by removing it for any other kernel.
+     */
+    private void maintainBudget()
+    {
+        int m = -1;
+        double minInfluence = Double.POSITIVE_INFINITY;
+        for (int j = 0; j < this.sv.size(); j++)
+        {
+            double s = this.svSquare[j];
+            double influence = squaredNorm(this.coef.get(j)) * Math.abs(Kernel.function(s, s, s, this.param));
+            if (influence < minInfluence)
+            {
+                minInfluence = influence;
+                m = j;
+            }
+        }
+
+        if (KernelType.RBF.equals(this.param.kernelType))
+        {
+            merge(m);
+        }
+        remove(m);
+        this.removals++;
+    }
+
+    /**
+     * Merges support vector m into the support vector whose combination with m loses the least of the weight vector
+     * of the decision functions. The merged vector replaces the partner, support vector m has to be removed afterwards.
+     */
+    private void merge(int m)
+    {
+        Node[] xm = this.sv.get(m);
+        double[] betaM = this.coef.get(m);
+        double normM = squaredNorm(betaM);
+        for (Node n : xm)
+        {
+            this.dense[n.index] = n.value;
+        }
+
+        int partner = -1;
+        double bestH = 0;
+        double minDegradation = Double.POSITIVE_INFINITY;
+        for (int j = 0; j < this.sv.size(); j++)
+        {
+            if (j == m)
+            {
+                continue;
+            }
+            double dot = 0;
+            for (Node n : this.sv.get(j))
+            {
+                dot += this.dense[n.index] * n.value;
+            }
+            double d = Math.max(0, this.svSquare[m] + this.svSquare[j] - 2 * dot);
+            double[] betaN = this.coef.get(j);
+            double normN = squaredNorm(betaN);
+            double product = 0;
+            for (int c = 0; c < betaM.length; c++)
+            {
+                product += betaM[c] * betaN[c];
+            }
+
+            double h = maximizeMergedNorm(normM, normN, product, this.param.gamma * d);
+            double degradation = normM + normN + 2 * product * Math.exp(-this.param.gamma * d) -
+                                 mergedNorm(normM, normN, product, this.param.gamma * d, h);
+            if (degradation < minDegradation)
+            {
+                minDegradation = degradation;
+                partner = j;
+                bestH = h;
+            }
+        }
+        for (Node n : xm)
+        {
+            this.dense[n.index] = 0;
+        }
+        if (partner < 0)
+        {
+            return;
+        }
+
+        Node[] xn = this.sv.get(partner);
+        Node[] z = combine(xm, bestH, xn, 1 - bestH);
+        double zSquare = 0;
+        for (Node n : z)
+        {
+            zSquare += n.value * n.value;
+        }
+        double gd = this.param.gamma * Math.max(0, this.svSquare[m] + this.svSquare[partner] - 2 * dot(xm, xn));
+        double km = Math.exp(-gd * (1 - bestH) * (1 - bestH));
+        double kn = Math.exp(-gd * bestH * bestH);
+        double[] betaN = this.coef.get(partner);
+        double[] betaZ = new double[betaM.length];
+        for (int c = 0; c < betaZ.length; c++)
+        {
+            betaZ[c] = betaM[c] * km + betaN[c] * kn;
+        }
+        this.sv.set(partner, z);
+        this.coef.set(partner, betaZ);
+        this.svSquare[partner] = zSquare;
+    }
+
+    /**
+     * Finds the position h in [0, 1] of the merged vector z = h*x_m + (1-h)*x_n which maximizes the norm of
+     * beta_m K(x_m, z) + beta_n K(x_n, z) by a golden section search.
+     */
+    private static double maximizeMergedNorm(double normM, double normN, double product, double gd)
+    {
+        double ratio = (Math.sqrt(5) - 1) / 2;
+        double low = 0;
+        double high = 1;
+        double h1 = high - ratio * (high - low);
+        double h2 = low + ratio * (high - low);
+        double f1 = mergedNorm(normM, normN, product, gd, h1);
+        double f2 = mergedNorm(normM, normN, product, gd, h2);
+        while (high - low > 1e-3)
+        {
+            if (f1 < f2)
+            {
+                low = h1;
+                h1 = h2;
+                f1 = f2;
+                h2 = low + ratio * (high - low);
+                f2 = mergedNorm(normM, normN, product, gd, h2);
+            }
+            else
+            {
+                high = h2;
+                h2 = h1;
+                f2 = f1;
+                h1 = high - ratio * (high - low);
+                f1 = mergedNorm(normM, normN, product, gd, h1);
+            }
+        }
+        return (low + high) / 2;
+    }
+
+    /**
+     * Returns ||beta_m K(x_m, z) + beta_n K(x_n, z)||^2 for z = h*x_m + (1-h)*x_n, where gd is gamma*||x_m - x_n||^2.
+     */
+    private static double mergedNorm(double normM, double normN, double product, double gd, double h)
+    {
+        double km = Math.exp(-gd * (1 - h) * (1 - h));
+        double kn = Math.exp(-gd * h * h);
+        return normM * km * km + normN * kn * kn + 2 * product * km * kn;
+    }
+
+    /**
+     * Returns the sparse vector a*x + b*y.
+     */
+    private static Node[] combine(Node[] x, double a, Node[] y, double b)
+    {
+        List<Node> result = new ArrayList<>(x.length + y.length);
+        int i = 0;
+        int j = 0;
+        while (i < x.length || j < y.length)
+        {
+            Node n = new Node();
+            if (j >= y.length || (i < x.length && x[i].index < y[j].index))
+            {
+                n.index = x[i].index;
+                n.value = a * x[i++].value;
+            }
+            else if (i >= x.length || y[j].index < x[i].index)
+            {
+                n.index = y[j].index;
+                n.value = b * y[j++].value;
+            }
+            else
+            {
+                n.index = x[i].index;
+                n.value = a * x[i++].value + b * y[j++].value;
+            }
+            result.add(n);
+        }
+        return result.toArray(new Node[0]);
+    }
+
+    /**
+     * Returns the dot product of two sparse vectors.
+     */
+    private static double dot(Node[] x, Node[] y)
+    {
+        double sum = 0;
+        for (int i = 0, j = 0; i < x.length && j < y.length; )
+        {
+            if (x[i].index == y[j].index)
+            {
+                sum += x[i++].value * y[j++].value;
+            }
+            else if (x[i].index < y[j].index)
+            {
+                i++;
+            }
+            else
+            {
+                j++;
+            }
+        }
+        return sum;
+    }
+
+    private static double squaredNorm(double[] beta)
+    {
+        double sum = 0;
+        for (double b : beta)
+        {
+            sum += b * b;
+        }
+        return sum;
+    }
+
+    /**
+     * Removes a support vector. The last support vector takes the place of the removed one.
+     */
+    private void remove(int j)
+    {
+        int last = this.sv.size() - 1;
+        this.sv.set(j, this.sv.get(last));
+        this.coef.set(j, this.coef.get(last));
+        this.svSquare[j] = this.svSquare[last];
+        this.sv.remove(last);
+        this.coef.remove(last);
+    }
+
+    /**
+     * Persists the learned model, its budget and lambda in a file of the given directory.
+     *
+     * @param directory
+     *         The directory to store the model in
+     * @param name
+     *         The name of the file
+     */
+    @Override
+    public synchronized void saveData(File directory, String name)
+    {
+        State state = new State();
+        state.kernelType = this.param.kernelType;
+        state.degree = this.param.degree;
+        state.gamma = this.param.gamma;
+        state.coef0 = this.param.coef0;
+        state.budget = this.budget;
+        state.lambda = this.lambda;
+        state.labels = new ArrayList<>(this.labels);
+        state.sv = new ArrayList<>(this.sv);
+        state.coef = new ArrayList<>(this.coef);
+        state.svSquare = Arrays.copyOf(this.svSquare, this.sv.size());
+        state.t = this.t;
+        state.updates = this.updates;
+        state.removals = this.removals;
+
+        File dataFile = new File(directory.getAbsoluteFile(), name);
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile))))
+        {
+            out.writeObject(state);
+            LOG.info("Persisted {} successfully", dataFile);
+        }
+        catch (IOException e)
+        {
+            LOG.error("Error while persisting the online SVM", e);
+        }
+    }
+
+    /**
+     * Replaces the learned model with a model stored via {@link #saveData(File, String)}. The model has to be learned
+     * with the kernel function of this instance.
+     *
+     * @param serializedObject
+     *         The file containing the model
+     *
+     * @return <em>true</em> if the model got loaded; <em>false</em> if the file could not be read or the model uses a
+     * different kernel function
+     */
+    @Override
+    public synchronized boolean loadData(File serializedObject)
+    {
+        State state;
+        try (ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(serializedObject))))
+        {
+            Object obj = in.readObject();
+            if (!(obj instanceof State))
+            {
+                LOG.error("File is not a valid data object for this classifier!");
+                return false;
+            }
+            state = (State) obj;
+        }
+        catch (IOException | ClassNotFoundException e)
+        {
+            LOG.error("Error while loading the online SVM", e);
+            return false;
+        }
+        if (!state.kernelType.equals(this.param.kernelType) || state.degree != this.param.degree ||
+            state.gamma != this.param.gamma || state.coef0 != this.param.coef0)
+        {
+            LOG.error("The online SVM in {} was learned with a different kernel function", serializedObject);
+            return false;
+        }
+
+        this.budget = state.budget;
+        this.lambda = state.lambda;
+        this.labels.clear();
+        this.labels.addAll(state.labels);
+        this.classIndex.clear();
+        for (int c = 0; c < this.labels.size(); c++)
+        {
+            this.classIndex.put(this.labels.get(c), c);
+        }
+        this.sv.clear();
+        this.sv.addAll(state.sv);
+        this.coef.clear();
+        this.coef.addAll(state.coef);
+        this.svSquare = Arrays.copyOf(state.svSquare, Math.max(16, state.svSquare.length));
+        int maxIndex = -1;
+        for (Node[] x : this.sv)
+        {
+            for (Node n : x)
+            {
+                maxIndex = Math.max(maxIndex, n.index);
+            }
+        }
+        this.dense = new double[maxIndex + 1];
+        this.t = state.t;
+        this.updates = state.updates;
+        this.removals = state.removals;
+        return true;
+    }
+
+    /**
+     * The persisted model of an online SVM together with the kernel function it was learned with.
+     */
+    private static class State implements Serializable
+    {
+        /** Unique identifier necessary for serialization **/
+        private static final long serialVersionUID = 4418231796578613342L;
+
+        KernelType kernelType;
+        int degree;
+        double gamma;
+        double coef0;
+        int budget;
+        double lambda;
+        ArrayList<Double> labels;
+        ArrayList<Node[]> sv;
+        ArrayList<double[]> coef;
+        double[] svSquare;
+        long t;
+        long updates;
+        long removals;
+    }
+}
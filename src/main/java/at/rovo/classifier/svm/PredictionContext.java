@@ -0,0 +1,124 @@
+package at.rovo.classifier.svm;
+
+import at.rovo.classifier.svm.struct.Node;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * Holds the scratch buffers required to predict a single sample with a {@link Model}, so that predictions do not
+ * allocate any memory. This includes the kernel values of the support vectors, the votes of each class, the decision
+ * values of the pairwise classifiers and the buffers used to couple the pairwise probabilities.
+ * <p>
+ * A context must not be shared between threads. {@link Model#predict(at.rovo.classifier.svm.struct.Node[])} uses a
+ * thread-local context internally; callers which manage their own threads can create a context per thread via
+ * {@link Model#createPredictionContext()} and pass it to the prediction methods explicitly.
+ *
+ * @author Roman Vottner
+ */
+public class PredictionContext
+{
+    /**
+     * The model this context was created for. The reference is weak as the thread-local context of a model is reachable
+     * from the thread, which would otherwise keep the model and its thread-local alive as long as the thread lives
+     **/
+    private final WeakReference<Model> model;
+    /** The number of support vectors of the model on creating this context **/
+    private final int numInstances;
+
+    /** The kernel values K(x, SV[i]) of the currently predicted sample **/
+    final double[] kvalue;
+    /** The votes for each class **/
+    final int[] vote;
+    /** The decision values of the currently predicted sample **/
+    final double[] decValues;
+    /** The pairwise class probabilities (pairwise_prob[k][k]) **/
+    final double[][] pairwiseProb;
+    /** The Q matrix used to couple the pairwise probabilities (Q[k][k]) **/
+    final double[][] Q;
+    /** The vector Q*p used to couple the pairwise probabilities (Qp[k]) **/
+    final double[] Qp;
+    /** The currently predicted sample mapped by the feature map of the model, if the model uses one **/
+    final Node[] features;
+    /** The values of the mapped sample **/
+    final double[] featureValues;
+    /** The currently predicted sample scattered into a dense array, which is zero between predictions **/
+    final double[] dense;
+    /** The votes each class can still reach if it wins all of its remaining pairwise decisions **/
+    final int[] possible;
+    /** The number of classes which can still reach a certain number of votes, indexed by the number of votes **/
+    final int[] reaching;
+    /** The number of the prediction the kernel value of each support vector was evaluated for last **/
+    final int[] evaluated;
+    /** The number of the current prediction which evaluates kernel values on demand **/
+    int prediction;
+
+    /**
+     * Creates a new prediction context for the given model.
+     *
+     * @param model
+     *         The model to allocate the scratch buffers for
+     */
+    PredictionContext(Model model)
+    {
+        this.model = new WeakReference<>(model);
+        this.numInstances = model.numInstances;
+        int nrClass = model.nrClass;
+
+        this.kvalue = new double[model.numInstances];
+        this.vote = new int[nrClass];
+        this.decValues = new double[Math.max(1, model.nrDecisionFunctions())];
+        this.pairwiseProb = new double[nrClass][nrClass];
+        this.Q = new double[nrClass][nrClass];
+        this.Qp = new double[nrClass];
+
+        int dim = model.featureMap != null ? model.featureMap.getDimension() : 0;
+        this.features = new Node[dim];
+        for (int d = 0; d < dim; d++)
+        {
+            this.features[d] = new Node();
+            this.features[d].index = d + 1;
+        }
+        this.featureValues = new double[dim];
+        this.dense = new double[model.denseSize];
+        this.possible = new int[nrClass];
+        this.reaching = new int[nrClass];
+        this.evaluated = new int[model.numInstances];
+    }
+
+    /**
+     * Starts a new prediction which evaluates kernel values on demand, so the kernel values of previous predictions are
+     * considered as not evaluated.
+     */
+    void nextPrediction()
+    {
+        if (++this.prediction == Integer.MAX_VALUE)
+        {
+            Arrays.fill(this.evaluated, 0);
+            this.prediction = 1;
+        }
+    }
+
+    /**
+     * Checks whether the buffers of this context match the size of the given model.
+     *
+     * @param model
+     *         The model to check this context against
+     *
+     * @return <em>true</em> if this context can be used to predict samples with the given model
+     */
+    boolean fits(Model model)
+    {
+        return this.model.get() == model && this.numInstances == model.numInstances;
+    }
+
+    /**
+     * Returns the decision values calculated by the last prediction which used this context. The returned array is
+     * reused by subsequent predictions.
+     *
+     * @return The decision values of the last prediction
+     */
+    public double[] getDecisionValues()
+    {
+        return this.decValues;
+    }
+}
@@ -1,24 +1,47 @@
 package at.rovo.classifier.svm;
 
 import at.rovo.classifier.Classifier;
+import at.rovo.classifier.distributed.Coordinator;
+import at.rovo.classifier.svm.approximation.FeatureMap;
+import at.rovo.classifier.svm.approximation.Nystroem;
+import at.rovo.classifier.svm.approximation.RandomFourierFeatures;
+import at.rovo.classifier.svm.kernel.SharedKernelCache;
+import at.rovo.classifier.svm.solver.SolverCheckpoint;
 import at.rovo.classifier.svm.solver.instance.CSVC;
 import at.rovo.classifier.svm.solver.instance.EpsilonSVR;
+import at.rovo.classifier.svm.solver.instance.LinearCSVC;
 import at.rovo.classifier.svm.solver.instance.NuSVC;
 import at.rovo.classifier.svm.solver.instance.NuSVR;
 import at.rovo.classifier.svm.solver.instance.OneClass;
 import at.rovo.classifier.svm.solver.instance.SolveInstance;
+import at.rovo.classifier.svm.struct.CompactProblem;
 import at.rovo.classifier.svm.struct.DecisionFunction;
+import at.rovo.classifier.svm.struct.DenseMatrix;
+import at.rovo.classifier.svm.struct.DenseProblem;
 import at.rovo.classifier.svm.struct.Node;
 import at.rovo.classifier.svm.struct.Parameter;
 import at.rovo.classifier.svm.struct.Problem;
+import at.rovo.classifier.svm.struct.ProblemView;
 import at.rovo.classifier.svm.struct.SolutionInfo;
+import at.rovo.classifier.svm.struct.SolverListener;
+import at.rovo.classifier.svm.struct.SolverMetrics;
+import at.rovo.classifier.svm.struct.TrainingBudget;
 import at.rovo.classifier.svm.utils.Utils;
 import java.io.File;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,6 +84,20 @@ public class SVM extends Classifier<Node[], Double>
     private Problem prob = null;
     /** The trained model based on the training data **/
     private Model model = null;
+    /** An optional listener which is notified about the progress of the solvers **/
+    private SolverListener listener = null;
+    /** A previously trained model whose solution is used as starting point of the next training **/
+    private Model initialModel = null;
+    /** Coefficients y_i*alpha_i of each training instance used as starting point of the next training **/
+    private double[] initialAlpha = null;
+    /** An optional limit of the resources the solvers may spend on the training **/
+    private TrainingBudget budget = null;
+    /** The directory the solver runs store their checkpoints in or <em>null</em> to disable checkpoints **/
+    private File checkpointDirectory = null;
+    /** The minimum time in milliseconds between two checkpoints of a solver run **/
+    private long checkpointInterval = 0;
+    /** The checkpoint files of the solver runs of the current training **/
+    private final Set<File> checkpoints = ConcurrentHashMap.newKeySet();
 
     /**
      * Initializes a new support vector machine.
@@ -74,8 +111,302 @@ public class SVM extends Classifier<Node[], Double>
         this.prob = new Problem();
     }
 
+    /**
+     * Initializes a new support vector machine which is trained with the samples of an already created problem, i.e.
+     * one read via {@link Problem#createCompact(String, Parameter, int)}. If further samples are added to a read-only
+     * problem, like a compact problem or a {@link ProblemView}, the problem is copied into a regular one first.
+     *
+     * @param param
+     *         The parameters necessary to initialize the appropriate type of SVM used to train and classify data
+     * @param prob
+     *         The training data
+     */
+    public SVM(Parameter param, Problem prob)
+    {
+        this.param = param;
+        this.prob = prob;
+    }
+
+    /**
+     * Registers a listener which gets notified about the progress of every solver run executed while training a model.
+     * The final metrics of all solver runs are furthermore accumulated and available via {@link Model#getMetrics()}.
+     *
+     * @param listener
+     *         The listener to notify or <em>null</em> to remove a previously registered listener
+     */
+    public void setSolverListener(SolverListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Uses the solution of a previously trained model as starting point for the next training instead of starting from
+     * alpha = 0. The support vectors of the model are mapped to the training data via their indices (see {@link
+     * Model#getSVIndices(int[])}), so the training data has to contain the samples of the previous training at the
+     * same positions. Samples added afterwards start with alpha = 0. If the model was trained with a different value
+     * of C, its coefficients are scaled by the ratio of both values.
+     * <p>
+     * This is useful to retrain a model after adding a few samples or to train a sequence of models with increasing
+     * values of C, as the solver starts close to the optimum. Values which exceed the bounds of the new problem are
+     * scaled down to a feasible solution. Warm starts are supported by C-SVC and epsilon-SVR; other SVM types and the
+     * linear solver train from scratch.
+     *
+     * @param model
+     *         A model trained with the same SVM type on a prefix of the current training data or <em>null</em> to train
+     *         from scratch
+     *
+     * @throws IllegalArgumentException
+     *         If the model does not provide the indices of its support vectors, i.e. because it was loaded from a file
+     */
+    public void setInitialModel(Model model)
+    {
+        if (model != null && model.svIndices == null)
+        {
+            throw new IllegalArgumentException("The model does not contain the training indices of its support vectors");
+        }
+        this.initialModel = model;
+        this.initialAlpha = null;
+    }
+
+    /**
+     * Uses the provided coefficients as starting point for the next training instead of starting from alpha = 0. The
+     * coefficients have the layout of the coefficients of a two-class or regression model, i.e. y_i*alpha_i for C-SVC
+     * and alpha_i - alpha_i^* for epsilon-SVR, but contain a value for every training sample including the ones which
+     * are no support vectors. This allows to start from a modified solution, i.e. for leave-one-out estimates.
+     *
+     * @param alpha
+     *         The coefficients of each training sample or <em>null</em> to train from scratch
+     */
+    public void setInitialAlpha(double[] alpha)
+    {
+        this.initialAlpha = alpha;
+        this.initialModel = null;
+    }
+
+    /**
+     * Limits the resources the solvers may spend on the next training or cross-validation, which starts the budget.
+     * Once the budget is exhausted the training returns the best model reachable so far instead of the optimal one.
+     * The number of solver runs which were stopped early is available via {@link Model#getMetrics()}. The consumed
+     * resources are kept until the budget is {@link TrainingBudget#reset()}.
+     *
+     * @param budget
+     *         The budget shared by all solver runs of the training or <em>null</em> to train without limit
+     */
+    public void setTrainingBudget(TrainingBudget budget)
+    {
+        this.budget = budget;
+    }
+
+    /**
+     * Lets every solver run of a training periodically store its state in the given directory. If a training is
+     * aborted, i.e. by a crash or an exhausted {@link TrainingBudget}, a new training of the same problem with the same
+     * parameters continues the solver runs from their last checkpoint, where runs which had already finished are not
+     * optimized again. The checkpoints of the training are removed once it finished successfully, other files in the
+     * directory are left untouched. Checkpoints are supported by the decomposition solvers; the linear solver always
+     * starts from scratch.
+     *
+     * @param directory
+     *         The directory to store the checkpoints in or <em>null</em> to disable checkpoints
+     * @param intervalMillis
+     *         The minimum time in milliseconds between two checkpoints of a solver run
+     */
+    public void setCheckpointDirectory(File directory, long intervalMillis)
+    {
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IllegalArgumentException("Could not create checkpoint directory " + directory);
+        }
+        this.checkpointDirectory = directory;
+        this.checkpointInterval = intervalMillis;
+    }
+
+    /**
+     * Converts the configured warm start into coefficients for every training sample in the layout of {@link
+     * Model#svCoef} (coef[k-1][l]).
+     *
+     * @return The initial coefficients or <em>null</em> if no warm start was configured
+     */
+    private double[][] initialCoefficients()
+    {
+        int l = this.prob.numInstances;
+        if (this.initialAlpha != null)
+        {
+            if (this.initialAlpha.length != l)
+            {
+                throw new IllegalArgumentException(
+                        "Expected " + l + " initial alpha values but got " + this.initialAlpha.length);
+            }
+            return new double[][] {this.initialAlpha};
+        }
+        return initialCoefficients(this.initialModel, l, this.param);
+    }
+
+    /**
+     * Distributes the coefficients of the support vectors of a previous model onto the l instances of the current
+     * training data.
+     *
+     * @param initialModel
+     *         The previously trained model or <em>null</em>
+     * @param l
+     *         The number of instances of the current training data
+     * @param param
+     *         The parameters of the current training
+     *
+     * @return The initial coefficients or <em>null</em> if no model was provided
+     */
+    static double[][] initialCoefficients(Model initialModel, int l, Parameter param)
+    {
+        if (initialModel == null)
+        {
+            return null;
+        }
+        if (!param.svmType.equals(initialModel.param.svmType))
+        {
+            throw new IllegalArgumentException("The initial model was trained with a different SVM type");
+        }
+        if (initialModel.oneVsRest != (param.multiClass == 1 && initialModel.nrClass > 2))
+        {
+            throw new IllegalArgumentException("The initial model was trained with a different multi-class strategy");
+        }
+
+        double[][] sv_coef = initialModel.svCoef;
+        int[] sv_indices = initialModel.svIndices;
+        double[][] coef = new double[sv_coef.length][l];
+        // alpha seeding: instances at the upper bound of the previous solution are likely at the new bound as well
+        double scale = initialModel.param.C > 0 ? param.C / initialModel.param.C : 1;
+        for (int r = 0; r < sv_coef.length; r++)
+        {
+            for (int s = 0; s < initialModel.numInstances; s++)
+            {
+                int index = sv_indices[s] - 1;
+                if (index < l)
+                {
+                    coef[r][index] = sv_coef[r][s] * scale;
+                }
+            }
+        }
+        return coef;
+    }
+
+    /**
+     * Maps the training data with a random Fourier feature or Nystroem approximation of the kernel and trains a linear
+     * model on the mapped samples. The dual coordinate descent solver is used for C-SVC, which scales linearly with the
+     * number of instances, while the other SVM types are trained by the SMO solver using a linear kernel. The resulting
+     * model maps every sample before predicting it, so a prediction costs the mapping and one dot product per decision
+     * function regardless of the number of support vectors.
+     *
+     * @return The linear model on the approximated feature space
+     */
+    private Model trainApproximated(Problem prob, Parameter param, double[][] initialCoef, int[] initialLabel)
+    {
+        Random random = new Random(rand.nextLong());
+        FeatureMap featureMap;
+        if (param.approximation == 1)
+        {
+            featureMap = new RandomFourierFeatures(prob.x, param.approximationSize, param.gamma, random);
+        }
+        else
+        {
+            featureMap = new Nystroem(prob.x, param, param.approximationSize, random);
+        }
+        Problem mapped = featureMap.map(prob, param.nrThreads);
+
+        Parameter linear = (Parameter) param.clone();
+        linear.kernelType = KernelType.LINEAR;
+        linear.approximation = 0;
+        linear.kernelCache = null;
+        // the feature map already applied the scaling
+        linear.scaling = null;
+        if (SVMType.C_SVC.equals(linear.svmType))
+        {
+            linear.linearSolver = 1;
+        }
+
+        Model model = this.train(mapped, linear, initialCoef, initialLabel);
+        model.featureMap = featureMap;
+        return model;
+    }
+
+    /**
+     * Extracts the initial alpha values of the binary classifier between the classes i and j from the coefficients of
+     * a previous solution. The coefficients of an instance of class a in the classifier (a, b) are stored in row b-1 if
+     * b &gt; a and in row b otherwise.
+     *
+     * @return The coefficients of the sub problem with the instances of class i labeled +1 and the ones of class j
+     * labeled -1 or <em>null</em> if the previous solution does not contain the classifier
+     */
+    private static double[] initialPairAlpha(double[][] coef, int[] coefLabel, int[] label, int i, int j, int[] perm,
+                                             int si, int ci, int sj, int cj)
+    {
+        int a = i;
+        int b = j;
+        if (coefLabel != null)
+        {
+            a = b = -1;
+            for (int k = 0; k < coefLabel.length; k++)
+            {
+                if (coefLabel[k] == label[i])
+                {
+                    a = k;
+                }
+                else if (coefLabel[k] == label[j])
+                {
+                    b = k;
+                }
+            }
+        }
+        int row_i = b > a ? b - 1 : b;
+        int row_j = a > b ? a - 1 : a;
+        if (a < 0 || b < 0 || row_i >= coef.length || row_j >= coef.length)
+        {
+            return null;
+        }
+
+        double[] alpha = new double[ci + cj];
+        for (int k = 0; k < ci; k++)
+        {
+            alpha[k] = Math.abs(coef[row_i][perm[si + k]]);
+        }
+        for (int k = 0; k < cj; k++)
+        {
+            alpha[ci + k] = -Math.abs(coef[row_j][perm[sj + k]]);
+        }
+        return alpha;
+    }
+
+    /**
+     * Extracts the initial alpha values of the one-vs-rest classifier of a class from the coefficients of a previous
+     * one-vs-rest solution, whose rows already contain y_i*alpha_i of the classifier of the class with the same label.
+     *
+     * @return The coefficients of the grouped instances or <em>null</em> if the previous solution does not contain a
+     * classifier for the class
+     */
+    private static double[] initialClassAlpha(double[][] coef, int[] coefLabel, int label, int[] perm)
+    {
+        if (coef == null || coefLabel == null || coef.length != coefLabel.length)
+        {
+            return null;
+        }
+        for (int r = 0; r < coefLabel.length; r++)
+        {
+            if (coefLabel[r] == label)
+            {
+                double[] alpha = new double[perm.length];
+                for (int i = 0; i < perm.length; i++)
+                {
+                    alpha[i] = coef[r][perm[i]];
+                }
+                return alpha;
+            }
+        }
+        return null;
+    }
+
     /**
      * Platt's binary SVM Probablistic Output: an improvement from Lin et al.
+     * <p>
+     * Every evaluation of the objective function keeps exp(-|fApB|) of each instance, so the gradient and Hessian of
+     * the accepted solution are computed without evaluating the exponential function again.
      *
      * @param l
      * @param dec_values
@@ -107,6 +438,9 @@ public class SVM extends Classifier<Node[], Double>
         double hiTarget = (prior1 + 1.0) / (prior1 + 2.0);
         double loTarget = 1 / (prior0 + 2.0);
         double[] t = new double[l];
+        // exp(-|fApB|) of the current and of the tried solution
+        double[] e = new double[l];
+        double[] newE = new double[l];
         double fApB, p, q, h11, h22, h21, g1, g2, det, dA, dB, gd, stepsize;
         double newA, newB, newf, d1, d2;
         int iter;
@@ -127,14 +461,7 @@ public class SVM extends Classifier<Node[], Double>
                 t[i] = loTarget;
             }
             fApB = dec_values[i] * A + B;
-            if (fApB >= 0)
-            {
-                fval += t[i] * fApB + Math.log(1 + Math.exp(-fApB));
-            }
-            else
-            {
-                fval += (t[i] - 1) * fApB + Math.log(1 + Math.exp(fApB));
-            }
+            fval += sigmoidLoss(fApB, t[i], e, i);
         }
         for (iter = 0; iter < max_iter; iter++)
         {
@@ -149,13 +476,13 @@ public class SVM extends Classifier<Node[], Double>
                 fApB = dec_values[i] * A + B;
                 if (fApB >= 0)
                 {
-                    p = Math.exp(-fApB) / (1.0 + Math.exp(-fApB));
-                    q = 1.0 / (1.0 + Math.exp(-fApB));
+                    p = e[i] / (1.0 + e[i]);
+                    q = 1.0 / (1.0 + e[i]);
                 }
                 else
                 {
-                    p = 1.0 / (1.0 + Math.exp(fApB));
-                    q = Math.exp(fApB) / (1.0 + Math.exp(fApB));
+                    p = 1.0 / (1.0 + e[i]);
+                    q = e[i] / (1.0 + e[i]);
                 }
                 d2 = p * q;
                 h11 += dec_values[i] * dec_values[i] * d2;
@@ -189,14 +516,7 @@ public class SVM extends Classifier<Node[], Double>
                 for (i = 0; i < l; i++)
                 {
                     fApB = dec_values[i] * newA + newB;
-                    if (fApB >= 0)
-                    {
-                        newf += t[i] * fApB + Math.log(1 + Math.exp(-fApB));
-                    }
-                    else
-                    {
-                        newf += (t[i] - 1) * fApB + Math.log(1 + Math.exp(fApB));
-                    }
+                    newf += sigmoidLoss(fApB, t[i], newE, i);
                 }
                 // Check sufficient decrease
                 if (newf < fval + 0.0001 * stepsize * gd)
@@ -204,6 +524,9 @@ public class SVM extends Classifier<Node[], Double>
                     A = newA;
                     B = newB;
                     fval = newf;
+                    double[] tmp = e;
+                    e = newE;
+                    newE = tmp;
                     break;
                 }
                 else
@@ -233,6 +556,23 @@ public class SVM extends Classifier<Node[], Double>
         probAB[1] = B;
     }
 
+    /**
+     * Computes the negative log-likelihood of a single instance for the sigmoid fitted by {@link #sigmoidTrain(int,
+     * double[], List, double[])} and stores exp(-|fApB|) of the instance for the computation of the gradient.
+     */
+    private static double sigmoidLoss(double fApB, double target, double[] e, int i)
+    {
+        e[i] = Math.exp(-Math.abs(fApB));
+        if (fApB >= 0)
+        {
+            return target * fApB + Math.log(1 + e[i]);
+        }
+        else
+        {
+            return (target - 1) * fApB + Math.log(1 + e[i]);
+        }
+    }
+
     /**
      * Cross-validation decision values for probability estimates.
      *
@@ -267,26 +607,9 @@ public class SVM extends Classifier<Node[], Double>
         {
             int begin = i * prob.numInstances / nr_fold;
             int end = (i + 1) * prob.numInstances / nr_fold;
-            int j, k;
-            Problem subprob = new Problem();
-
-            subprob.numInstances = prob.numInstances - (end - begin);
-            subprob.x = new ArrayList<>(subprob.numInstances);
-            subprob.y = new ArrayList<>(subprob.numInstances);
-
-            k = 0;
-            for (j = 0; j < begin; j++)
-            {
-                subprob.x.add(prob.x.get(perm[j]));
-                subprob.y.add(prob.y.get(perm[j]));
-                ++k;
-            }
-            for (j = end; j < prob.numInstances; j++)
-            {
-                subprob.x.add(prob.x.get(perm[j]));
-                subprob.y.add(prob.y.get(perm[j]));
-                ++k;
-            }
+            int j;
+            Problem subprob = ProblemView.without(prob, perm, begin, end);
+            int k = subprob.numInstances;
             int p_count = 0, n_count = 0;
             for (j = 0; j < k; j++)
             {
@@ -362,7 +685,7 @@ public class SVM extends Classifier<Node[], Double>
 
         Parameter newparam = (Parameter) param.clone();
         newparam.probability = 0;
-        this.crossValidation(newparam, nr_fold, ymv);
+        this.crossValidation(compact(this.prob, newparam), newparam, nr_fold, ymv);
         for (i = 0; i < prob.numInstances; i++)
         {
             ymv[i] = prob.y.get(i) - ymv[i];
@@ -499,6 +822,29 @@ public class SVM extends Classifier<Node[], Double>
         count_ret[0] = count;
     }
 
+    /**
+     * Returns the samples in the representation the kernels read them from. In single precision the samples of a
+     * problem of {@link Node}s are copied once into a float matrix, which the sub problems of a training refer to,
+     * instead of every kernel copying the samples of its sub problem. Compact problems are used as they are, as they
+     * were read in the requested precision, and so are dense problems, whose rows are read from their matrix.
+     *
+     * @param prob
+     *         The training data
+     * @param param
+     *         The parameters specifying the precision
+     *
+     * @return The problem the kernels should read the samples from
+     */
+    static Problem compact(Problem prob, Parameter param)
+    {
+        if (param.singlePrecision == 1 && prob.getMatrix() == null && prob.getDenseMatrix() == null &&
+            param.approximation == 0 && !KernelType.PRECOMPUTED.equals(param.kernelType))
+        {
+            return CompactProblem.of(prob, true);
+        }
+        return prob;
+    }
+
     /**
      * Trains a model based on the available data in the problem according to the parameters provided.
      * <p>
@@ -514,8 +860,42 @@ public class SVM extends Classifier<Node[], Double>
      */
     private Model train(Problem prob, Parameter param)
     {
+        return train(prob, param, null, null);
+    }
+
+    /**
+     * Trains a model starting from the coefficients of a previous solution.
+     *
+     * @param prob
+     *         The training data
+     * @param param
+     *         The parameters provided to distinguish what kind of model should be build
+     * @param initialCoef
+     *         The coefficients of every training instance in the layout of {@link Model#svCoef} or <em>null</em> to
+     *         start from scratch
+     * @param initialLabel
+     *         The class labels the rows of <em>initialCoef</em> refer to or <em>null</em> if they follow the order in
+     *         which the classes occur in the training data
+     *
+     * @return The trained model
+     */
+    private Model train(Problem prob, Parameter param, double[][] initialCoef, int[] initialLabel)
+    {
+        prob = compact(prob, param);
+        if (param.scaling != null && !param.scaling.isFitted())
+        {
+            // the model keeps the fitted scaling, so the samples to predict are scaled like the training data
+            param = (Parameter) param.clone();
+            param.scaling = param.scaling.fit(prob);
+        }
+        if (param.approximation != 0)
+        {
+            return trainApproximated(prob, param, initialCoef, initialLabel);
+        }
+
         Model model = new Model();
         model.param = param;
+        model.metrics = new SolverMetrics();
 
         if (SVMType.ONE_CLASS.equals(param.svmType) || SVMType.EPSILON_SVR.equals(param.svmType) ||
             SVMType.NU_SVR.equals(param.svmType))
@@ -535,7 +915,8 @@ public class SVM extends Classifier<Node[], Double>
                 model.probA[0] = svrProbability(prob, param);
             }
 
-            DecisionFunction f = trainOne(prob, param, 0, 0);
+            DecisionFunction f = trainOne(prob, param, 0, 0, initialCoef != null ? initialCoef[0] : null);
+            model.metrics.add(f.metrics);
             model.rho = new double[1];
             model.rho[0] = f.rho;
 
@@ -549,20 +930,21 @@ public class SVM extends Classifier<Node[], Double>
                 }
             }
             model.numInstances = nSV;
-            model.SV = new Node[nSV][];
             model.svCoef[0] = new double[nSV];
             model.svIndices = new int[nSV];
+            int[] sv = new int[nSV];
             int j = 0;
             for (i = 0; i < prob.numInstances; i++)
             {
                 if (Math.abs(f.alpha[i]) > 0)
                 {
-                    model.SV[j] = prob.x.get(i);
+                    sv[j] = i;
                     model.svCoef[0][j] = f.alpha[i];
                     model.svIndices[j] = i + 1;
                     ++j;
                 }
             }
+            setSupportVectors(model, prob, sv);
         }
         else
         {
@@ -589,12 +971,10 @@ public class SVM extends Classifier<Node[], Double>
                 }
             }
 
-            Node[][] x = new Node[l][];
+            // the samples grouped by their class are a view on the training data, so the features of a compact problem
+            // are not materialized
+            Problem grouped = new ProblemView(prob, perm);
             int i;
-            for (i = 0; i < l; i++)
-            {
-                x[i] = prob.x.get(perm[i]);
-            }
 
             // calculate weighted C
             double[] weighted_C = new double[nr_class];
@@ -623,6 +1003,14 @@ public class SVM extends Classifier<Node[], Double>
                 }
             }
 
+            if (param.multiClass == 1 && nr_class > 2)
+            {
+                trainOneVsRest(model, param, grouped, perm, nr_class, label, count, weighted_C, initialCoef,
+                               initialLabel);
+                model.prepare();
+                return model;
+            }
+
             // train k*(k-1)/2 models
             boolean[] nonzero = new boolean[l];
             for (i = 0; i < l; i++)
@@ -638,38 +1026,52 @@ public class SVM extends Classifier<Node[], Double>
                 probB = new double[nr_class * (nr_class - 1) / 2];
             }
 
+            // the pairwise problems are views on the grouped samples with their own labels
+            // each sample is part of k-1 pairwise problems, which read its kernel values from a single cache
+            Parameter pairParam = param;
+            if (nr_class > 2 && param.kernelCache == null)
+            {
+                pairParam = (Parameter) param.clone();
+                pairParam.kernelCache = new SharedKernelCache(grouped, param, (long) (param.cache_size * (1 << 20)));
+            }
+
             int p = 0;
             for (i = 0; i < nr_class; i++)
             {
                 for (int j = i + 1; j < nr_class; j++)
                 {
-                    Problem sub_prob = new Problem();
                     int si = start[i], sj = start[j];
                     int ci = count[i], cj = count[j];
-                    sub_prob.numInstances = ci + cj;
-                    sub_prob.x = new ArrayList<>(sub_prob.numInstances);
-                    sub_prob.y = new ArrayList<>(sub_prob.numInstances);
+                    int[] sub_index = new int[ci + cj];
+                    double[] sub_label = new double[ci + cj];
                     int k;
                     for (k = 0; k < ci; k++)
                     {
-                        sub_prob.x.add(x[si + k]);
-                        sub_prob.y.add(+1.);
+                        sub_index[k] = si + k;
+                        sub_label[k] = +1;
                     }
                     for (k = 0; k < cj; k++)
                     {
-                        sub_prob.x.add(x[sj + k]);
-                        sub_prob.y.add(-1.);
+                        sub_index[ci + k] = sj + k;
+                        sub_label[ci + k] = -1;
                     }
+                    Problem sub_prob = new ProblemView(grouped, sub_index, sub_label);
 
                     if (param.probability == 1)
                     {
                         double[] probAB = new double[2];
-                        binarySVCProbability(sub_prob, param, weighted_C[i], weighted_C[j], probAB);
+                        binarySVCProbability(sub_prob, pairParam, weighted_C[i], weighted_C[j], probAB);
                         probA[p] = probAB[0];
                         probB[p] = probAB[1];
                     }
 
-                    f[p] = trainOne(sub_prob, param, weighted_C[i], weighted_C[j]);
+                    double[] initial = null;
+                    if (initialCoef != null)
+                    {
+                        initial = initialPairAlpha(initialCoef, initialLabel, label, i, j, perm, si, ci, sj, cj);
+                    }
+                    f[p] = trainOne(sub_prob, pairParam, weighted_C[i], weighted_C[j], initial);
+                    model.metrics.add(f[p].metrics);
                     for (k = 0; k < ci; k++)
                     {
                         if (!nonzero[si + k] && Math.abs(f[p].alpha[k]) > 0)
@@ -703,6 +1105,16 @@ public class SVM extends Classifier<Node[], Double>
                 model.rho[i] = f[i].rho;
             }
 
+            if (f.length > 0 && f[0].w != null)
+            {
+                // the linear solver provides the weight vectors directly
+                model.w = new double[nr_class * (nr_class - 1) / 2][];
+                for (i = 0; i < nr_class * (nr_class - 1) / 2; i++)
+                {
+                    model.w[i] = f[i].w;
+                }
+            }
+
             if (param.probability == 1)
             {
                 model.probA = new double[nr_class * (nr_class - 1) / 2];
@@ -743,17 +1155,18 @@ public class SVM extends Classifier<Node[], Double>
             }
 
             model.numInstances = nnz;
-            model.SV = new Node[nnz][];
             model.svIndices = new int[nnz];
+            int[] sv = new int[nnz];
             p = 0;
             for (i = 0; i < l; i++)
             {
                 if (nonzero[i])
                 {
-                    model.SV[p] = x[i];
+                    sv[p] = i;
                     model.svIndices[p++] = perm[i] + 1;
                 }
             }
+            setSupportVectors(model, grouped, sv);
 
             int[] nz_start = new int[nr_class];
             nz_start[0] = 0;
@@ -803,9 +1216,210 @@ public class SVM extends Classifier<Node[], Double>
                 }
             }
         }
+
+        model.prepare();
         return model;
     }
 
+    /**
+     * Trains one binary classifier per class, which separates the samples of the class (+1) from the samples of all
+     * other classes (-1). The k problems are views on all samples with their own labels. They are solved in parallel by
+     * up to {@link Parameter#nrThreads} threads and read the kernel values from a single cache, as every problem
+     * consists of the same samples. The coefficients of the support vectors in classifier c are stored in svCoef[c].
+     * <p>
+     * The model contains k instead of k*(k-1)/2 decision functions, so a prediction evaluates k decision values and a
+     * linear model collapses into k weight vectors.
+     *
+     * @param model
+     *         The model to store the classifiers in
+     * @param param
+     *         The parameters passed to the application
+     * @param grouped
+     *         The training samples grouped by their class
+     * @param perm
+     *         The position of each grouped sample within the training data
+     * @param nr_class
+     *         The number of classes
+     * @param label
+     *         The label of each class
+     * @param count
+     *         The number of samples of each class
+     * @param weighted_C
+     *         The penalty of each class, which is applied to its positive samples. The negative samples use C
+     * @param initialCoef
+     *         The coefficients of a previous one-vs-rest model for every training instance or <em>null</em> to start
+     *         from scratch
+     * @param initialLabel
+     *         The class labels the rows of <em>initialCoef</em> refer to
+     */
+    private void trainOneVsRest(Model model, Parameter param, Problem grouped, int[] perm, int nr_class, int[] label,
+                                int[] count, double[] weighted_C, double[][] initialCoef, int[] initialLabel)
+    {
+        int l = grouped.numInstances;
+
+        int[] all = new int[l];
+        for (int i = 0; i < l; i++)
+        {
+            all[i] = i;
+        }
+
+        Parameter classParam = (Parameter) param.clone();
+        if (param.kernelCache == null)
+        {
+            classParam.kernelCache = new SharedKernelCache(grouped, param, (long) (param.cache_size * (1 << 20)));
+        }
+        int nrThreads = Math.max(1, Math.min(param.nrThreads, nr_class));
+        if (nrThreads > 1)
+        {
+            // the threads solve different problems instead of sharing the working set selection of a single one
+            classParam.nrThreads = 1;
+        }
+
+        DecisionFunction[] f = new DecisionFunction[nr_class];
+        double[][] probAB = param.probability == 1 ? new double[nr_class][2] : null;
+        ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+        try
+        {
+            List<Future<DecisionFunction>> futures = new ArrayList<>();
+            for (int c = 0, start = 0; c < nr_class; start += count[c], c++)
+            {
+                double[] sub_label = new double[l];
+                Arrays.fill(sub_label, -1);
+                Arrays.fill(sub_label, start, start + count[c], +1);
+                Problem sub_prob = new ProblemView(grouped, all, sub_label);
+                double Cp = weighted_C[c];
+                double[] classProbAB = probAB != null ? probAB[c] : null;
+                double[] initial = initialClassAlpha(initialCoef, initialLabel, label[c], perm);
+                futures.add(executor.submit(() -> {
+                    if (classProbAB != null)
+                    {
+                        binarySVCProbability(sub_prob, classParam, Cp, param.C, classProbAB);
+                    }
+                    return trainOne(sub_prob, classParam, Cp, param.C, initial);
+                }));
+            }
+            for (int c = 0; c < nr_class; c++)
+            {
+                f[c] = futures.get(c).get();
+                model.metrics.add(f[c].metrics);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Training got interrupted", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Training of a one-vs-rest classifier failed", e.getCause());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        // build output
+        model.nrClass = nr_class;
+        model.oneVsRest = true;
+        model.label = Arrays.copyOf(label, nr_class);
+        model.rho = new double[nr_class];
+        for (int c = 0; c < nr_class; c++)
+        {
+            model.rho[c] = f[c].rho;
+        }
+        if (f[0].w != null)
+        {
+            // the linear solver provides the weight vectors directly
+            model.w = new double[nr_class][];
+            for (int c = 0; c < nr_class; c++)
+            {
+                model.w[c] = f[c].w;
+            }
+        }
+        if (probAB != null)
+        {
+            model.probA = new double[nr_class];
+            model.probB = new double[nr_class];
+            for (int c = 0; c < nr_class; c++)
+            {
+                model.probA[c] = probAB[c][0];
+                model.probB[c] = probAB[c][1];
+            }
+        }
+
+        boolean[] nonzero = new boolean[l];
+        int nnz = 0;
+        for (int i = 0; i < l; i++)
+        {
+            for (int c = 0; c < nr_class && !nonzero[i]; c++)
+            {
+                nonzero[i] = Math.abs(f[c].alpha[i]) > 0;
+            }
+            nnz += nonzero[i] ? 1 : 0;
+        }
+
+        model.numInstances = nnz;
+        model.nSV = new int[nr_class];
+        model.svIndices = new int[nnz];
+        model.svCoef = new double[nr_class][nnz];
+        int[] sv = new int[nnz];
+        for (int c = 0, i = 0, q = 0; c < nr_class; c++)
+        {
+            for (int end = i + count[c]; i < end; i++)
+            {
+                if (nonzero[i])
+                {
+                    sv[q] = i;
+                    model.svIndices[q] = perm[i] + 1;
+                    for (int r = 0; r < nr_class; r++)
+                    {
+                        model.svCoef[r][q] = f[r].alpha[i];
+                    }
+                    model.nSV[c]++;
+                    q++;
+                }
+            }
+        }
+        setSupportVectors(model, grouped, sv);
+
+        if (LOG.isDebugEnabled())
+        {
+            LOG.debug("Total nSV = " + nnz + "\n");
+        }
+    }
+
+    /**
+     * Stores the given samples of a problem as support vectors of a model. The rows of a dense problem, i.e. the
+     * samples mapped by a kernel approximation, are copied into the sparse matrix of the model directly instead of
+     * materializing one {@link Node} per feature.
+     *
+     * @param model
+     *         The model to store the support vectors in
+     * @param prob
+     *         The problem containing the support vectors
+     * @param sv
+     *         The position of each support vector within the problem
+     */
+    private static void setSupportVectors(Model model, Problem prob, int[] sv)
+    {
+        DenseMatrix dense = prob.getDenseMatrix();
+        if (dense != null)
+        {
+            int[] rows = new int[sv.length];
+            for (int i = 0; i < sv.length; i++)
+            {
+                rows[i] = prob.getRow(sv[i]);
+            }
+            model.setSupportVectors(dense.toCsrMatrix(rows, model.param.singlePrecision == 1));
+            return;
+        }
+        model.SV = new Node[sv.length][];
+        for (int i = 0; i < sv.length; i++)
+        {
+            model.SV[i] = prob.x.get(sv[i]);
+        }
+    }
+
     /**
      * Invokes the appropriate kernel function for the training set according to the provided parameter.
      *
@@ -815,37 +1429,56 @@ public class SVM extends Classifier<Node[], Double>
      *         The parameters passed to the application
      * @param Cp
      * @param Cn
+     * @param initialAlpha
+     *         The coefficients y_i*alpha_i of a previous solution to start from or <em>null</em> to start from scratch
      *
      * @return A decision function
      */
-    DecisionFunction trainOne(Problem prob, Parameter param, double Cp, double Cn)
+    DecisionFunction trainOne(Problem prob, Parameter param, double Cp, double Cn, double[] initialAlpha)
     {
         double[] alpha = new double[prob.numInstances];
         SolutionInfo si = new SolutionInfo();
+        si.listener = this.listener;
+        si.nrThreads = param.nrThreads;
+        si.budget = this.budget;
+        if (this.checkpointDirectory != null)
+        {
+            // the name is derived from the fingerprint so every solver run finds its own state again, independent of
+            // the order in which the binary problems are solved
+            long fingerprint = fingerprint(prob, param, Cp, Cn);
+            File file = new File(this.checkpointDirectory, "solver-" + Long.toHexString(fingerprint) + ".state");
+            si.checkpoint = new SolverCheckpoint(file, fingerprint, this.checkpointInterval);
+            this.checkpoints.add(file);
+        }
         SolveInstance instance;
         switch (param.svmType)
         {
-            case C_SVC:
-                instance = new CSVC(Cp, Cn);
-                instance.solve(prob, param, alpha, si);
-                break;
             case NU_SVC:
                 instance = new NuSVC();
-                instance.solve(prob, param, alpha, si);
                 break;
             case ONE_CLASS:
                 instance = new OneClass();
-                instance.solve(prob, param, alpha, si);
                 break;
             case EPSILON_SVR:
                 instance = new EpsilonSVR();
-                instance.solve(prob, param, alpha, si);
                 break;
             case NU_SVR:
                 instance = new NuSVR();
-                instance.solve(prob, param, alpha, si);
+                break;
+            case C_SVC:
+            default:
+                if (KernelType.LINEAR.equals(param.kernelType) && param.linearSolver == 1)
+                {
+                    instance = new LinearCSVC(Cp, Cn);
+                }
+                else
+                {
+                    instance = new CSVC(Cp, Cn);
+                }
                 break;
         }
+        instance.setInitialAlpha(initialAlpha);
+        instance.solve(prob, param, alpha, si);
 
         if (LOG.isDebugEnabled())
         {
@@ -882,9 +1515,67 @@ public class SVM extends Classifier<Node[], Double>
         DecisionFunction f = new DecisionFunction();
         f.alpha = alpha;
         f.rho = si.rho;
+        f.metrics = si.metrics;
+        f.w = si.w;
         return f;
     }
 
+    /**
+     * Computes a hash of a binary problem and the parameters of its solver run which identifies the checkpoint of the
+     * run.
+     *
+     * @param prob
+     *         The training data of the solver run
+     * @param param
+     *         The parameters passed to the application
+     * @param Cp
+     *         The penalty of the positive samples
+     * @param Cn
+     *         The penalty of the negative samples
+     *
+     * @return The fingerprint of the solver run
+     */
+    private static long fingerprint(Problem prob, Parameter param, double Cp, double Cn)
+    {
+        long hash = 1125899906842597L;
+        hash = 31 * hash + prob.numInstances;
+        DenseMatrix dense = prob.getDenseMatrix();
+        for (int i = 0; i < prob.numInstances; i++)
+        {
+            hash = 31 * hash + Double.doubleToLongBits(prob.y.get(i));
+            if (dense != null)
+            {
+                // hashes the same values as the materialized row without creating its nodes
+                double[] values = dense.chunk(prob.getRow(i));
+                int offset = dense.offset(prob.getRow(i));
+                for (int d = 0; d < dense.columns(); d++)
+                {
+                    hash = 31 * hash + d + 1;
+                    hash = 31 * hash + Double.doubleToLongBits(values[offset + d]);
+                }
+                continue;
+            }
+            for (Node node : prob.x.get(i))
+            {
+                hash = 31 * hash + node.index;
+                hash = 31 * hash + Double.doubleToLongBits(node.value);
+            }
+        }
+        hash = 31 * hash + param.svmType.ordinal();
+        hash = 31 * hash + param.kernelType.ordinal();
+        hash = 31 * hash + param.degree;
+        hash = 31 * hash + Double.doubleToLongBits(param.gamma);
+        hash = 31 * hash + Double.doubleToLongBits(param.coef0);
+        hash = 31 * hash + Double.doubleToLongBits(param.eps);
+        hash = 31 * hash + Double.doubleToLongBits(param.p);
+        hash = 31 * hash + Double.doubleToLongBits(param.nu);
+        hash = 31 * hash + Double.doubleToLongBits(Cp);
+        hash = 31 * hash + Double.doubleToLongBits(Cn);
+        hash = 31 * hash + (param.scaling != null ? param.scaling.hashCode() : 0);
+        hash = 31 * hash + param.singlePrecision;
+        return hash;
+    }
+
     /**
      * Performs a cross-validation for the current trained model.
      *
@@ -892,14 +1583,45 @@ public class SVM extends Classifier<Node[], Double>
      *         The parameters specifying how the cross-validation should be performed
      */
     public void crossValidation(Parameter param)
+    {
+        this.crossValidation(param, null);
+    }
+
+    /**
+     * Performs a cross-validation for the current trained model, where the folds are trained and predicted by the
+     * workers of a coordinator.
+     *
+     * @param param
+     *         The parameters specifying how the cross-validation should be performed
+     * @param coordinator
+     *         The coordinator distributing the folds to its workers or <em>null</em> to train the folds in this process
+     */
+    public void crossValidation(Parameter param, Coordinator coordinator)
     {
         int i;
         int total_correct = 0;
         double total_error = 0;
         double sumv = 0, sumy = 0, sumvv = 0, sumyy = 0, sumvy = 0;
-        double[] target = new double[prob.numInstances];
+        double[] target;
 
-        this.crossValidation(param, param.nrFold, target);
+        // all folds refer to the same single precision copy of the samples
+        Problem data = compact(this.prob, param);
+        if (this.budget != null)
+        {
+            this.budget.start();
+        }
+        if (coordinator != null)
+        {
+            int[] fold_start = new int[param.nrFold + 1];
+            int[] perm = createFolds(param, param.nrFold, fold_start, rand);
+            target = coordinator.crossValidate(data, perm, fold_start, new Parameter[] {param},
+                                               new double[] {param.C}, false)[0][0];
+        }
+        else
+        {
+            target = new double[prob.numInstances];
+            this.crossValidation(data, param, param.nrFold, target);
+        }
         if (SVMType.EPSILON_SVR.equals(param.svmType) || SVMType.NU_SVR.equals(param.svmType))
         {
             for (i = 0; i < prob.numInstances; i++)
@@ -935,15 +1657,42 @@ public class SVM extends Classifier<Node[], Double>
     /**
      * Performs the actual cross validation.
      *
+     * @param data
+     *         The training data
      * @param param
      *         The parameters specifying how the cross-validation should be performed
      * @param nr_fold
      * @param target
      */
-    private void crossValidation(Parameter param, int nr_fold, double[] target)
+    private void crossValidation(Problem data, Parameter param, int nr_fold, double[] target)
     {
-        int i;
         int[] fold_start = new int[nr_fold + 1];
+        int[] perm = createFolds(param, nr_fold, fold_start, rand);
+        for (int i = 0; i < nr_fold; i++)
+        {
+            trainFold(data, param, perm, fold_start, i, target, null);
+        }
+    }
+
+    /**
+     * Assigns the instances of the training data randomly to folds. Classification problems are split into stratified
+     * folds.
+     *
+     * @param param
+     *         The parameters specifying the SVM type
+     * @param nr_fold
+     *         The number of folds to create
+     * @param fold_start
+     *         Receives the position of the first instance of each fold inside the returned permutation. The array has
+     *         to contain nr_fold + 1 elements
+     * @param random
+     *         The random number generator used to shuffle the instances
+     *
+     * @return The indices of the training instances ordered by their fold
+     */
+    int[] createFolds(Parameter param, int nr_fold, int[] fold_start, Random random)
+    {
+        int i;
         int l = this.prob.numInstances;
         int[] perm = new int[l];
 
@@ -974,7 +1723,7 @@ public class SVM extends Classifier<Node[], Double>
             {
                 for (i = 0; i < count[c]; i++)
                 {
-                    int j = i + rand.nextInt(count[c] - i);
+                    int j = i + random.nextInt(count[c] - i);
                     do
                     {
                         Utils.swap(index, start[c] + j, start[c] + i);
@@ -1022,7 +1771,7 @@ public class SVM extends Classifier<Node[], Double>
             }
             for (i = 0; i < l; i++)
             {
-                int j = i + rand.nextInt(l - i);
+                int j = i + random.nextInt(l - i);
                 do
                 {
                     Utils.swap(perm, i, j);
@@ -1034,45 +1783,63 @@ public class SVM extends Classifier<Node[], Double>
                 fold_start[i] = i * l / nr_fold;
             }
         }
+        return perm;
+    }
 
-        for (i = 0; i < nr_fold; i++)
-        {
-            int begin = fold_start[i];
-            int end = fold_start[i + 1];
-            int j;
-            Problem subprob = new Problem();
-
-            subprob.numInstances = l - (end - begin);
-            subprob.x = new ArrayList<>(subprob.numInstances);
-            subprob.y = new ArrayList<>(subprob.numInstances);
+    /**
+     * Trains a model on the instances of all folds except the given one and predicts the instances of the fold.
+     *
+     * @param param
+     *         The parameters of the trained model
+     * @param perm
+     *         The indices of the training instances ordered by their fold as returned by {@link #createFolds(Parameter,
+     *         int, int[], Random)}
+     * @param fold_start
+     *         The position of the first instance of each fold inside <em>perm</em>
+     * @param fold
+     *         The fold to predict
+     * @param target
+     *         Receives the predicted value of every instance of the fold
+     * @param initialModel
+     *         The model of a previous training on the same fold the training starts from or <em>null</em> to train
+     *         from scratch
+     *
+     * @return The model trained for the fold
+     */
+    public Model trainFold(Parameter param, int[] perm, int[] fold_start, int fold, double[] target, Model initialModel)
+    {
+        return trainFold(this.prob, param, perm, fold_start, fold, target, initialModel);
+    }
 
-            for (j = 0; j < begin; j++)
-            {
-                subprob.x.add(prob.x.get(perm[j]));
-                subprob.y.add(prob.y.get(perm[j]));
-            }
-            for (j = end; j < l; j++)
-            {
-                subprob.x.add(prob.x.get(perm[j]));
-                subprob.y.add(prob.y.get(perm[j]));
-            }
-            Model submodel = this.train(subprob, param);
-            if (param.probability == 1 && (SVMType.C_SVC.equals(param.svmType) || SVMType.NU_SVC.equals(param.svmType)))
+    /**
+     * Trains a model on the instances of all folds of the given data except the given fold and predicts the instances
+     * of the fold.
+     */
+    private Model trainFold(Problem prob, Parameter param, int[] perm, int[] fold_start, int fold, double[] target,
+                            Model initialModel)
+    {
+        int begin = fold_start[fold];
+        int end = fold_start[fold + 1];
+        int j;
+        Problem subprob = ProblemView.without(prob, perm, begin, end);
+        Model submodel = this.train(subprob, param, initialCoefficients(initialModel, subprob.numInstances, param),
+                                    initialModel != null ? initialModel.label : null);
+        if (param.probability == 1 && (SVMType.C_SVC.equals(param.svmType) || SVMType.NU_SVC.equals(param.svmType)))
+        {
+            double[] prob_estimates = new double[submodel.getNrClass()];
+            for (j = begin; j < end; j++)
             {
-                double[] prob_estimates = new double[submodel.getNrClass()];
-                for (j = begin; j < end; j++)
-                {
-                    target[perm[j]] = submodel.predictProbability(prob.x.get(perm[j]), prob_estimates);
-                }
+                target[perm[j]] = submodel.predictProbability(prob.x.get(perm[j]), prob_estimates);
             }
-            else
+        }
+        else
+        {
+            for (j = begin; j < end; j++)
             {
-                for (j = begin; j < end; j++)
-                {
-                    target[perm[j]] = submodel.predict(prob.x.get(perm[j]));
-                }
+                target[perm[j]] = submodel.predict(prob.x.get(perm[j]));
             }
         }
+        return submodel;
     }
 
     /**
@@ -1155,6 +1922,61 @@ public class SVM extends Classifier<Node[], Double>
             return "probability != 0 and probability != 1";
         }
 
+        if (this.param.linearSolver != 0 && this.param.linearSolver != 1)
+        {
+            return "linear_solver != 0 and linear_solver != 1";
+        }
+
+        if (this.param.linearSolver == 1 && this.param.linearEps <= 0)
+        {
+            return "linear_eps <= 0";
+        }
+
+        if (this.param.multiClass != 0 && this.param.multiClass != 1)
+        {
+            return "multi_class != 0 and multi_class != 1";
+        }
+
+        if (this.param.singlePrecision != 0 && this.param.singlePrecision != 1)
+        {
+            return "single_precision != 0 and single_precision != 1";
+        }
+
+        if (this.param.approximation < 0 || this.param.approximation > 2)
+        {
+            return "unknown kernel approximation";
+        }
+
+        if (this.param.approximation == 1 && !KernelType.RBF.equals(kernelType))
+        {
+            return "random Fourier features only approximate the RBF kernel";
+        }
+
+        if (this.param.approximation == 2 && KernelType.PRECOMPUTED.equals(kernelType))
+        {
+            return "precomputed kernels can not be approximated";
+        }
+
+        if (this.param.approximation != 0 && this.param.approximationSize <= 0)
+        {
+            return "approximation size <= 0";
+        }
+
+        if (this.param.scaling != null && KernelType.PRECOMPUTED.equals(kernelType))
+        {
+            return "precomputed kernels can not be scaled";
+        }
+
+        if (this.param.scaling != null && KernelType.LINEAR.equals(kernelType) && this.param.linearSolver == 1)
+        {
+            return "the linear solver does not support scaled features";
+        }
+
+        if (this.param.scaling != null && this.param.approximation == 1)
+        {
+            return "random Fourier features do not support scaled features";
+        }
+
         if (this.param.probability == 1 && SVMType.ONE_CLASS.equals(svmType))
         {
             return "one-class SVM probability output not supported yet";
@@ -1202,7 +2024,18 @@ public class SVM extends Classifier<Node[], Double>
                 }
             }
 
-            for (i = 0; i < nr_class; i++)
+            if (this.param.multiClass == 1 && nr_class > 2)
+            {
+                // every class is separated from all other samples
+                for (i = 0; i < nr_class; i++)
+                {
+                    if (this.param.nu * l / 2 > Math.min(count[i], l - count[i]))
+                    {
+                        return "specified nu is infeasible";
+                    }
+                }
+            }
+            for (i = 0; i < nr_class && (this.param.multiClass != 1 || nr_class <= 2); i++)
             {
                 int n1 = count[i];
                 for (int j = i + 1; j < nr_class; j++)
@@ -1222,6 +2055,12 @@ public class SVM extends Classifier<Node[], Double>
     @Override
     public void train(Node[] item, Double category)
     {
+        if (this.prob instanceof CompactProblem || this.prob instanceof DenseProblem ||
+            this.prob instanceof ProblemView)
+        {
+            // read-only problems are copied once before they get extended
+            this.prob = this.prob.copy();
+        }
         this.prob.add(category, item);
     }
 
@@ -1253,16 +2092,52 @@ public class SVM extends Classifier<Node[], Double>
         return 0.;
     }
 
+    /**
+     * Classifies every provided sample and returns the class which got predicted most often. On a tie the class which
+     * reached the highest count first is returned.
+     *
+     * @param items
+     *         The samples to classify
+     *
+     * @return The most frequently predicted class of the samples
+     */
     @Override
     public Double classify(Node[][] items)
     {
-        List<Double> classification = new ArrayList<>();
-        for (Node[] nodes : items)
+        Model model = this.getTrainedModel();
+        if (model == null || items.length == 0)
         {
-            classification.add(this.classify(nodes));
+            return 0.;
         }
 
-        return null;
+        Map<Double, Integer> counts = new HashMap<>();
+        Double best = null;
+        int bestCount = 0;
+        for (double predicted : model.predict(Arrays.asList(items)))
+        {
+            int count = counts.merge(predicted, 1, Integer::sum);
+            if (count > bestCount)
+            {
+                best = predicted;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Classifies every provided sample using the batch prediction of the trained model.
+     *
+     * @param items
+     *         The samples to classify
+     * @param nrThreads
+     *         The number of threads to use for prediction
+     *
+     * @return The predicted class of each sample in the order of the provided samples
+     */
+    public double[] classifyAll(List<Node[]> items, int nrThreads)
+    {
+        return this.getTrainedModel().predict(items, nrThreads);
     }
 
     /**
@@ -1293,6 +2168,12 @@ public class SVM extends Classifier<Node[], Double>
             // check if the format for a pre-computed kernel type is appropriate
             if (KernelType.PRECOMPUTED.equals(param.kernelType))
             {
+                // a serial number refers to a row and a column of a memory-mapped kernel matrix
+                int maxSerial = this.prob.getMaxIndex();
+                if (this.param.gramMatrix != null)
+                {
+                    maxSerial = Math.min(this.param.gramMatrix.getRows(), this.param.gramMatrix.getColumns());
+                }
                 for (int i = 0; i < prob.numInstances; i++)
                 {
                     if (this.prob.x.get(i)[0].index != 0)
@@ -1300,7 +2181,7 @@ public class SVM extends Classifier<Node[], Double>
                         System.err.print("Wrong kernel matrix: first column must be 0:sample_serial_number\n");
                         System.exit(1);
                     }
-                    if ((int) prob.x.get(i)[0].value <= 0 || (int) prob.x.get(i)[0].value > this.prob.getMaxIndex())
+                    if ((int) prob.x.get(i)[0].value <= 0 || (int) prob.x.get(i)[0].value > maxSerial)
                     {
                         System.err.print("Wrong input format: sample_serial_number out of range\n");
                         System.exit(1);
@@ -1308,7 +2189,26 @@ public class SVM extends Classifier<Node[], Double>
                 }
             }
 
-            this.model = train(this.prob, this.param);
+            if (this.budget != null)
+            {
+                this.budget.start();
+            }
+            this.checkpoints.clear();
+            this.model = train(this.prob, this.param, initialCoefficients(),
+                               this.initialModel != null ? this.initialModel.label : null);
+            SolverMetrics metrics = this.model.getMetrics();
+            if (metrics == null || metrics.stoppedRuns == 0)
+            {
+                // only the checkpoints of this training are removed, the directory may be shared with other trainings
+                for (File state : this.checkpoints)
+                {
+                    if (state.exists() && !state.delete())
+                    {
+                        LOG.warn("Could not remove checkpoint {}", state);
+                    }
+                }
+                this.checkpoints.clear();
+            }
         }
         return this.model;
     }
@@ -0,0 +1,34 @@
+package at.rovo.classifier.svm;
+
+/**
+ * Specifies how a multi-class model combines the k*(k-1)/2 pairwise classifiers to predict the class of a sample.
+ * <p>
+ * {@link #VOTING} evaluates every pairwise classifier. The other strategies evaluate the pairwise classifiers one after
+ * another and skip the classifiers which can not change the prediction anymore. Both strategies apply to
+ * classification models with more than two classes and to predictions without probability estimates, which always
+ * require all pairwise decision values.
+ *
+ * @author Roman Vottner
+ */
+public enum VotingStrategy
+{
+    /**
+     * Evaluates all pairwise classifiers and predicts the class with the most votes, which is the behavior of libSVM.
+     */
+    VOTING,
+    /**
+     * Evaluates the pairwise classifiers until no other class can reach the votes of the leading class anymore. The
+     * prediction is identical to {@link #VOTING}, including the preference of the first class on a tie. As every class
+     * takes part in a decision before the winner is certain, the kernel values of all support vectors are evaluated
+     * and only the decision values of the skipped classifiers are saved.
+     */
+    EARLY_VOTING,
+    /**
+     * Evaluates the classifiers along a decision directed acyclic graph (DAG-SVM). Starting with the list of all
+     * classes, the classifier of the first and the last class of the list removes the losing class until a single
+     * class remains, which requires k-1 decisions. The prediction may differ from {@link #VOTING}. The kernel value of
+     * a support vector is only computed once a classifier with a non-zero coefficient for it is evaluated, so support
+     * vectors which only belong to skipped classifiers are never touched.
+     */
+    DAG
+}
@@ -0,0 +1,137 @@
+package at.rovo.classifier.svm.approximation;
+
+import at.rovo.classifier.svm.struct.DenseMatrix;
+import at.rovo.classifier.svm.struct.DenseProblem;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Problem;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Maps samples into a finite dimensional feature space whose inner product approximates a kernel function, i.e. K(x, y)
+ * ~ z(x)^T z(y). A linear SVM trained on the mapped samples approximates the SVM trained with the kernel, while
+ * training scales linearly in the number of samples and the costs of a prediction do not depend on the number of
+ * support vectors.
+ * <p>
+ * Implementations have to be thread-safe, as samples may be mapped concurrently.
+ *
+ * @author Roman Vottner
+ */
+public interface FeatureMap extends Serializable
+{
+    /**
+     * Returns the number of dimensions of the feature space.
+     *
+     * @return The number of features of a mapped sample
+     */
+    int getDimension();
+
+    /**
+     * Maps a sample into the feature space.
+     *
+     * @param x
+     *         The sample sorted in ascending order of its feature indices
+     * @param z
+     *         The array to write the {@link #getDimension()} features of the mapped sample to
+     * @param offset
+     *         The position of the first feature inside <em>z</em>
+     */
+    void map(Node[] x, double[] z, int offset);
+
+    /**
+     * Maps a sample into the feature space and returns the result as dense sample with the feature indices 1 to
+     * {@link #getDimension()}.
+     *
+     * @param x
+     *         The sample sorted in ascending order of its feature indices
+     *
+     * @return The mapped sample
+     */
+    default Node[] map(Node[] x)
+    {
+        int dim = getDimension();
+        double[] z = new double[dim];
+        map(x, z, 0);
+        Node[] mapped = new Node[dim];
+        for (int d = 0; d < dim; d++)
+        {
+            mapped[d] = new Node();
+            mapped[d].index = d + 1;
+            mapped[d].value = z[d];
+        }
+        return mapped;
+    }
+
+    /**
+     * Maps all samples of a problem into the feature space. The mapped samples are stored in a {@link DenseMatrix}
+     * instead of one {@link Node} per feature.
+     *
+     * @param prob
+     *         The problem to map
+     * @param nrThreads
+     *         The number of threads mapping the samples
+     *
+     * @return The problem containing the mapped samples and the labels of the original problem
+     */
+    default DenseProblem map(Problem prob, int nrThreads)
+    {
+        int l = prob.numInstances;
+        DenseMatrix matrix = new DenseMatrix(l, getDimension());
+        double[] labels = new double[l];
+        for (int i = 0; i < l; i++)
+        {
+            labels[i] = prob.y.get(i);
+        }
+
+        if (nrThreads <= 1 || l < 2 * nrThreads)
+        {
+            for (int i = 0; i < l; i++)
+            {
+                map(prob.x.get(i), matrix.chunk(i), matrix.offset(i));
+            }
+        }
+        else
+        {
+            ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+            try
+            {
+                List<Future<?>> futures = new ArrayList<>(nrThreads);
+                int part = (l + nrThreads - 1) / nrThreads;
+                for (int from = 0; from < l; from += part)
+                {
+                    final int begin = from;
+                    final int end = Math.min(l, from + part);
+                    futures.add(executor.submit(() -> {
+                        for (int i = begin; i < end; i++)
+                        {
+                            map(prob.x.get(i), matrix.chunk(i), matrix.offset(i));
+                        }
+                    }));
+                }
+                for (Future<?> future : futures)
+                {
+                    future.get();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Mapping the problem got interrupted", e);
+            }
+            catch (ExecutionException e)
+            {
+                throw new IllegalStateException("Mapping the problem failed", e.getCause());
+            }
+            finally
+            {
+                executor.shutdown();
+            }
+        }
+        return new DenseProblem(matrix, labels);
+    }
+}
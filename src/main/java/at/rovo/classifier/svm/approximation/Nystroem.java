@@ -0,0 +1,158 @@
+package at.rovo.classifier.svm.approximation;
+
+import at.rovo.classifier.svm.kernel.Kernel;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Approximates a kernel by a low-rank factorization based on m randomly selected landmark samples (Williams and Seeger,
+ * Using the Nyström Method to Speed Up Kernel Machines, NIPS 2001). The kernel matrix is approximated by
+ * <p>
+ * <code>K ~ K_nm K_mm^-1 K_mn</code>
+ * <p>
+ * where K_mm contains the kernel values among the landmarks and K_nm the kernel values of the samples with the
+ * landmarks. With the Cholesky factorization K_mm = L L^T a sample is mapped to z(x) = L^-1 k(x), where k(x) contains
+ * the kernel values of the sample with all landmarks, so that z(x)^T z(y) = k(x)^T K_mm^-1 k(y).
+ * <p>
+ * In contrast to {@link RandomFourierFeatures} any kernel function can be approximated and the approximation adapts to
+ * the distribution of the training data, which usually requires less components for the same accuracy. Mapping a
+ * sample costs m kernel evaluations and O(m^2) for the triangular solve. Landmarks which are linearly dependent on
+ * previous landmarks in the feature space of the kernel, i.e. duplicate samples, are ignored and yield a constant
+ * component of 0.
+ *
+ * @author Roman Vottner
+ */
+public class Nystroem implements FeatureMap
+{
+    /** Unique identifier necessary for serialization **/
+    private static final long serialVersionUID = 2931062410264950372L;
+    /** Pivots below this fraction of the largest diagonal element of K_mm are considered to be 0 **/
+    private static final double TOLERANCE = 1e-10;
+
+    /** The landmarks the kernel values of a sample are computed with **/
+    private final Node[][] landmarks;
+    /** The kernel parameters **/
+    private final Parameter param;
+    /** The lower triangular Cholesky factor of K_mm, where L[j] contains the elements L[j][0..j] **/
+    private final double[][] L;
+    /** Marks the landmarks which are linearly dependent on previous ones **/
+    private final boolean[] dropped;
+
+    /**
+     * Selects the landmarks randomly from the given samples and factorizes their kernel matrix.
+     *
+     * @param x
+     *         The samples to draw the landmarks from
+     * @param param
+     *         The parameters specifying the kernel function to approximate
+     * @param dim
+     *         The number of landmarks m. If less samples are available all samples are used as landmarks
+     * @param random
+     *         The random number generator to select the landmarks with
+     */
+    public Nystroem(List<Node[]> x, Parameter param, int dim, Random random)
+    {
+        int l = x.size();
+        int m = Math.min(dim, l);
+
+        // partial Fisher-Yates shuffle to draw m samples without replacement
+        int[] perm = new int[l];
+        for (int i = 0; i < l; i++)
+        {
+            perm[i] = i;
+        }
+        this.landmarks = new Node[m][];
+        for (int i = 0; i < m; i++)
+        {
+            int j = i + random.nextInt(l - i);
+            int tmp = perm[i];
+            perm[i] = perm[j];
+            perm[j] = tmp;
+            this.landmarks[i] = x.get(perm[i]);
+        }
+
+        this.param = (Parameter) param.clone();
+        this.param.kernelCache = null;
+
+        this.L = new double[m][];
+        this.dropped = new boolean[m];
+        double maxDiag = 0;
+        for (int i = 0; i < m; i++)
+        {
+            this.L[i] = new double[i + 1];
+            for (int j = 0; j <= i; j++)
+            {
+                this.L[i][j] = Kernel.function(this.landmarks[i], this.landmarks[j], this.param);
+            }
+            maxDiag = Math.max(maxDiag, this.L[i][i]);
+        }
+        factorize(maxDiag * TOLERANCE);
+    }
+
+    /**
+     * Replaces the lower triangle of K_mm stored in {@link #L} by its Cholesky factor. Columns whose pivot drops below
+     * the tolerance are excluded from the factorization.
+     */
+    private void factorize(double tolerance)
+    {
+        int m = this.L.length;
+        for (int j = 0; j < m; j++)
+        {
+            double d = this.L[j][j];
+            for (int k = 0; k < j; k++)
+            {
+                d -= this.L[j][k] * this.L[j][k];
+            }
+            if (d <= tolerance)
+            {
+                this.dropped[j] = true;
+                for (int i = j; i < m; i++)
+                {
+                    this.L[i][j] = 0;
+                }
+                continue;
+            }
+            double pivot = Math.sqrt(d);
+            this.L[j][j] = pivot;
+            for (int i = j + 1; i < m; i++)
+            {
+                double s = this.L[i][j];
+                for (int k = 0; k < j; k++)
+                {
+                    s -= this.L[i][k] * this.L[j][k];
+                }
+                this.L[i][j] = s / pivot;
+            }
+        }
+    }
+
+    @Override
+    public int getDimension()
+    {
+        return this.landmarks.length;
+    }
+
+    @Override
+    public void map(Node[] x, double[] z, int offset)
+    {
+        int m = this.landmarks.length;
+        for (int j = 0; j < m; j++)
+        {
+            if (this.dropped[j])
+            {
+                z[offset + j] = 0;
+                continue;
+            }
+            // forward substitution of L z = k(x)
+            double s = Kernel.function(x, this.landmarks[j], this.param);
+            double[] row = this.L[j];
+            for (int k = 0; k < j; k++)
+            {
+                s -= row[k] * z[offset + k];
+            }
+            z[offset + j] = s / row[j];
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package at.rovo.classifier.svm.approximation;
+
+import at.rovo.classifier.svm.struct.Node;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Approximates the RBF kernel exp(-gamma*|x-y|^2) with random Fourier features as proposed by Rahimi and Recht
+ * (Random Features for Large-Scale Kernel Machines, NIPS 2007). A sample is mapped to
+ * <p>
+ * <code>z_d(x) = sqrt(2/D) cos(w_d^T x + b_d)</code>
+ * <p>
+ * for d = 1 ... D, where w_d is drawn from the Fourier transform of the kernel, a normal distribution with variance
+ * 2*gamma, and b_d uniformly from [0, 2*pi].
+ * <p>
+ * The random direction of an input feature k, i.e. the k-th component of all w_d, is derived from a seed and k, so it
+ * is the same whenever it is drawn. The directions of the feature indices occurring in the training data are stored,
+ * which requires O(m * D) memory for m distinct indices regardless of the highest index, while the directions of any
+ * other index are drawn on demand. Mapping a sparse sample costs O(nnz(x) * D).
+ *
+ * @author Roman Vottner
+ */
+public class RandomFourierFeatures implements FeatureMap
+{
+    /** Unique identifier necessary for serialization **/
+    private static final long serialVersionUID = 8526092563342165270L;
+
+    /** The number of random features **/
+    private final int dim;
+    /** The standard deviation sqrt(2*gamma) of the random directions **/
+    private final double sigma;
+    /** The seed the random directions of the input features are derived from **/
+    private final long seed;
+    /** The input feature indices whose random directions are stored, in ascending order **/
+    private final int[] indices;
+    /** The random directions of the stored input features (weights[indices.length][D]) **/
+    private final double[][] weights;
+    /** The random phase of each feature **/
+    private final double[] offsets;
+    /** The normalization factor sqrt(2/D) **/
+    private final double scale;
+
+    /**
+     * Draws the random features approximating an RBF kernel and stores the random directions of the feature indices
+     * which occur in the given samples.
+     *
+     * @param x
+     *         The samples to map, usually the training data
+     * @param dim
+     *         The number of random features D. The approximation error decreases with O(1/sqrt(D))
+     * @param gamma
+     *         The parameter gamma of the RBF kernel
+     * @param random
+     *         The random number generator to draw the features from
+     */
+    public RandomFourierFeatures(List<Node[]> x, int dim, double gamma, Random random)
+    {
+        this.dim = dim;
+        this.sigma = Math.sqrt(2 * gamma);
+        this.seed = random.nextLong();
+        this.offsets = new double[dim];
+        this.scale = Math.sqrt(2.0 / dim);
+        for (int d = 0; d < dim; d++)
+        {
+            this.offsets[d] = 2 * Math.PI * random.nextDouble();
+        }
+
+        int count = 0;
+        int[] indices = new int[16];
+        for (Node[] sample : x)
+        {
+            for (Node n : sample)
+            {
+                if (count == indices.length)
+                {
+                    // remove the duplicates collected so far before growing the buffer
+                    count = distinct(indices, count);
+                    if (count > indices.length / 2)
+                    {
+                        indices = Arrays.copyOf(indices, 2 * indices.length);
+                    }
+                }
+                indices[count++] = n.index;
+            }
+        }
+        this.indices = Arrays.copyOf(indices, distinct(indices, count));
+        this.weights = new double[this.indices.length][dim];
+        for (int k = 0; k < this.indices.length; k++)
+        {
+            direction(this.indices[k], this.weights[k]);
+        }
+    }
+
+    /**
+     * Sorts the first <em>count</em> elements of the array and moves the distinct ones to its front.
+     *
+     * @return The number of distinct elements
+     */
+    private static int distinct(int[] values, int count)
+    {
+        Arrays.sort(values, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (distinct == 0 || values[i] != values[distinct - 1])
+            {
+                values[distinct++] = values[i];
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Draws the random direction of an input feature, which is the same for every invocation with the same index.
+     *
+     * @param index
+     *         The index of the input feature
+     * @param w
+     *         The array to write the D components of the direction to
+     */
+    private void direction(int index, double[] w)
+    {
+        // the SplitMix64 finalizer decorrelates the seeds of adjacent indices
+        long z = this.seed + (index + 1L) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        Random random = new Random(z ^ (z >>> 31));
+        for (int d = 0; d < this.dim; d++)
+        {
+            w[d] = this.sigma * random.nextGaussian();
+        }
+    }
+
+    @Override
+    public int getDimension()
+    {
+        return this.dim;
+    }
+
+    @Override
+    public void map(Node[] x, double[] z, int offset)
+    {
+        System.arraycopy(this.offsets, 0, z, offset, this.dim);
+        double[] drawn = null;
+        int k = 0;
+        for (Node n : x)
+        {
+            // the features of the sample are sorted, so the search continues at the last stored index found
+            int pos = Arrays.binarySearch(this.indices, k, this.indices.length, n.index);
+            double[] w;
+            if (pos >= 0)
+            {
+                w = this.weights[pos];
+                k = pos + 1;
+            }
+            else
+            {
+                if (drawn == null)
+                {
+                    drawn = new double[this.dim];
+                }
+                direction(n.index, drawn);
+                w = drawn;
+                k = -pos - 1;
+            }
+            double v = n.value;
+            for (int d = 0; d < this.dim; d++)
+            {
+                z[offset + d] += w[d] * v;
+            }
+        }
+        for (int d = offset; d < offset + this.dim; d++)
+        {
+            z[d] = this.scale * Math.cos(z[d]);
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package at.rovo.classifier.svm.kernel;
+
+import at.rovo.classifier.svm.KernelType;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import at.rovo.classifier.svm.struct.Scaling;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The values of a precomputed kernel stored in a memory-mapped file. A {@link KernelType#PRECOMPUTED} kernel usually
+ * expects every sample to contain its full row of the kernel matrix, which requires n^2 {@link Node}s on the heap. If
+ * a matrix is attached via {@link Parameter#gramMatrix}, a sample only consists of the node 0:serial_number and the
+ * kernel value K(x, y) is read from row serial(x) and column serial(y) of the mapped file. The operating system pages
+ * in the required parts of the file, so the matrix may exceed the available heap by far.
+ * <p>
+ * For training the matrix contains the kernel values among all training samples. To predict new samples a matrix with
+ * one row per new sample and one column per training sample is attached to the model via
+ * {@link at.rovo.classifier.svm.Model#setGramMatrix(GramMatrix)}, where the serial numbers of the new samples refer to
+ * the rows of this matrix.
+ * <p>
+ * All values are stored in little endian byte order:
+ * <p>
+ * <code>int magic, int version, int rows, int columns, int value_size, int reserved<br/> float|double
+ * values[rows][columns]</code>
+ * <p>
+ * Reading values is thread-safe.
+ *
+ * @author Roman Vottner
+ */
+public class GramMatrix
+{
+    /** The first four bytes of every kernel matrix file ("RGRM") **/
+    private static final int MAGIC = 0x4D524752;
+    /** The version of the format written by this class **/
+    private static final int VERSION = 1;
+    /** The size of the header in bytes **/
+    private static final int HEADER_SIZE = 24;
+
+    /** The number of rows of the matrix **/
+    private final int rows;
+    /** The number of columns of the matrix **/
+    private final int columns;
+    /** The size of a value in bytes, 4 for float and 8 for double precision **/
+    private final int valueSize;
+    /** The number of rows held by each mapped buffer **/
+    private final int rowsPerBuffer;
+    /** The mapped rows, as a single buffer can not exceed 2 GB **/
+    private final ByteBuffer[] buffers;
+
+    private GramMatrix(int rows, int columns, int valueSize, ByteBuffer[] buffers, int rowsPerBuffer)
+    {
+        this.rows = rows;
+        this.columns = columns;
+        this.valueSize = valueSize;
+        this.buffers = buffers;
+        this.rowsPerBuffer = rowsPerBuffer;
+    }
+
+    /**
+     * Maps a kernel matrix file into memory.
+     *
+     * @param fileName
+     *         The name of the file written by {@link #build(String, List, List, Parameter, boolean, int)}
+     *
+     * @return The mapped kernel matrix
+     *
+     * @throws IOException
+     *         If the file could not be read or is not a kernel matrix file
+     */
+    public static GramMatrix open(String fileName) throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r"))
+        {
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC)
+            {
+                throw new IOException(fileName + " is not a kernel matrix file");
+            }
+            if (header.getInt(4) != VERSION)
+            {
+                throw new IOException("Unsupported kernel matrix version " + header.getInt(4));
+            }
+            int rows = header.getInt(8);
+            int columns = header.getInt(12);
+            int valueSize = header.getInt(16);
+            if (valueSize != 4 && valueSize != 8)
+            {
+                throw new IOException("Invalid value size " + valueSize + " in " + fileName);
+            }
+            if (channel.size() < HEADER_SIZE + (long) rows * columns * valueSize)
+            {
+                throw new IOException(fileName + " is truncated");
+            }
+
+            int rowsPerBuffer = rowsPerBuffer(columns, valueSize);
+            ByteBuffer[] buffers =
+                    map(channel, FileChannel.MapMode.READ_ONLY, rows, columns, valueSize, rowsPerBuffer);
+            return new GramMatrix(rows, columns, valueSize, buffers, rowsPerBuffer);
+        }
+    }
+
+    /**
+     * Computes the kernel values K(rows[i], columns[j]) of the kernel specified by the given parameters and writes them
+     * to a kernel matrix file. The rows are computed in parallel and written directly to the mapped file, so the
+     * matrix is never held on the heap.
+     * <p>
+     * The matrix used for training is built with the training samples as rows and columns, the matrix used to predict
+     * new samples with the new samples as rows and the training samples as columns.
+     *
+     * @param fileName
+     *         The name of the file to write the matrix to
+     * @param rows
+     *         The samples the rows of the matrix are computed for
+     * @param columns
+     *         The samples the columns of the matrix are computed for
+     * @param param
+     *         The parameters specifying the kernel function, which must not be a precomputed kernel, and the optional
+     *         scaling of the features
+     * @param doublePrecision
+     *         <em>true</em> to store the values as double, <em>false</em> to store them as float. As the solvers cache
+     *         kernel values as float, single precision yields the same models at half the size
+     * @param nrThreads
+     *         The number of threads computing the rows
+     *
+     * @return The mapped kernel matrix
+     *
+     * @throws IOException
+     *         If the file could not be written
+     */
+    public static GramMatrix build(String fileName, List<Node[]> rows, List<Node[]> columns, Parameter param,
+                                   boolean doublePrecision, int nrThreads) throws IOException
+    {
+        if (KernelType.PRECOMPUTED.equals(param.kernelType))
+        {
+            throw new IllegalArgumentException("A kernel matrix can not be built from a precomputed kernel");
+        }
+
+        int nrRows = rows.size();
+        int nrColumns = columns.size();
+        int valueSize = doublePrecision ? 8 : 4;
+        int rowsPerBuffer = rowsPerBuffer(nrColumns, valueSize);
+
+        // squared norms and the highest feature index of the columns allow to evaluate a row from dot products
+        Scaling scaling = param.scaling;
+        double[] columnSquare = new double[nrColumns];
+        double[] columnShift = new double[nrColumns];
+        int maxIndex = 0;
+        for (int j = 0; j < nrColumns; j++)
+        {
+            for (Node n : columns.get(j))
+            {
+                maxIndex = Math.max(maxIndex, n.index);
+            }
+            columnShift[j] = scaling != null ? scaling.shift(columns.get(j)) + scaling.constant() : 0;
+            columnSquare[j] = scaledSquare(columns.get(j), scaling);
+        }
+        final int denseSize = maxIndex + 1;
+
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "rw"))
+        {
+            file.setLength(HEADER_SIZE + (long) nrRows * nrColumns * valueSize);
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, nrRows).putInt(12, nrColumns).putInt(16, valueSize)
+                  .putInt(20, 0);
+            header.force();
+
+            ByteBuffer[] buffers =
+                    map(channel, FileChannel.MapMode.READ_WRITE, nrRows, nrColumns, valueSize, rowsPerBuffer);
+            int threads = Math.max(1, Math.min(nrThreads, nrRows));
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try
+            {
+                List<Future<?>> futures = new ArrayList<>(threads);
+                for (int t = 0; t < threads; t++)
+                {
+                    final int first = t;
+                    futures.add(executor.submit(() -> {
+                        double[] dense = new double[denseSize];
+                        // interleaved rows keep the threads busy even if the rows differ in their number of features
+                        for (int i = first; i < nrRows; i += threads)
+                        {
+                            ByteBuffer buffer = buffers[i / rowsPerBuffer];
+                            int offset = (i % rowsPerBuffer) * nrColumns * valueSize;
+                            Node[] x = rows.get(i);
+                            double xSquare = scaledSquare(x, scaling);
+                            double xShift = scaling != null ? scaling.shift(x) : 0;
+                            for (Node n : x)
+                            {
+                                if (n.index < denseSize)
+                                {
+                                    dense[n.index] = scaling != null ? scaling.weight(n.index) * n.value : n.value;
+                                }
+                            }
+                            for (int j = 0; j < nrColumns; j++)
+                            {
+                                double dot = xShift + columnShift[j];
+                                for (Node n : columns.get(j))
+                                {
+                                    dot += dense[n.index] * n.value;
+                                }
+                                double value = Kernel.function(dot, xSquare, columnSquare[j], param);
+                                if (valueSize == 8)
+                                {
+                                    buffer.putDouble(offset + j * 8, value);
+                                }
+                                else
+                                {
+                                    buffer.putFloat(offset + j * 4, (float) value);
+                                }
+                            }
+                            for (Node n : x)
+                            {
+                                if (n.index < denseSize)
+                                {
+                                    dense[n.index] = 0;
+                                }
+                            }
+                        }
+                    }));
+                }
+                for (Future<?> future : futures)
+                {
+                    future.get();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Building the kernel matrix got interrupted", e);
+            }
+            catch (ExecutionException e)
+            {
+                throw new IllegalStateException("Building the kernel matrix failed", e.getCause());
+            }
+            finally
+            {
+                executor.shutdown();
+            }
+            for (ByteBuffer buffer : buffers)
+            {
+                ((MappedByteBuffer) buffer).force();
+            }
+        }
+        return open(fileName);
+    }
+
+    /**
+     * Computes the kernel matrix among the samples of a training problem in single precision.
+     *
+     * @param fileName
+     *         The name of the file to write the matrix to
+     * @param prob
+     *         The training samples
+     * @param param
+     *         The parameters specifying the kernel function, which must not be a precomputed kernel
+     * @param nrThreads
+     *         The number of threads computing the rows
+     *
+     * @return The mapped kernel matrix
+     *
+     * @throws IOException
+     *         If the file could not be written
+     */
+    public static GramMatrix build(String fileName, Problem prob, Parameter param, int nrThreads) throws IOException
+    {
+        return build(fileName, prob.x, prob.x, param, false, nrThreads);
+    }
+
+    /**
+     * Returns the squared norm of a sample after applying the scaling if available.
+     */
+    private static double scaledSquare(Node[] x, Scaling scaling)
+    {
+        if (scaling != null)
+        {
+            double shift = scaling.shift(x);
+            return scaling.dot(x, shift, x, shift);
+        }
+        double sum = 0;
+        for (Node n : x)
+        {
+            sum += n.value * n.value;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the number of rows which fit into a single mapped buffer.
+     */
+    private static int rowsPerBuffer(int columns, int valueSize)
+    {
+        long rowSize = Math.max(1, (long) columns * valueSize);
+        if (rowSize > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("A row of " + columns + " values exceeds the size of a mapped buffer");
+        }
+        return (int) (Integer.MAX_VALUE / rowSize);
+    }
+
+    /**
+     * Maps the values of the matrix in blocks of <em>rowsPerBuffer</em> rows.
+     */
+    private static ByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, int rows, int columns,
+                                    int valueSize, int rowsPerBuffer) throws IOException
+    {
+        long rowSize = (long) columns * valueSize;
+        int nrBuffers = (rows + rowsPerBuffer - 1) / rowsPerBuffer;
+        ByteBuffer[] buffers = new ByteBuffer[nrBuffers];
+        for (int b = 0; b < nrBuffers; b++)
+        {
+            int first = b * rowsPerBuffer;
+            int count = Math.min(rowsPerBuffer, rows - first);
+            buffers[b] = channel.map(mode, HEADER_SIZE + first * rowSize, count * rowSize)
+                                .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return buffers;
+    }
+
+    /**
+     * Returns the number of rows of this matrix.
+     *
+     * @return The number of rows
+     */
+    public int getRows()
+    {
+        return this.rows;
+    }
+
+    /**
+     * Returns the number of columns of this matrix.
+     *
+     * @return The number of columns
+     */
+    public int getColumns()
+    {
+        return this.columns;
+    }
+
+    /**
+     * Returns a value of the matrix.
+     *
+     * @param i
+     *         The row of the value, starting at 0
+     * @param j
+     *         The column of the value, starting at 0
+     *
+     * @return The kernel value in row i and column j
+     */
+    public double get(int i, int j)
+    {
+        ByteBuffer buffer = this.buffers[i / this.rowsPerBuffer];
+        int offset = ((i % this.rowsPerBuffer) * this.columns + j) * this.valueSize;
+        return this.valueSize == 8 ? buffer.getDouble(offset) : buffer.getFloat(offset);
+    }
+
+    /**
+     * Returns the kernel value of two samples of a precomputed kernel, which are identified by their serial numbers
+     * stored in the value of their first node 0:serial_number.
+     *
+     * @param x
+     *         The sample whose serial number refers to a row of this matrix
+     * @param y
+     *         The sample whose serial number refers to a column of this matrix
+     *
+     * @return The kernel value K(x, y)
+     */
+    public double value(Node[] x, Node[] y)
+    {
+        return get((int) x[0].value - 1, (int) y[0].value - 1);
+    }
+}
@@ -1,9 +1,14 @@
 package at.rovo.classifier.svm.kernel;
 
 import at.rovo.classifier.svm.KernelType;
+import at.rovo.classifier.svm.struct.CsrMatrix;
+import at.rovo.classifier.svm.struct.DenseMatrix;
 import at.rovo.classifier.svm.struct.Node;
 import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
 import at.rovo.classifier.svm.struct.QMatrix;
+import at.rovo.classifier.svm.struct.Scaling;
+import at.rovo.classifier.svm.struct.SolverMetrics;
 import at.rovo.classifier.svm.utils.Utils;
 import java.util.ArrayList;
 import java.util.List;
@@ -13,8 +18,19 @@ import java.util.List;
  */
 public abstract class Kernel extends QMatrix
 {
-    private List<Node[]> x;
+    /** The samples or <em>null</em> if the dot products are computed on {@link #matrix} or {@link #dense} **/
+    private final List<Node[]> x;
     private final double[] x_square;
+    /** The scaling applied to the features or <em>null</em> if the samples are used as they are **/
+    private final Scaling scaling;
+    /** The shift of each sample within the dot products of the scaled samples, see {@link Scaling#shift(Node[])} **/
+    private final double[] shift;
+    /** The matrix holding the samples or <em>null</em> if the dot products are computed on {@link #x} **/
+    private final CsrMatrix matrix;
+    /** The dense matrix holding the unscaled samples or <em>null</em> if they are read from another source **/
+    private final DenseMatrix dense;
+    /** The row of {@link #matrix} or {@link #dense} holding each sample **/
+    private final int[] row;
 
     // svm_parameter
     private final KernelType kernelType;
@@ -22,17 +38,29 @@ public abstract class Kernel extends QMatrix
     private final double gamma;
     private final double coef0;
 
+    /** The number of kernel evaluations performed by this instance **/
+    private long evaluations;
+    /** An optional cache of kernel rows shared with other trainings **/
+    private SharedKernelCache shared;
+    /** The position of each sample within the rows of the shared cache **/
+    private int[] sharedIndex;
+    /** The memory-mapped values of a precomputed kernel or <em>null</em> if the samples contain the values **/
+    private final GramMatrix gram;
+
     public abstract float[] get_Q(int column, int len);
 
     public abstract double[] get_QD();
 
     public void swapIndex(int i, int j)
     {
-        do
+        if (x != null)
         {
             Utils.swap(x, i, j);
         }
-        while (false);
+        if (sharedIndex != null)
+        {
+            Utils.swap(sharedIndex, i, j);
+        }
         if (x_square != null)
         {
             do
@@ -41,9 +69,17 @@ public abstract class Kernel extends QMatrix
             }
             while (false);
         }
+        if (shift != null)
+        {
+            Utils.swap(shift, i, j);
+        }
+        if (row != null)
+        {
+            Utils.swap(row, i, j);
+        }
     }
 
-    private static double powi(double base, int times)
+    static double powi(double base, int times)
     {
         double tmp = base, ret = 1.0;
 
@@ -58,40 +94,154 @@ public abstract class Kernel extends QMatrix
         return ret;
     }
 
+    /**
+     * Calculates the kernel values K(i, j) for all j in [start, len). The values are read from the shared kernel cache
+     * specified by {@link Parameter#kernelCache} if available and computed otherwise.
+     *
+     * @param i
+     *         The current position of the first sample
+     * @param data
+     *         The array to write the values to
+     * @param start
+     *         The position of the first sample j to calculate the value for
+     * @param len
+     *         The position after the last sample j to calculate the value for
+     */
+    void function(int i, float[] data, int start, int len)
+    {
+        if (shared != null)
+        {
+            shared.getValues(sharedIndex[i], sharedIndex, data, start, len);
+        }
+        else
+        {
+            for (int j = start; j < len; j++)
+            {
+                data[j] = (float) function(i, j);
+            }
+        }
+    }
+
+    /**
+     * Returns the size in bytes of the cache of Q rows held by a single training. If the kernel values are read from a
+     * shared kernel cache, the rows are cheap to rebuild and the private cache only keeps the two rows of the current
+     * working set, so the memory limit applies to the shared cache as a whole instead of to every training.
+     *
+     * @param param
+     *         The parameters specifying the cache size
+     *
+     * @return The size of the private cache in bytes
+     */
+    long cacheSize(Parameter param)
+    {
+        return shared != null ? 0 : (long) (param.cache_size * (1 << 20));
+    }
+
     double function(int i, int j)
     {
+        evaluations++;
         switch (kernelType)
         {
             case LINEAR:
-                return dot(x.get(i), x.get(j));
+                return dot(i, j);
             case POLYNOMIAL:
-                return powi(gamma * dot(x.get(i), x.get(j)) + coef0, degree);
+                return powi(gamma * dot(i, j) + coef0, degree);
             case RBF:
-                return Math.exp(-gamma * (x_square[i] + x_square[j] - 2 * dot(x.get(i), x.get(j))));
+                return Math.exp(-gamma * (x_square[i] + x_square[j] - 2 * dot(i, j)));
             case SIGMOID:
-                return Math.tanh(gamma * dot(x.get(i), x.get(j)) + coef0);
+                return Math.tanh(gamma * dot(i, j) + coef0);
             case PRECOMPUTED:
+                if (gram != null)
+                {
+                    return gram.value(x.get(i), x.get(j));
+                }
                 return x.get(i)[(int) (x.get(j)[0].value)].value;
             default:
                 return 0; // java
         }
     }
 
-    Kernel(int l, List<Node[]> x_, Parameter param)
+    /**
+     * Calculates the dot product of the i-th and the j-th sample, which are scaled on the fly if a scaling is set.
+     */
+    private double dot(int i, int j)
     {
+        if (dense != null)
+        {
+            return dense.dot(row[i], row[j]);
+        }
+        if (matrix != null)
+        {
+            double dot = matrix.dot(row[i], row[j], scaling);
+            return scaling != null ? dot + shift[i] + shift[j] + scaling.constant() : dot;
+        }
+        if (scaling != null)
+        {
+            return scaling.dot(x.get(i), shift[i], x.get(j), shift[j]);
+        }
+        return dot(x.get(i), x.get(j));
+    }
+
+    Kernel(Problem prob, Parameter param)
+    {
+        int l = prob.numInstances;
         this.kernelType = param.kernelType;
         this.degree = param.degree;
         this.gamma = param.gamma;
         this.coef0 = param.coef0;
+        this.gram = param.gramMatrix;
+        this.scaling = param.scaling;
 
-        x = clone(x_);
+        if (param.kernelCache != null && param.kernelCache.supports(param))
+        {
+            sharedIndex = param.kernelCache.positionsOf(prob);
+            shared = sharedIndex != null ? param.kernelCache : null;
+        }
+
+        CsrMatrix compact = prob.getMatrix();
+        DenseMatrix denseMatrix = scaling == null ? prob.getDenseMatrix() : null;
+        if ((compact != null || denseMatrix != null) && !KernelType.PRECOMPUTED.equals(kernelType))
+        {
+            // the samples of a compact problem are read from its matrix in the precision they are stored in instead of
+            // materializing them. In single precision a training copies the samples into such a problem once. The
+            // samples mapped by a kernel approximation are read from their dense matrix
+            x = null;
+            matrix = denseMatrix == null ? compact : null;
+            dense = denseMatrix;
+            row = new int[l];
+            for (int i = 0; i < l; i++)
+            {
+                row[i] = prob.getRow(i);
+            }
+        }
+        else
+        {
+            // the order of the samples changes on shrinking, their features are never modified and therefore not copied
+            x = new ArrayList<>(prob.x);
+            matrix = null;
+            dense = null;
+            row = null;
+        }
+
+        if (scaling != null)
+        {
+            shift = new double[l];
+            for (int i = 0; i < l; i++)
+            {
+                shift[i] = matrix != null ? scaling.shift(matrix, row[i]) : scaling.shift(x.get(i));
+            }
+        }
+        else
+        {
+            shift = null;
+        }
 
         if (KernelType.RBF.equals(kernelType))
         {
             x_square = new double[l];
             for (int i = 0; i < l; i++)
             {
-                x_square[i] = dot(x.get(i), x.get(i));
+                x_square[i] = dot(i, i);
             }
         }
         else
@@ -100,11 +250,10 @@ public abstract class Kernel extends QMatrix
         }
     }
 
-    private List<Node[]> clone(List<Node[]> list)
+    @Override
+    public void updateMetrics(SolverMetrics metrics)
     {
-        List<Node[]> copy = new ArrayList<>(list.size());
-        list.forEach(node -> copy.add(node.clone()));
-        return copy;
+        metrics.kernelEvaluations = this.evaluations;
     }
 
     static double dot(Node[] x, Node[] y)
@@ -137,14 +286,20 @@ public abstract class Kernel extends QMatrix
 
     public static double function(Node[] x, Node[] y, Parameter param)
     {
+        Scaling scaling = param.scaling;
         switch (param.kernelType)
         {
             case LINEAR:
-                return dot(x, y);
+                return scaling != null ? scaling.dot(x, y) : dot(x, y);
             case POLYNOMIAL:
-                return powi(param.gamma * dot(x, y) + param.coef0, param.degree);
+                return powi(param.gamma * (scaling != null ? scaling.dot(x, y) : dot(x, y)) + param.coef0,
+                            param.degree);
             case RBF:
             {
+                if (scaling != null)
+                {
+                    return Math.exp(-param.gamma * scaling.squaredDistance(x, y));
+                }
                 double sum = 0;
                 int xlen = x.length;
                 int ylen = y.length;
@@ -184,11 +339,96 @@ public abstract class Kernel extends QMatrix
                 return Math.exp(-param.gamma * sum);
             }
             case SIGMOID:
-                return Math.tanh(param.gamma * dot(x, y) + param.coef0);
+                return Math.tanh(param.gamma * (scaling != null ? scaling.dot(x, y) : dot(x, y)) + param.coef0);
             case PRECOMPUTED:
+                if (param.gramMatrix != null)
+                {
+                    return param.gramMatrix.value(x, y);
+                }
                 return x[(int) (y[0].value)].value;
             default:
                 return 0; // java
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Evaluates the kernel function of a sample and a row of a sparse matrix without materializing the row as
+     * {@link Node}s. If the features are scaled, the row gets materialized.
+     *
+     * @param x
+     *         The sample sorted in ascending order of its feature indices
+     * @param m
+     *         The matrix containing the second operand
+     * @param row
+     *         The row of the matrix to evaluate the kernel function with
+     * @param param
+     *         The parameters specifying the kernel function
+     *
+     * @return The value of the kernel function K(x, m[row])
+     */
+    public static double function(Node[] x, CsrMatrix m, int row, Parameter param)
+    {
+        if (param.scaling != null)
+        {
+            return function(x, m.getRow(row), param);
+        }
+        switch (param.kernelType)
+        {
+            case LINEAR:
+                return m.dot(row, x);
+            case POLYNOMIAL:
+                return powi(param.gamma * m.dot(row, x) + param.coef0, param.degree);
+            case RBF:
+                return Math.exp(-param.gamma * m.squaredDistance(row, x));
+            case SIGMOID:
+                return Math.tanh(param.gamma * m.dot(row, x) + param.coef0);
+            case PRECOMPUTED:
+                // the first feature of a row holds its serial number
+                CsrMatrix block = m.block(row);
+                double serial = block.value(block.start(m.blockRow(row)));
+                if (param.gramMatrix != null)
+                {
+                    return param.gramMatrix.get((int) x[0].value - 1, (int) serial - 1);
+                }
+                return x[(int) serial].value;
+            default:
+                return 0; // java
+        }
+    }
+
+    /**
+     * Evaluates the kernel function from the dot product of the two operands and their squared norms. This allows to
+     * compute the dot product by any means, i.e. against a dense copy of the first operand, and to cache the squared
+     * norms of operands which are evaluated repeatedly. A {@link KernelType#PRECOMPUTED} kernel can not be evaluated
+     * this way.
+     *
+     * @param dot
+     *         The dot product x^T y of the two operands
+     * @param xSquare
+     *         The squared norm x^T x of the first operand
+     * @param ySquare
+     *         The squared norm y^T y of the second operand
+     * @param param
+     *         The parameters specifying the kernel function
+     *
+     * @return The value of the kernel function K(x, y)
+     */
+    public static double function(double dot, double xSquare, double ySquare, Parameter param)
+    {
+        switch (param.kernelType)
+        {
+            case LINEAR:
+                return dot;
+            case POLYNOMIAL:
+                return powi(param.gamma * dot + param.coef0, param.degree);
+            case RBF:
+                // rounding errors may yield a slightly negative distance for nearly identical operands
+                return Math.exp(-param.gamma * Math.max(0, xSquare + ySquare - 2 * dot));
+            case SIGMOID:
+                return Math.tanh(param.gamma * dot + param.coef0);
+            default:
+                throw new IllegalArgumentException(
+                        "The kernel " + param.kernelType + " can not be evaluated from dot products");
+        }
+    }
+}
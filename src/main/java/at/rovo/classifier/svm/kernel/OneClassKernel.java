@@ -3,6 +3,7 @@ package at.rovo.classifier.svm.kernel;
 import at.rovo.classifier.svm.Cache;
 import at.rovo.classifier.svm.struct.Parameter;
 import at.rovo.classifier.svm.struct.Problem;
+import at.rovo.classifier.svm.struct.SolverMetrics;
 import at.rovo.classifier.svm.utils.Utils;
 
 
@@ -13,8 +14,8 @@ public class OneClassKernel extends Kernel
 
     public OneClassKernel(Problem prob, Parameter param)
     {
-        super(prob.numInstances, prob.x, param);
-        cache = new Cache(prob.numInstances, (long) (param.cache_size * (1 << 20)));
+        super(prob, param);
+        cache = new Cache(prob.numInstances, cacheSize(param));
         QD = new double[prob.numInstances];
         for (int i = 0; i < prob.numInstances; i++)
         {
@@ -26,13 +27,10 @@ public class OneClassKernel extends Kernel
     public float[] get_Q(int i, int len)
     {
         float[][] data = new float[1][];
-        int start, j;
+        int start;
         if ((start = cache.getData(i, data, len)) < len)
         {
-            for (j = start; j < len; j++)
-            {
-                data[0][j] = (float) function(i, j);
-            }
+            function(i, data[0], start, len);
         }
         return data[0];
     }
@@ -50,4 +48,11 @@ public class OneClassKernel extends Kernel
         super.swapIndex(i, j);
         Utils.swap(QD, i, j);
     }
-}
\ No newline at end of file
+
+    @Override
+    public void updateMetrics(SolverMetrics metrics)
+    {
+        super.updateMetrics(metrics);
+        cache.updateMetrics(metrics);
+    }
+}
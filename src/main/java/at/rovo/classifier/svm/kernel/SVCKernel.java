@@ -3,6 +3,7 @@ package at.rovo.classifier.svm.kernel;
 import at.rovo.classifier.svm.Cache;
 import at.rovo.classifier.svm.struct.Parameter;
 import at.rovo.classifier.svm.struct.Problem;
+import at.rovo.classifier.svm.struct.SolverMetrics;
 import at.rovo.classifier.svm.utils.Utils;
 
 
@@ -17,9 +18,9 @@ public class SVCKernel extends Kernel
 
     public SVCKernel(Problem prob, Parameter param, byte[] y_)
     {
-        super(prob.numInstances, prob.x, param);
+        super(prob, param);
         this.y = y_.clone();
-        this.cache = new Cache(prob.numInstances, (long) (param.cache_size * (1 << 20)));
+        this.cache = new Cache(prob.numInstances, cacheSize(param));
         this.QD = new double[prob.numInstances];
         for (int i = 0; i < prob.numInstances; i++)
         {
@@ -34,9 +35,13 @@ public class SVCKernel extends Kernel
         int start, j;
         if ((start = this.cache.getData(i, data, len)) < len)
         {
+            function(i, data[0], start, len);
             for (j = start; j < len; j++)
             {
-                data[0][j] = (float) (this.y[i] * this.y[j] * function(i, j));
+                if (this.y[i] != this.y[j])
+                {
+                    data[0][j] = -data[0][j];
+                }
             }
         }
         return data[0];
@@ -56,4 +61,11 @@ public class SVCKernel extends Kernel
         Utils.swap(y, i, j);
         Utils.swap(QD, i, j);
     }
-}
\ No newline at end of file
+
+    @Override
+    public void updateMetrics(SolverMetrics metrics)
+    {
+        super.updateMetrics(metrics);
+        this.cache.updateMetrics(metrics);
+    }
+}
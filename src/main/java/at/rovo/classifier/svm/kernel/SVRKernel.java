@@ -3,6 +3,7 @@ package at.rovo.classifier.svm.kernel;
 import at.rovo.classifier.svm.Cache;
 import at.rovo.classifier.svm.struct.Parameter;
 import at.rovo.classifier.svm.struct.Problem;
+import at.rovo.classifier.svm.struct.SolverMetrics;
 import at.rovo.classifier.svm.utils.Utils;
 
 public class SVRKernel extends Kernel
@@ -17,9 +18,9 @@ public class SVRKernel extends Kernel
 
     public SVRKernel(Problem prob, Parameter param)
     {
-        super(prob.numInstances, prob.x, param);
+        super(prob, param);
         l = prob.numInstances;
-        cache = new Cache(l, (long) (param.cache_size * (1 << 20)));
+        cache = new Cache(l, cacheSize(param));
         QD = new double[2 * l];
         sign = new byte[2 * l];
         index = new int[2 * l];
@@ -51,10 +52,7 @@ public class SVRKernel extends Kernel
         int j, real_i = index[i];
         if (cache.getData(real_i, data, l) < l)
         {
-            for (j = 0; j < l; j++)
-            {
-                data[0][j] = (float) function(real_i, j);
-            }
+            function(real_i, data[0], 0, l);
         }
 
         // reorder and copy
@@ -73,4 +71,11 @@ public class SVRKernel extends Kernel
     {
         return QD;
     }
+
+    @Override
+    public void updateMetrics(SolverMetrics metrics)
+    {
+        super.updateMetrics(metrics);
+        cache.updateMetrics(metrics);
+    }
 }
@@ -0,0 +1,415 @@
+package at.rovo.classifier.svm.kernel;
+
+import at.rovo.classifier.svm.KernelType;
+import at.rovo.classifier.svm.struct.CsrMatrix;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import at.rovo.classifier.svm.struct.Scaling;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A thread-safe cache of kernel rows K(x_i, .) over a fixed set of samples which can be shared by multiple trainings,
+ * i.e. by the cross-validation folds and grid points of a {@link at.rovo.classifier.svm.GridSearch} using the same
+ * kernel parameters. The kernel matrix does not depend on C, so every training on a subset of these samples can read
+ * its values from the rows computed by previous trainings instead of evaluating the kernel function again.
+ * <p>
+ * A cache is attached to a training via {@link Parameter#kernelCache}. Samples of a problem in compressed sparse row
+ * format are identified by their row of its matrix, other samples by the identity of their {@link Node} arrays, so sub
+ * problems have to reference the same matrix or arrays as the problem the cache was created for.
+ * Trainings on samples unknown to the cache or with different kernel parameters compute the kernel values as usual.
+ * <p>
+ * Rows are stored in blocks of 1024 positions, which are allocated on their first request, and only the requested
+ * values of a block are computed. A sub problem consisting of a few contiguous ranges of positions, like a pair of
+ * classes of a one-vs-one training whose samples are grouped by their class, therefore only occupies the blocks of its
+ * own samples instead of rows over all samples. Rows are evicted in least-recently-used order once the size limit is
+ * exceeded.
+ *
+ * @author Roman Vottner
+ */
+public class SharedKernelCache
+{
+    /** The number of samples the kernel rows are computed for **/
+    private final int l;
+    /** The samples the kernel rows are computed for or <em>null</em> if they are read from {@link #matrix} **/
+    private final List<Node[]> x;
+    /** The squared norms of the samples, only used by the RBF kernel **/
+    private final double[] x_square;
+    /** The shift of each scaled sample or <em>null</em> if the features are not scaled **/
+    private final double[] shift;
+    /** The matrix holding the samples or <em>null</em> if the dot products are computed on {@link #x} **/
+    private final CsrMatrix matrix;
+    /** The row of {@link #matrix} holding the sample at each position **/
+    private final int[] row;
+    /** Maps the rows of a compact problem to their position within the cached rows, -1 for unknown rows **/
+    private final int[] rowPositions;
+    /** Maps the samples to their position within the cached rows if they are not read from a compact problem **/
+    private final Map<Node[], Integer> positions;
+
+    private final KernelType kernelType;
+    private final int degree;
+    private final double gamma;
+    private final double coef0;
+    private final GramMatrix gram;
+    private final Scaling scaling;
+    private final int singlePrecision;
+
+    /** Converts a position into the index of its block **/
+    private static final int BLOCK_SHIFT = 10;
+    /** The number of positions of a row stored in one block **/
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    /** The cached rows in least-recently-used order **/
+    private final LinkedHashMap<Integer, Row> rows = new LinkedHashMap<>(16, 0.75f, true);
+    /** The maximum number of floats held by the cache **/
+    private final long capacity;
+    /** The number of floats currently held by the cache **/
+    private long size;
+    /** The number of requests which could be served without computing any data **/
+    private long hits;
+    /** The number of requests which required computing a row **/
+    private long misses;
+
+    /**
+     * Creates a new cache for the kernel rows of the samples of a problem. The samples of a problem in compressed
+     * sparse row format are read from its matrix and identified by their row, the samples of other problems are
+     * identified by their {@link Node} arrays.
+     *
+     * @param prob
+     *         The problem sub problems will be created from
+     * @param param
+     *         The kernel parameters the cached values are computed with
+     * @param size
+     *         The size in bytes available to the cache. The cache holds at least two full rows regardless of this size,
+     *         as the row of a sample is read while the row of another sample is still in use
+     */
+    public SharedKernelCache(Problem prob, Parameter param, long size)
+    {
+        int l = prob.numInstances;
+        this.l = l;
+        this.kernelType = param.kernelType;
+        this.degree = param.degree;
+        this.gamma = param.gamma;
+        this.coef0 = param.coef0;
+        this.gram = param.gramMatrix;
+        this.scaling = param.scaling;
+        this.singlePrecision = param.singlePrecision;
+
+        CsrMatrix compact = prob.getMatrix();
+        if (compact != null && !KernelType.PRECOMPUTED.equals(this.kernelType))
+        {
+            this.x = null;
+            this.positions = null;
+            this.matrix = compact;
+            this.row = new int[l];
+            this.rowPositions = new int[compact.rows()];
+            Arrays.fill(this.rowPositions, -1);
+            for (int i = 0; i < l; i++)
+            {
+                this.row[i] = prob.getRow(i);
+                this.rowPositions[this.row[i]] = i;
+            }
+        }
+        else
+        {
+            this.x = new ArrayList<>(prob.x);
+            this.positions = new IdentityHashMap<>(l);
+            for (int i = 0; i < l; i++)
+            {
+                this.positions.put(this.x.get(i), i);
+            }
+            this.rowPositions = null;
+            this.matrix = null;
+            this.row = null;
+        }
+
+        if (this.scaling != null)
+        {
+            this.shift = new double[l];
+            for (int i = 0; i < l; i++)
+            {
+                this.shift[i] = this.matrix != null ? this.scaling.shift(this.matrix, this.row[i])
+                                                    : this.scaling.shift(this.x.get(i));
+            }
+        }
+        else
+        {
+            this.shift = null;
+        }
+
+        if (KernelType.RBF.equals(this.kernelType))
+        {
+            this.x_square = new double[l];
+            for (int i = 0; i < l; i++)
+            {
+                this.x_square[i] = dot(i, i);
+            }
+        }
+        else
+        {
+            this.x_square = null;
+        }
+
+        // cache must be large enough for two full rows
+        this.capacity = Math.max(size / 4, 2 * (long) l);
+    }
+
+    /**
+     * Checks whether the values of this cache were computed with the kernel specified by the given parameters.
+     *
+     * @param param
+     *         The parameters of a training
+     *
+     * @return <em>true</em> if the training can use the values of this cache
+     */
+    public boolean supports(Parameter param)
+    {
+        return this.kernelType.equals(param.kernelType) && this.degree == param.degree &&
+               Double.compare(this.gamma, param.gamma) == 0 && Double.compare(this.coef0, param.coef0) == 0 &&
+               this.gram == param.gramMatrix && Objects.equals(this.scaling, param.scaling) &&
+               this.singlePrecision == param.singlePrecision;
+    }
+
+    /**
+     * Looks up the positions of the samples of a (sub) problem within the cached rows.
+     *
+     * @param prob
+     *         A problem consisting of samples of the problem this cache was created for
+     *
+     * @return The position of each sample or <em>null</em> if at least one sample is not known to this cache
+     */
+    public int[] positionsOf(Problem prob)
+    {
+        int[] index = new int[prob.numInstances];
+        if (this.rowPositions != null)
+        {
+            if (prob.getMatrix() != this.matrix)
+            {
+                return null;
+            }
+            for (int i = 0; i < index.length; i++)
+            {
+                index[i] = this.rowPositions[prob.getRow(i)];
+                if (index[i] < 0)
+                {
+                    return null;
+                }
+            }
+            return index;
+        }
+        if (prob.getMatrix() != null)
+        {
+            return null;
+        }
+        for (int i = 0; i < index.length; i++)
+        {
+            Integer pos = this.positions.get(prob.x.get(i));
+            if (pos == null)
+            {
+                return null;
+            }
+            index[i] = pos;
+        }
+        return index;
+    }
+
+    /**
+     * Reads the kernel values of a sample with the given samples from the cached row of the sample. Only the requested
+     * values of a row are computed, the remaining ones are marked as missing by NaN and computed by the first training
+     * which requests them. The sub problems of a one-vs-one training therefore compute every kernel value at most once,
+     * although each sample is part of k-1 sub problems.
+     * <p>
+     * Values are written to a row without holding the lock, so concurrent trainings never wait for each other's kernel
+     * evaluations. As a float is written atomically and every thread computes the same value for an entry, a thread
+     * which does not see the value written by another thread just computes it again.
+     *
+     * @param i
+     *         The position of the sample as returned by {@link #positionsOf(Problem)}
+     * @param positions
+     *         The positions of the samples j as returned by {@link #positionsOf(Problem)}
+     * @param data
+     *         The array to write the kernel values K(x_i, x_positions[j]) to
+     * @param start
+     *         The index of the first sample j within <em>positions</em>
+     * @param len
+     *         The index after the last sample j within <em>positions</em>
+     */
+    public void getValues(int i, int[] positions, float[] data, int start, int len)
+    {
+        Row row;
+        synchronized (this.rows)
+        {
+            row = this.rows.get(i);
+            if (row != null)
+            {
+                this.hits++;
+            }
+            else
+            {
+                this.misses++;
+                row = new Row((this.l + BLOCK_SIZE - 1) >>> BLOCK_SHIFT);
+                this.rows.put(i, row);
+            }
+        }
+
+        for (int j = start; j < len; j++)
+        {
+            int pos = positions[j];
+            float[] block = row.blocks.get(pos >>> BLOCK_SHIFT);
+            if (block == null)
+            {
+                block = allocate(i, row, pos >>> BLOCK_SHIFT);
+            }
+            float value = block[pos & (BLOCK_SIZE - 1)];
+            if (Float.isNaN(value))
+            {
+                value = (float) function(i, pos);
+                block[pos & (BLOCK_SIZE - 1)] = value;
+            }
+            data[j] = value;
+        }
+    }
+
+    /**
+     * Allocates a block of a row unless another thread did so already, and evicts the least recently used rows if the
+     * size limit is exceeded. A block allocated for a row which got evicted in the meantime is not accounted, as it is
+     * released once the trainings reading the row are done with it.
+     */
+    private float[] allocate(int i, Row row, int b)
+    {
+        synchronized (this.rows)
+        {
+            float[] block = row.blocks.get(b);
+            if (block != null)
+            {
+                return block;
+            }
+            block = new float[Math.min(BLOCK_SIZE, this.l - (b << BLOCK_SHIFT))];
+            Arrays.fill(block, Float.NaN);
+            // the values are filled before the block is published, so other threads never read an unset value
+            row.blocks.set(b, block);
+            if (this.rows.get(i) == row)
+            {
+                row.size += block.length;
+                this.size += block.length;
+                // the row is the most recently used one and is therefore never evicted
+                Iterator<Row> iter = this.rows.values().iterator();
+                while (this.size > this.capacity && this.rows.size() > 1)
+                {
+                    this.size -= iter.next().size;
+                    iter.remove();
+                }
+            }
+            return block;
+        }
+    }
+
+    /**
+     * Returns the number of floats currently held by the allocated blocks of the cached rows.
+     *
+     * @return The size of the cache in floats
+     */
+    public long getSize()
+    {
+        synchronized (this.rows)
+        {
+            return this.size;
+        }
+    }
+
+    /**
+     * Returns the number of row requests which found the row in the cache.
+     *
+     * @return The number of cache hits
+     */
+    public long getHits()
+    {
+        synchronized (this.rows)
+        {
+            return this.hits;
+        }
+    }
+
+    /**
+     * Returns the number of row requests which had to allocate the row.
+     *
+     * @return The number of cache misses
+     */
+    public long getMisses()
+    {
+        synchronized (this.rows)
+        {
+            return this.misses;
+        }
+    }
+
+    /**
+     * Evaluates the kernel function exactly like {@link Kernel} does, so trainings using this cache produce the same
+     * results as trainings without it.
+     */
+    private double function(int i, int j)
+    {
+        switch (this.kernelType)
+        {
+            case LINEAR:
+                return dot(i, j);
+            case POLYNOMIAL:
+                return Kernel.powi(this.gamma * dot(i, j) + this.coef0, this.degree);
+            case RBF:
+                return Math.exp(-this.gamma * (this.x_square[i] + this.x_square[j] - 2 * dot(i, j)));
+            case SIGMOID:
+                return Math.tanh(this.gamma * dot(i, j) + this.coef0);
+            case PRECOMPUTED:
+                Node[] xi = this.x.get(i);
+                Node[] xj = this.x.get(j);
+                if (this.gram != null)
+                {
+                    return this.gram.value(xi, xj);
+                }
+                return xi[(int) (xj[0].value)].value;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Calculates the dot product of the i-th and the j-th sample, which are scaled on the fly if a scaling is set.
+     */
+    private double dot(int i, int j)
+    {
+        if (this.matrix != null)
+        {
+            double dot = this.matrix.dot(this.row[i], this.row[j], this.scaling);
+            return this.scaling != null ? dot + this.shift[i] + this.shift[j] + this.scaling.constant() : dot;
+        }
+        if (this.scaling != null)
+        {
+            return this.scaling.dot(this.x.get(i), this.shift[i], this.x.get(j), this.shift[j]);
+        }
+        return Kernel.dot(this.x.get(i), this.x.get(j));
+    }
+
+    /**
+     * The blocks of a cached row, where a block which was not requested yet is <em>null</em>.
+     */
+    private static final class Row
+    {
+        /** The blocks of the row, which are published safely to the threads reading the row without the lock **/
+        final AtomicReferenceArray<float[]> blocks;
+        /** The number of floats held by the allocated blocks, guarded by the lock of the cache **/
+        long size;
+
+        Row(int nrBlocks)
+        {
+            this.blocks = new AtomicReferenceArray<>(nrBlocks);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package at.rovo.classifier.svm.solver;
+
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.struct.CsrMatrix;
+import at.rovo.classifier.svm.struct.DenseMatrix;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Problem;
+import at.rovo.classifier.svm.struct.SolutionInfo;
+import at.rovo.classifier.svm.struct.SolverListener;
+import at.rovo.classifier.svm.struct.SolverMetrics;
+import at.rovo.classifier.svm.utils.Utils;
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//A dual coordinate descent method for linear SVMs in Hsieh et al., ICML 2008
+//(the L1-loss solver of LIBLINEAR). Solves:
+//
+//min 0.5(\alpha^T Q \alpha) - e^T \alpha
+//
+//0 <= alpha_i <= Cp for y_i = 1
+//0 <= alpha_i <= Cn for y_i = -1
+//
+//where Q_ij = y_i y_j (x_i^T x_j + 1). The bias is treated as an additional
+//feature with a constant value of 1 which removes the equality constraint
+//y^T \alpha = 0 of the kernelized problem.
+//
+//In contrast to the SMO Solver no kernel matrix is required as the weight
+//vector w = sum_i alpha_i y_i x_i is maintained explicitly, so each
+//coordinate update only costs O(nnz(x_i)).
+//
+//The solver stops once the projected gradients of all variables lie within
+//eps, where LIBLINEAR uses a tolerance of 0.1 instead of the 0.001 of SMO,
+//or after MAX_ITER passes over the variables.
+//
+//solution will be put in \alpha, w and rho will be put in SolutionInfo
+//
+public class LinearSolver
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private static final double INF = java.lang.Double.POSITIVE_INFINITY;
+    private static final int MAX_ITER = 1000;
+
+    /** The matrix holding the samples or <em>null</em> if the samples are read from {@link #x} **/
+    private CsrMatrix matrix;
+    /** The dense matrix holding the samples or <em>null</em> if they are read from {@link #matrix} or {@link #x} **/
+    private DenseMatrix dense;
+    /** The row of {@link #matrix} or {@link #dense} holding each sample **/
+    private int[] row;
+    /** The samples if they are not read from {@link #matrix} **/
+    private List<Node[]> x;
+
+    public void solve(Problem prob, byte[] y, double[] alpha, double Cp, double Cn, double eps, SolutionInfo si)
+    {
+        int l = prob.numInstances;
+        // the samples of a compact or dense problem are read from its matrix instead of materializing them on every
+        // access
+        this.matrix = prob.getMatrix();
+        this.dense = prob.getDenseMatrix();
+        if (this.matrix != null || this.dense != null)
+        {
+            this.row = new int[l];
+            for (int i = 0; i < l; i++)
+            {
+                this.row[i] = prob.getRow(i);
+            }
+        }
+        else
+        {
+            this.x = prob.x;
+        }
+        SolverMetrics metrics = si.metrics;
+        SolverListener listener = si.listener;
+        long startTime = System.nanoTime();
+
+        int maxIndex = 0;
+        double[] QD = new double[l];
+        int[] index = new int[l];
+        for (int i = 0; i < l; i++)
+        {
+            QD[i] = 1 + squaredNorm(i); // the bias feature
+            maxIndex = Math.max(maxIndex, maxIndex(i));
+            index[i] = i;
+            alpha[i] = 0;
+        }
+
+        double[] w = new double[maxIndex + 1];
+        double b = 0;
+
+        int iter = 0;
+        int active_size = l;
+        double PGmax_old = INF;
+        double PGmin_old = -INF;
+
+        long optimizationStart = System.nanoTime();
+        metrics.initializationTime += optimizationStart - startTime;
+
+        long reportedEvaluations = metrics.kernelEvaluations;
+        boolean stopped = false;
+        boolean converged = false;
+        while (iter < MAX_ITER)
+        {
+            // a pass over the active variables is accounted as one iteration of the training budget
+            long evaluations = metrics.kernelEvaluations - reportedEvaluations;
+            if (si.budget != null && si.budget.consume(iter > 0 ? 1 : 0, evaluations))
+            {
+                stopped = true;
+                LOG.info("Training budget exhausted after {} iterations, using the current solution", iter);
+                break;
+            }
+            reportedEvaluations = metrics.kernelEvaluations;
+            double PGmax_new = -INF;
+            double PGmin_new = INF;
+
+            for (int i = 0; i < active_size; i++)
+            {
+                int j = i + SVM.rand.nextInt(active_size - i);
+                Utils.swap(index, i, j);
+            }
+
+            for (int s = 0; s < active_size; s++)
+            {
+                int i = index[s];
+                byte yi = y[i];
+
+                double G = (b + dot(w, i)) * yi - 1;
+                // w^T x_i replaces the evaluation of a whole kernel column
+                metrics.kernelEvaluations++;
+
+                double C = yi > 0 ? Cp : Cn;
+                double PG = 0;
+                if (alpha[i] == 0)
+                {
+                    if (G > PGmax_old)
+                    {
+                        // shrink variables which are unlikely to change
+                        active_size--;
+                        Utils.swap(index, s, active_size);
+                        s--;
+                        metrics.shrunkVariables++;
+                        continue;
+                    }
+                    else if (G < 0)
+                    {
+                        PG = G;
+                    }
+                }
+                else if (alpha[i] == C)
+                {
+                    if (G < PGmin_old)
+                    {
+                        active_size--;
+                        Utils.swap(index, s, active_size);
+                        s--;
+                        metrics.shrunkVariables++;
+                        continue;
+                    }
+                    else if (G > 0)
+                    {
+                        PG = G;
+                    }
+                }
+                else
+                {
+                    PG = G;
+                }
+
+                PGmax_new = Math.max(PGmax_new, PG);
+                PGmin_new = Math.min(PGmin_new, PG);
+
+                if (Math.abs(PG) > 1.0e-12)
+                {
+                    double alpha_old = alpha[i];
+                    alpha[i] = Math.min(Math.max(alpha[i] - G / QD[i], 0.0), C);
+                    double d = (alpha[i] - alpha_old) * yi;
+                    add(w, d, i);
+                    b += d;
+                }
+            }
+
+            iter++;
+            if (listener != null && iter % 10 == 0)
+            {
+                metrics.iterations = iter;
+                listener.progress(metrics);
+            }
+
+            if (PGmax_new - PGmin_new <= eps)
+            {
+                if (active_size == l)
+                {
+                    converged = true;
+                    break;
+                }
+                else
+                {
+                    // check the shrunk variables once more on the whole set
+                    active_size = l;
+                    PGmax_old = INF;
+                    PGmin_old = -INF;
+                    continue;
+                }
+            }
+            PGmax_old = PGmax_new;
+            PGmin_old = PGmin_new;
+            if (PGmax_old <= 0)
+            {
+                PGmax_old = INF;
+            }
+            if (PGmin_old >= 0)
+            {
+                PGmin_old = -INF;
+            }
+        }
+
+        if (!converged && iter >= MAX_ITER)
+        {
+            LOG.warn("Reaching max number of iterations ({}) in linear solver", MAX_ITER);
+            stopped = true;
+        }
+        metrics.optimizationTime += System.nanoTime() - optimizationStart;
+
+        // objective value of the dual problem
+        double v = b * b;
+        for (double wi : w)
+        {
+            v += wi * wi;
+        }
+        double sum_alpha = 0;
+        for (int i = 0; i < l; i++)
+        {
+            sum_alpha += alpha[i];
+        }
+        si.obj = v / 2 - sum_alpha;
+        si.rho = -b;
+        si.w = w;
+        si.upper_bound_p = Cp;
+        si.upper_bound_n = Cn;
+
+        metrics.solverRuns = 1;
+        if (stopped)
+        {
+            metrics.stoppedRuns = 1;
+        }
+        metrics.iterations = iter;
+        metrics.totalTime += System.nanoTime() - startTime;
+        if (listener != null)
+        {
+            listener.finished(metrics);
+        }
+
+        if (LOG.isDebugEnabled())
+        {
+            LOG.debug("\noptimization finished, #iter = " + iter + "\n");
+            LOG.debug(metrics + "\n");
+        }
+        this.matrix = null;
+        this.dense = null;
+        this.row = null;
+        this.x = null;
+    }
+
+    /**
+     * Returns the squared euclidean norm of the i-th sample.
+     */
+    private double squaredNorm(int i)
+    {
+        double sum = 0;
+        if (this.dense != null)
+        {
+            double[] values = this.dense.chunk(this.row[i]);
+            for (int k = this.dense.offset(this.row[i]), end = k + this.dense.columns(); k < end; k++)
+            {
+                sum += values[k] * values[k];
+            }
+            return sum;
+        }
+        if (this.matrix != null)
+        {
+            CsrMatrix block = this.matrix.block(this.row[i]);
+            int r = this.matrix.blockRow(this.row[i]);
+            for (int k = block.start(r), end = block.end(r); k < end; k++)
+            {
+                double v = block.value(k);
+                sum += v * v;
+            }
+            return sum;
+        }
+        for (Node n : this.x.get(i))
+        {
+            sum += n.value * n.value;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the highest feature index of the i-th sample or 0 if the sample has no features.
+     */
+    private int maxIndex(int i)
+    {
+        if (this.dense != null)
+        {
+            return this.dense.columns();
+        }
+        if (this.matrix != null)
+        {
+            CsrMatrix block = this.matrix.block(this.row[i]);
+            int r = this.matrix.blockRow(this.row[i]);
+            return block.end(r) > block.start(r) ? block.index(block.end(r) - 1) : 0;
+        }
+        Node[] xi = this.x.get(i);
+        return xi.length > 0 ? xi[xi.length - 1].index : 0;
+    }
+
+    /**
+     * Calculates the dot product w^T x_i of the weight vector and the i-th sample.
+     */
+    private double dot(double[] w, int i)
+    {
+        double sum = 0;
+        if (this.dense != null)
+        {
+            // the value of column d belongs to the feature index d+1
+            double[] values = this.dense.chunk(this.row[i]);
+            int offset = this.dense.offset(this.row[i]) - 1;
+            for (int index = 1, columns = this.dense.columns(); index <= columns; index++)
+            {
+                sum += w[index] * values[offset + index];
+            }
+            return sum;
+        }
+        if (this.matrix != null)
+        {
+            CsrMatrix block = this.matrix.block(this.row[i]);
+            int r = this.matrix.blockRow(this.row[i]);
+            for (int k = block.start(r), end = block.end(r); k < end; k++)
+            {
+                sum += w[block.index(k)] * block.value(k);
+            }
+            return sum;
+        }
+        for (Node n : this.x.get(i))
+        {
+            sum += w[n.index] * n.value;
+        }
+        return sum;
+    }
+
+    /**
+     * Adds d * x_i to the weight vector.
+     */
+    private void add(double[] w, double d, int i)
+    {
+        if (this.dense != null)
+        {
+            double[] values = this.dense.chunk(this.row[i]);
+            int offset = this.dense.offset(this.row[i]) - 1;
+            for (int index = 1, columns = this.dense.columns(); index <= columns; index++)
+            {
+                w[index] += d * values[offset + index];
+            }
+            return;
+        }
+        if (this.matrix != null)
+        {
+            CsrMatrix block = this.matrix.block(this.row[i]);
+            int r = this.matrix.blockRow(this.row[i]);
+            for (int k = block.start(r), end = block.end(r); k < end; k++)
+            {
+                w[block.index(k)] += d * block.value(k);
+            }
+            return;
+        }
+        for (Node n : this.x.get(i))
+        {
+            w[n.index] += d * n.value;
+        }
+    }
+}
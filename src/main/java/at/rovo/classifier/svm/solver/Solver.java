@@ -2,9 +2,18 @@ package at.rovo.classifier.svm.solver;
 
 import at.rovo.classifier.svm.struct.QMatrix;
 import at.rovo.classifier.svm.struct.SolutionInfo;
+import at.rovo.classifier.svm.struct.SolverListener;
+import at.rovo.classifier.svm.struct.SolverMetrics;
+import at.rovo.classifier.svm.struct.TrainingBudget;
 import at.rovo.classifier.svm.utils.Utils;
-import at.rovo.common.Pair;
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,7 +43,11 @@ public class Solver
     private static final byte LOWER_BOUND = 0;
     private static final byte UPPER_BOUND = 1;
     private static final byte FREE = 2;
-    
+    /** The minimum number of active variables for which the working set selection is split among multiple threads **/
+    static final int PARALLEL_THRESHOLD = 100000;
+    /** The number of iterations between two checks of the training budget and the checkpoint interval **/
+    private static final int BUDGET_INTERVAL = 100;
+
     protected int active_size;
     protected byte[] y;
     protected double[] G; // gradient of objective function
@@ -43,6 +56,15 @@ public class Solver
     protected double eps;
     protected boolean unshrink; // XXX
     protected int l;
+    protected SolverMetrics metrics; // progress and cache statistics of the current run
+
+    // optional training budget and checkpoint of the current run
+    private TrainingBudget budget;
+    private SolverCheckpoint checkpoint;
+    private boolean stopped; // true if the budget got exhausted
+    private long reportedIterations; // iterations already consumed from the budget
+    private long reportedEvaluations; // kernel evaluations already consumed from the budget
+    private long lastCheckpoint; // the time the state got persisted the last time
 
     private byte[] alpha_status; // LOWER_BOUND, UPPER_BOUND, FREE
     private double[] alpha;
@@ -51,6 +73,25 @@ public class Solver
     private int[] active_set;
     private double[] G_bar; // gradient, if we treat free variables as 0
 
+    // parallel reduction of the working set selection
+    private ExecutorService executor; // null if the selection is done by the calling thread only
+    private int nrParts = 1;
+    private final List<Callable<Void>> partTasks = new ArrayList<>();
+    private final RangeScan maxViolatingScan = this::findMaxViolating;
+    private final RangeScan minObjectiveScan = this::findMinObjective;
+
+    // per part results of the working set selection (part[nrParts])
+    protected int[] partIdx;
+    protected double[] partMax;
+    protected int[] partMinIdx;
+    protected double[] partObjDiffMin;
+    protected double[] partMax2;
+
+    // arguments of the second selection pass, set before the active set is scanned
+    private int selectedIdx;
+    private double selectedGmax;
+    private float[] selectedQ;
+
     static final double INF = java.lang.Double.POSITIVE_INFINITY;
 
     private double getC(int i)
@@ -110,6 +151,8 @@ public class Solver
             return;
         }
 
+        long start = System.nanoTime();
+        metrics.gradientReconstructions++;
         int i, j;
         int nr_free = 0;
 
@@ -163,6 +206,7 @@ public class Solver
                 }
             }
         }
+        metrics.reconstructionTime += System.nanoTime() - start;
     }
 
     public void solve(int l, QMatrix Q, double[] p_, byte[] y_, double[] alpha_, double Cp, double Cn, double eps,
@@ -178,6 +222,15 @@ public class Solver
         this.Cn = Cn;
         this.eps = eps;
         this.unshrink = false;
+        this.metrics = si.metrics;
+        this.budget = si.budget;
+        this.checkpoint = si.checkpoint;
+        this.stopped = false;
+        this.reportedIterations = 0;
+        this.reportedEvaluations = 0;
+        SolverListener listener = si.listener;
+        long startTime = System.nanoTime();
+        this.lastCheckpoint = startTime;
 
         // initialize alpha_status
         {
@@ -198,8 +251,14 @@ public class Solver
             active_size = l;
         }
 
-        // initialize gradient
+        SolverCheckpoint.State resumed = checkpoint != null ? checkpoint.load(l) : null;
+        if (resumed != null)
+        {
+            restore(resumed);
+        }
+        else
         {
+            // initialize gradient
             G = new double[l];
             G_bar = new double[l];
             int i;
@@ -230,11 +289,116 @@ public class Solver
             }
         }
 
+        long optimizationStart = System.nanoTime();
+        metrics.initializationTime += optimizationStart - startTime;
+
         // optimization step
-        int iter = 0;
         int max_iter = Math.max(10000000, l > Integer.MAX_VALUE / 100 ? Integer.MAX_VALUE : 100 * l);
+        int iter = 0;
+        boolean finished = resumed != null && resumed.finished;
+        if (finished)
+        {
+            // the run already reached the stopping tolerance before the training got aborted
+            LOG.debug("Checkpoint {} holds a finished solution", checkpoint.getFile());
+        }
+        else
+        {
+            startParallelism(si.nrThreads);
+            try
+            {
+                iter = optimize(max_iter, shrinking, listener);
+            }
+            finally
+            {
+                stopParallelism();
+            }
+        }
+
+        if (iter >= max_iter || stopped)
+        {
+            if (active_size < l)
+            {
+                // reconstruct the whole gradient to calculate objective value
+                reconstructGradient();
+                active_size = l;
+                if (LOG.isDebugEnabled())
+                {
+                    LOG.debug("*");
+                }
+            }
+            if (stopped)
+            {
+                LOG.info("Training budget exhausted after {} iterations, using the current solution", iter);
+            }
+            else
+            {
+                LOG.warn("Reaching max number of iterations ({})", max_iter);
+            }
+            metrics.stoppedRuns = 1;
+        }
+        if (checkpoint != null && !finished)
+        {
+            saveCheckpoint(!stopped && iter < max_iter);
+        }
+        metrics.optimizationTime += System.nanoTime() - optimizationStart;
+
+        // calculate rho
+        si.rho = calculateRho();
+
+        // calculate objective value
+        {
+            double v = 0;
+            int i;
+            for (i = 0; i < l; i++)
+            {
+                v += alpha[i] * (G[i] + p[i]);
+            }
+
+            si.obj = v / 2;
+        }
+
+        // put back the solution
+        {
+            for (int i = 0; i < l; i++)
+            {
+                alpha_[active_set[i]] = alpha[i];
+            }
+        }
+
+        si.upper_bound_p = Cp;
+        si.upper_bound_n = Cn;
+
+        metrics.solverRuns = 1;
+        metrics.iterations = iter;
+        metrics.totalTime += System.nanoTime() - startTime;
+        Q.updateMetrics(metrics);
+        if (listener != null)
+        {
+            listener.finished(metrics);
+        }
+
+        if (LOG.isDebugEnabled())
+        {
+            LOG.debug("\noptimization finished, #iter = " + iter + "\n");
+            LOG.debug(metrics + "\n");
+        }
+    }
+
+    /**
+     * Runs the SMO iterations until the stopping criterion is met or the maximum number of iterations is reached.
+     *
+     * @return The number of performed iterations
+     */
+    private int optimize(int max_iter, int shrinking, SolverListener listener)
+    {
+        int iter = 0;
         int counter = Math.min(l, 1000) + 1;
         int[] working_set = new int[2];
+        if (budget != null && budget.isExhausted())
+        {
+            stopped = true;
+            return iter;
+        }
 
         while (iter < max_iter)
         {
@@ -244,12 +408,37 @@ public class Solver
                 counter = Math.min(l, 1000);
                 if (shrinking != 0)
                 {
+                    long shrinkingStart = System.nanoTime();
+                    int sizeBefore = active_size;
                     doShrinking();
+                    metrics.shrinkingEvents++;
+                    metrics.shrunkVariables += Math.max(0, sizeBefore - active_size);
+                    metrics.shrinkingTime += System.nanoTime() - shrinkingStart;
                 }
                 if (LOG.isDebugEnabled())
                 {
                     LOG.debug(".");
                 }
+                if (listener != null)
+                {
+                    metrics.iterations = iter;
+                    Q.updateMetrics(metrics);
+                    listener.progress(metrics);
+                }
+            }
+            // check the budget and persist the state more frequently than shrinking, as small problems may converge
+            // within a single shrinking interval
+            if (iter % BUDGET_INTERVAL == 0 && iter > 0)
+            {
+                if (consumeBudget(iter))
+                {
+                    stopped = true;
+                    break;
+                }
+                if (checkpoint != null && System.nanoTime() - lastCheckpoint >= checkpoint.getInterval())
+                {
+                    saveCheckpoint(false);
+                }
             }
 
             if (selectWorkingSet(working_set) != 0)
@@ -368,51 +557,84 @@ public class Solver
             }
 
         }
+        return iter;
+    }
 
-        if (iter >= max_iter)
+    /**
+     * Reports the iterations and kernel evaluations since the last report to the training budget.
+     *
+     * @return <em>true</em> if the budget is exhausted and the solver has to stop
+     */
+    private boolean consumeBudget(int iter)
+    {
+        if (budget == null)
         {
-            if (active_size < l)
-            {
-                // reconstruct the whole gradient to calculate objective value
-                reconstructGradient();
-                active_size = l;
-                if (LOG.isDebugEnabled())
-                {
-                    LOG.debug("*");
-                }
-            }
-            System.err.print("\nWARNING: reaching max number of iterations\n");
+            return false;
         }
+        Q.updateMetrics(metrics);
+        boolean exhausted = budget.consume(iter - reportedIterations, metrics.kernelEvaluations - reportedEvaluations);
+        reportedIterations = iter;
+        reportedEvaluations = metrics.kernelEvaluations;
+        return exhausted;
+    }
 
-        // calculate rho
-        si.rho = calculateRho();
-
-        // calculate objective value
+    /**
+     * Persists the current state in the original order of the variables. The gradient of the inactive variables is
+     * reconstructed first, as it is not maintained while they are shrunk.
+     *
+     * @param finished
+     *         Whether the solver reached the stopping tolerance
+     */
+    private void saveCheckpoint(boolean finished)
+    {
+        reconstructGradient();
+        SolverCheckpoint.State state = new SolverCheckpoint.State();
+        state.alpha = new double[l];
+        state.G = new double[l];
+        state.G_bar = new double[l];
+        state.alpha_status = new byte[l];
+        state.active = new boolean[l];
+        for (int k = 0; k < l; k++)
         {
-            double v = 0;
-            int i;
-            for (i = 0; i < l; i++)
-            {
-                v += alpha[i] * (G[i] + p[i]);
-            }
-
-            si.obj = v / 2;
+            int i = active_set[k];
+            state.alpha[i] = alpha[k];
+            state.G[i] = G[k];
+            state.G_bar[i] = G_bar[k];
+            state.alpha_status[i] = alpha_status[k];
+            state.active[i] = k < active_size;
         }
+        state.unshrink = unshrink;
+        state.finished = finished;
+        checkpoint.save(state);
+        lastCheckpoint = System.nanoTime();
+    }
 
-        // put back the solution
+    /**
+     * Continues from a persisted state instead of initializing the gradient. The variables which were shrunk when the
+     * state got persisted are moved behind the active set again.
+     */
+    private void restore(SolverCheckpoint.State state)
+    {
+        alpha = state.alpha.clone();
+        G = state.G.clone();
+        G_bar = state.G_bar.clone();
+        alpha_status = state.alpha_status.clone();
+        unshrink = state.unshrink;
+        for (int k = 0; k < active_size; )
         {
-            for (int i = 0; i < l; i++)
+            if (state.active[active_set[k]])
             {
-                alpha_[active_set[i]] = alpha[i];
+                k++;
+            }
+            else
+            {
+                active_size--;
+                swapIndex(k, active_size);
             }
         }
-
-        si.upper_bound_p = Cp;
-        si.upper_bound_n = Cn;
-
         if (LOG.isDebugEnabled())
         {
-            LOG.debug("\noptimization finished, #iter = " + iter + "\n");
+            LOG.debug("Resumed from checkpoint " + checkpoint.getFile() + " with " + active_size + " active variables");
         }
     }
 
@@ -460,6 +682,113 @@ public class Solver
         }
     }
 
+    /**
+     * A scan over the active variables in the range of [from, to) which stores its result in the slot <em>part</em>
+     * of the per part result arrays.
+     */
+    @FunctionalInterface
+    interface RangeScan
+    {
+        void scan(int part, int from, int to);
+    }
+
+    /**
+     * Creates the threads used to split the working set selection if the problem is large enough.
+     *
+     * @param nrThreads
+     *         The number of threads to use
+     */
+    private void startParallelism(int nrThreads)
+    {
+        this.nrParts = 1;
+        if (nrThreads > 1 && l >= PARALLEL_THRESHOLD)
+        {
+            this.nrParts = nrThreads;
+            this.executor = Executors.newFixedThreadPool(nrThreads, r ->
+            {
+                Thread thread = new Thread(r, "svm-solver");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        allocateParts(this.nrParts);
+    }
+
+    private void stopParallelism()
+    {
+        if (this.executor != null)
+        {
+            this.executor.shutdown();
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Allocates the arrays holding the per part results of the working set selection.
+     *
+     * @param parts
+     *         The number of parts the active set may be split into
+     */
+    void allocateParts(int parts)
+    {
+        partIdx = new int[parts];
+        partMax = new double[parts];
+        partMinIdx = new int[parts];
+        partObjDiffMin = new double[parts];
+        partMax2 = new double[parts];
+    }
+
+    /**
+     * Applies a scan to all active variables. If multiple threads are available and the active set is large enough,
+     * the active set is split into equally sized parts which are scanned concurrently. Otherwise the whole active set
+     * is scanned by the calling thread as part 0.
+     *
+     * @param rangeScan
+     *         The scan to apply
+     *
+     * @return The number of parts the results were written to
+     */
+    int scan(RangeScan rangeScan)
+    {
+        if (this.executor == null || active_size < PARALLEL_THRESHOLD)
+        {
+            rangeScan.scan(0, 0, active_size);
+            return 1;
+        }
+
+        int parts = this.nrParts;
+        int size = active_size;
+        this.partTasks.clear();
+        for (int part = 0; part < parts; part++)
+        {
+            final int index = part;
+            final int from = (int) ((long) size * part / parts);
+            final int to = (int) ((long) size * (part + 1) / parts);
+            this.partTasks.add(() ->
+                               {
+                                   rangeScan.scan(index, from, to);
+                                   return null;
+                               });
+        }
+        try
+        {
+            for (Future<Void> future : this.executor.invokeAll(this.partTasks))
+            {
+                future.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Working set selection got interrupted", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Working set selection failed", e.getCause());
+        }
+        return parts;
+    }
+
     // return 1 if already optimal, return 0 otherwise
     int selectWorkingSet(int[] working_set)
     {
@@ -475,9 +804,16 @@ public class Solver
         int Gmin_idx = -1;
         double obj_diff_min = INF;
 
-        Pair<Double, Integer> gmax = calculateGmax(Gmax, Gmax_idx);
-        Gmax = gmax.getFirst();
-        Gmax_idx = gmax.getLast();
+        // later parts win ties in order to select the same variables as a sequential scan
+        int parts = scan(maxViolatingScan);
+        for (int k = 0; k < parts; k++)
+        {
+            if (partIdx[k] != -1 && partMax[k] >= Gmax)
+            {
+                Gmax = partMax[k];
+                Gmax_idx = partIdx[k];
+            }
+        }
 
         int i = Gmax_idx;
         float[] Q_i = null;
@@ -486,7 +822,84 @@ public class Solver
             Q_i = Q.get_Q(i, active_size);
         }
 
-        for (int j = 0; j < active_size; j++)
+        selectedIdx = i;
+        selectedGmax = Gmax;
+        selectedQ = Q_i;
+        parts = scan(minObjectiveScan);
+        for (int k = 0; k < parts; k++)
+        {
+            if (partMax2[k] >= Gmax2)
+            {
+                Gmax2 = partMax2[k];
+            }
+            if (partMinIdx[k] != -1 && partObjDiffMin[k] <= obj_diff_min)
+            {
+                Gmin_idx = partMinIdx[k];
+                obj_diff_min = partObjDiffMin[k];
+            }
+        }
+        selectedQ = null;
+
+        if (Gmax + Gmax2 < eps)
+        {
+            return 1;
+        }
+
+        working_set[0] = Gmax_idx;
+        working_set[1] = Gmin_idx;
+        return 0;
+    }
+
+    /**
+     * Finds the variable i in the range of [from, to) which maximizes -y_i * grad(f)_i, i in I_up(\alpha).
+     */
+    private void findMaxViolating(int part, int from, int to)
+    {
+        double Gmax = -INF;
+        int Gmax_idx = -1;
+        for (int t = from; t < to; t++)
+        {
+            if (y[t] == +1)
+            {
+                if (!isUpperBound(t))
+                {
+                    if (-G[t] >= Gmax)
+                    {
+                        Gmax = -G[t];
+                        Gmax_idx = t;
+                    }
+                }
+            }
+            else
+            {
+                if (!isLowerBound(t))
+                {
+                    if (G[t] >= Gmax)
+                    {
+                        Gmax = G[t];
+                        Gmax_idx = t;
+                    }
+                }
+            }
+        }
+        partIdx[part] = Gmax_idx;
+        partMax[part] = Gmax;
+    }
+
+    /**
+     * Finds the variable j in the range of [from, to) which minimizes the decrease of the objective value together with
+     * the previously selected variable i and calculates max { y_j * grad(f)_j | j in I_low(\alpha) }.
+     */
+    private void findMinObjective(int part, int from, int to)
+    {
+        int i = selectedIdx;
+        double Gmax = selectedGmax;
+        float[] Q_i = selectedQ;
+        double Gmax2 = -INF;
+        int Gmin_idx = -1;
+        double obj_diff_min = INF;
+
+        for (int j = from; j < to; j++)
         {
             if (y[j] == +1)
             {
@@ -549,49 +962,9 @@ public class Solver
                 }
             }
         }
-
-        if (Gmax + Gmax2 < eps)
-        {
-            return 1;
-        }
-
-        working_set[0] = Gmax_idx;
-        working_set[1] = Gmin_idx;
-        return 0;
-    }
-
-    protected Pair<Double, Integer> calculateGmax(double Gmax, int Gmax_idx)
-    {
-        Pair<Double, Integer> ret = new Pair<>();
-        for (int t = 0; t < active_size; t++)
-        {
-            if (y[t] == +1)
-            {
-                if (!isUpperBound(t))
-                {
-                    if (-G[t] >= Gmax)
-                    {
-                        Gmax = -G[t];
-                        Gmax_idx = t;
-                    }
-                }
-            }
-            else
-            {
-                if (!isLowerBound(t))
-                {
-                    if (G[t] >= Gmax)
-                    {
-                        Gmax = G[t];
-                        Gmax_idx = t;
-                    }
-                }
-            }
-        }
-        ret.setFirst(Gmax);
-        ret.setLast(Gmax_idx);
-
-        return ret;
+        partMax2[part] = Gmax2;
+        partMinIdx[part] = Gmin_idx;
+        partObjDiffMin[part] = obj_diff_min;
     }
 
     private boolean beShrunk(int i, double Gmax1, double Gmax2)
@@ -0,0 +1,151 @@
+package at.rovo.classifier.svm.solver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically persists the state of a {@link Solver} run, so a long training can be resumed after a restart instead
+ * of starting from scratch. The state consists of alpha, the gradient G, the gradient G_bar of the variables at their
+ * upper bound, the status of every variable and the active set. A resumed solver continues with the stored values and
+ * skips the O(l^2) initialization of the gradient. The state of a run which reached its stopping tolerance is kept
+ * until the whole training completed, so a resumed training does not optimize such a run again.
+ * <p>
+ * A checkpoint is identified by a fingerprint of the problem and the parameters of the solver run. A stored state
+ * whose fingerprint or size does not match is ignored, so a changed problem is always solved from scratch. The state is
+ * written to a temporary file which replaces the checkpoint file afterwards, so a crash while writing never
+ * corrupts the previous checkpoint.
+ *
+ * @author Roman Vottner
+ */
+public class SolverCheckpoint
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    /** The file the state is stored in **/
+    private final File file;
+    /** Identifies the problem and parameters the state belongs to **/
+    private final long fingerprint;
+    /** The minimum time in nanoseconds between two checkpoints **/
+    private final long interval;
+
+    /**
+     * Creates a new checkpoint for a solver run.
+     *
+     * @param file
+     *         The file the state of the solver is stored in
+     * @param fingerprint
+     *         A hash of the problem and the parameters of the solver run
+     * @param intervalMillis
+     *         The minimum time in milliseconds between two checkpoints
+     */
+    public SolverCheckpoint(File file, long fingerprint, long intervalMillis)
+    {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.interval = intervalMillis * 1000000L;
+    }
+
+    /**
+     * Returns the file the state of the solver is stored in.
+     *
+     * @return The checkpoint file
+     */
+    public File getFile()
+    {
+        return this.file;
+    }
+
+    long getInterval()
+    {
+        return this.interval;
+    }
+
+    /**
+     * Loads the stored state of the solver run.
+     *
+     * @param l
+     *         The number of variables of the solver run
+     *
+     * @return The stored state or <em>null</em> if no matching state is available
+     */
+    State load(int l)
+    {
+        if (!this.file.isFile())
+        {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(this.file))))
+        {
+            State state = (State) in.readObject();
+            if (state.fingerprint != this.fingerprint || state.alpha.length != l)
+            {
+                LOG.info("Ignoring checkpoint {} of a different problem", this.file);
+                return null;
+            }
+            return state;
+        }
+        catch (IOException | ClassNotFoundException | ClassCastException e)
+        {
+            LOG.warn("Could not read checkpoint {}, solving from scratch", this.file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the state of the solver run. A failure is logged but does not abort the training.
+     *
+     * @param state
+     *         The state to persist
+     */
+    void save(State state)
+    {
+        state.fingerprint = this.fingerprint;
+        File tmp = new File(this.file.getPath() + ".tmp");
+        try
+        {
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))
+            {
+                out.writeObject(state);
+            }
+            Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            LOG.warn("Could not write checkpoint {}", this.file, e);
+        }
+    }
+
+    /**
+     * The state of a solver run. All arrays are stored in the original order of the variables, independent of the
+     * permutation applied by the shrinking heuristic.
+     */
+    static class State implements Serializable
+    {
+        /** Unique identifier necessary for serialization **/
+        private static final long serialVersionUID = -6812271034458262734L;
+
+        long fingerprint;
+        double[] alpha;
+        double[] G;
+        double[] G_bar;
+        byte[] alpha_status;
+        /** Marks the variables which were part of the active set **/
+        boolean[] active;
+        boolean unshrink;
+        /** Whether the solver run had finished **/
+        boolean finished;
+    }
+}
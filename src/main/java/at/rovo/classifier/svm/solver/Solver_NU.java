@@ -2,7 +2,6 @@ package at.rovo.classifier.svm.solver;
 
 import at.rovo.classifier.svm.struct.QMatrix;
 import at.rovo.classifier.svm.struct.SolutionInfo;
-import at.rovo.common.Pair;
 
 
 //
@@ -14,6 +13,22 @@ public final class Solver_NU extends Solver
 {
     private SolutionInfo si;
 
+    // per part results of the working set selection for y_i = -1 (part[nrParts])
+    private int[] partIdxN;
+    private double[] partMaxN;
+    private double[] partMax2N;
+
+    // arguments of the second selection pass, set before the active set is scanned
+    private int selectedIp;
+    private int selectedIn;
+    private double selectedGmaxp;
+    private double selectedGmaxn;
+    private float[] selectedQp;
+    private float[] selectedQn;
+
+    private final RangeScan maxViolatingScan = this::findMaxViolating;
+    private final RangeScan minObjectiveScan = this::findMinObjective;
+
     public void solve(int l, QMatrix Q, double[] p, byte[] y, double[] alpha, double Cp, double Cn, double eps,
                       SolutionInfo si, int shrinking)
     {
@@ -21,6 +36,15 @@ public final class Solver_NU extends Solver
         super.solve(l, Q, p, y, alpha, Cp, Cn, eps, si, shrinking);
     }
 
+    @Override
+    void allocateParts(int parts)
+    {
+        super.allocateParts(parts);
+        partIdxN = new int[parts];
+        partMaxN = new double[parts];
+        partMax2N = new double[parts];
+    }
+
     // return 1 if already optimal, return 0 otherwise
     @Override
     int selectWorkingSet(int[] working_set)
@@ -42,9 +66,21 @@ public final class Solver_NU extends Solver
         int Gmin_idx = -1;
         double obj_diff_min = INF;
 
-        Pair<Double, Integer> gmax = calculateGmax(Gmaxp, Gmaxp_idx);
-        Gmaxp = gmax.getFirst();
-        Gmaxp_idx = gmax.getLast();
+        // later parts win ties in order to select the same variables as a sequential scan
+        int parts = scan(maxViolatingScan);
+        for (int k = 0; k < parts; k++)
+        {
+            if (partIdx[k] != -1 && partMax[k] >= Gmaxp)
+            {
+                Gmaxp = partMax[k];
+                Gmaxp_idx = partIdx[k];
+            }
+            if (partIdxN[k] != -1 && partMaxN[k] >= Gmaxn)
+            {
+                Gmaxn = partMaxN[k];
+                Gmaxn_idx = partIdxN[k];
+            }
+        }
 
         int ip = Gmaxp_idx;
         int in = Gmaxn_idx;
@@ -59,7 +95,109 @@ public final class Solver_NU extends Solver
             Q_in = Q.get_Q(in, active_size);
         }
 
-        for (int j = 0; j < active_size; j++)
+        selectedIp = ip;
+        selectedIn = in;
+        selectedGmaxp = Gmaxp;
+        selectedGmaxn = Gmaxn;
+        selectedQp = Q_ip;
+        selectedQn = Q_in;
+        parts = scan(minObjectiveScan);
+        for (int k = 0; k < parts; k++)
+        {
+            if (partMax2[k] >= Gmaxp2)
+            {
+                Gmaxp2 = partMax2[k];
+            }
+            if (partMax2N[k] >= Gmaxn2)
+            {
+                Gmaxn2 = partMax2N[k];
+            }
+            if (partMinIdx[k] != -1 && partObjDiffMin[k] <= obj_diff_min)
+            {
+                Gmin_idx = partMinIdx[k];
+                obj_diff_min = partObjDiffMin[k];
+            }
+        }
+        selectedQp = null;
+        selectedQn = null;
+
+        if (Math.max(Gmaxp + Gmaxp2, Gmaxn + Gmaxn2) < eps)
+        {
+            return 1;
+        }
+
+        if (y[Gmin_idx] == +1)
+        {
+            working_set[0] = Gmaxp_idx;
+        }
+        else
+        {
+            working_set[0] = Gmaxn_idx;
+        }
+        working_set[1] = Gmin_idx;
+
+        return 0;
+    }
+
+    /**
+     * Finds the variables ip and in in the range of [from, to) which maximize -y_i * grad(f)_i, i in I_up(\alpha), for
+     * each class separately.
+     */
+    private void findMaxViolating(int part, int from, int to)
+    {
+        double Gmaxp = -INF;
+        int Gmaxp_idx = -1;
+        double Gmaxn = -INF;
+        int Gmaxn_idx = -1;
+        for (int t = from; t < to; t++)
+        {
+            if (y[t] == +1)
+            {
+                if (!isUpperBound(t))
+                {
+                    if (-G[t] >= Gmaxp)
+                    {
+                        Gmaxp = -G[t];
+                        Gmaxp_idx = t;
+                    }
+                }
+            }
+            else
+            {
+                if (!isLowerBound(t))
+                {
+                    if (G[t] >= Gmaxn)
+                    {
+                        Gmaxn = G[t];
+                        Gmaxn_idx = t;
+                    }
+                }
+            }
+        }
+        partIdx[part] = Gmaxp_idx;
+        partMax[part] = Gmaxp;
+        partIdxN[part] = Gmaxn_idx;
+        partMaxN[part] = Gmaxn;
+    }
+
+    /**
+     * Finds the variable j in the range of [from, to) which minimizes the decrease of the objective value together with
+     * the previously selected variable of the same class.
+     */
+    private void findMinObjective(int part, int from, int to)
+    {
+        int ip = selectedIp;
+        int in = selectedIn;
+        double Gmaxp = selectedGmaxp;
+        double Gmaxn = selectedGmaxn;
+        float[] Q_ip = selectedQp;
+        float[] Q_in = selectedQn;
+        double Gmaxp2 = -INF;
+        double Gmaxn2 = -INF;
+        int Gmin_idx = -1;
+        double obj_diff_min = INF;
+
+        for (int j = from; j < to; j++)
         {
             if (y[j] == +1)
             {
@@ -70,10 +208,25 @@ public final class Solver_NU extends Solver
                     {
                         Gmaxp2 = G[j];
                     }
-                    SelectWorkingSetBoundaryCheckResult checkResult =
-                            new SelectWorkingSetBoundaryCheckResult(Gmin_idx, obj_diff_min, ip, Q_ip, j, grad_diff);
-                    obj_diff_min = checkResult.getObj_diff_min();
-                    Gmin_idx = checkResult.getGmin_idx();
+                    if (grad_diff > 0)
+                    {
+                        double obj_diff;
+                        double quad_coef = QD[ip] + QD[j] - 2 * Q_ip[j];
+                        if (quad_coef > 0)
+                        {
+                            obj_diff = -(grad_diff * grad_diff) / quad_coef;
+                        }
+                        else
+                        {
+                            obj_diff = -(grad_diff * grad_diff) / 1e-12;
+                        }
+
+                        if (obj_diff <= obj_diff_min)
+                        {
+                            Gmin_idx = j;
+                            obj_diff_min = obj_diff;
+                        }
+                    }
                 }
             }
             else
@@ -85,30 +238,32 @@ public final class Solver_NU extends Solver
                     {
                         Gmaxn2 = -G[j];
                     }
-                    SelectWorkingSetBoundaryCheckResult checkResult =
-                            new SelectWorkingSetBoundaryCheckResult(Gmin_idx, obj_diff_min, in, Q_in, j, grad_diff);
-                    obj_diff_min = checkResult.getObj_diff_min();
-                    Gmin_idx = checkResult.getGmin_idx();
+                    if (grad_diff > 0)
+                    {
+                        double obj_diff;
+                        double quad_coef = QD[in] + QD[j] - 2 * Q_in[j];
+                        if (quad_coef > 0)
+                        {
+                            obj_diff = -(grad_diff * grad_diff) / quad_coef;
+                        }
+                        else
+                        {
+                            obj_diff = -(grad_diff * grad_diff) / 1e-12;
+                        }
+
+                        if (obj_diff <= obj_diff_min)
+                        {
+                            Gmin_idx = j;
+                            obj_diff_min = obj_diff;
+                        }
+                    }
                 }
             }
         }
-
-        if (Math.max(Gmaxp + Gmaxp2, Gmaxn + Gmaxn2) < eps)
-        {
-            return 1;
-        }
-
-        if (y[Gmin_idx] == +1)
-        {
-            working_set[0] = Gmaxp_idx;
-        }
-        else
-        {
-            working_set[0] = Gmaxn_idx;
-        }
-        working_set[1] = Gmin_idx;
-
-        return 0;
+        partMax2[part] = Gmaxp2;
+        partMax2N[part] = Gmaxn2;
+        partMinIdx[part] = Gmin_idx;
+        partObjDiffMin[part] = obj_diff_min;
     }
 
     @Override
@@ -194,21 +349,35 @@ public final class Solver_NU extends Solver
         {
             if (y[i] == +1)
             {
-                CalculationRhoBoundCheckResult boundCheckResult =
-                        new CalculationRhoBoundCheckResult(nr_free1, ub1, lb1, sum_free1, i);
-                nr_free1 = boundCheckResult.getNr_free();
-                sum_free1 = boundCheckResult.getSum_free();
-                ub1 = boundCheckResult.getUb();
-                lb1 = boundCheckResult.getLb();
+                if (isUpperBound(i))
+                {
+                    lb1 = Math.max(lb1, G[i]);
+                }
+                else if (isLowerBound(i))
+                {
+                    ub1 = Math.min(ub1, G[i]);
+                }
+                else
+                {
+                    ++nr_free1;
+                    sum_free1 += G[i];
+                }
             }
             else
             {
-                CalculationRhoBoundCheckResult boundCheckResult =
-                        new CalculationRhoBoundCheckResult(nr_free2, ub2, lb2, sum_free2, i);
-                nr_free2 = boundCheckResult.getNr_free();
-                sum_free2 = boundCheckResult.getSum_free();
-                ub2 = boundCheckResult.getUb();
-                lb2 = boundCheckResult.getLb();
+                if (isUpperBound(i))
+                {
+                    lb2 = Math.max(lb2, G[i]);
+                }
+                else if (isLowerBound(i))
+                {
+                    ub2 = Math.min(ub2, G[i]);
+                }
+                else
+                {
+                    ++nr_free2;
+                    sum_free2 += G[i];
+                }
             }
         }
 
@@ -234,91 +403,4 @@ public final class Solver_NU extends Solver
         si.r = (r1 + r2) / 2;
         return (r1 - r2) / 2;
     }
-
-    private class CalculationRhoBoundCheckResult
-    {
-        private int nr_free;
-        private double ub;
-        private double lb;
-        private double sum_free;
-
-        private CalculationRhoBoundCheckResult(int nr_free, double ub, double lb, double sum_free, int i)
-        {
-            if (isLowerBound(i))
-            {
-                this.ub = Math.min(ub, G[i]);
-            }
-            else if (isUpperBound(i))
-            {
-                this.lb = Math.max(lb, G[i]);
-            }
-            else
-            {
-                this.nr_free = ++nr_free;
-                this.sum_free = sum_free + G[i];
-            }
-        }
-
-        private int getNr_free()
-        {
-            return nr_free;
-        }
-
-        private double getUb()
-        {
-            return ub;
-        }
-
-        private double getLb()
-        {
-            return lb;
-        }
-
-        private double getSum_free()
-        {
-            return sum_free;
-        }
-    }
-
-    private class SelectWorkingSetBoundaryCheckResult
-    {
-        private int gmin_idx;
-        private double obj_diff_min;
-
-        private SelectWorkingSetBoundaryCheckResult(int gmin_idx, double obj_diff_min, int ip, float[] q_ip, int j,
-                                                    double grad_diff)
-        {
-            this.gmin_idx = gmin_idx;
-
-            if (grad_diff > 0)
-            {
-                double obj_diff;
-                double quad_coef = QD[ip] + QD[j] - 2 * q_ip[j];
-                if (quad_coef > 0)
-                {
-                    obj_diff = -(grad_diff * grad_diff) / quad_coef;
-                }
-                else
-                {
-                    obj_diff = -(grad_diff * grad_diff) / 1e-12;
-                }
-
-                if (obj_diff <= obj_diff_min)
-                {
-                    this.gmin_idx = j;
-                    this.obj_diff_min = obj_diff;
-                }
-            }
-        }
-
-        private int getGmin_idx()
-        {
-            return gmin_idx;
-        }
-
-        private double getObj_diff_min()
-        {
-            return obj_diff_min;
-        }
-    }
 }
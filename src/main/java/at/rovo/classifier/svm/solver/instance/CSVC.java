@@ -33,7 +33,6 @@ public class CSVC extends SolveInstance
 
         for (i = 0; i < l; i++)
         {
-            alpha[i] = 0;
             minus_ones[i] = -1;
             if (prob.y.get(i) > 0)
             {
@@ -43,6 +42,11 @@ public class CSVC extends SolveInstance
             {
                 y[i] = -1;
             }
+            alpha[i] = initialAlpha != null ? Math.max(0, y[i] * initialAlpha[i]) : 0;
+        }
+        if (initialAlpha != null)
+        {
+            makeFeasible(alpha, y, Cp, Cn);
         }
 
         Solver s = new Solver();
@@ -23,14 +23,19 @@ public class EpsilonSVR extends SolveInstance
 
         for (i = 0; i < l; i++)
         {
-            alpha2[i] = 0;
+            // a previous coefficient alpha_i - alpha_i^* is split into its positive and negative part
+            alpha2[i] = initialAlpha != null ? Math.max(0, initialAlpha[i]) : 0;
             linear_term[i] = param.p - prob.y.get(i);
             y[i] = 1;
 
-            alpha2[i + l] = 0;
+            alpha2[i + l] = initialAlpha != null ? Math.max(0, -initialAlpha[i]) : 0;
             linear_term[i + l] = param.p + prob.y.get(i);
             y[i + l] = -1;
         }
+        if (initialAlpha != null)
+        {
+            makeFeasible(alpha2, y, param.C, param.C);
+        }
 
         Solver s = new Solver();
         s.solve(2 * l, new SVRKernel(prob, param), linear_term, y, alpha2, param.C, param.C, param.eps, si,
@@ -0,0 +1,69 @@
+package at.rovo.classifier.svm.solver.instance;
+
+import at.rovo.classifier.svm.solver.LinearSolver;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import at.rovo.classifier.svm.struct.SolutionInfo;
+import java.lang.invoke.MethodHandles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * C-SVC for linear kernels which uses the dual coordinate descent {@link LinearSolver} instead of the SMO solver. Next
+ * to the coefficients of the support vectors the solution also contains the weight vector <em>w</em> of the separating
+ * hyperplane.
+ */
+public class LinearCSVC extends SolveInstance
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private double Cp;
+    private double Cn;
+
+    public LinearCSVC(double Cp, double Cn)
+    {
+        this.Cp = Cp;
+        this.Cn = Cn;
+    }
+
+    @Override
+    public void solve(Problem prob, Parameter param, double[] alpha, SolutionInfo si)
+    {
+        int l = prob.numInstances;
+        byte[] y = new byte[l];
+
+        int i;
+        for (i = 0; i < l; i++)
+        {
+            if (prob.y.get(i) > 0)
+            {
+                y[i] = +1;
+            }
+            else
+            {
+                y[i] = -1;
+            }
+        }
+
+        LinearSolver s = new LinearSolver();
+        s.solve(prob, y, alpha, Cp, Cn, param.linearEps, si);
+
+        if (Cp == Cn)
+        {
+            if (LOG.isDebugEnabled())
+            {
+                double sum_alpha = 0;
+                for (i = 0; i < l; i++)
+                {
+                    sum_alpha += alpha[i];
+                }
+                LOG.debug("nu = " + sum_alpha / (Cp * prob.numInstances) + "\n");
+            }
+        }
+
+        for (i = 0; i < l; i++)
+        {
+            alpha[i] *= y[i];
+        }
+    }
+}
@@ -6,5 +6,78 @@ import at.rovo.classifier.svm.struct.SolutionInfo;
 
 public abstract class SolveInstance
 {
+    /** Optional coefficients y_i*alpha_i of a previous solution which are used as starting point of the solver **/
+    protected double[] initialAlpha;
+
     public abstract void solve(Problem prob, Parameter param, double[] alpha, SolutionInfo si);
+
+    /**
+     * Specifies the coefficients of a previous solution the solver should start from instead of starting from alpha =
+     * 0. Instances which do not support a warm start ignore these values.
+     *
+     * @param initialAlpha
+     *         The coefficients y_i*alpha_i of each instance of the problem or <em>null</em> to start from scratch
+     */
+    public void setInitialAlpha(double[] initialAlpha)
+    {
+        this.initialAlpha = initialAlpha;
+    }
+
+    /**
+     * Turns initial alpha values into a feasible starting point which satisfies 0 &lt;= alpha_i &lt;= C_i and y^T alpha
+     * = 0. The side with the larger sum of alpha values is scaled down first to restore the equality constraint, i.e.
+     * if instances were removed from the problem. Afterwards all values are scaled down by the same factor until no
+     * value exceeds its upper bound anymore, which keeps the equality constraint satisfied.
+     *
+     * @param alpha
+     *         The non-negative alpha values to adjust
+     * @param y
+     *         The labels (+1 or -1) of the instances
+     * @param Cp
+     *         The upper bound of instances with y_i = +1
+     * @param Cn
+     *         The upper bound of instances with y_i = -1
+     */
+    static void makeFeasible(double[] alpha, byte[] y, double Cp, double Cn)
+    {
+        int l = alpha.length;
+        double sum_p = 0;
+        double sum_n = 0;
+        for (int i = 0; i < l; i++)
+        {
+            if (y[i] > 0)
+            {
+                sum_p += alpha[i];
+            }
+            else
+            {
+                sum_n += alpha[i];
+            }
+        }
+
+        // rounding errors of a previous solution are tolerated, as scaling would move alpha values which are exactly
+        // at their bound into the free set and introduce violations of the optimality conditions
+        double scale_p = 1;
+        double scale_n = 1;
+        if (Math.abs(sum_p - sum_n) > 1e-12 * Math.max(sum_p, sum_n))
+        {
+            scale_p = sum_p > sum_n ? sum_n / sum_p : 1;
+            scale_n = sum_n > sum_p ? sum_p / sum_n : 1;
+        }
+        double scale = 1;
+        for (int i = 0; i < l; i++)
+        {
+            alpha[i] *= y[i] > 0 ? scale_p : scale_n;
+            double C = y[i] > 0 ? Cp : Cn;
+            if (alpha[i] > C)
+            {
+                scale = Math.min(scale, C / alpha[i]);
+            }
+        }
+
+        for (int i = 0; i < l; i++)
+        {
+            alpha[i] = Math.min(alpha[i] * scale, y[i] > 0 ? Cp : Cn);
+        }
+    }
 }
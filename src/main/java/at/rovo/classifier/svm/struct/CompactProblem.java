@@ -0,0 +1,124 @@
+package at.rovo.classifier.svm.struct;
+
+import java.util.AbstractList;
+
+/**
+ * A {@link Problem} whose samples are stored in a {@link CsrMatrix} and whose labels are stored in a primitive array
+ * instead of one {@link Node} object per feature and one boxed label per sample. {@link #x} and {@link #y} are
+ * read-only views on this data, where {@link #x} materializes the features of a sample on every access. The values of
+ * the features may be stored in single precision, see {@link CsrMatrix}.
+ * <p>
+ * Compact problems are created by {@link ProblemReader} and can not be extended via {@link #add(Double, Node[])}. A
+ * training reads the features from the matrix directly, see {@link #getMatrix()}. On serialization they are converted
+ * into a regular {@link Problem}.
+ *
+ * @author Roman Vottner
+ */
+public class CompactProblem extends Problem
+{
+    /** Unique identifier necessary for serialization **/
+    private static final long serialVersionUID = -4212367417003361590L;
+
+    /** The features of all samples **/
+    private final CsrMatrix matrix;
+    /** The labels of all samples **/
+    private final double[] labels;
+
+    /**
+     * Creates a new problem based on the provided samples and labels.
+     *
+     * @param matrix
+     *         The features of the samples, one row per sample
+     * @param labels
+     *         The label of each sample
+     * @param maxIndex
+     *         The highest feature index of all samples
+     */
+    public CompactProblem(CsrMatrix matrix, double[] labels, int maxIndex)
+    {
+        this.matrix = matrix;
+        this.labels = labels;
+        this.numInstances = labels.length;
+        this.maxIndex = maxIndex;
+        this.x = new AbstractList<Node[]>()
+        {
+            @Override
+            public Node[] get(int index)
+            {
+                return CompactProblem.this.matrix.getRow(index);
+            }
+
+            @Override
+            public int size()
+            {
+                return CompactProblem.this.numInstances;
+            }
+        };
+        this.y = new AbstractList<Double>()
+        {
+            @Override
+            public Double get(int index)
+            {
+                return CompactProblem.this.labels[index];
+            }
+
+            @Override
+            public int size()
+            {
+                return CompactProblem.this.numInstances;
+            }
+        };
+    }
+
+    /**
+     * Copies the samples of a problem into a compact problem.
+     *
+     * @param prob
+     *         The problem to copy
+     * @param singlePrecision
+     *         Specifies whether the values of the features are stored as floats instead of doubles
+     *
+     * @return A compact problem containing the samples and labels of the given problem
+     */
+    public static CompactProblem of(Problem prob, boolean singlePrecision)
+    {
+        double[] labels = new double[prob.numInstances];
+        for (int i = 0; i < labels.length; i++)
+        {
+            labels[i] = prob.y.get(i);
+        }
+        return new CompactProblem(CsrMatrix.fromNodes(prob.x, singlePrecision), labels, prob.getMaxIndex());
+    }
+
+    /**
+     * Returns the features of all samples in compressed sparse row format.
+     *
+     * @return The features of all samples
+     */
+    @Override
+    public CsrMatrix getMatrix()
+    {
+        return this.matrix;
+    }
+
+    /**
+     * Returns the labels of all samples. The returned array is not copied.
+     *
+     * @return The labels of all samples
+     */
+    public double[] getLabels()
+    {
+        return this.labels;
+    }
+
+    @Override
+    public void add(Double label, Node[] features)
+    {
+        throw new UnsupportedOperationException("Compact problems can not be modified");
+    }
+
+    private Object writeReplace()
+    {
+        return copy();
+    }
+}
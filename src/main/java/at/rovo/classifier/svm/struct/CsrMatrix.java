@@ -0,0 +1,612 @@
+package at.rovo.classifier.svm.struct;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A sparse matrix in compressed sparse row (CSR) format. Instead of one {@link Node} object per feature, the features
+ * of all rows are stored in two flat arrays holding the feature indices and values. The features of row <em>i</em> are
+ * located in the range of [{@link #start(int) start(i)}, {@link #end(int) end(i)}) of these arrays.
+ * <p>
+ * The data is accessed through NIO buffers, so a matrix can either be backed by arrays on the heap or by a memory
+ * mapped file. In the latter case the operating system loads the data lazily on first access.
+ * <p>
+ * The values are either stored in double or in single precision. Single precision halves the memory and the memory
+ * bandwidth required by the values, which dominate the cost of sparse dot products, while all computations on the
+ * values are still carried out in double precision. As the kernel values are cached as floats anyway, the precision of
+ * the inputs has little effect on the trained models.
+ * <p>
+ * As the positions of the features are limited by the maximum length of an array, a matrix holding more than
+ * {@link Integer#MAX_VALUE} features consists of multiple blocks, see {@link #CsrMatrix(CsrMatrix[])}. The positions of
+ * the features of such a matrix are only defined within the {@link #block(int) block} of a row, while all operations on
+ * whole rows are available on the matrix itself.
+ *
+ * @author Roman Vottner
+ */
+public class CsrMatrix
+{
+    /** The number of rows in this matrix **/
+    private final int rows;
+    /** The offset of the first feature of each row inside the index and value buffers (rowPtr[rows+1]) **/
+    private final IntBuffer rowPtr;
+    /** The feature indices of all rows **/
+    private final IntBuffer indices;
+    /** The feature values of all rows or <em>null</em> if the values are stored in single precision **/
+    private final DoubleBuffer values;
+    /** The feature values of all rows in single precision or <em>null</em> if they are stored in double precision **/
+    private final FloatBuffer floatValues;
+    /** The arrays backing the buffers of a matrix on the heap, which allow tight loops over rows of the matrix **/
+    private final int[] rowPtrArray;
+    private final int[] indexArray;
+    private final float[] floatArray;
+    /** The blocks holding the rows of this matrix or <em>null</em> if it consists of a single block **/
+    private final CsrMatrix[] blocks;
+    /** The first row of each block followed by the number of rows or <em>null</em> for a single block **/
+    private final int[] firstRows;
+
+    /**
+     * Creates a new sparse matrix backed by the provided buffers.
+     *
+     * @param rowPtr
+     *         The offsets of each row inside the index and value buffers. Contains one entry more than rows are
+     *         available, where the last entry is the total number of features
+     * @param indices
+     *         The feature indices of all rows, sorted in ascending order per row
+     * @param values
+     *         The feature values of all rows
+     */
+    public CsrMatrix(IntBuffer rowPtr, IntBuffer indices, DoubleBuffer values)
+    {
+        this.rows = rowPtr.limit() - 1;
+        this.rowPtr = rowPtr;
+        this.indices = indices;
+        this.values = values;
+        this.floatValues = null;
+        this.rowPtrArray = null;
+        this.indexArray = null;
+        this.floatArray = null;
+        this.blocks = null;
+        this.firstRows = null;
+    }
+
+    /**
+     * Creates a new sparse matrix backed by the provided buffers which stores its values in single precision.
+     *
+     * @param rowPtr
+     *         The offsets of each row inside the index and value buffers. Contains one entry more than rows are
+     *         available, where the last entry is the total number of features
+     * @param indices
+     *         The feature indices of all rows, sorted in ascending order per row
+     * @param values
+     *         The feature values of all rows
+     */
+    public CsrMatrix(IntBuffer rowPtr, IntBuffer indices, FloatBuffer values)
+    {
+        this.rows = rowPtr.limit() - 1;
+        this.rowPtr = rowPtr;
+        this.indices = indices;
+        this.values = null;
+        this.floatValues = values;
+        boolean heap = rowPtr.hasArray() && rowPtr.arrayOffset() == 0 && indices.hasArray() &&
+                       indices.arrayOffset() == 0 && values.hasArray() && values.arrayOffset() == 0;
+        this.rowPtrArray = heap ? rowPtr.array() : null;
+        this.indexArray = heap ? indices.array() : null;
+        this.floatArray = heap ? values.array() : null;
+        this.blocks = null;
+        this.firstRows = null;
+    }
+
+    /**
+     * Creates a new sparse matrix backed by the provided arrays.
+     *
+     * @param rowPtr
+     *         The offsets of each row inside the index and value arrays
+     * @param indices
+     *         The feature indices of all rows, sorted in ascending order per row
+     * @param values
+     *         The feature values of all rows
+     */
+    public CsrMatrix(int[] rowPtr, int[] indices, double[] values)
+    {
+        this(IntBuffer.wrap(rowPtr), IntBuffer.wrap(indices), DoubleBuffer.wrap(values));
+    }
+
+    /**
+     * Creates a new sparse matrix backed by the provided arrays which stores its values in single precision.
+     *
+     * @param rowPtr
+     *         The offsets of each row inside the index and value arrays
+     * @param indices
+     *         The feature indices of all rows, sorted in ascending order per row
+     * @param values
+     *         The feature values of all rows
+     */
+    public CsrMatrix(int[] rowPtr, int[] indices, float[] values)
+    {
+        this(IntBuffer.wrap(rowPtr), IntBuffer.wrap(indices), FloatBuffer.wrap(values));
+    }
+
+    /**
+     * Creates a new sparse matrix consisting of the rows of the provided blocks in the given order. A single block is
+     * limited to {@link Integer#MAX_VALUE} features, so larger matrices are split into blocks of consecutive rows.
+     *
+     * @param blocks
+     *         The non-empty blocks holding the rows of the matrix, which all store their values in the same precision
+     *         and do not consist of blocks themselves
+     */
+    public CsrMatrix(CsrMatrix[] blocks)
+    {
+        if (blocks.length == 0)
+        {
+            throw new IllegalArgumentException("A matrix requires at least one block");
+        }
+        this.firstRows = new int[blocks.length + 1];
+        long rows = 0;
+        for (int b = 0; b < blocks.length; b++)
+        {
+            if (blocks[b].blocks != null || blocks[b].rows == 0 ||
+                blocks[b].isSinglePrecision() != blocks[0].isSinglePrecision())
+            {
+                throw new IllegalArgumentException("Block " + b + " is empty, nested or of a different precision");
+            }
+            this.firstRows[b] = (int) rows;
+            rows += blocks[b].rows;
+            if (rows > Integer.MAX_VALUE - 1)
+            {
+                throw new IllegalArgumentException("The blocks contain more rows than supported");
+            }
+        }
+        this.firstRows[blocks.length] = (int) rows;
+        this.rows = (int) rows;
+        this.blocks = blocks;
+        this.rowPtr = null;
+        this.indices = null;
+        this.values = null;
+        this.floatValues = null;
+        this.rowPtrArray = null;
+        this.indexArray = null;
+        this.floatArray = null;
+    }
+
+    /**
+     * Converts the provided samples into a sparse matrix stored on the heap.
+     *
+     * @param x
+     *         The samples to convert
+     *
+     * @return The sparse matrix containing one row per sample
+     */
+    public static CsrMatrix fromNodes(List<Node[]> x)
+    {
+        return fromNodes(x, false);
+    }
+
+    /**
+     * Converts the provided samples into a sparse matrix stored on the heap.
+     *
+     * @param x
+     *         The samples to convert
+     * @param singlePrecision
+     *         <em>true</em> to store the values in single precision, which rounds them to the nearest float
+     *
+     * @return The sparse matrix containing one row per sample
+     */
+    public static CsrMatrix fromNodes(List<Node[]> x, boolean singlePrecision)
+    {
+        int rows = x.size();
+        int[] rowPtr = new int[rows + 1];
+        for (int i = 0; i < rows; i++)
+        {
+            rowPtr[i + 1] = rowPtr[i] + x.get(i).length;
+        }
+        int nnz = rowPtr[rows];
+        int[] indices = new int[nnz];
+        double[] values = singlePrecision ? null : new double[nnz];
+        float[] floatValues = singlePrecision ? new float[nnz] : null;
+        for (int i = 0; i < rows; i++)
+        {
+            int k = rowPtr[i];
+            for (Node n : x.get(i))
+            {
+                indices[k] = n.index;
+                if (singlePrecision)
+                {
+                    floatValues[k] = (float) n.value;
+                }
+                else
+                {
+                    values[k] = n.value;
+                }
+                k++;
+            }
+        }
+        return singlePrecision ? new CsrMatrix(rowPtr, indices, floatValues) : new CsrMatrix(rowPtr, indices, values);
+    }
+
+    /**
+     * Returns a copy of this matrix on the heap which stores its values in single precision.
+     *
+     * @return The matrix in single precision or this instance if its values are already stored in single precision
+     */
+    public CsrMatrix toSinglePrecision()
+    {
+        if (isSinglePrecision())
+        {
+            return this;
+        }
+        if (this.blocks != null)
+        {
+            CsrMatrix[] blocks = new CsrMatrix[this.blocks.length];
+            for (int b = 0; b < blocks.length; b++)
+            {
+                blocks[b] = this.blocks[b].toSinglePrecision();
+            }
+            return new CsrMatrix(blocks);
+        }
+        int nnz = (int) nnz();
+        int[] rowPtr = new int[this.rows + 1];
+        this.rowPtr.duplicate().get(rowPtr);
+        int[] indices = new int[nnz];
+        this.indices.duplicate().get(indices, 0, nnz);
+        float[] floatValues = new float[nnz];
+        for (int k = 0; k < nnz; k++)
+        {
+            floatValues[k] = (float) this.values.get(k);
+        }
+        return new CsrMatrix(rowPtr, indices, floatValues);
+    }
+
+    /**
+     * Specifies whether the values of this matrix are stored in single precision.
+     *
+     * @return <em>true</em> if the values are stored as floats, <em>false</em> if they are stored as doubles
+     */
+    public boolean isSinglePrecision()
+    {
+        return this.blocks != null ? this.blocks[0].isSinglePrecision() : this.floatValues != null;
+    }
+
+    /**
+     * Returns the number of rows of this matrix.
+     *
+     * @return The number of rows
+     */
+    public int rows()
+    {
+        return this.rows;
+    }
+
+    /**
+     * Returns the total number of stored (non-zero) features.
+     *
+     * @return The number of stored features, which only exceeds {@link Integer#MAX_VALUE} for a matrix consisting of
+     *         multiple blocks
+     */
+    public long nnz()
+    {
+        if (this.blocks != null)
+        {
+            long nnz = 0;
+            for (CsrMatrix block : this.blocks)
+            {
+                nnz += block.nnz();
+            }
+            return nnz;
+        }
+        return this.rowPtr.get(this.rows);
+    }
+
+    /**
+     * Returns the block holding a row, whose features are located at the positions of {@link #blockRow(int)} inside
+     * the block.
+     *
+     * @param row
+     *         The row to return the block for
+     *
+     * @return The block containing the row or this matrix if it consists of a single block
+     */
+    public CsrMatrix block(int row)
+    {
+        return this.blocks == null ? this : this.blocks[blockOf(row)];
+    }
+
+    /**
+     * Returns the row of a block holding a row of this matrix.
+     *
+     * @param row
+     *         The row of this matrix
+     *
+     * @return The corresponding row of the {@link #block(int) block} containing the row
+     */
+    public int blockRow(int row)
+    {
+        return this.blocks == null ? row : row - this.firstRows[blockOf(row)];
+    }
+
+    private int blockOf(int row)
+    {
+        int b = Arrays.binarySearch(this.firstRows, 0, this.blocks.length, row);
+        return b >= 0 ? b : -b - 2;
+    }
+
+    /**
+     * Returns the position of the first feature of a row.
+     *
+     * @param row
+     *         The row to return the start position for
+     *
+     * @return The position of the first feature of the row
+     *
+     * @throws IllegalStateException
+     *         If this matrix consists of multiple blocks, whose positions are only defined within a block
+     */
+    public int start(int row)
+    {
+        checkSingleBlock();
+        return this.rowPtr.get(row);
+    }
+
+    /**
+     * Returns the position after the last feature of a row.
+     *
+     * @param row
+     *         The row to return the end position for
+     *
+     * @return The position after the last feature of the row
+     *
+     * @throws IllegalStateException
+     *         If this matrix consists of multiple blocks, whose positions are only defined within a block
+     */
+    public int end(int row)
+    {
+        checkSingleBlock();
+        return this.rowPtr.get(row + 1);
+    }
+
+    private void checkSingleBlock()
+    {
+        if (this.blocks != null)
+        {
+            throw new IllegalStateException("The positions of a matrix of multiple blocks are defined per block");
+        }
+    }
+
+    /**
+     * Returns the feature index stored at the given position.
+     *
+     * @param k
+     *         The position of the feature between 0 and {@link #nnz()}
+     *
+     * @return The index of the feature
+     */
+    public int index(int k)
+    {
+        return this.indices.get(k);
+    }
+
+    /**
+     * Returns the feature value stored at the given position.
+     *
+     * @param k
+     *         The position of the feature between 0 and {@link #nnz()}
+     *
+     * @return The value of the feature
+     */
+    public double value(int k)
+    {
+        return this.values != null ? this.values.get(k) : this.floatValues.get(k);
+    }
+
+    /**
+     * Materializes a row of this matrix as an array of {@link Node}s.
+     *
+     * @param row
+     *         The row to convert
+     *
+     * @return The features of the row
+     */
+    public Node[] getRow(int row)
+    {
+        if (this.blocks != null)
+        {
+            return block(row).getRow(blockRow(row));
+        }
+        int start = start(row);
+        int end = end(row);
+        Node[] nodes = new Node[end - start];
+        for (int k = start; k < end; k++)
+        {
+            Node n = new Node();
+            n.index = index(k);
+            n.value = value(k);
+            nodes[k - start] = n;
+        }
+        return nodes;
+    }
+
+    /**
+     * Calculates the dot product of a row of this matrix with a sample.
+     *
+     * @param row
+     *         The row of this matrix
+     * @param x
+     *         The sample sorted in ascending order of its feature indices
+     *
+     * @return The dot product of the row and the sample
+     */
+    public double dot(int row, Node[] x)
+    {
+        if (this.blocks != null)
+        {
+            return block(row).dot(blockRow(row), x);
+        }
+        double sum = 0;
+        int k = start(row);
+        int end = end(row);
+        int i = 0;
+        int xlen = x.length;
+        while (k < end && i < xlen)
+        {
+            int index = index(k);
+            if (index == x[i].index)
+            {
+                sum += value(k++) * x[i++].value;
+            }
+            else if (index > x[i].index)
+            {
+                ++i;
+            }
+            else
+            {
+                ++k;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates the dot product of two rows of this matrix.
+     *
+     * @param row
+     *         The first row
+     * @param other
+     *         The second row
+     * @param scaling
+     *         The scaling of the features, which weights every product with the squared scale of its feature, or
+     *         <em>null</em> to use the values as they are. The shifts of the scaled rows are not included
+     *
+     * @return The (weighted) dot product of the two rows
+     */
+    public double dot(int row, int other, Scaling scaling)
+    {
+        if (this.blocks != null)
+        {
+            return block(row).dot(blockRow(row), block(other), blockRow(other), scaling);
+        }
+        return dot(row, this, other, scaling);
+    }
+
+    /**
+     * Calculates the dot product of a row of this block with a row of another block.
+     */
+    private double dot(int row, CsrMatrix block, int other, Scaling scaling)
+    {
+        if (this.floatArray != null && block.floatArray != null)
+        {
+            return dot(this.rowPtrArray, this.indexArray, this.floatArray, row, block.rowPtrArray, block.indexArray,
+                       block.floatArray, other, scaling);
+        }
+        double sum = 0;
+        int k = start(row);
+        int end = end(row);
+        int m = block.start(other);
+        int otherEnd = block.end(other);
+        while (k < end && m < otherEnd)
+        {
+            int index = index(k);
+            int otherIndex = block.index(m);
+            if (index == otherIndex)
+            {
+                double product = value(k++) * block.value(m++);
+                sum += scaling != null ? scaling.weight(index) * product : product;
+            }
+            else if (index > otherIndex)
+            {
+                ++m;
+            }
+            else
+            {
+                ++k;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates the dot product of two rows of single precision blocks on the heap directly on their arrays.
+     */
+    private static double dot(int[] rowPtr, int[] indices, float[] values, int row, int[] otherRowPtr,
+                              int[] otherIndices, float[] otherValues, int other, Scaling scaling)
+    {
+        double sum = 0;
+        int k = rowPtr[row];
+        int end = rowPtr[row + 1];
+        int m = otherRowPtr[other];
+        int otherEnd = otherRowPtr[other + 1];
+        while (k < end && m < otherEnd)
+        {
+            int index = indices[k];
+            int otherIndex = otherIndices[m];
+            if (index == otherIndex)
+            {
+                double product = (double) values[k++] * otherValues[m++];
+                sum += scaling != null ? scaling.weight(index) * product : product;
+            }
+            else if (index > otherIndex)
+            {
+                ++m;
+            }
+            else
+            {
+                ++k;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates the squared euclidean distance between a row of this matrix and a sample.
+     *
+     * @param row
+     *         The row of this matrix
+     * @param x
+     *         The sample sorted in ascending order of its feature indices
+     *
+     * @return The squared distance between the row and the sample
+     */
+    public double squaredDistance(int row, Node[] x)
+    {
+        if (this.blocks != null)
+        {
+            return block(row).squaredDistance(blockRow(row), x);
+        }
+        double sum = 0;
+        int k = start(row);
+        int end = end(row);
+        int i = 0;
+        int xlen = x.length;
+        while (k < end && i < xlen)
+        {
+            int index = index(k);
+            if (index == x[i].index)
+            {
+                double d = value(k++) - x[i++].value;
+                sum += d * d;
+            }
+            else if (index > x[i].index)
+            {
+                sum += x[i].value * x[i].value;
+                ++i;
+            }
+            else
+            {
+                double v = value(k++);
+                sum += v * v;
+            }
+        }
+        while (k < end)
+        {
+            double v = value(k++);
+            sum += v * v;
+        }
+        while (i < xlen)
+        {
+            sum += x[i].value * x[i].value;
+            ++i;
+        }
+        return sum;
+    }
+}
@@ -7,4 +7,6 @@ public class DecisionFunction
 {
     public double[] alpha;
     public double rho;
+    public double[] w;
+    public SolverMetrics metrics;
 }
@@ -0,0 +1,207 @@
+package at.rovo.classifier.svm.struct;
+
+/**
+ * A dense matrix of double values stored in row-major order. In contrast to a {@link CsrMatrix} no feature indices are
+ * stored, as every row holds a value for each of its {@link #columns()} columns, where column <em>d</em> corresponds to
+ * the feature index <em>d+1</em>. This halves the memory of the mapped samples of a kernel approximation, which are
+ * dense anyway.
+ * <p>
+ * The rows are stored in chunks of up to {@link #CHUNK_SIZE} values, so the size of the matrix is not limited by the
+ * maximum length of an array. A row never spans two chunks, so the values of row <em>i</em> are located in the range of
+ * [{@link #offset(int) offset(i)}, offset(i) + {@link #columns()}) of the array returned by {@link #chunk(int)
+ * chunk(i)}.
+ *
+ * @author Roman Vottner
+ */
+public class DenseMatrix
+{
+    /** The maximum number of values stored in a chunk unless a single row is larger **/
+    private static final int CHUNK_SIZE = 1 << 24;
+
+    /** The number of rows in this matrix **/
+    private final int rows;
+    /** The number of values of each row **/
+    private final int columns;
+    /** The number of rows stored in each chunk **/
+    private final int rowsPerChunk;
+    /** The values of the rows, where chunk c holds the rows c*rowsPerChunk to (c+1)*rowsPerChunk-1 **/
+    private final double[][] chunks;
+
+    /**
+     * Creates a new matrix whose values are initialized with 0.
+     *
+     * @param rows
+     *         The number of rows of the matrix
+     * @param columns
+     *         The number of values of each row
+     */
+    public DenseMatrix(int rows, int columns)
+    {
+        this(rows, columns, CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new matrix whose values are initialized with 0 and which are stored in chunks of the given size.
+     *
+     * @param rows
+     *         The number of rows of the matrix
+     * @param columns
+     *         The number of values of each row
+     * @param chunkSize
+     *         The maximum number of values stored in a chunk unless a single row is larger
+     */
+    public DenseMatrix(int rows, int columns, int chunkSize)
+    {
+        if (rows < 0 || columns < 0 || chunkSize <= 0)
+        {
+            throw new IllegalArgumentException("Invalid size of the matrix or its chunks");
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.rowsPerChunk = Math.max(1, chunkSize / Math.max(1, columns));
+        int nrChunks = (int) (((long) rows + this.rowsPerChunk - 1) / this.rowsPerChunk);
+        this.chunks = new double[nrChunks][];
+        for (int c = 0; c < nrChunks; c++)
+        {
+            int chunkRows = Math.min(this.rowsPerChunk, rows - c * this.rowsPerChunk);
+            this.chunks[c] = new double[chunkRows * columns];
+        }
+    }
+
+    /**
+     * Returns the number of rows of this matrix.
+     *
+     * @return The number of rows
+     */
+    public int rows()
+    {
+        return this.rows;
+    }
+
+    /**
+     * Returns the number of values of each row, which is the highest feature index of the rows.
+     *
+     * @return The number of columns
+     */
+    public int columns()
+    {
+        return this.columns;
+    }
+
+    /**
+     * Returns the array holding the values of a row.
+     *
+     * @param row
+     *         The row to return the values for
+     *
+     * @return The chunk containing the row, whose values start at {@link #offset(int)}
+     */
+    public double[] chunk(int row)
+    {
+        return this.chunks[row / this.rowsPerChunk];
+    }
+
+    /**
+     * Returns the position of the first value of a row inside its {@link #chunk(int) chunk}.
+     *
+     * @param row
+     *         The row to return the position for
+     *
+     * @return The position of the first value of the row
+     */
+    public int offset(int row)
+    {
+        return (row % this.rowsPerChunk) * this.columns;
+    }
+
+    /**
+     * Materializes a row of this matrix as an array of {@link Node}s with the feature indices 1 to {@link #columns()}.
+     *
+     * @param row
+     *         The row to convert
+     *
+     * @return The features of the row
+     */
+    public Node[] getRow(int row)
+    {
+        double[] values = chunk(row);
+        int offset = offset(row);
+        Node[] nodes = new Node[this.columns];
+        for (int d = 0; d < this.columns; d++)
+        {
+            Node n = new Node();
+            n.index = d + 1;
+            n.value = values[offset + d];
+            nodes[d] = n;
+        }
+        return nodes;
+    }
+
+    /**
+     * Calculates the dot product of two rows of this matrix.
+     *
+     * @param row
+     *         The first row
+     * @param other
+     *         The second row
+     *
+     * @return The dot product of the two rows
+     */
+    public double dot(int row, int other)
+    {
+        double[] values = chunk(row);
+        int k = offset(row);
+        double[] otherValues = chunk(other);
+        int m = offset(other);
+        double sum = 0;
+        for (int d = 0; d < this.columns; d++)
+        {
+            sum += values[k + d] * otherValues[m + d];
+        }
+        return sum;
+    }
+
+    /**
+     * Copies the given rows into a sparse matrix on the heap, which stores every value of the rows.
+     *
+     * @param selected
+     *         The rows to copy
+     * @param singlePrecision
+     *         <em>true</em> to store the values in single precision, which rounds them to the nearest float
+     *
+     * @return The sparse matrix containing one row per selected row
+     */
+    public CsrMatrix toCsrMatrix(int[] selected, boolean singlePrecision)
+    {
+        long nnz = (long) selected.length * this.columns;
+        if (nnz > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException(
+                    "The " + selected.length + " rows exceed " + Integer.MAX_VALUE + " features of a sparse matrix");
+        }
+        int[] rowPtr = new int[selected.length + 1];
+        int[] indices = new int[(int) nnz];
+        double[] values = singlePrecision ? null : new double[(int) nnz];
+        float[] floatValues = singlePrecision ? new float[(int) nnz] : null;
+        for (int i = 0; i < selected.length; i++)
+        {
+            int k = i * this.columns;
+            rowPtr[i + 1] = k + this.columns;
+            double[] chunk = chunk(selected[i]);
+            int offset = offset(selected[i]);
+            for (int d = 0; d < this.columns; d++)
+            {
+                indices[k + d] = d + 1;
+                if (singlePrecision)
+                {
+                    floatValues[k + d] = (float) chunk[offset + d];
+                }
+                else
+                {
+                    values[k + d] = chunk[offset + d];
+                }
+            }
+        }
+        return singlePrecision ? new CsrMatrix(rowPtr, indices, floatValues) : new CsrMatrix(rowPtr, indices, values);
+    }
+}
@@ -0,0 +1,105 @@
+package at.rovo.classifier.svm.struct;
+
+import java.util.AbstractList;
+
+/**
+ * A {@link Problem} whose samples are stored in a {@link DenseMatrix}, like the samples mapped by a kernel
+ * approximation, which have a value for every feature. {@link #x} and {@link #y} are read-only views on this data,
+ * where {@link #x} materializes the features of a sample on every access. A training reads the features from the
+ * matrix directly, see {@link #getDenseMatrix()}.
+ * <p>
+ * Dense problems can not be extended via {@link #add(Double, Node[])}. On serialization they are converted into a
+ * regular {@link Problem}.
+ *
+ * @author Roman Vottner
+ */
+public class DenseProblem extends Problem
+{
+    /** Unique identifier necessary for serialization **/
+    private static final long serialVersionUID = 6270951722716830342L;
+
+    /** The features of all samples **/
+    private final DenseMatrix matrix;
+    /** The labels of all samples **/
+    private final double[] labels;
+
+    /**
+     * Creates a new problem based on the provided samples and labels.
+     *
+     * @param matrix
+     *         The features of the samples, one row per sample
+     * @param labels
+     *         The label of each sample
+     */
+    public DenseProblem(DenseMatrix matrix, double[] labels)
+    {
+        if (matrix.rows() != labels.length)
+        {
+            throw new IllegalArgumentException("A label is required for every sample");
+        }
+        this.matrix = matrix;
+        this.labels = labels;
+        this.numInstances = labels.length;
+        this.maxIndex = matrix.columns();
+        this.x = new AbstractList<Node[]>()
+        {
+            @Override
+            public Node[] get(int index)
+            {
+                return DenseProblem.this.matrix.getRow(index);
+            }
+
+            @Override
+            public int size()
+            {
+                return DenseProblem.this.numInstances;
+            }
+        };
+        this.y = new AbstractList<Double>()
+        {
+            @Override
+            public Double get(int index)
+            {
+                return DenseProblem.this.labels[index];
+            }
+
+            @Override
+            public int size()
+            {
+                return DenseProblem.this.numInstances;
+            }
+        };
+    }
+
+    /**
+     * Returns the features of all samples as dense matrix.
+     *
+     * @return The features of all samples
+     */
+    @Override
+    public DenseMatrix getDenseMatrix()
+    {
+        return this.matrix;
+    }
+
+    /**
+     * Returns the labels of all samples. The returned array is not copied.
+     *
+     * @return The labels of all samples
+     */
+    public double[] getLabels()
+    {
+        return this.labels;
+    }
+
+    @Override
+    public void add(Double label, Node[] features)
+    {
+        throw new UnsupportedOperationException("Dense problems can not be modified");
+    }
+
+    private Object writeReplace()
+    {
+        return copy();
+    }
+}
@@ -2,6 +2,8 @@ package at.rovo.classifier.svm.struct;
 
 import at.rovo.classifier.svm.KernelType;
 import at.rovo.classifier.svm.SVMType;
+import at.rovo.classifier.svm.kernel.GramMatrix;
+import at.rovo.classifier.svm.kernel.SharedKernelCache;
 
 /**
  * @author Chih-Chung Chang, Chih-Jen Lin
@@ -47,10 +49,23 @@ public class Parameter implements Cloneable, java.io.Serializable
     public double p; // for EPSILON_SVR
     public int shrinking; // use the shrinking heuristics
     public int probability; // do probability estimates
+    public int linearSolver; // use dual coordinate descent for C_SVC with a linear kernel
+    public double linearEps; // stopping criteria of the linear solver
+    public int multiClass; // 0 one-vs-one, 1 one-vs-rest for classification with more than two classes
+    public int singlePrecision; // store the samples of the kernel and the support vectors as float
+    public int nrThreads; // threads used to select the working set of large problems
+    public int approximation; // 0 exact kernel, 1 random Fourier features (RBF), 2 Nystroem
+    public int approximationSize; // number of components of the kernel approximation
     public int crossValidation;
     public int nrFold;
     public String inputFileName;
     public String modelFileName;
+    /** Kernel rows shared with other trainings on the same samples, i.e. by a grid search. Not persisted **/
+    public transient SharedKernelCache kernelCache;
+    /** The values of a precomputed kernel read from a memory-mapped file instead of the samples. Not persisted **/
+    public transient GramMatrix gramMatrix;
+    /** Scales the features inside the kernel function. An unfitted scaling is fitted to the training data **/
+    public Scaling scaling;
 
     public Object clone()
     {
@@ -80,6 +95,13 @@ public class Parameter implements Cloneable, java.io.Serializable
         param.p = 0.1;
         param.shrinking = 1;
         param.probability = 0;
+        param.linearSolver = 0;
+        param.linearEps = 0.1;
+        param.multiClass = 0;
+        param.singlePrecision = 0;
+        param.nrThreads = 1;
+        param.approximation = 0;
+        param.approximationSize = 500;
         param.nrWeight = 0;
         param.weightLabel = new int[0];
         param.weight = new double[0];
@@ -140,6 +162,33 @@ public class Parameter implements Cloneable, java.io.Serializable
                 case 'b':
                     param.probability = Integer.parseInt(argv[i]);
                     break;
+                case 'l':
+                    param.linearSolver = Integer.parseInt(argv[i]);
+                    break;
+                case 'E':
+                    param.linearEps = Double.parseDouble(argv[i]);
+                    break;
+                case 'o':
+                    param.multiClass = Integer.parseInt(argv[i]);
+                    break;
+                case 'f':
+                    param.singlePrecision = Integer.parseInt(argv[i]);
+                    break;
+                case 'j':
+                    param.nrThreads = Integer.parseInt(argv[i]);
+                    break;
+                case 'a':
+                    param.approximation = Integer.parseInt(argv[i]);
+                    break;
+                case 'D':
+                    param.approximationSize = Integer.parseInt(argv[i]);
+                    break;
+                case 'z':
+                {
+                    String[] range = argv[i].split(",");
+                    param.scaling = new Scaling(Double.parseDouble(range[0]), Double.parseDouble(range[1]));
+                }
+                break;
                 case 'v':
                     param.crossValidation = 1;
                     param.nrFold = Integer.parseInt(argv[i]);
@@ -27,8 +27,8 @@ public class Problem implements Serializable, TrainingData<Number, Node[][]>
     public List<Double> y;
     /** Contains the set of features the model should be trained with **/
     public List<Node[]> x;
-    /** **/
-    private int maxIndex;
+    /** The highest feature index of all samples **/
+    protected int maxIndex;
 
     public Problem()
     {
@@ -42,7 +42,10 @@ public class Problem implements Serializable, TrainingData<Number, Node[][]>
         this.y.add(label);
         this.numInstances++;
 
-        this.maxIndex = Math.max(maxIndex, features[features.length - 1].index);
+        if (features.length > 0)
+        {
+            this.maxIndex = Math.max(maxIndex, features[features.length - 1].index);
+        }
     }
 
     public int getMaxIndex()
@@ -50,6 +53,57 @@ public class Problem implements Serializable, TrainingData<Number, Node[][]>
         return this.maxIndex;
     }
 
+    /**
+     * Returns the matrix holding the features of the samples if they are stored in compressed sparse row format. A
+     * training reads the features of such a problem from the matrix instead of materializing them via {@link #x}.
+     *
+     * @return The matrix holding the features or <em>null</em> if the features are only available via {@link #x}
+     */
+    public CsrMatrix getMatrix()
+    {
+        return null;
+    }
+
+    /**
+     * Returns the matrix holding the features of the samples if every sample has a value for each feature index up to
+     * {@link #getMaxIndex()}. A training reads the features of such a problem from the matrix instead of materializing
+     * them via {@link #x}.
+     *
+     * @return The matrix holding the features or <em>null</em> if the features are not stored in a dense matrix
+     */
+    public DenseMatrix getDenseMatrix()
+    {
+        return null;
+    }
+
+    /**
+     * Returns the row of {@link #getMatrix()} or {@link #getDenseMatrix()} holding the features of a sample.
+     *
+     * @param i
+     *         The position of the sample within this problem
+     *
+     * @return The row of the matrix holding the features of the sample
+     */
+    public int getRow(int i)
+    {
+        return i;
+    }
+
+    /**
+     * Creates a modifiable copy of this problem, which references the feature arrays returned by {@link #x}.
+     *
+     * @return A copy of this problem which can be extended via {@link #add(Double, Node[])}
+     */
+    public Problem copy()
+    {
+        Problem copy = new Problem();
+        copy.numInstances = this.numInstances;
+        copy.maxIndex = this.maxIndex;
+        copy.x = new ArrayList<>(this.x);
+        copy.y = new ArrayList<>(this.y);
+        return copy;
+    }
+
     /**
      * Creates a problem statement from the data provided as test data.
      * <p>
@@ -114,6 +168,42 @@ public class Problem implements Serializable, TrainingData<Number, Node[][]>
         prob.numInstances = y.size();
         prob.x = x;
         prob.y = y;
+        prob.maxIndex = maxIndex;
+
+        return prepare(prob, param);
+    }
+
+    /**
+     * Creates a problem statement from a file in the same format as {@link #create(String, Parameter)} does. The file
+     * is read by {@link ProblemReader} which parses the file in parallel and stores the samples in a compressed sparse
+     * row matrix instead of allocating a {@link Node} per feature. The values are stored in single precision if
+     * {@link Parameter#singlePrecision} is set.
+     *
+     * @param inputFileName
+     *         The name of the file containing the samples
+     * @param param
+     *         The parameters provided to the application
+     * @param nrThreads
+     *         The number of threads used to parse the file
+     *
+     * @return The parsed samples as read-only problem
+     *
+     * @throws IOException
+     *         If the training file cannot be read or has an invalid format
+     */
+    public static CompactProblem createCompact(String inputFileName, Parameter param, int nrThreads)
+            throws IOException
+    {
+        return prepare(ProblemReader.read(inputFileName, nrThreads, param.singlePrecision == 1), param);
+    }
+
+    /**
+     * Sets the default gamma value based on the highest feature index and validates the samples of a precomputed
+     * kernel.
+     */
+    private static <T extends Problem> T prepare(T prob, Parameter param)
+    {
+        int maxIndex = prob.maxIndex;
 
         // normalizes the radius used for RBF f.e.
         if (param.gamma == 0 && maxIndex > 0)
@@ -124,6 +214,8 @@ public class Problem implements Serializable, TrainingData<Number, Node[][]>
         // check if the format for a pre-computed kernel type is appropriate
         if (KernelType.PRECOMPUTED.equals(param.kernelType))
         {
+            // serial numbers refer to the rows of a memory-mapped kernel matrix instead of the features of a sample
+            int maxSerial = param.gramMatrix != null ? param.gramMatrix.getRows() : maxIndex;
             for (int i = 0; i < prob.numInstances; i++)
             {
                 if (prob.x.get(i)[0].index != 0)
@@ -131,7 +223,7 @@ public class Problem implements Serializable, TrainingData<Number, Node[][]>
                     System.err.print("Wrong kernel matrix: first column must be 0:sample_serial_number\n");
                     System.exit(1);
                 }
-                if ((int) prob.x.get(i)[0].value <= 0 || (int) prob.x.get(i)[0].value > maxIndex)
+                if ((int) prob.x.get(i)[0].value <= 0 || (int) prob.x.get(i)[0].value > maxSerial)
                 {
                     System.err.print("Wrong input format: sample_serial_number out of range\n");
                     System.exit(1);
@@ -0,0 +1,659 @@
+package at.rovo.classifier.svm.struct;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads files in the libSVM format (<code>label index:value index:value ...</code>) into a {@link CompactProblem}.
+ * <p>
+ * The file is memory mapped and split into chunks which end at a line break. The chunks are processed in two passes
+ * by multiple threads: the first pass counts the samples and features of each chunk, so the arrays of the resulting
+ * {@link CsrMatrix} can be allocated with their final size. The second pass parses every chunk directly into its part
+ * of these arrays. Numbers are parsed from the raw bytes without creating any strings; only numbers which can not be
+ * converted exactly by the fast path (more than 18 significant digits, large exponents, <code>nan</code>, ...) fall
+ * back to {@link Double#parseDouble(String)}.
+ * <p>
+ * Consecutive chunks are grouped into blocks of up to {@link Integer#MAX_VALUE} features, each of which is stored in
+ * arrays of its own, so the number of features of a file is not limited by the maximum length of an array. A file of
+ * more features is read into a {@link CsrMatrix} consisting of multiple blocks, see
+ * {@link CsrMatrix#CsrMatrix(CsrMatrix[])}. The values can optionally be stored in single precision, which halves their
+ * memory.
+ *
+ * @author Roman Vottner
+ */
+public final class ProblemReader
+{
+    /** The maximum size of a chunk, which has to be mappable by a single {@link MappedByteBuffer} **/
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+    /** The maximum number of features of a block, which is limited by the maximum length of an array **/
+    private static final int MAX_BLOCK_SIZE = Integer.MAX_VALUE - 8;
+    /** The number of chunks created per thread in order to balance the load of the threads **/
+    private static final int CHUNKS_PER_THREAD = 4;
+    /** Exactly representable powers of ten used by the fast path of the number parser **/
+    private static final double[] POW10 = new double[23];
+
+    static
+    {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++)
+        {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private ProblemReader()
+    {
+
+    }
+
+    /**
+     * Reads the samples of a file in the libSVM format using as many threads as processors are available.
+     *
+     * @param fileName
+     *         The name of the file to read
+     *
+     * @return The samples of the file
+     *
+     * @throws IOException
+     *         If the file could not be read or is not in the libSVM format
+     */
+    public static CompactProblem read(String fileName) throws IOException
+    {
+        return read(fileName, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Reads the samples of a file in the libSVM format.
+     *
+     * @param fileName
+     *         The name of the file to read
+     * @param nrThreads
+     *         The number of threads to parse the file with
+     *
+     * @return The samples of the file
+     *
+     * @throws IOException
+     *         If the file could not be read or is not in the libSVM format
+     */
+    public static CompactProblem read(String fileName, int nrThreads) throws IOException
+    {
+        return read(fileName, nrThreads, false);
+    }
+
+    /**
+     * Reads the samples of a file in the libSVM format.
+     *
+     * @param fileName
+     *         The name of the file to read
+     * @param nrThreads
+     *         The number of threads to parse the file with
+     * @param singlePrecision
+     *         <em>true</em> to store the values of the features as float, <em>false</em> to store them as double
+     *
+     * @return The samples of the file
+     *
+     * @throws IOException
+     *         If the file could not be read or is not in the libSVM format
+     */
+    public static CompactProblem read(String fileName, int nrThreads, boolean singlePrecision) throws IOException
+    {
+        return read(fileName, nrThreads, singlePrecision, MAX_BLOCK_SIZE);
+    }
+
+    /**
+     * Reads the samples of a file in the libSVM format into a matrix whose blocks hold at most the given number of
+     * features.
+     *
+     * @param fileName
+     *         The name of the file to read
+     * @param nrThreads
+     *         The number of threads to parse the file with
+     * @param singlePrecision
+     *         <em>true</em> to store the values of the features as float, <em>false</em> to store them as double
+     * @param blockSize
+     *         The maximum number of features stored in a block of the matrix unless a single chunk of the file holds
+     *         more
+     *
+     * @return The samples of the file
+     *
+     * @throws IOException
+     *         If the file could not be read or is not in the libSVM format
+     */
+    public static CompactProblem read(String fileName, int nrThreads, boolean singlePrecision, int blockSize)
+            throws IOException
+    {
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE)
+        {
+            throw new IllegalArgumentException("The size of a block has to be between 1 and " + MAX_BLOCK_SIZE);
+        }
+        nrThreads = Math.max(1, nrThreads);
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ))
+        {
+            List<Chunk> chunks = split(channel, nrThreads);
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(nrThreads, chunks.size())));
+            try
+            {
+                // first pass: count the samples and features of each chunk
+                List<Callable<Void>> tasks = new ArrayList<>();
+                for (Chunk chunk : chunks)
+                {
+                    tasks.add(() ->
+                              {
+                                  chunk.count();
+                                  return null;
+                              });
+                }
+                invoke(executor, tasks);
+
+                // group the chunks into blocks of consecutive rows whose features fit into arrays
+                List<Block> blocks = new ArrayList<>();
+                Block block = new Block(0);
+                blocks.add(block);
+                long rows = 0;
+                for (Chunk chunk : chunks)
+                {
+                    if (block.rows > 0 && (long) block.nnz + chunk.nnz > blockSize)
+                    {
+                        block = new Block((int) rows);
+                        blocks.add(block);
+                    }
+                    chunk.block = block;
+                    chunk.rowOffset = (int) rows;
+                    chunk.nnzOffset = block.nnz;
+                    block.rows += chunk.rows;
+                    block.nnz += chunk.nnz;
+                    rows += chunk.rows;
+                    if (rows > Integer.MAX_VALUE - 1)
+                    {
+                        throw new IOException("File " + fileName + " contains more samples than supported");
+                    }
+                }
+
+                // second pass: parse each chunk into its part of the arrays
+                double[] labels = new double[(int) rows];
+                for (Block b : blocks)
+                {
+                    b.allocate(singlePrecision);
+                }
+                tasks.clear();
+                for (Chunk chunk : chunks)
+                {
+                    tasks.add(() ->
+                              {
+                                  chunk.parse(labels);
+                                  return null;
+                              });
+                }
+                invoke(executor, tasks);
+
+                int maxIndex = 0;
+                for (Chunk chunk : chunks)
+                {
+                    maxIndex = Math.max(maxIndex, chunk.maxIndex);
+                }
+                CsrMatrix[] matrices = new CsrMatrix[blocks.size()];
+                for (int b = 0; b < matrices.length; b++)
+                {
+                    matrices[b] = blocks.get(b).toMatrix();
+                }
+                CsrMatrix matrix = matrices.length == 1 ? matrices[0] : new CsrMatrix(matrices);
+                return new CompactProblem(matrix, labels, maxIndex);
+            }
+            finally
+            {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Splits the file into chunks of roughly equal size which end directly after a line break (or at the end of the
+     * file).
+     */
+    private static List<Chunk> split(FileChannel channel, int nrThreads) throws IOException
+    {
+        long size = channel.size();
+        long chunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE, size / ((long) nrThreads * CHUNKS_PER_THREAD) + 1));
+        List<Chunk> chunks = new ArrayList<>();
+        ByteBuffer scan = ByteBuffer.allocate(4096);
+        long start = 0;
+        while (start < size)
+        {
+            long end = Math.min(size, start + chunkSize);
+            // move the end of the chunk behind the next line break
+            boolean found = end == size;
+            while (!found)
+            {
+                scan.clear();
+                int read = channel.read(scan, end);
+                if (read <= 0)
+                {
+                    end = size;
+                    break;
+                }
+                for (int i = 0; i < read; i++)
+                {
+                    if (scan.get(i) == '\n')
+                    {
+                        end += i + 1;
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found)
+                {
+                    end += read;
+                }
+            }
+            if (end - start > Integer.MAX_VALUE)
+            {
+                throw new IOException("Line starting at byte " + start + " exceeds the maximum supported length");
+            }
+            chunks.add(new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), start));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static void invoke(ExecutorService executor, List<Callable<Void>> tasks) throws IOException
+    {
+        try
+        {
+            for (Future<Void> future : executor.invokeAll(tasks))
+            {
+                future.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Reading the problem got interrupted", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Reading the problem failed", e.getCause());
+        }
+    }
+
+    /**
+     * Consecutive rows of the problem whose features are stored in arrays of their own.
+     */
+    private static class Block
+    {
+        /** The index of the first sample of this block within the whole problem **/
+        private final int firstRow;
+        /** The number of samples inside this block **/
+        private int rows;
+        /** The number of features inside this block **/
+        private int nnz;
+        /** The position of the first feature of each sample of this block followed by the number of features **/
+        private int[] rowPtr;
+        /** The feature indices of the samples of this block **/
+        private int[] indices;
+        /** The feature values or <em>null</em> if they are stored in single precision **/
+        private double[] values;
+        /** The feature values in single precision or <em>null</em> if they are stored in double precision **/
+        private float[] floatValues;
+
+        Block(int firstRow)
+        {
+            this.firstRow = firstRow;
+        }
+
+        void allocate(boolean singlePrecision)
+        {
+            this.rowPtr = new int[this.rows + 1];
+            this.rowPtr[this.rows] = this.nnz;
+            this.indices = new int[this.nnz];
+            this.values = singlePrecision ? null : new double[this.nnz];
+            this.floatValues = singlePrecision ? new float[this.nnz] : null;
+        }
+
+        CsrMatrix toMatrix()
+        {
+            return this.values != null ? new CsrMatrix(this.rowPtr, this.indices, this.values)
+                                       : new CsrMatrix(this.rowPtr, this.indices, this.floatValues);
+        }
+    }
+
+    /**
+     * A line aligned part of the mapped file.
+     */
+    private static class Chunk
+    {
+        /** The bytes of this chunk **/
+        private final MappedByteBuffer buf;
+        /** The position of this chunk inside the file, used for error messages **/
+        private final long fileOffset;
+        /** The number of samples inside this chunk **/
+        private int rows;
+        /** The number of features inside this chunk **/
+        private int nnz;
+        /** The block the samples of this chunk are stored in **/
+        private Block block;
+        /** The index of the first sample of this chunk within the whole problem **/
+        private int rowOffset;
+        /** The position of the first feature of this chunk within its block **/
+        private int nnzOffset;
+        /** The highest feature index of this chunk **/
+        private int maxIndex;
+        /** The current read position **/
+        private int pos;
+
+        Chunk(MappedByteBuffer buf, long fileOffset)
+        {
+            this.buf = buf;
+            this.fileOffset = fileOffset;
+        }
+
+        /**
+         * Counts the non-empty lines and the index:value pairs of this chunk.
+         */
+        void count()
+        {
+            int limit = this.buf.limit();
+            int rows = 0;
+            int nnz = 0;
+            boolean content = false;
+            for (int i = 0; i < limit; i++)
+            {
+                byte b = this.buf.get(i);
+                if (b == '\n')
+                {
+                    if (content)
+                    {
+                        rows++;
+                    }
+                    content = false;
+                }
+                else if (b == ':')
+                {
+                    nnz++;
+                }
+                else if (!isWhitespace(b))
+                {
+                    content = true;
+                }
+            }
+            if (content)
+            {
+                rows++;
+            }
+            this.rows = rows;
+            this.nnz = nnz;
+        }
+
+        /**
+         * Parses the samples of this chunk into the arrays of its block and their labels into the provided array
+         * starting at the offsets determined after counting.
+         */
+        void parse(double[] labels) throws IOException
+        {
+            int[] rowPtr = this.block.rowPtr;
+            int[] indices = this.block.indices;
+            double[] values = this.block.values;
+            float[] floatValues = this.block.floatValues;
+            int limit = this.buf.limit();
+            int row = this.rowOffset;
+            int k = this.nnzOffset;
+            int maxIndex = 0;
+            this.pos = 0;
+            while (true)
+            {
+                skipBlanks(limit);
+                if (this.pos >= limit)
+                {
+                    break;
+                }
+                if (isLineEnd(this.buf.get(this.pos)))
+                {
+                    // empty line
+                    this.pos++;
+                    continue;
+                }
+
+                labels[row] = parseDouble(limit);
+                rowPtr[row - this.block.firstRow] = k;
+                while (true)
+                {
+                    skipBlanks(limit);
+                    if (this.pos >= limit || isLineEnd(this.buf.get(this.pos)))
+                    {
+                        break;
+                    }
+                    int index = parseInt(limit);
+                    if (this.pos >= limit || this.buf.get(this.pos) != ':')
+                    {
+                        throw error("expected ':' after feature index");
+                    }
+                    this.pos++;
+                    indices[k] = index;
+                    if (values != null)
+                    {
+                        values[k] = parseDouble(limit);
+                    }
+                    else
+                    {
+                        floatValues[k] = (float) parseDouble(limit);
+                    }
+                    k++;
+                    if (index > maxIndex)
+                    {
+                        maxIndex = index;
+                    }
+                }
+                row++;
+            }
+            if (row - this.rowOffset != this.rows || k - this.nnzOffset != this.nnz)
+            {
+                throw error("unexpected number of samples or features");
+            }
+            this.maxIndex = maxIndex;
+        }
+
+        private void skipBlanks(int limit)
+        {
+            while (this.pos < limit)
+            {
+                byte b = this.buf.get(this.pos);
+                if (b != ' ' && b != '\t' && b != '\r' && b != '\f')
+                {
+                    break;
+                }
+                this.pos++;
+            }
+        }
+
+        private int parseInt(int limit) throws IOException
+        {
+            int start = this.pos;
+            long value = 0;
+            while (this.pos < limit)
+            {
+                int d = this.buf.get(this.pos) - '0';
+                if (d < 0 || d > 9)
+                {
+                    break;
+                }
+                value = value * 10 + d;
+                if (value > Integer.MAX_VALUE)
+                {
+                    throw error("feature index out of range");
+                }
+                this.pos++;
+            }
+            if (this.pos == start)
+            {
+                throw error("expected feature index");
+            }
+            return (int) value;
+        }
+
+        private double parseDouble(int limit) throws IOException
+        {
+            int start = this.pos;
+            boolean negative = false;
+            byte b = this.pos < limit ? this.buf.get(this.pos) : 0;
+            if (b == '-' || b == '+')
+            {
+                negative = b == '-';
+                this.pos++;
+            }
+
+            long mantissa = 0;
+            int digits = 0;
+            int exponent = 0;
+            boolean exact = true;
+            boolean seen = false;
+            boolean fraction = false;
+            while (this.pos < limit)
+            {
+                b = this.buf.get(this.pos);
+                if (b >= '0' && b <= '9')
+                {
+                    seen = true;
+                    if (mantissa != 0 || b != '0')
+                    {
+                        // 18 digits always fit into a long, while 19 digits may overflow it
+                        if (digits < 18)
+                        {
+                            mantissa = mantissa * 10 + (b - '0');
+                            digits++;
+                            if (fraction)
+                            {
+                                exponent--;
+                            }
+                        }
+                        else
+                        {
+                            // further digits are truncated, so the fast path is not exact anymore
+                            exact = false;
+                            if (!fraction)
+                            {
+                                exponent++;
+                            }
+                        }
+                    }
+                    else if (fraction)
+                    {
+                        // leading zeros of the fraction
+                        exponent--;
+                    }
+                }
+                else if (b == '.' && !fraction)
+                {
+                    fraction = true;
+                }
+                else
+                {
+                    break;
+                }
+                this.pos++;
+            }
+            if (seen && this.pos < limit && ((b = this.buf.get(this.pos)) == 'e' || b == 'E'))
+            {
+                this.pos++;
+                boolean negativeExponent = false;
+                if (this.pos < limit && ((b = this.buf.get(this.pos)) == '-' || b == '+'))
+                {
+                    negativeExponent = b == '-';
+                    this.pos++;
+                }
+                int expStart = this.pos;
+                int exp = 0;
+                while (this.pos < limit && (b = this.buf.get(this.pos)) >= '0' && b <= '9')
+                {
+                    if (exp < 100000)
+                    {
+                        exp = exp * 10 + (b - '0');
+                    }
+                    this.pos++;
+                }
+                if (this.pos == expStart)
+                {
+                    seen = false;
+                }
+                exponent += negativeExponent ? -exp : exp;
+            }
+
+            if (!seen || (this.pos < limit && !isDelimiter(this.buf.get(this.pos))))
+            {
+                return parseSlow(start, limit);
+            }
+            if (mantissa == 0)
+            {
+                return negative ? -0.0 : 0.0;
+            }
+            if (!exact || mantissa > (1L << 53) || exponent < -22 || exponent > 22)
+            {
+                return parseSlow(start, limit);
+            }
+            // both the mantissa and the power of ten are exact doubles, so a single operation rounds correctly
+            double value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+            return negative ? -value : value;
+        }
+
+        /**
+         * Parses the token starting at the given position via {@link Double#parseDouble(String)}.
+         */
+        private double parseSlow(int start, int limit) throws IOException
+        {
+            int end = start;
+            while (end < limit && !isDelimiter(this.buf.get(end)))
+            {
+                end++;
+            }
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++)
+            {
+                bytes[i] = this.buf.get(start + i);
+            }
+            this.pos = end;
+            try
+            {
+                return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+            }
+            catch (NumberFormatException e)
+            {
+                this.pos = start;
+                throw error("invalid number");
+            }
+        }
+
+        private IOException error(String message)
+        {
+            return new IOException("Wrong input format at byte " + (this.fileOffset + this.pos) + ": " + message);
+        }
+    }
+
+    private static boolean isLineEnd(byte b)
+    {
+        return b == '\n';
+    }
+
+    private static boolean isWhitespace(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == '\n';
+    }
+
+    private static boolean isDelimiter(byte b)
+    {
+        return isWhitespace(b) || b == ':';
+    }
+}
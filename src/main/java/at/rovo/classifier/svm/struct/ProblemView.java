@@ -0,0 +1,188 @@
+package at.rovo.classifier.svm.struct;
+
+import java.util.AbstractList;
+
+/**
+ * A read-only {@link Problem} which selects samples of a base problem by their index instead of copying them. The
+ * labels are either taken from the base problem or replaced by labels of the view, i.e. the +1/-1 labels of the
+ * pairwise problems of a multi-class training. The cross-validation folds and class pairs of a training therefore only
+ * cost an index per sample, and {@link #x} returns the same feature arrays as the base problem, so kernel values cached
+ * for the base problem are found for the samples of the view as well. A view on a {@link CompactProblem} or a
+ * {@link DenseProblem} refers to the rows of its matrix, see {@link #getRow(int)}.
+ * <p>
+ * A view of a view refers to the base problem of the inner view directly. On serialization a view is converted into a
+ * regular {@link Problem}.
+ *
+ * @author Roman Vottner
+ */
+public class ProblemView extends Problem
+{
+    /** Unique identifier necessary for serialization **/
+    private static final long serialVersionUID = 5109866317451874410L;
+
+    /** The problem holding the samples **/
+    private final Problem base;
+    /** The position of each sample of the view within the base problem **/
+    private final int[] index;
+    /** The labels replacing the labels of the base problem or <em>null</em> to use the labels of the base problem **/
+    private final double[] labels;
+
+    /**
+     * Creates a view on the given samples of a problem.
+     *
+     * @param base
+     *         The problem to select the samples from
+     * @param index
+     *         The positions of the selected samples within the base problem. The array is not copied
+     */
+    public ProblemView(Problem base, int[] index)
+    {
+        this(base, index, null);
+    }
+
+    /**
+     * Creates a view on the given samples of a problem with new labels.
+     *
+     * @param base
+     *         The problem to select the samples from
+     * @param index
+     *         The positions of the selected samples within the base problem. The array is not copied
+     * @param labels
+     *         The label of each selected sample or <em>null</em> to keep the labels of the base problem. The array is
+     *         not copied
+     */
+    public ProblemView(Problem base, int[] index, double[] labels)
+    {
+        if (labels != null && labels.length != index.length)
+        {
+            throw new IllegalArgumentException("A label is required for every selected sample");
+        }
+        if (base instanceof ProblemView)
+        {
+            ProblemView view = (ProblemView) base;
+            int[] resolved = new int[index.length];
+            double[] inherited = labels == null && view.labels != null ? new double[index.length] : null;
+            for (int i = 0; i < index.length; i++)
+            {
+                resolved[i] = view.index[index[i]];
+                if (inherited != null)
+                {
+                    inherited[i] = view.labels[index[i]];
+                }
+            }
+            base = view.base;
+            index = resolved;
+            labels = labels != null ? labels : inherited;
+        }
+
+        this.base = base;
+        this.index = index;
+        this.labels = labels;
+        this.numInstances = index.length;
+        this.maxIndex = base.maxIndex;
+        this.x = new AbstractList<Node[]>()
+        {
+            @Override
+            public Node[] get(int i)
+            {
+                return ProblemView.this.base.x.get(ProblemView.this.index[i]);
+            }
+
+            @Override
+            public int size()
+            {
+                return ProblemView.this.numInstances;
+            }
+        };
+        this.y = new AbstractList<Double>()
+        {
+            @Override
+            public Double get(int i)
+            {
+                return ProblemView.this.labels != null ? ProblemView.this.labels[i]
+                                                       : ProblemView.this.base.y.get(ProblemView.this.index[i]);
+            }
+
+            @Override
+            public int size()
+            {
+                return ProblemView.this.numInstances;
+            }
+        };
+    }
+
+    /**
+     * Creates a view on all samples of a permutation except the ones in the range [begin, end), which is the training
+     * set of a cross-validation fold.
+     *
+     * @param base
+     *         The problem to select the samples from
+     * @param perm
+     *         The permutation of the samples of the base problem
+     * @param begin
+     *         The position of the first sample within <em>perm</em> which is not part of the view
+     * @param end
+     *         The position after the last sample within <em>perm</em> which is not part of the view
+     *
+     * @return The view on the remaining samples in the order of the permutation
+     */
+    public static ProblemView without(Problem base, int[] perm, int begin, int end)
+    {
+        int[] index = new int[perm.length - (end - begin)];
+        System.arraycopy(perm, 0, index, 0, begin);
+        System.arraycopy(perm, end, index, begin, perm.length - end);
+        return new ProblemView(base, index);
+    }
+
+    /**
+     * Returns the problem holding the samples of this view.
+     *
+     * @return The base problem
+     */
+    public Problem getBase()
+    {
+        return this.base;
+    }
+
+    /**
+     * Returns the position of a sample of this view within the base problem.
+     *
+     * @param i
+     *         The position of the sample within this view
+     *
+     * @return The position of the sample within the base problem
+     */
+    public int baseIndex(int i)
+    {
+        return this.index[i];
+    }
+
+    @Override
+    public CsrMatrix getMatrix()
+    {
+        return this.base.getMatrix();
+    }
+
+    @Override
+    public DenseMatrix getDenseMatrix()
+    {
+        return this.base.getDenseMatrix();
+    }
+
+    @Override
+    public int getRow(int i)
+    {
+        return this.base.getRow(this.index[i]);
+    }
+
+    @Override
+    public void add(Double label, Node[] features)
+    {
+        throw new UnsupportedOperationException("Problem views can not be modified");
+    }
+
+    private Object writeReplace()
+    {
+        return copy();
+    }
+}
@@ -14,4 +14,15 @@ public abstract class QMatrix
     public abstract double[] get_QD();
 
     public abstract void swapIndex(int i, int j);
+
+    /**
+     * Writes the current values of the kernel and cache related counters into the provided metrics instance.
+     *
+     * @param metrics
+     *         The metrics to update
+     */
+    public void updateMetrics(SolverMetrics metrics)
+    {
+
+    }
 };
\ No newline at end of file
@@ -0,0 +1,458 @@
+package at.rovo.classifier.svm.struct;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scales every feature linearly into the range [lower, upper] like the svm-scale tool of libSVM does, but without
+ * writing a scaled copy of the data. A scaling is fitted in a single pass over a {@link Problem}, attached to a
+ * training via {@link Parameter#scaling} and stored together with the trained model, so predictions always use the
+ * scaling of the training.
+ * <p>
+ * Feature f of a sample is scaled to x'_f = a_f*x_f + b_f with a_f = (upper-lower)/(max_f-min_f) and b_f = lower -
+ * a_f*min_f, where the implicit zeros of a sparse sample are taken into account for the minimum and maximum of a
+ * feature. As b_f is usually non-zero, a scaled sample is dense. The kernel therefore never materializes scaled samples
+ * but evaluates
+ * <p>
+ * <code>x'^T y' = sum_f a_f^2*x_f*y_f + shift(x) + shift(y) + sum_f b_f^2</code> with <code>shift(x) = sum_f
+ * a_f*b_f*x_f</code>
+ * <p>
+ * on the sparse samples, where the first sum only covers the features set in both samples and the shift of a sample is
+ * computed once. Features with a single value and features unknown to the training are dropped, like svm-scale does.
+ *
+ * @author Roman Vottner
+ */
+public class Scaling implements Serializable
+{
+    /** Unique identifier necessary for serialization **/
+    private static final long serialVersionUID = -2315546710348721905L;
+
+    /** The lower bound of the scaled features **/
+    private final double lower;
+    /** The upper bound of the scaled features **/
+    private final double upper;
+    /** The minimum of each feature within the training data or <em>null</em> if the scaling is not fitted yet **/
+    private final double[] min;
+    /** The maximum of each feature within the training data or <em>null</em> if the scaling is not fitted yet **/
+    private final double[] max;
+    /** The factor a_f of each feature, which is 0 for dropped features **/
+    private final double[] scale;
+    /** The offset b_f of each feature, which is 0 for dropped features **/
+    private final double[] offset;
+    /** The factor a_f^2 of the products of two samples **/
+    private final double[] weight;
+    /** The factor a_f*b_f of the shift of a sample **/
+    private final double[] shiftWeight;
+    /** The sum of b_f^2 over all features **/
+    private final double constant;
+
+    /**
+     * Creates a scaling into the given range which still has to be fitted to the training data, see
+     * {@link #fit(Problem)}. A training fits an unfitted scaling of its parameters automatically.
+     *
+     * @param lower
+     *         The lower bound of the scaled features
+     * @param upper
+     *         The upper bound of the scaled features
+     */
+    public Scaling(double lower, double upper)
+    {
+        this(lower, upper, null, null);
+    }
+
+    /**
+     * Creates a scaling from the minimum and maximum of every feature, i.e. on loading a model.
+     *
+     * @param lower
+     *         The lower bound of the scaled features
+     * @param upper
+     *         The upper bound of the scaled features
+     * @param min
+     *         The minimum of each feature, indexed by the feature index. The array is not copied
+     * @param max
+     *         The maximum of each feature, indexed by the feature index. The array is not copied
+     */
+    public Scaling(double lower, double upper, double[] min, double[] max)
+    {
+        if (!(lower < upper))
+        {
+            throw new IllegalArgumentException("The lower bound of a scaling has to be less than its upper bound");
+        }
+        if ((min == null) != (max == null) || (min != null && min.length != max.length))
+        {
+            throw new IllegalArgumentException("A minimum and a maximum is required for every feature");
+        }
+        this.lower = lower;
+        this.upper = upper;
+        this.min = min;
+        this.max = max;
+
+        int n = min != null ? min.length : 0;
+        this.scale = new double[n];
+        this.offset = new double[n];
+        this.weight = new double[n];
+        this.shiftWeight = new double[n];
+        double sum = 0;
+        for (int f = 0; f < n; f++)
+        {
+            if (max[f] > min[f])
+            {
+                this.scale[f] = (upper - lower) / (max[f] - min[f]);
+                this.offset[f] = lower - this.scale[f] * min[f];
+                this.weight[f] = this.scale[f] * this.scale[f];
+                this.shiftWeight[f] = this.scale[f] * this.offset[f];
+                sum += this.offset[f] * this.offset[f];
+            }
+        }
+        this.constant = sum;
+    }
+
+    /**
+     * Determines the minimum and maximum of every feature of the problem in a single pass over its samples.
+     *
+     * @param prob
+     *         The training data
+     * @param lower
+     *         The lower bound of the scaled features
+     * @param upper
+     *         The upper bound of the scaled features
+     *
+     * @return The scaling fitted to the training data
+     */
+    public static Scaling fit(Problem prob, double lower, double upper)
+    {
+        return new Scaling(lower, upper).fit(prob);
+    }
+
+    /**
+     * Determines the minimum and maximum of every feature of the problem in a single pass over its samples and returns
+     * a scaling into the range of this instance.
+     *
+     * @param prob
+     *         The training data
+     *
+     * @return The scaling fitted to the training data
+     */
+    public Scaling fit(Problem prob)
+    {
+        int n = prob.getMaxIndex() + 1;
+        double[] featureMin = new double[n];
+        double[] featureMax = new double[n];
+        int[] count = new int[n];
+        Arrays.fill(featureMin, Double.POSITIVE_INFINITY);
+        Arrays.fill(featureMax, Double.NEGATIVE_INFINITY);
+        for (Node[] x : prob.x)
+        {
+            for (Node node : x)
+            {
+                if (node.index >= n)
+                {
+                    // the highest index is not maintained by problems assembled by hand
+                    int size = Math.max(node.index + 1, 2 * n);
+                    featureMin = Arrays.copyOf(featureMin, size);
+                    featureMax = Arrays.copyOf(featureMax, size);
+                    count = Arrays.copyOf(count, size);
+                    Arrays.fill(featureMin, n, size, Double.POSITIVE_INFINITY);
+                    Arrays.fill(featureMax, n, size, Double.NEGATIVE_INFINITY);
+                    n = size;
+                }
+                featureMin[node.index] = Math.min(featureMin[node.index], node.value);
+                featureMax[node.index] = Math.max(featureMax[node.index], node.value);
+                count[node.index]++;
+            }
+        }
+        int size = 0;
+        for (int f = 0; f < n; f++)
+        {
+            // samples which do not contain a feature have a value of 0
+            if (count[f] < prob.numInstances)
+            {
+                featureMin[f] = Math.min(featureMin[f], 0);
+                featureMax[f] = Math.max(featureMax[f], 0);
+            }
+            if (count[f] > 0)
+            {
+                size = f + 1;
+            }
+        }
+        return new Scaling(this.lower, this.upper, Arrays.copyOf(featureMin, size), Arrays.copyOf(featureMax, size));
+    }
+
+    /**
+     * Specifies whether the minimum and maximum of the features are known.
+     *
+     * @return <em>true</em> if the scaling can be applied
+     */
+    public boolean isFitted()
+    {
+        return this.min != null;
+    }
+
+    public double getLower()
+    {
+        return this.lower;
+    }
+
+    public double getUpper()
+    {
+        return this.upper;
+    }
+
+    /**
+     * Returns the minimum of every feature within the training data.
+     *
+     * @return The minimum of each feature indexed by the feature index or <em>null</em> if the scaling is not fitted
+     */
+    public double[] getMin()
+    {
+        return this.min != null ? this.min.clone() : null;
+    }
+
+    /**
+     * Returns the maximum of every feature within the training data.
+     *
+     * @return The maximum of each feature indexed by the feature index or <em>null</em> if the scaling is not fitted
+     */
+    public double[] getMax()
+    {
+        return this.max != null ? this.max.clone() : null;
+    }
+
+    /**
+     * Returns the factor a_f^2 a product of the values of a feature in two samples contributes to the dot product of
+     * the scaled samples with.
+     *
+     * @param index
+     *         The index of the feature
+     *
+     * @return The squared scale of the feature, which is 0 for dropped features
+     */
+    public double weight(int index)
+    {
+        return index < this.weight.length ? this.weight[index] : 0;
+    }
+
+    /**
+     * Returns the factor a_f*b_f the value of a feature contributes to the shift of a sample with.
+     *
+     * @param index
+     *         The index of the feature
+     *
+     * @return The factor of the feature within the shift, which is 0 for dropped features
+     */
+    public double shiftWeight(int index)
+    {
+        return index < this.shiftWeight.length ? this.shiftWeight[index] : 0;
+    }
+
+    /**
+     * Returns the part of the dot product of two scaled samples which does not depend on the samples.
+     *
+     * @return The sum of b_f^2 over all features
+     */
+    public double constant()
+    {
+        return this.constant;
+    }
+
+    /**
+     * Calculates the shift sum_f a_f*b_f*x_f of a sample, which is the part of the dot product with any other scaled
+     * sample that only depends on the given sample.
+     *
+     * @param x
+     *         The unscaled sample
+     *
+     * @return The shift of the sample
+     */
+    public double shift(Node[] x)
+    {
+        double sum = 0;
+        for (Node node : x)
+        {
+            sum += shiftWeight(node.index) * node.value;
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates the shift of a row of a sparse matrix.
+     *
+     * @param m
+     *         The matrix containing the unscaled sample
+     * @param row
+     *         The row of the sample
+     *
+     * @return The shift of the sample
+     */
+    public double shift(CsrMatrix m, int row)
+    {
+        double sum = 0;
+        CsrMatrix block = m.block(row);
+        int r = m.blockRow(row);
+        for (int k = block.start(r), end = block.end(r); k < end; k++)
+        {
+            sum += shiftWeight(block.index(k)) * block.value(k);
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates the dot product of two scaled samples from the unscaled samples.
+     *
+     * @param x
+     *         The first unscaled sample sorted in ascending order of its feature indices
+     * @param xShift
+     *         The shift of the first sample, see {@link #shift(Node[])}
+     * @param y
+     *         The second unscaled sample sorted in ascending order of its feature indices
+     * @param yShift
+     *         The shift of the second sample
+     *
+     * @return The dot product x'^T y' of the scaled samples
+     */
+    public double dot(Node[] x, double xShift, Node[] y, double yShift)
+    {
+        double sum = 0;
+        int xlen = x.length;
+        int ylen = y.length;
+        int i = 0;
+        int j = 0;
+        while (i < xlen && j < ylen)
+        {
+            if (x[i].index == y[j].index)
+            {
+                sum += weight(x[i].index) * x[i++].value * y[j++].value;
+            }
+            else if (x[i].index > y[j].index)
+            {
+                ++j;
+            }
+            else
+            {
+                ++i;
+            }
+        }
+        return sum + xShift + yShift + this.constant;
+    }
+
+    /**
+     * Calculates the dot product of two scaled samples from the unscaled samples.
+     *
+     * @param x
+     *         The first unscaled sample sorted in ascending order of its feature indices
+     * @param y
+     *         The second unscaled sample sorted in ascending order of its feature indices
+     *
+     * @return The dot product x'^T y' of the scaled samples
+     */
+    public double dot(Node[] x, Node[] y)
+    {
+        return dot(x, shift(x), y, shift(y));
+    }
+
+    /**
+     * Calculates the squared euclidean distance of two scaled samples from the unscaled samples. The offsets b_f cancel
+     * out, so the distance only depends on the features set in either of the samples.
+     *
+     * @param x
+     *         The first unscaled sample sorted in ascending order of its feature indices
+     * @param y
+     *         The second unscaled sample sorted in ascending order of its feature indices
+     *
+     * @return The squared distance |x' - y'|^2 of the scaled samples
+     */
+    public double squaredDistance(Node[] x, Node[] y)
+    {
+        double sum = 0;
+        int xlen = x.length;
+        int ylen = y.length;
+        int i = 0;
+        int j = 0;
+        while (i < xlen || j < ylen)
+        {
+            if (j >= ylen || (i < xlen && x[i].index < y[j].index))
+            {
+                sum += weight(x[i].index) * x[i].value * x[i].value;
+                ++i;
+            }
+            else if (i >= xlen || y[j].index < x[i].index)
+            {
+                sum += weight(y[j].index) * y[j].value * y[j].value;
+                ++j;
+            }
+            else
+            {
+                double d = x[i].value - y[j].value;
+                sum += weight(x[i].index) * d * d;
+                ++i;
+                ++j;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Scales a sample explicitly. The result contains every feature the scaling was fitted with except the ones which
+     * are scaled to 0, so it is usually dense. This is only required to inspect or export scaled samples, the kernel
+     * functions apply the scaling on the fly.
+     *
+     * @param x
+     *         The unscaled sample sorted in ascending order of its feature indices
+     *
+     * @return The scaled sample
+     */
+    public Node[] apply(Node[] x)
+    {
+        List<Node> scaled = new ArrayList<>();
+        int k = 0;
+        for (int f = 0; f < this.scale.length; f++)
+        {
+            while (k < x.length && x[k].index < f)
+            {
+                k++;
+            }
+            if (this.scale[f] == 0)
+            {
+                continue;
+            }
+            double value = k < x.length && x[k].index == f ? x[k].value : 0;
+            double v = this.scale[f] * value + this.offset[f];
+            if (v != 0)
+            {
+                Node node = new Node();
+                node.index = f;
+                node.value = v;
+                scaled.add(node);
+            }
+        }
+        return scaled.toArray(new Node[0]);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        if (!(obj instanceof Scaling))
+        {
+            return false;
+        }
+        Scaling other = (Scaling) obj;
+        return Double.compare(this.lower, other.lower) == 0 && Double.compare(this.upper, other.upper) == 0 &&
+               Arrays.equals(this.min, other.min) && Arrays.equals(this.max, other.max);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int hash = Double.hashCode(this.lower);
+        hash = 31 * hash + Double.hashCode(this.upper);
+        hash = 31 * hash + Arrays.hashCode(this.min);
+        hash = 31 * hash + Arrays.hashCode(this.max);
+        return hash;
+    }
+}
@@ -1,5 +1,7 @@
 package at.rovo.classifier.svm.struct;
 
+import at.rovo.classifier.svm.solver.SolverCheckpoint;
+
 /**
  * Information about solution except alpha
  *
@@ -16,4 +18,15 @@ public class SolutionInfo
     /** Upper bound for nu **/
     public double upper_bound_n;
     public double r; // for Solver_NU
+    public double[] w; // for LinearSolver
+    /** Metrics collected by the solver while computing this solution **/
+    public SolverMetrics metrics = new SolverMetrics();
+    /** Optional listener which is notified about the progress of the solver **/
+    public SolverListener listener;
+    /** The number of threads the solver may use to select the working set of large problems **/
+    public int nrThreads = 1;
+    /** Optional resource limits shared by all solver runs of a training **/
+    public TrainingBudget budget;
+    /** Optional checkpoint the solver periodically persists its state to and resumes from **/
+    public SolverCheckpoint checkpoint;
 }
@@ -0,0 +1,29 @@
+package at.rovo.classifier.svm.struct;
+
+/**
+ * Callback which gets notified about the progress of a solver run. The provided {@link SolverMetrics} instance is
+ * owned by the solver and updated in place, so listeners which want to keep a snapshot have to copy the values.
+ *
+ * @author Roman Vottner
+ */
+public interface SolverListener
+{
+    /**
+     * Invoked periodically (at most every 1000 iterations) while the solver is optimizing.
+     *
+     * @param metrics
+     *         The current metrics of the running solver
+     */
+    void progress(SolverMetrics metrics);
+
+    /**
+     * Invoked once the solver finished optimizing.
+     *
+     * @param metrics
+     *         The final metrics of the solver run
+     */
+    default void finished(SolverMetrics metrics)
+    {
+
+    }
+}
@@ -0,0 +1,109 @@
+package at.rovo.classifier.svm.struct;
+
+/**
+ * Counters collected while solving the dual optimization problem. The metrics cover the kernel cache (hits, misses,
+ * evictions and the amount of memory in use), the number of kernel evaluations as well as the progress of the SMO
+ * solver itself (iterations, shrinking and gradient reconstructions) and the time spent in its different phases.
+ * <p>
+ * A single instance describes one solver run. Metrics of multiple runs, f.e. of the k*(k-1)/2 binary problems of a
+ * multi-class model, can be accumulated via {@link #add(SolverMetrics)}.
+ *
+ * @author Roman Vottner
+ */
+public class SolverMetrics implements java.io.Serializable
+{
+    /** Unique identifier necessary for serialization **/
+    private static final long serialVersionUID = -2530427880434215711L;
+
+    /** The number of solver runs these metrics are based on **/
+    public int solverRuns;
+    /** The number of kernel columns which could be served completely from the cache **/
+    public long cacheHits;
+    /** The number of kernel columns which had to be (partly) computed **/
+    public long cacheMisses;
+    /** The number of kernel columns which were removed from the cache to free space **/
+    public long cacheEvictions;
+    /** The number of bytes occupied by kernel columns at the end of the solver run **/
+    public long bytesCached;
+    /** The maximum number of bytes occupied by kernel columns during the solver run **/
+    public long peakBytesCached;
+    /** The number of evaluated kernel functions K(x_i, x_j) **/
+    public long kernelEvaluations;
+    /** The number of SMO iterations **/
+    public long iterations;
+    /** The number of times the shrinking heuristic was applied **/
+    public long shrinkingEvents;
+    /** The number of variables removed from the active set by the shrinking heuristic **/
+    public long shrunkVariables;
+    /** The number of times the gradient of inactive variables had to be reconstructed **/
+    public long gradientReconstructions;
+    /** Time in nanoseconds spent on initializing the gradient **/
+    public long initializationTime;
+    /** Time in nanoseconds spent in the main optimization loop, including shrinking and reconstruction **/
+    public long optimizationTime;
+    /** Time in nanoseconds spent on shrinking the active set **/
+    public long shrinkingTime;
+    /** Time in nanoseconds spent on reconstructing the gradient **/
+    public long reconstructionTime;
+    /** Total time in nanoseconds spent in the solver **/
+    public long totalTime;
+    /** The number of solver runs stopped by a training budget or the iteration limit before reaching the tolerance **/
+    public int stoppedRuns;
+
+    /**
+     * Returns the ratio of kernel column requests which could be answered by the cache.
+     *
+     * @return The cache hit ratio in the range of [0, 1]
+     */
+    public double getCacheHitRatio()
+    {
+        long requests = this.cacheHits + this.cacheMisses;
+        return requests == 0 ? 0 : (double) this.cacheHits / requests;
+    }
+
+    /**
+     * Accumulates the values of an other metrics instance into this instance. Counters and timings are summed up while
+     * the peak cache usage is the maximum of both instances.
+     *
+     * @param other
+     *         The metrics to add to this instance
+     */
+    public void add(SolverMetrics other)
+    {
+        if (other == null)
+        {
+            return;
+        }
+        this.solverRuns += other.solverRuns;
+        this.cacheHits += other.cacheHits;
+        this.cacheMisses += other.cacheMisses;
+        this.cacheEvictions += other.cacheEvictions;
+        this.bytesCached += other.bytesCached;
+        this.peakBytesCached = Math.max(this.peakBytesCached, other.peakBytesCached);
+        this.kernelEvaluations += other.kernelEvaluations;
+        this.iterations += other.iterations;
+        this.shrinkingEvents += other.shrinkingEvents;
+        this.shrunkVariables += other.shrunkVariables;
+        this.gradientReconstructions += other.gradientReconstructions;
+        this.initializationTime += other.initializationTime;
+        this.optimizationTime += other.optimizationTime;
+        this.shrinkingTime += other.shrinkingTime;
+        this.reconstructionTime += other.reconstructionTime;
+        this.totalTime += other.totalTime;
+        this.stoppedRuns += other.stoppedRuns;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SolverMetrics[runs=" + solverRuns + ", iterations=" + iterations + ", kernelEvaluations=" +
+               kernelEvaluations + ", cacheHits=" + cacheHits + ", cacheMisses=" + cacheMisses + ", cacheEvictions=" +
+               cacheEvictions + ", bytesCached=" + bytesCached + ", peakBytesCached=" + peakBytesCached +
+               ", shrinkingEvents=" + shrinkingEvents + ", shrunkVariables=" + shrunkVariables +
+               ", gradientReconstructions=" + gradientReconstructions + ", initializationTime=" +
+               initializationTime / 1000000 + "ms, optimizationTime=" + optimizationTime / 1000000 +
+               "ms, shrinkingTime=" + shrinkingTime / 1000000 + "ms, reconstructionTime=" +
+               reconstructionTime / 1000000 + "ms, totalTime=" + totalTime / 1000000 + "ms, stoppedRuns=" +
+               stoppedRuns + "]";
+    }
+}
@@ -0,0 +1,150 @@
+package at.rovo.classifier.svm.struct;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the resources a training may spend in its solvers. The budget is shared by all solver runs of a training,
+ * i.e. by the k*(k-1)/2 binary problems of a multi-class model or the folds of the probability estimation, and may
+ * limit the wall-clock time, the number of solver iterations and the number of kernel evaluations. A limit of 0 is
+ * unlimited.
+ * <p>
+ * Solvers check the budget periodically, i.e. every 100 iterations or after each pass of the linear solver. Once it
+ * is exhausted, the running solver stops and returns its current solution, which is feasible but not optimal, and all
+ * remaining solver runs return their starting point. The training therefore yields the best model reachable within
+ * the budget instead of failing.
+ * The number of solver runs stopped early is reported by {@link SolverMetrics#stoppedRuns}.
+ * <p>
+ * A budget is consumed by every training it is passed to until it gets {@link #reset()}, so a single budget can limit a
+ * sequence of trainings as a whole or be reset before each of them.
+ * <p>
+ * This class is thread-safe, so solver runs executed in parallel can consume the same budget.
+ *
+ * @author Roman Vottner
+ */
+public class TrainingBudget
+{
+    /** The maximum wall-clock time in nanoseconds **/
+    private long maxTime;
+    /** The maximum number of solver iterations **/
+    private long maxIterations;
+    /** The maximum number of kernel evaluations **/
+    private long maxKernelEvaluations;
+
+    /** The point in time (see {@link System#nanoTime()}) the budget got started at **/
+    private volatile long startTime;
+    private volatile boolean started;
+    /** The iterations consumed so far **/
+    private final AtomicLong iterations = new AtomicLong();
+    /** The kernel evaluations consumed so far **/
+    private final AtomicLong kernelEvaluations = new AtomicLong();
+
+    /**
+     * Limits the wall-clock time of the training, which is measured from the first {@link #start()}.
+     *
+     * @param time
+     *         The maximum time or 0 for no limit
+     * @param unit
+     *         The unit of the time
+     */
+    public void setMaxTime(long time, TimeUnit unit)
+    {
+        this.maxTime = unit.toNanos(time);
+    }
+
+    /**
+     * Limits the number of iterations of all solver runs.
+     *
+     * @param maxIterations
+     *         The maximum number of iterations or 0 for no limit
+     */
+    public void setMaxIterations(long maxIterations)
+    {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Limits the number of kernel evaluations of all solver runs. Values read from a shared kernel cache are not
+     * counted.
+     *
+     * @param maxKernelEvaluations
+     *         The maximum number of kernel evaluations or 0 for no limit
+     */
+    public void setMaxKernelEvaluations(long maxKernelEvaluations)
+    {
+        this.maxKernelEvaluations = maxKernelEvaluations;
+    }
+
+    /**
+     * Starts measuring the wall-clock time. Subsequent invocations have no effect, so the time limit applies to the
+     * whole training.
+     */
+    public synchronized void start()
+    {
+        if (!this.started)
+        {
+            this.startTime = System.nanoTime();
+            this.started = true;
+        }
+    }
+
+    /**
+     * Discards the consumed resources and the start time, so the limits apply again from the next {@link #start()}.
+     */
+    public synchronized void reset()
+    {
+        this.started = false;
+        this.startTime = 0;
+        this.iterations.set(0);
+        this.kernelEvaluations.set(0);
+    }
+
+    /**
+     * Adds the resources used by a solver since its last report and checks whether the budget is exhausted.
+     *
+     * @param iterations
+     *         The number of iterations performed since the last report
+     * @param kernelEvaluations
+     *         The number of kernel evaluations performed since the last report
+     *
+     * @return <em>true</em> if the solver has to stop
+     */
+    public boolean consume(long iterations, long kernelEvaluations)
+    {
+        this.iterations.addAndGet(iterations);
+        this.kernelEvaluations.addAndGet(kernelEvaluations);
+        return isExhausted();
+    }
+
+    /**
+     * Checks whether any of the limits is reached.
+     *
+     * @return <em>true</em> if the training has to stop
+     */
+    public boolean isExhausted()
+    {
+        return (this.maxIterations > 0 && this.iterations.get() >= this.maxIterations) ||
+               (this.maxKernelEvaluations > 0 && this.kernelEvaluations.get() >= this.maxKernelEvaluations) ||
+               (this.maxTime > 0 && this.started && System.nanoTime() - this.startTime >= this.maxTime);
+    }
+
+    /**
+     * Returns the number of solver iterations consumed so far.
+     *
+     * @return The consumed iterations
+     */
+    public long getIterations()
+    {
+        return this.iterations.get();
+    }
+
+    /**
+     * Returns the number of kernel evaluations consumed so far.
+     *
+     * @return The consumed kernel evaluations
+     */
+    public long getKernelEvaluations()
+    {
+        return this.kernelEvaluations.get();
+    }
+}
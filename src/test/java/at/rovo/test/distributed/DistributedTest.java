@@ -0,0 +1,324 @@
+package at.rovo.test.distributed;
+
+import at.rovo.classifier.dataset.ArffDataSet;
+import at.rovo.classifier.dataset.DataSet;
+import at.rovo.classifier.decissionTrees.c45.CrossValidator;
+import at.rovo.classifier.distributed.Coordinator;
+import at.rovo.classifier.distributed.Worker;
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import at.rovo.classifier.svm.struct.Scaling;
+import at.rovo.test.svm.Samples;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DistributedTest
+{
+    private static final int NR_FOLD = 5;
+
+    private Worker first;
+    private Worker second;
+
+    @Before
+    public void startWorkers() throws IOException
+    {
+        this.first = new Worker(0);
+        this.second = new Worker(0);
+        new Thread(this.first).start();
+        new Thread(this.second).start();
+    }
+
+    @After
+    public void stopWorkers() throws IOException
+    {
+        this.first.close();
+        this.second.close();
+    }
+
+    private static InetSocketAddress address(int port)
+    {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Creates samples of two overlapping clusters whose label is -1 or 1.
+     */
+    private static Problem problem()
+    {
+        Random random = new Random(1);
+        Problem prob = new Problem();
+        for (int i = 0; i < 300; i++)
+        {
+            double label = i % 2 == 0 ? 1 : -1;
+            prob.add(label, Samples.sample(label + random.nextGaussian(), 10 * random.nextGaussian()));
+        }
+        return prob;
+    }
+
+    /**
+     * Returns parameters which use every optional part of the parameters a worker receives.
+     */
+    private static Parameter parameter()
+    {
+        Parameter param = Samples.rbf(0.5);
+        param.nrWeight = 1;
+        param.weightLabel = new int[] { 1 };
+        param.weight = new double[] { 2 };
+        param.scaling = new Scaling(-1, 1);
+        return param;
+    }
+
+    /**
+     * Assigns instance i to fold i % NR_FOLD.
+     */
+    private static int[] perm(int l, int[] fold_start)
+    {
+        int[] perm = new int[l];
+        int j = 0;
+        for (int fold = 0; fold < NR_FOLD; fold++)
+        {
+            fold_start[fold] = j;
+            for (int i = fold; i < l; i += NR_FOLD)
+            {
+                perm[j++] = i;
+            }
+        }
+        fold_start[NR_FOLD] = l;
+        return perm;
+    }
+
+    private static double[] crossValidate(Problem prob, Parameter param, Coordinator coordinator)
+    {
+        int[] fold_start = new int[NR_FOLD + 1];
+        int[] perm = perm(prob.numInstances, fold_start);
+        if (coordinator != null)
+        {
+            return coordinator.crossValidate(prob, perm, fold_start, new Parameter[] {param},
+                                             new double[] {param.C}, false)[0][0];
+        }
+        double[] target = new double[prob.numInstances];
+        SVM svm = new SVM(param, prob);
+        for (int fold = 0; fold < NR_FOLD; fold++)
+        {
+            svm.trainFold(param, perm, fold_start, fold, target, null);
+        }
+        return target;
+    }
+
+    @Test
+    public void testSVMCrossValidationEqualsLocal() throws IOException
+    {
+        Problem prob = problem();
+        List<InetSocketAddress> workers = Arrays.asList(address(this.first.getPort()), address(this.second.getPort()));
+        try (Coordinator coordinator = new Coordinator(workers))
+        {
+            double[] expected = crossValidate(prob, parameter(), null);
+            Assert.assertTrue(Arrays.equals(expected, crossValidate(prob, parameter(), coordinator)));
+            // the connections are reused by the next cross-validation
+            Assert.assertTrue(Arrays.equals(expected, crossValidate(prob, parameter(), coordinator)));
+        }
+    }
+
+    @Test
+    public void testRequestedResourcesAreLimited() throws IOException
+    {
+        Problem prob = problem();
+        Parameter excessive = parameter();
+        excessive.nrThreads = Integer.MAX_VALUE;
+        excessive.cache_size = Double.MAX_VALUE;
+        // requests within the limits are kept
+        Parameter limited = parameter();
+        this.first.setMaxCacheSize(limited.cache_size);
+        this.first.limit(limited);
+        Assert.assertEquals(parameter().nrThreads, limited.nrThreads);
+        Assert.assertEquals(parameter().cache_size, limited.cache_size, 0.);
+
+        this.first.setMaxCacheSize(1);
+        this.second.setMaxCacheSize(1);
+        limited = (Parameter) excessive.clone();
+        this.first.limit(limited);
+        Assert.assertEquals(Runtime.getRuntime().availableProcessors(), limited.nrThreads);
+        Assert.assertEquals(1, limited.cache_size, 0.);
+
+        List<InetSocketAddress> workers = Arrays.asList(address(this.first.getPort()), address(this.second.getPort()));
+        try (Coordinator coordinator = new Coordinator(workers))
+        {
+            Assert.assertTrue(Arrays.equals(crossValidate(prob, parameter(), null),
+                                            crossValidate(prob, excessive, coordinator)));
+        }
+    }
+
+    @Test
+    public void testC45CrossValidationEqualsLocal() throws Exception
+    {
+        DataSet dataSet = new ArffDataSet(getClass().getResource("/iris.arff").toURI().getPath());
+        String[][] data = dataSet.getTrainData().clone();
+        int[] start = new int[NR_FOLD];
+        int[] testSize = new int[NR_FOLD];
+        for (int fold = 0; fold < NR_FOLD; fold++)
+        {
+            start[fold] = fold * data.length / NR_FOLD;
+            testSize[fold] = (fold + 1) * data.length / NR_FOLD - start[fold];
+        }
+        List<InetSocketAddress> workers = Arrays.asList(address(this.first.getPort()), address(this.second.getPort()));
+        try (Coordinator coordinator = new Coordinator(workers))
+        {
+            int[][] results = coordinator.crossValidate(dataSet, data, start, testSize);
+            for (int fold = 0; fold < NR_FOLD; fold++)
+            {
+                Assert.assertArrayEquals(CrossValidator.validateFold(dataSet, data, start[fold], testSize[fold]),
+                                         results[fold]);
+            }
+            CrossValidator validator = new CrossValidator(dataSet, NR_FOLD, coordinator);
+            Assert.assertEquals(NR_FOLD, validator.getTestErrorRatios().length);
+        }
+    }
+
+    @Test
+    public void testFoldOfLostWorkerIsRequeued() throws IOException, InterruptedException
+    {
+        Problem prob = problem();
+        CountDownLatch lost = new CountDownLatch(1);
+        // the connection breaks while the first worker trains its first fold, and the second worker only starts once
+        // this fold is lost
+        try (Proxy dying = new Proxy(this.first.getPort(), 2, null, lost);
+             Proxy delayed = new Proxy(this.second.getPort(), Long.MAX_VALUE, lost, null);
+             Coordinator coordinator = new Coordinator(Arrays.asList(address(dying.getPort()),
+                                                                     address(delayed.getPort()))))
+        {
+            double[] target = crossValidate(prob, parameter(), coordinator);
+            Assert.assertEquals(0, lost.getCount());
+            Assert.assertTrue(Arrays.equals(crossValidate(prob, parameter(), null), target));
+        }
+    }
+
+    /**
+     * Forwards a single connection to a worker. The answers of the worker are held back after the answer of the
+     * handshake until a latch is released, and the connection is broken once a limit of forwarded bytes is reached.
+     */
+    private static class Proxy implements AutoCloseable
+    {
+        private final ServerSocket serverSocket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+        private final int workerPort;
+        private final long limit;
+        private final CountDownLatch gate;
+        private final CountDownLatch broken;
+        private volatile Socket coordinator;
+        private volatile Socket worker;
+
+        Proxy(int workerPort, long limit, CountDownLatch gate, CountDownLatch broken) throws IOException
+        {
+            this.workerPort = workerPort;
+            this.limit = limit;
+            this.gate = gate;
+            this.broken = broken;
+            new Thread(this::accept).start();
+        }
+
+        int getPort()
+        {
+            return this.serverSocket.getLocalPort();
+        }
+
+        private void accept()
+        {
+            try
+            {
+                this.coordinator = this.serverSocket.accept();
+                this.worker = new Socket(InetAddress.getLoopbackAddress(), this.workerPort);
+                Thread requests = new Thread(() -> copy(this.coordinator, this.worker));
+                requests.start();
+                answer();
+            }
+            catch (IOException | InterruptedException e)
+            {
+                // the proxy was closed
+            }
+            finally
+            {
+                close();
+            }
+        }
+
+        private void answer() throws IOException, InterruptedException
+        {
+            InputStream in = new BufferedInputStream(this.worker.getInputStream());
+            OutputStream out = new BufferedOutputStream(this.coordinator.getOutputStream());
+            long forwarded = 0;
+            int b;
+            while ((b = in.read()) >= 0)
+            {
+                if (forwarded == 1 && this.gate != null)
+                {
+                    this.gate.await();
+                }
+                if (forwarded == this.limit)
+                {
+                    close();
+                    this.broken.countDown();
+                    return;
+                }
+                out.write(b);
+                forwarded++;
+                if (in.available() == 0)
+                {
+                    out.flush();
+                }
+            }
+        }
+
+        private static void copy(Socket from, Socket to)
+        {
+            try
+            {
+                InputStream in = from.getInputStream();
+                OutputStream out = to.getOutputStream();
+                byte[] buffer = new byte[1 << 16];
+                int n;
+                while ((n = in.read(buffer)) >= 0)
+                {
+                    out.write(buffer, 0, n);
+                }
+            }
+            catch (IOException e)
+            {
+                // the connection is broken
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            for (AutoCloseable closeable : new AutoCloseable[] { this.serverSocket, this.coordinator, this.worker })
+            {
+                try
+                {
+                    if (closeable != null)
+                    {
+                        closeable.close();
+                    }
+                }
+                catch (Exception e)
+                {
+                    // already closed
+                }
+            }
+        }
+    }
+}
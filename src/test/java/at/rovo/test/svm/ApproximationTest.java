@@ -0,0 +1,179 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.Model;
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.SVMType;
+import at.rovo.classifier.svm.approximation.RandomFourierFeatures;
+import at.rovo.classifier.svm.struct.CsrMatrix;
+import at.rovo.classifier.svm.struct.DenseMatrix;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import java.util.Collections;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ApproximationTest
+{
+    private static Node[] sample(int[] index, double... value)
+    {
+        Node[] x = new Node[index.length];
+        for (int d = 0; d < index.length; d++)
+        {
+            x[d] = new Node();
+            x[d].index = index[d];
+            x[d].value = value[d];
+        }
+        return x;
+    }
+
+    private static String toString(Node[] x)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (Node n : x)
+        {
+            builder.append(n.index).append(':').append(n.value).append(' ');
+        }
+        return builder.toString();
+    }
+
+    private static double dot(Node[] x, Node[] y)
+    {
+        double sum = 0;
+        for (int d = 0; d < x.length; d++)
+        {
+            sum += x[d].value * y[d].value;
+        }
+        return sum;
+    }
+
+    /**
+     * Creates samples of two overlapping clusters, whose label is -1 or 1, or the first feature for regression.
+     */
+    private static Problem problem(long seed, boolean regression)
+    {
+        Problem prob = Samples.clusters(seed, 200, 1, 1, -1);
+        if (regression)
+        {
+            for (int i = 0; i < prob.numInstances; i++)
+            {
+                prob.y.set(i, Math.sin(prob.x.get(i)[0].value));
+            }
+        }
+        return prob;
+    }
+
+    private static double error(Model model, Problem prob, boolean regression)
+    {
+        double error = 0;
+        for (int i = 0; i < prob.numInstances; i++)
+        {
+            double predicted = model.predict(prob.x.get(i));
+            double target = prob.y.get(i);
+            error += regression ? (predicted - target) * (predicted - target) : predicted != target ? 1 : 0;
+        }
+        return error / prob.numInstances;
+    }
+
+    private static Parameter parameter(SVMType svmType, int approximation)
+    {
+        Parameter param = Samples.rbf(0.5);
+        param.svmType = svmType;
+        param.approximation = approximation;
+        param.approximationSize = 300;
+        return param;
+    }
+
+    @Test
+    public void testDenseMatrixSpreadsRowsOverChunks()
+    {
+        // two rows of three values fit into a chunk of seven values
+        DenseMatrix matrix = new DenseMatrix(5, 3, 7);
+        for (int i = 0; i < matrix.rows(); i++)
+        {
+            for (int d = 0; d < matrix.columns(); d++)
+            {
+                matrix.chunk(i)[matrix.offset(i) + d] = 10 * i + d;
+            }
+        }
+
+        Assert.assertTrue(matrix.chunk(1) == matrix.chunk(0));
+        Assert.assertTrue(matrix.chunk(2) != matrix.chunk(1));
+        Assert.assertEquals(matrix.columns(), matrix.chunk(4).length);
+        Node[] row = matrix.getRow(3);
+        Assert.assertEquals(3, row.length);
+        Assert.assertEquals(1, row[0].index);
+        Assert.assertEquals(3, row[2].index);
+        Assert.assertEquals(32, row[2].value, 0);
+        Assert.assertEquals(10 * 40 + 11 * 41 + 12 * 42, matrix.dot(1, 4), 0);
+
+        CsrMatrix selected = matrix.toCsrMatrix(new int[] { 4, 0 }, true);
+        Assert.assertEquals(2, selected.rows());
+        Assert.assertEquals(toString(matrix.getRow(4)), toString(selected.getRow(0)));
+        Assert.assertEquals(toString(matrix.getRow(0)), toString(selected.getRow(1)));
+    }
+
+    @Test
+    public void testRandomFourierFeaturesApproximateTheKernelOfUnseenFeatures()
+    {
+        int[] seen = new int[] { 1, 5 };
+        int[] unseen = new int[] { 1, Integer.MAX_VALUE - 1 };
+        RandomFourierFeatures features = new RandomFourierFeatures(
+                Collections.singletonList(sample(seen, 1, 1)), 20000, 0.5, new Random(3));
+
+        Node[] x = sample(unseen, 0.2, 0.5);
+        Node[] y = sample(unseen, -0.3, 1.2);
+        // the random direction of a feature index is the same whenever it is drawn
+        Assert.assertEquals(toString(features.map(x)), toString(features.map(x)));
+        double expected = Math.exp(-0.5 * (0.5 * 0.5 + 0.7 * 0.7));
+        Assert.assertEquals(expected, dot(features.map(x), features.map(y)), 0.03);
+
+        Node[] u = sample(seen, 0.2, 0.5);
+        Node[] v = sample(seen, -0.3, 1.2);
+        Assert.assertEquals(expected, dot(features.map(u), features.map(v)), 0.03);
+        // features of different indices are independent
+        Assert.assertEquals(Math.exp(-0.5 * 2 * 0.5 * 0.5), dot(features.map(sample(new int[] { 5 }, 0.5)),
+                                                                features.map(sample(new int[] { 6 }, 0.5))), 0.03);
+    }
+
+    private static void assertApproximated(SVMType svmType, int approximation, boolean regression, double tolerance)
+    {
+        Problem train = problem(1, regression);
+        Problem test = problem(2, regression);
+        Model exact = new SVM(parameter(svmType, 0), train).getTrainedModel();
+        Parameter param = parameter(svmType, approximation);
+        Model approximated = new SVM(param, train).getTrainedModel();
+        param = parameter(svmType, approximation);
+        param.singlePrecision = 1;
+        Model singlePrecision = new SVM(param, train).getTrainedModel();
+
+        Assert.assertNotNull(approximated.getFeatureMap());
+        Assert.assertEquals(error(exact, test, regression), error(approximated, test, regression), tolerance);
+        Assert.assertEquals(error(exact, test, regression), error(singlePrecision, test, regression), tolerance);
+    }
+
+    @Test
+    public void testLinearSolverOnRandomFourierFeatures()
+    {
+        assertApproximated(SVMType.C_SVC, 1, false, 0.03);
+    }
+
+    @Test
+    public void testLinearSolverOnNystroemFeatures()
+    {
+        assertApproximated(SVMType.C_SVC, 2, false, 0.03);
+    }
+
+    @Test
+    public void testRegressionOnRandomFourierFeatures()
+    {
+        assertApproximated(SVMType.EPSILON_SVR, 1, true, 0.01);
+    }
+
+    @Test
+    public void testRegressionOnNystroemFeatures()
+    {
+        assertApproximated(SVMType.EPSILON_SVR, 2, true, 0.01);
+    }
+}
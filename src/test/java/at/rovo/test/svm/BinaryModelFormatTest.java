@@ -0,0 +1,306 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.Model;
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.SVMType;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import at.rovo.classifier.svm.struct.Scaling;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BinaryModelFormatTest
+{
+    /** The positions returned by {@link #layout(ByteBuffer)} **/
+    private static final int NR_SV = 0;
+    private static final int ROW_PTR = 1;
+    private static final int SCALING = 2;
+    private static final int END = 3;
+
+    private final List<File> files = new ArrayList<>();
+
+    @After
+    public void deleteFiles()
+    {
+        for (File file : this.files)
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * Creates samples of three overlapping clusters, where the label of a regression is the sum of the features.
+     */
+    private static Problem problem(boolean regression)
+    {
+        Problem prob = Samples.shifted(5, 150, 3, 2);
+        if (regression)
+        {
+            for (int i = 0; i < prob.numInstances; i++)
+            {
+                double sum = 0;
+                for (Node n : prob.x.get(i))
+                {
+                    sum += n.value;
+                }
+                prob.y.set(i, sum);
+            }
+        }
+        return prob;
+    }
+
+    private File save(Model model) throws IOException
+    {
+        File file = File.createTempFile("model", ".bin");
+        this.files.add(file);
+        model.saveBinary(file.getAbsolutePath());
+        return file;
+    }
+
+    private static void assertSameModel(Model expected, Model actual, Problem prob)
+    {
+        Assert.assertEquals(expected.getSVMType(), actual.getSVMType());
+        Assert.assertEquals(expected.getNrClass(), actual.getNrClass());
+        Assert.assertEquals(expected.getNrSV(), actual.getNrSV());
+        Assert.assertEquals(expected.isOneVsRest(), actual.isOneVsRest());
+        Assert.assertEquals(expected.checkProbabilityModel(), actual.checkProbabilityModel());
+        int nrClass = expected.getNrClass();
+        double[] expectedProb = new double[nrClass];
+        double[] actualProb = new double[nrClass];
+        for (Node[] x : prob.x)
+        {
+            Assert.assertEquals(expected.predict(x), actual.predict(x), 0.);
+            if (expected.checkProbabilityModel() == 1 && !SVMType.EPSILON_SVR.equals(expected.getSVMType()))
+            {
+                Assert.assertEquals(expected.predictProbability(x, expectedProb),
+                                    actual.predictProbability(x, actualProb), 0.);
+                for (int c = 0; c < nrClass; c++)
+                {
+                    Assert.assertEquals(expectedProb[c], actualProb[c], 0.);
+                }
+            }
+        }
+        if (SVMType.EPSILON_SVR.equals(expected.getSVMType()))
+        {
+            Assert.assertEquals(expected.getSVRProbability(), actual.getSVRProbability(), 0.);
+        }
+    }
+
+    /**
+     * Walks the sections of a binary model as they are documented and checks that every section starts at a multiple
+     * of 8.
+     *
+     * @return The position of the number of support vectors per class, the offsets of the rows, the scaling and the
+     *         end of the model
+     */
+    private static long[] layout(ByteBuffer buf)
+    {
+        int k = buf.getInt(20);
+        int l = buf.getInt(24);
+        int flags = buf.getInt(28);
+        long nnz = buf.getLong(48);
+        // the flags as they are assigned by the format
+        boolean oneVsRest = (flags & 1 << 5) != 0;
+        long pairs = oneVsRest ? k : k * (k - 1) / 2;
+        int valueSize = (flags & 1 << 7) != 0 ? 4 : 8;
+        long[] positions = new long[4];
+
+        long pos = section(56, pairs * 8);
+        pos = (flags & 1) != 0 ? section(pos, pairs * 8) : pos;
+        pos = (flags & 1 << 1) != 0 ? section(pos, pairs * 8) : pos;
+        pos = (flags & 1 << 2) != 0 ? section(pos, k * 4L) : pos;
+        positions[NR_SV] = pos;
+        pos = (flags & 1 << 3) != 0 ? section(pos, k * 4L) : pos;
+        pos = (flags & 1 << 4) != 0 ? section(pos, l * 4L) : pos;
+        pos = section(pos, (oneVsRest ? k : k - 1) * l * 8L);
+        pos = section(pos, nnz * valueSize);
+        positions[ROW_PTR] = pos;
+        pos = section(pos, (l + 1) * 4L);
+        pos = section(pos, nnz * 4);
+        positions[SCALING] = pos;
+        if ((flags & 1 << 6) != 0)
+        {
+            pos = section(pos, 24 + buf.getLong((int) pos + 16) * 16);
+        }
+        if ((flags & 1 << 8) != 0)
+        {
+            pos = section(pos, 8 + l * 16L);
+        }
+        positions[END] = pos;
+        return positions;
+    }
+
+    private static long section(long pos, long length)
+    {
+        Assert.assertEquals(0, pos % 8);
+        return (pos + length + 7) & ~7L;
+    }
+
+    private static ByteBuffer read(File file) throws IOException
+    {
+        return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Checks that the rows of the support vectors cover their features at the documented position and that the model
+     * ends where the documented sections end.
+     */
+    private static void assertLayout(File file) throws IOException
+    {
+        ByteBuffer buf = read(file);
+        long[] positions = layout(buf);
+        int l = buf.getInt(24);
+        Assert.assertEquals(0, buf.getInt((int) positions[ROW_PTR]));
+        Assert.assertEquals(buf.getLong(48), buf.getInt((int) positions[ROW_PTR] + 4 * l));
+        Assert.assertEquals(buf.capacity(), positions[END]);
+    }
+
+    private Model assertRoundTrip(Parameter param, boolean regression) throws IOException
+    {
+        Problem prob = problem(regression);
+        SVM.rand.setSeed(42);
+        Model model = new SVM(param, prob).getTrainedModel();
+        File file = save(model);
+        assertLayout(file);
+        Model loaded = Model.loadBinary(file.getAbsolutePath());
+        assertSameModel(model, loaded, prob);
+        // the mapped model can be stored again
+        assertSameModel(model, Model.loadBinary(save(loaded).getAbsolutePath()), prob);
+        return loaded;
+    }
+
+    private static Parameter parameter()
+    {
+        return Samples.rbf(0.5);
+    }
+
+    @Test
+    public void testRoundTripOfEveryOptionalSection() throws IOException
+    {
+        for (int flags = 0; flags < 16; flags++)
+        {
+            Parameter param = parameter();
+            param.singlePrecision = flags & 1;
+            param.multiClass = flags >> 1 & 1;
+            param.probability = flags >> 2 & 1;
+            param.scaling = (flags & 8) != 0 ? new Scaling(-1, 1) : null;
+            Model loaded = assertRoundTrip(param, false);
+            Assert.assertEquals(param.multiClass == 1, loaded.isOneVsRest());
+        }
+    }
+
+    @Test
+    public void testRoundTripOfRegressionWithProbA() throws IOException
+    {
+        Parameter param = parameter();
+        param.svmType = SVMType.EPSILON_SVR;
+        param.probability = 1;
+        Model loaded = assertRoundTrip(param, true);
+        // the flags of a regression mark probA but not probB
+        Assert.assertEquals(1, read(save(loaded)).getInt(28) & 3);
+    }
+
+    @Test
+    public void testRoundTripOfLinearModel() throws IOException
+    {
+        Parameter param = Parameter.create(new String[] { "-t", "0" });
+        assertRoundTrip(param, false);
+    }
+
+    /**
+     * Overwrites a value of a stored model and checks that loading the model fails with an {@link IOException}.
+     */
+    private static void assertCorrupt(File valid, int position, long value, int size) throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(valid.toPath());
+        ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (size == 4)
+        {
+            buf.putInt(position, (int) value);
+        }
+        else
+        {
+            buf.putLong(position, value);
+        }
+        File file = File.createTempFile("corrupt", ".bin");
+        try
+        {
+            Files.write(file.toPath(), bytes);
+            Model.loadBinary(file.getAbsolutePath());
+            Assert.fail("Loading a model whose value at " + position + " is " + value + " did not fail");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCorruptFilesAreRejected() throws IOException
+    {
+        Parameter param = parameter();
+        param.probability = 1;
+        param.scaling = new Scaling(-1, 1);
+        File file = save(new SVM(param, problem(false)).getTrainedModel());
+
+        ByteBuffer buf = read(file);
+        int nrClass = buf.getInt(20);
+        int l = buf.getInt(24);
+        int nnz = (int) buf.getLong(48);
+        long[] positions = layout(buf);
+
+        // svm and kernel type, number of classes and number of support vectors
+        for (int position : new int[] { 8, 12, 20, 24 })
+        {
+            for (int value : new int[] { -1, 100, Integer.MAX_VALUE, Integer.MIN_VALUE })
+            {
+                assertCorrupt(file, position, value, 4);
+            }
+        }
+        assertCorrupt(file, 20, nrClass + 1, 4);
+        assertCorrupt(file, 24, l + 1, 4);
+        // number of features
+        for (long value : new long[] { -1, Integer.MAX_VALUE + 1L, Long.MAX_VALUE, Long.MIN_VALUE, 1L << 40 })
+        {
+            assertCorrupt(file, 48, value, 8);
+        }
+        assertCorrupt(file, (int) positions[NR_SV], -1, 4);
+        assertCorrupt(file, (int) positions[ROW_PTR] + 4, nnz + 1, 4);
+        assertCorrupt(file, (int) positions[ROW_PTR] + 4 * l, nnz - 1, 4);
+        // number of scaled features
+        assertCorrupt(file, (int) positions[SCALING] + 16, Long.MAX_VALUE / 8, 8);
+        assertCorrupt(file, (int) positions[SCALING] + 16, -1, 8);
+
+        // a truncated file
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        for (int length : new int[] { 0, 3, 40, bytes.length / 2, bytes.length - 8 })
+        {
+            File truncated = File.createTempFile("truncated", ".bin");
+            this.files.add(truncated);
+            Files.write(truncated.toPath(), Arrays.copyOf(bytes, length));
+            try
+            {
+                Model.loadBinary(truncated.getAbsolutePath());
+                Assert.fail("Loading a model truncated to " + length + " bytes did not fail");
+            }
+            catch (IOException e)
+            {
+                // expected
+            }
+        }
+    }
+}
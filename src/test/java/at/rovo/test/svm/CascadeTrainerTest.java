@@ -0,0 +1,44 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.CascadeTrainer;
+import at.rovo.classifier.svm.Model;
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CascadeTrainerTest
+{
+    private Problem prob;
+
+    @Before
+    public void createProblem()
+    {
+        // the partitions of the cascade are random, so its sub-SVMs see the labels in different orders
+        this.prob = Samples.clusters(3, 400, 0.5, 7, 3);
+    }
+
+    @Test
+    public void testCascadeMatchesSingleTraining()
+    {
+        Parameter param = Samples.rbf(0.5);
+        Model expected = new SVM(param, this.prob).getTrainedModel();
+
+        CascadeTrainer trainer = new CascadeTrainer(param, this.prob);
+        trainer.setPartitions(8);
+        trainer.setNrThreads(2);
+        trainer.setSeed(11);
+        Model actual = trainer.train();
+
+        int same = 0;
+        for (Node[] x : this.prob.x)
+        {
+            same += expected.predict(x) == actual.predict(x) ? 1 : 0;
+        }
+        Assert.assertTrue("Only " + same + " equal predictions", same >= this.prob.numInstances - 4);
+        Assert.assertEquals(expected.getNrSV(), actual.getNrSV(), expected.getNrSV() / 10);
+    }
+}
@@ -0,0 +1,139 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.CascadeTrainer;
+import at.rovo.classifier.svm.Model;
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import at.rovo.classifier.svm.struct.TrainingBudget;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckpointTest
+{
+    private Problem prob;
+    private File directory;
+
+    @Before
+    public void createProblem() throws IOException
+    {
+        // the first two classes consist of a few distant samples and are trained within a few iterations, while the
+        // third class overlaps with both of them
+        Random random = new Random(13);
+        this.prob = new Problem();
+        for (int i = 0; i < 300; i++)
+        {
+            int c = i < 10 ? 0 : i < 20 ? 1 : 2;
+            double x1 = c == 2 ? 10 * random.nextGaussian() : 20 * c - 10 + random.nextGaussian();
+            this.prob.add((double) c, Samples.sample(x1, random.nextGaussian()));
+        }
+        this.directory = Files.createTempDirectory("checkpoints").toFile();
+    }
+
+    @After
+    public void removeDirectory()
+    {
+        File[] files = this.directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+        this.directory.delete();
+    }
+
+    private static Parameter parameter()
+    {
+        Parameter param = Samples.rbf(0.5);
+        param.C = 100;
+        return param;
+    }
+
+    private SVM svm(TrainingBudget budget)
+    {
+        SVM svm = new SVM(parameter(), this.prob);
+        svm.setTrainingBudget(budget);
+        svm.setCheckpointDirectory(this.directory, 60000);
+        return svm;
+    }
+
+    private static TrainingBudget budget()
+    {
+        TrainingBudget budget = new TrainingBudget();
+        budget.setMaxIterations(100);
+        return budget;
+    }
+
+    @Test
+    public void testResumedTrainingEqualsUninterruptedTraining() throws IOException
+    {
+        File foreign = new File(this.directory, "solver-foreign.state");
+        Assert.assertTrue(foreign.createNewFile());
+        Model expected = new SVM(parameter(), this.prob).getTrainedModel();
+
+        TrainingBudget budget = budget();
+        Model stopped = svm(budget).getTrainedModel();
+        Assert.assertTrue(stopped.getMetrics().stoppedRuns > 0);
+        Assert.assertTrue(this.directory.listFiles().length > 1);
+
+        Model resumed = svm(null).getTrainedModel();
+        Assert.assertEquals(0, resumed.getMetrics().stoppedRuns);
+        for (Node[] x : this.prob.x)
+        {
+            Assert.assertEquals(expected.predict(x), resumed.predict(x), 0.);
+        }
+        // only the checkpoints of the training are removed
+        Assert.assertEquals(Collections.singletonList(foreign), Arrays.asList(this.directory.listFiles()));
+    }
+
+    @Test
+    public void testFinishedRunsAreNotOptimizedAgain()
+    {
+        TrainingBudget budget = budget();
+        Model stopped = svm(budget).getTrainedModel();
+        int stoppedRuns = stopped.getMetrics().stoppedRuns;
+        Assert.assertTrue(stoppedRuns > 0 && stoppedRuns < stopped.getMetrics().solverRuns);
+
+        // the budget is still exhausted, so only the runs which did not finish before are stopped again
+        Model resumed = svm(budget).getTrainedModel();
+        Assert.assertEquals(stoppedRuns, resumed.getMetrics().stoppedRuns);
+    }
+
+    @Test
+    public void testResetBudget()
+    {
+        TrainingBudget budget = budget();
+        svm(budget).getTrainedModel();
+        Assert.assertTrue(budget.isExhausted());
+
+        budget.reset();
+        Assert.assertFalse(budget.isExhausted());
+        Assert.assertEquals(0, budget.getIterations());
+        Assert.assertEquals(0, budget.getKernelEvaluations());
+    }
+
+    @Test
+    public void testCascadeStartsBudget()
+    {
+        TrainingBudget budget = new TrainingBudget();
+        budget.setMaxTime(1, TimeUnit.NANOSECONDS);
+        CascadeTrainer trainer = new CascadeTrainer(parameter(), this.prob);
+        trainer.setPartitions(2);
+        trainer.setTrainingBudget(budget);
+        trainer.train();
+
+        Assert.assertEquals(trainer.getMetrics().solverRuns, trainer.getMetrics().stoppedRuns);
+    }
+}
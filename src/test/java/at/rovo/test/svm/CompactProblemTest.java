@@ -0,0 +1,162 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.KernelType;
+import at.rovo.classifier.svm.Model;
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.struct.CompactProblem;
+import at.rovo.classifier.svm.struct.CsrMatrix;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompactProblemTest
+{
+    private Problem prob;
+
+    @Before
+    public void createProblem()
+    {
+        // three overlapping clusters, so the models have bounded and free support vectors
+        this.prob = Samples.shifted(17, 150, 3, 2);
+    }
+
+    private CompactProblem compact(boolean singlePrecision)
+    {
+        double[] labels = new double[this.prob.numInstances];
+        for (int i = 0; i < labels.length; i++)
+        {
+            labels[i] = this.prob.y.get(i);
+        }
+        return new CompactProblem(CsrMatrix.fromNodes(this.prob.x, singlePrecision), labels,
+                                  this.prob.getMaxIndex());
+    }
+
+    private static Parameter parameter()
+    {
+        return Samples.rbf(0.5);
+    }
+
+    private static Model train(Parameter param, Problem prob)
+    {
+        SVM.rand.setSeed(42);
+        return new SVM(param, prob).getTrainedModel();
+    }
+
+    private void assertSameModel(Parameter param, Problem compact)
+    {
+        Model expected = train(param, this.prob);
+        Model actual = train((Parameter) param.clone(), compact);
+        Assert.assertEquals(expected.getNrSV(), actual.getNrSV());
+        for (Node[] x : this.prob.x)
+        {
+            Assert.assertEquals(expected.predict(x), actual.predict(x), 0.);
+        }
+    }
+
+    @Test
+    public void testOneVsOne()
+    {
+        assertSameModel(parameter(), compact(false));
+    }
+
+    @Test
+    public void testOneVsRest()
+    {
+        Parameter param = parameter();
+        param.multiClass = 1;
+        assertSameModel(param, compact(false));
+    }
+
+    @Test
+    public void testSinglePrecision()
+    {
+        Parameter param = parameter();
+        param.singlePrecision = 1;
+        assertSameModel(param, compact(true));
+    }
+
+    @Test
+    public void testLinearSolver()
+    {
+        Parameter param = parameter();
+        param.kernelType = KernelType.LINEAR;
+        param.linearSolver = 1;
+        assertSameModel(param, compact(false));
+    }
+
+    @Test
+    public void testSamplesAreReadFromTheMatrix()
+    {
+        CompactProblem compact = compact(false);
+        AtomicInteger materialized = new AtomicInteger();
+        List<Node[]> x = compact.x;
+        compact.x = new AbstractList<Node[]>()
+        {
+            @Override
+            public Node[] get(int index)
+            {
+                materialized.incrementAndGet();
+                return x.get(index);
+            }
+
+            @Override
+            public int size()
+            {
+                return x.size();
+            }
+        };
+
+        Model model = train(parameter(), compact);
+
+        // only the support vectors of the model are materialized
+        Assert.assertEquals(model.getNrSV(), materialized.get());
+    }
+
+    @Test
+    public void testSinglePrecisionCopiesTheSamplesOnce()
+    {
+        AtomicInteger materialized = new AtomicInteger();
+        List<Node[]> x = this.prob.x;
+        this.prob.x = new AbstractList<Node[]>()
+        {
+            @Override
+            public Node[] get(int index)
+            {
+                materialized.incrementAndGet();
+                return x.get(index);
+            }
+
+            @Override
+            public int size()
+            {
+                return x.size();
+            }
+        };
+        Parameter param = parameter();
+        param.singlePrecision = 1;
+        param.nrFold = 5;
+
+        new SVM(param, this.prob).crossValidation(param);
+
+        // the folds and their pairwise problems refer to a single float copy of the samples, which is built in two
+        // passes over the samples
+        Assert.assertEquals(2 * this.prob.numInstances, materialized.get());
+    }
+
+    @Test
+    public void testAddingSamplesCopiesTheProblem()
+    {
+        CompactProblem compact = compact(false);
+        SVM svm = new SVM(parameter(), compact);
+        svm.train(this.prob.x.get(0), this.prob.y.get(0));
+
+        Assert.assertEquals(this.prob.numInstances, compact.numInstances);
+        Assert.assertTrue(svm.getTrainedModel().getNrSV() > 0);
+    }
+}
@@ -0,0 +1,109 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.KernelType;
+import at.rovo.classifier.svm.Model;
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.kernel.GramMatrix;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GramMatrixTest
+{
+    private final List<File> files = new ArrayList<>();
+
+    @After
+    public void deleteFiles()
+    {
+        for (File file : this.files)
+        {
+            file.delete();
+        }
+    }
+
+    private String file() throws IOException
+    {
+        File file = File.createTempFile("gram", ".bin");
+        this.files.add(file);
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * Replaces every sample of a problem by the node 0:serial_number, which refers to its row of a kernel matrix.
+     */
+    private static Problem serials(Problem prob)
+    {
+        Problem serials = new Problem();
+        for (int i = 0; i < prob.numInstances; i++)
+        {
+            Node[] x = new Node[] { new Node() };
+            x[0].index = 0;
+            x[0].value = i + 1;
+            serials.add(prob.y.get(i), x);
+        }
+        return serials;
+    }
+
+    private static double accuracy(Model model, Problem prob)
+    {
+        int correct = 0;
+        for (int i = 0; i < prob.numInstances; i++)
+        {
+            correct += model.predict(prob.x.get(i)) == prob.y.get(i) ? 1 : 0;
+        }
+        return (double) correct / prob.numInstances;
+    }
+
+    private void assertPrecomputedEqualsRBF(boolean doublePrecision) throws IOException
+    {
+        Problem train = Samples.clusters(1, 300, 1, Samples.classes(3));
+        Problem test = Samples.clusters(2, 150, 1, Samples.classes(3));
+        Parameter param = Samples.rbf(0.5);
+        Model expected = new SVM(param, train).getTrainedModel();
+
+        String trainFile = file();
+        String testFile = file();
+        GramMatrix.build(trainFile, train.x, train.x, param, doublePrecision, 4);
+        GramMatrix.build(testFile, test.x, train.x, param, doublePrecision, 4);
+        // the matrices are read from their files like the ones of a previous run
+        GramMatrix trainGram = GramMatrix.open(trainFile);
+        GramMatrix testGram = GramMatrix.open(testFile);
+        Assert.assertEquals(test.numInstances, testGram.getRows());
+        Assert.assertEquals(train.numInstances, testGram.getColumns());
+
+        Parameter precomputed = (Parameter) param.clone();
+        precomputed.kernelType = KernelType.PRECOMPUTED;
+        precomputed.gramMatrix = trainGram;
+        Model actual = new SVM(precomputed, serials(train)).getTrainedModel();
+        actual.setGramMatrix(testGram);
+
+        Assert.assertEquals(expected.getNrSV(), actual.getNrSV());
+        Problem testSerials = serials(test);
+        Assert.assertEquals(accuracy(expected, test), accuracy(actual, testSerials), 0.);
+        int same = 0;
+        for (int i = 0; i < test.numInstances; i++)
+        {
+            same += expected.predict(test.x.get(i)) == actual.predict(testSerials.x.get(i)) ? 1 : 0;
+        }
+        Assert.assertEquals(test.numInstances, same);
+    }
+
+    @Test
+    public void testPrecomputedModelPredictsLikeRBF() throws IOException
+    {
+        assertPrecomputedEqualsRBF(false);
+    }
+
+    @Test
+    public void testDoublePrecisionMatrix() throws IOException
+    {
+        assertPrecomputedEqualsRBF(true);
+    }
+}
@@ -0,0 +1,199 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.GridSearch;
+import at.rovo.classifier.svm.KernelType;
+import at.rovo.classifier.svm.Model;
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.SVMType;
+import at.rovo.classifier.svm.kernel.SharedKernelCache;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GridSearchTest
+{
+    /** The number of folds of the cross-validations **/
+    private static final int NR_FOLD = 4;
+    /** The values of C in ascending order **/
+    private static final double[] C = { 0.1, 1, 10, 100 };
+
+    /**
+     * Creates samples of two overlapping clusters whose label is -1 or 1.
+     */
+    private static Problem problem()
+    {
+        return Samples.clusters(3, 300, 1, 1, -1);
+    }
+
+    private static Parameter parameter()
+    {
+        return Samples.rbf(0.5);
+    }
+
+    private static GridSearch gridSearch(Parameter param, Problem prob)
+    {
+        GridSearch search = new GridSearch(param, prob);
+        search.setNrFold(NR_FOLD);
+        search.setC(C);
+        search.setGamma(0.1, 1);
+        search.setNu(0.2, 0.5);
+        return search;
+    }
+
+    /**
+     * Assigns instance i to fold i % NR_FOLD.
+     */
+    private static int[] perm(int l, int[] fold_start)
+    {
+        int[] perm = new int[l];
+        int j = 0;
+        for (int fold = 0; fold < NR_FOLD; fold++)
+        {
+            fold_start[fold] = j;
+            for (int i = fold; i < l; i += NR_FOLD)
+            {
+                perm[j++] = i;
+            }
+        }
+        fold_start[NR_FOLD] = l;
+        return perm;
+    }
+
+    @Test
+    public void testSearchEvaluatesEveryUsedCombination()
+    {
+        Problem prob = problem();
+        GridSearch search = gridSearch(parameter(), prob);
+        List<GridSearch.Result> results = search.search();
+
+        // nu is not used by C-SVC
+        Assert.assertEquals(2 * C.length, results.size());
+        double best = 0;
+        for (GridSearch.Result result : results)
+        {
+            Assert.assertEquals(0.5, result.nu, 0.);
+            Assert.assertTrue(result.accuracy > 50);
+            best = Math.max(best, result.accuracy);
+        }
+        Assert.assertEquals(best, search.getBest().accuracy, 0.);
+        Assert.assertEquals(search.getBest().C, search.getBest().getParameter().C, 0.);
+
+        // the grid points are trained on the same folds and caches regardless of the number of threads
+        search.setNrThreads(4);
+        List<GridSearch.Result> concurrent = search.search();
+        for (int i = 0; i < results.size(); i++)
+        {
+            Assert.assertEquals(results.get(i).accuracy, concurrent.get(i).accuracy, 0.);
+        }
+
+        // the smallest value of C is not warm started, so it yields the same result as a search of this value only
+        search.setC(C[0]);
+        search.setGamma(1);
+        Assert.assertEquals(results.get(C.length).accuracy, search.search().get(0).accuracy, 0.);
+    }
+
+    @Test
+    public void testUnusedParametersAreNotSearched()
+    {
+        Problem prob = problem();
+        for (SVMType svmType : new SVMType[] { SVMType.NU_SVC, SVMType.ONE_CLASS })
+        {
+            Parameter param = parameter();
+            param.svmType = svmType;
+            List<GridSearch.Result> results = gridSearch(param, prob).search();
+            Assert.assertEquals(2 * 2, results.size());
+            for (GridSearch.Result result : results)
+            {
+                Assert.assertEquals(param.C, result.C, 0.);
+            }
+        }
+
+        Parameter param = Parameter.create(new String[] { "-t", "0" });
+        List<GridSearch.Result> results = gridSearch(param, prob).search();
+        Assert.assertEquals(C.length, results.size());
+        for (GridSearch.Result result : results)
+        {
+            Assert.assertEquals(param.gamma, result.gamma, 0.);
+            Assert.assertEquals(KernelType.LINEAR, result.getParameter().kernelType);
+        }
+    }
+
+    @Test
+    public void testWarmStartAlongC()
+    {
+        Problem prob = problem();
+        Parameter param = parameter();
+        int[] fold_start = new int[NR_FOLD + 1];
+        int[] perm = perm(prob.numInstances, fold_start);
+        SVM svm = new SVM(param, prob);
+
+        long coldIterations = 0;
+        long warmIterations = 0;
+        for (int fold = 0; fold < NR_FOLD; fold++)
+        {
+            Model previous = null;
+            for (double c : C)
+            {
+                Parameter p = (Parameter) param.clone();
+                p.C = c;
+                double[] cold = new double[prob.numInstances];
+                double[] warm = new double[prob.numInstances];
+                Model model = svm.trainFold(p, perm, fold_start, fold, cold, null);
+                coldIterations += model.getMetrics().iterations;
+                previous = svm.trainFold(p, perm, fold_start, fold, warm, previous);
+                warmIterations += previous.getMetrics().iterations;
+
+                // both solutions are optimal within the tolerance of the solver
+                int agreeing = 0;
+                for (int j = fold_start[fold]; j < fold_start[fold + 1]; j++)
+                {
+                    agreeing += cold[perm[j]] == warm[perm[j]] ? 1 : 0;
+                }
+                Assert.assertTrue(agreeing >= 0.95 * (fold_start[fold + 1] - fold_start[fold]));
+            }
+        }
+        Assert.assertTrue(warmIterations < coldIterations);
+    }
+
+    @Test
+    public void testFoldsShareKernelCache()
+    {
+        Problem prob = problem();
+        Parameter param = parameter();
+        int[] fold_start = new int[NR_FOLD + 1];
+        int[] perm = perm(prob.numInstances, fold_start);
+
+        double[] expected = new double[prob.numInstances];
+        long expectedEvaluations = 0;
+        SVM svm = new SVM(param, prob);
+        for (int fold = 0; fold < NR_FOLD; fold++)
+        {
+            expectedEvaluations += svm.trainFold(param, perm, fold_start, fold, expected, null)
+                                      .getMetrics().kernelEvaluations;
+        }
+
+        Parameter shared = (Parameter) param.clone();
+        SharedKernelCache cache = new SharedKernelCache(prob, shared, 1 << 24);
+        shared.kernelCache = cache;
+        double[] actual = new double[prob.numInstances];
+        long evaluations = 0;
+        svm = new SVM(shared, prob);
+        for (int fold = 0; fold < NR_FOLD; fold++)
+        {
+            evaluations += svm.trainFold(shared, perm, fold_start, fold, actual, null).getMetrics().kernelEvaluations;
+        }
+
+        int agreeing = 0;
+        for (int i = 0; i < prob.numInstances; i++)
+        {
+            agreeing += expected[i] == actual[i] ? 1 : 0;
+        }
+        // the shared cache holds the kernel values in single precision
+        Assert.assertTrue(agreeing >= 0.98 * prob.numInstances);
+        // the rows computed for one fold are reused by the other folds
+        Assert.assertTrue(cache.getHits() > 0);
+        Assert.assertTrue(evaluations < expectedEvaluations);
+    }
+}
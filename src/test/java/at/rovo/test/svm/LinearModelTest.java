@@ -0,0 +1,168 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.KernelType;
+import at.rovo.classifier.svm.Model;
+import at.rovo.classifier.svm.PredictionContext;
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LinearModelTest
+{
+    private static Node[] sample(int... indexValuePairs)
+    {
+        Node[] x = new Node[indexValuePairs.length / 2];
+        for (int i = 0; i < x.length; i++)
+        {
+            x[i] = new Node();
+            x[i].index = indexValuePairs[2 * i];
+            x[i].value = indexValuePairs[2 * i + 1];
+        }
+        return x;
+    }
+
+    private static Parameter linear()
+    {
+        Parameter param = Parameter.create(new String[0]);
+        param.kernelType = KernelType.LINEAR;
+        param.gamma = 1;
+        return param;
+    }
+
+    @Test
+    public void testDenseModelIsCollapsed()
+    {
+        Problem prob = new Problem();
+        prob.add(1., sample(1, 2, 2, 1));
+        prob.add(1., sample(1, 3, 2, 2));
+        prob.add(-1., sample(1, -2, 2, -1));
+        prob.add(-1., sample(1, -3, 2, -1));
+
+        Model model = new SVM(linear(), prob).getTrainedModel();
+
+        Assert.assertTrue(model.collapseLinear());
+        Assert.assertEquals(1., model.predict(sample(1, 4, 2, 2)), 0.);
+        Assert.assertEquals(-1., model.predict(sample(1, -4, 2, -2)), 0.);
+    }
+
+    @Test
+    public void testSparseModelWithHighFeatureIndexIsCollapsed()
+    {
+        // a dense weight vector would hold 2,000,001 values for the 4 stored features of the support vectors
+        Problem prob = new Problem();
+        prob.add(1., sample(1, 1, 2000000, 1));
+        prob.add(-1., sample(2, 1, 1000000, 1));
+
+        Model model = new SVM(linear(), prob).getTrainedModel();
+
+        Assert.assertTrue(model.collapseLinear());
+        Assert.assertEquals(1., model.predict(sample(1, 1, 2000000, 1)), 0.);
+        Assert.assertEquals(-1., model.predict(sample(2, 1, 1000000, 1)), 0.);
+        Assert.assertEquals(1., model.predict(sample(1, 1, 3, 5, 2000000, 1, 3000000, 1)), 0.);
+    }
+
+    /**
+     * Creates sparse samples of a high feature index like text, where each class prefers its own range of features.
+     */
+    private static Problem text(long seed, int nrClass, int count)
+    {
+        Random random = new Random(seed);
+        Problem prob = new Problem();
+        for (int i = 0; i < count; i++)
+        {
+            int c = i % nrClass;
+            TreeMap<Integer, Integer> features = new TreeMap<>();
+            for (int n = 0; n < 20; n++)
+            {
+                int index = random.nextBoolean() ? 1 + c * 1000 + random.nextInt(1000) : 1 + random.nextInt(1000000);
+                features.merge(index, 1, Integer::sum);
+            }
+            int[] pairs = new int[2 * features.size()];
+            int k = 0;
+            for (Map.Entry<Integer, Integer> feature : features.entrySet())
+            {
+                pairs[k++] = feature.getKey();
+                pairs[k++] = feature.getValue();
+            }
+            prob.add((double) c, sample(pairs));
+        }
+        return prob;
+    }
+
+    @Test
+    public void testMultiClassTextModelIsCollapsedSparse()
+    {
+        Problem prob = text(1, 5, 300);
+        Model model = new SVM(linear(), prob).getTrainedModel();
+        // a polynomial kernel of degree 1 equals the linear kernel but is never collapsed
+        Parameter param = linear();
+        param.kernelType = KernelType.POLYNOMIAL;
+        param.degree = 1;
+        Model kernel = new SVM(param, prob).getTrainedModel();
+
+        Assert.assertTrue(model.collapseLinear());
+        Assert.assertFalse(kernel.collapseLinear());
+        PredictionContext context = model.createPredictionContext();
+        PredictionContext kernelContext = kernel.createPredictionContext();
+        for (Node[] x : text(2, 5, 200).x)
+        {
+            Assert.assertEquals(kernel.predict(x, kernelContext), model.predict(x, context), 0.);
+            for (int p = 0; p < context.getDecisionValues().length; p++)
+            {
+                Assert.assertEquals(kernelContext.getDecisionValues()[p], context.getDecisionValues()[p], 1e-9);
+            }
+        }
+    }
+
+    private Problem resource(String name, Parameter param) throws IOException, URISyntaxException
+    {
+        return Problem.create(getClass().getResource(name).toURI().getPath(), param);
+    }
+
+    private static double accuracy(Model model, Problem prob)
+    {
+        int correct = 0;
+        for (int i = 0; i < prob.numInstances; i++)
+        {
+            correct += model.predict(prob.x.get(i)) == prob.y.get(i) ? 1 : 0;
+        }
+        return (double) correct / prob.numInstances;
+    }
+
+    @Test
+    public void testLinearSolverConvergesWithItsOwnTolerance() throws IOException, URISyntaxException
+    {
+        Parameter param = linear();
+        Problem train = resource("/a1a.train", param);
+        Problem test = resource("/a1a.test", param);
+        Model smo = new SVM(param, train).getTrainedModel();
+        param = linear();
+        param.linearSolver = 1;
+        Model linear = new SVM(param, train).getTrainedModel();
+
+        Assert.assertEquals(0, linear.getMetrics().stoppedRuns);
+        Assert.assertTrue(linear.getMetrics().iterations < 1000);
+        Assert.assertEquals(accuracy(smo, test), accuracy(linear, test), 0.01);
+    }
+
+    @Test
+    public void testIterationLimitOfLinearSolverIsCounted() throws IOException, URISyntaxException
+    {
+        Parameter param = linear();
+        param.linearSolver = 1;
+        param.linearEps = 1e-6;
+        Problem train = resource("/a1a.train", param);
+        Model linear = new SVM(param, train).getTrainedModel();
+
+        Assert.assertEquals(1, linear.getMetrics().stoppedRuns);
+        Assert.assertEquals(1000, linear.getMetrics().iterations);
+    }
+}
@@ -0,0 +1,93 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.Model;
+import at.rovo.classifier.svm.ModelCompressor;
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.SVMType;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ModelCompressorTest
+{
+    /**
+     * Creates samples of three overlapping clusters, whose class is used as target value for regression.
+     */
+    private static Problem problem(long seed, int count)
+    {
+        return Samples.clusters(seed, count, 1, Samples.classes(3));
+    }
+
+    private static double loss(Model model, Problem prob, boolean regression)
+    {
+        double[] predicted = model.predict(prob.x);
+        double loss = 0;
+        for (int i = 0; i < predicted.length; i++)
+        {
+            double target = prob.y.get(i);
+            loss += regression ? (predicted[i] - target) * (predicted[i] - target) : predicted[i] != target ? 100 : 0;
+        }
+        return loss / predicted.length;
+    }
+
+    private static void assertPruned(Parameter param, boolean regression, double tolerance)
+    {
+        Problem train = problem(1, 300);
+        Problem validation = problem(2, 150);
+        Model model = new SVM(param, train).getTrainedModel();
+
+        Model pruned = ModelCompressor.prune(model, validation.x, validation.y, tolerance);
+
+        Assert.assertTrue(pruned.getNrSV() < model.getNrSV());
+        Assert.assertTrue(loss(pruned, validation, regression) <= loss(model, validation, regression) + tolerance);
+    }
+
+    @Test
+    public void testPruneOneVsOne()
+    {
+        Parameter param = Samples.rbf(0.5);
+        assertPruned(param, false, 2);
+    }
+
+    @Test
+    public void testPruneOneVsRest()
+    {
+        Parameter param = Samples.rbf(0.5);
+        param.multiClass = 1;
+        assertPruned(param, false, 2);
+    }
+
+    @Test
+    public void testPruneRegression()
+    {
+        Parameter param = Samples.rbf(0.5);
+        param.svmType = SVMType.EPSILON_SVR;
+        assertPruned(param, true, 0.05);
+    }
+
+    @Test
+    public void testDeduplicate()
+    {
+        Problem prob = problem(1, 150);
+        List<Node[]> x = new ArrayList<>(prob.x);
+        List<Double> y = new ArrayList<>(prob.y);
+        for (int i = 0; i < x.size(); i++)
+        {
+            prob.add(y.get(i), x.get(i));
+        }
+        Parameter param = Samples.rbf(0.5);
+        Model model = new SVM(param, prob).getTrainedModel();
+
+        Model deduplicated = ModelCompressor.deduplicate(model);
+
+        Assert.assertTrue(deduplicated.getNrSV() < model.getNrSV());
+        for (Node[] sample : x)
+        {
+            Assert.assertEquals(model.predict(sample), deduplicated.predict(sample), 0.);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.Model;
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.SVMType;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NuSolverTest
+{
+    /** The number of training samples **/
+    private static final int COUNT = 300;
+
+    /**
+     * Creates samples of clusters of the given distance, whose class is used as target value for regression.
+     */
+    private static Problem problem(long seed, int nrClass, double distance)
+    {
+        return Samples.clusters(seed, COUNT, distance, Samples.classes(nrClass));
+    }
+
+    private static Parameter parameter(SVMType svmType, double nu)
+    {
+        Parameter param = Samples.rbf(0.5);
+        param.svmType = svmType;
+        param.nu = nu;
+        return param;
+    }
+
+    private static double accuracy(Model model, Problem prob)
+    {
+        int correct = 0;
+        for (int i = 0; i < prob.numInstances; i++)
+        {
+            correct += model.predict(prob.x.get(i)) == prob.y.get(i) ? 1 : 0;
+        }
+        return (double) correct / prob.numInstances;
+    }
+
+    private static double squaredError(Model model, Problem prob)
+    {
+        double error = 0;
+        for (int i = 0; i < prob.numInstances; i++)
+        {
+            double d = model.predict(prob.x.get(i)) - prob.y.get(i);
+            error += d * d;
+        }
+        return error / prob.numInstances;
+    }
+
+    /**
+     * Asserts that every solver run converged within a fraction of the maximum number of iterations, which is at least
+     * 10^7, and that nu is a lower bound of the fraction of support vectors.
+     */
+    private static void assertConverged(Model model, int samplesPerRun, double nu)
+    {
+        Assert.assertTrue("Took " + model.getMetrics().iterations + " iterations",
+                          model.getMetrics().iterations < 100L * samplesPerRun * model.getMetrics().solverRuns);
+        Assert.assertTrue(model.getNrSV() >= nu * samplesPerRun);
+    }
+
+    /**
+     * Returns the largest absolute coefficient of the support vectors of a model, which is read from its text file.
+     */
+    private static double maxCoefficient(Model model) throws IOException
+    {
+        File file = File.createTempFile("model", ".txt");
+        try
+        {
+            model.save(file.getAbsolutePath());
+            List<String> lines = Files.readAllLines(file.toPath());
+            double max = 0;
+            for (String line : lines.subList(lines.indexOf("SV") + 1, lines.size()))
+            {
+                max = Math.max(max, Math.abs(Double.parseDouble(line.split(" ")[0])));
+            }
+            return max;
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testNuSVCEqualsCSVC() throws IOException
+    {
+        Problem prob = problem(1, 2, 3);
+        Model nu = new SVM(parameter(SVMType.NU_SVC, 0.2), prob).getTrainedModel();
+        assertConverged(nu, COUNT, 0.2);
+
+        // a nu-SVC solution r * alpha is the solution of a C-SVC with C = 1/r, which bounds the coefficients
+        Parameter param = parameter(SVMType.C_SVC, 0.2);
+        param.C = maxCoefficient(nu);
+        Model c = new SVM(param, prob).getTrainedModel();
+
+        Assert.assertEquals(c.getNrSV(), nu.getNrSV());
+        for (Node[] x : problem(2, 2, 3).x)
+        {
+            Assert.assertEquals(c.predict(x), nu.predict(x), 0);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testMultiClassNuSVCConverges()
+    {
+        Problem prob = problem(1, 3, 1);
+        Model nu = new SVM(parameter(SVMType.NU_SVC, 0.4), prob).getTrainedModel();
+
+        Assert.assertEquals(3, nu.getMetrics().solverRuns);
+        assertConverged(nu, 2 * COUNT / 3, 0.4);
+        // the classes overlap, so neighbouring classes are confused, but most samples are predicted correctly
+        Assert.assertTrue(accuracy(nu, problem(2, 3, 1)) > 0.5);
+    }
+
+    @Test(timeout = 60000)
+    public void testNuSVRConverges()
+    {
+        Problem prob = problem(1, 3, 1);
+        Model nu = new SVM(parameter(SVMType.NU_SVR, 0.4), prob).getTrainedModel();
+        Model epsilon = new SVM(parameter(SVMType.EPSILON_SVR, 0.4), prob).getTrainedModel();
+
+        assertConverged(nu, COUNT, 0.4);
+        Problem test = problem(2, 3, 1);
+        Assert.assertEquals(squaredError(epsilon, test), squaredError(nu, test), 0.05);
+    }
+}
@@ -0,0 +1,113 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.OnlineSVM;
+import at.rovo.classifier.svm.struct.Node;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OnlineSVMTest
+{
+    /**
+     * Creates a sample of one of two clusters around (-2, 0) and (2, 0), whose label is -1 or 1 respectively.
+     */
+    private static Node[] sample(Random random, double label)
+    {
+        return Samples.sample(2 * label + random.nextGaussian(), random.nextGaussian());
+    }
+
+    private static OnlineSVM learn(int budget, int count)
+    {
+        OnlineSVM svm = new OnlineSVM(Samples.rbf(0.5));
+        svm.setBudget(budget);
+        svm.setLambda(0.01);
+        Random random = new Random(7);
+        for (int i = 0; i < count; i++)
+        {
+            double label = i % 2 == 0 ? 1 : -1;
+            svm.train(sample(random, label), label);
+        }
+        return svm;
+    }
+
+    private static double accuracy(OnlineSVM svm)
+    {
+        Random random = new Random(8);
+        int correct = 0;
+        for (int i = 0; i < 200; i++)
+        {
+            double label = i % 2 == 0 ? 1 : -1;
+            correct += svm.classify(sample(random, label)) == label ? 1 : 0;
+        }
+        return correct / 2.;
+    }
+
+    @Test
+    public void testSamplesAreLearnedImmediately()
+    {
+        OnlineSVM svm = new OnlineSVM(Samples.rbf(0.5));
+        Node[] positive = Samples.sample(2, 0);
+        Node[] negative = Samples.sample(-2, 0);
+
+        // a single class has no decision function to update yet
+        svm.train(positive, 1.);
+        Assert.assertEquals(0, svm.getNrUpdates());
+        svm.train(negative, -1.);
+        Assert.assertEquals(1, svm.getNrUpdates());
+        Assert.assertEquals(-1., svm.classify(negative), 0.);
+        Assert.assertEquals(-1., svm.classify(positive), 0.);
+        // the violating sample is reflected by the very next prediction
+        svm.train(positive, 1.);
+        Assert.assertEquals(2, svm.getNrUpdates());
+        Assert.assertEquals(1., svm.classify(positive), 0.);
+        Assert.assertEquals(-1., svm.classify(negative), 0.);
+        Assert.assertEquals(-1., svm.classify(negative, negative, positive), 0.);
+    }
+
+    @Test
+    public void testBudgetMergesSupportVectors()
+    {
+        OnlineSVM svm = learn(10, 500);
+
+        Assert.assertEquals(500, svm.getNrSamples());
+        Assert.assertTrue(svm.getNrSV() <= 10);
+        Assert.assertEquals(svm.getNrUpdates() - svm.getNrSV(), svm.getNrRemovals());
+        Assert.assertTrue(svm.getNrRemovals() > 0);
+        Assert.assertTrue(accuracy(svm) >= 95);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception
+    {
+        OnlineSVM svm = learn(20, 200);
+        File directory = Files.createTempDirectory("online").toFile();
+        File file = new File(directory, "svm.ser");
+        try
+        {
+            svm.saveData(directory, "svm.ser");
+
+            OnlineSVM loaded = new OnlineSVM(Samples.rbf(0.5));
+            Assert.assertTrue(loaded.loadData(file));
+            Assert.assertEquals(svm.getNrSV(), loaded.getNrSV());
+            Assert.assertEquals(svm.getNrSamples(), loaded.getNrSamples());
+            Random random = new Random(9);
+            for (int i = 0; i < 50; i++)
+            {
+                Node[] x = sample(random, i % 2 == 0 ? 1 : -1);
+                Assert.assertEquals(svm.classify(x), loaded.classify(x));
+            }
+            // the loaded model continues learning
+            loaded.train(Samples.sample(10, 10), 2.);
+            Assert.assertEquals(3, loaded.getLabels().length);
+
+            Assert.assertFalse(new OnlineSVM(Samples.rbf(1)).loadData(file));
+        }
+        finally
+        {
+            file.delete();
+            directory.delete();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.Model;
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PredictionContextTest
+{
+    private static WeakReference<Model> trainAndPredict()
+    {
+        Problem prob = new Problem();
+        prob.add(1., Samples.sample(1, 1));
+        prob.add(1., Samples.sample(2, 1));
+        prob.add(-1., Samples.sample(-1, -1));
+        prob.add(-1., Samples.sample(-2, -1));
+        Model model = new SVM(Parameter.create(new String[0]), prob).getTrainedModel();
+        Assert.assertEquals(1., model.predict(Samples.sample(3, 2)), 0.);
+        return new WeakReference<>(model);
+    }
+
+    @Test
+    public void testThreadLocalContextDoesNotKeepModelAlive() throws InterruptedException
+    {
+        // the context of the model is stored in the thread-local map of this thread, which outlives the model
+        WeakReference<Model> model = trainAndPredict();
+        for (int i = 0; i < 50 && model.get() != null; i++)
+        {
+            System.gc();
+            Thread.sleep(20);
+        }
+        Assert.assertNull(model.get());
+    }
+
+    private static int predictionThreads()
+    {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            count += "svm-prediction".equals(thread.getName()) ? 1 : 0;
+        }
+        return count;
+    }
+
+    @Test
+    public void testBatchPredictionsShareThreads()
+    {
+        Model model = new SVM(Samples.rbf(0.5), Samples.clusters(1, 300, 1, Samples.classes(3))).getTrainedModel();
+        Problem test = Samples.clusters(2, 1000, 1, Samples.classes(3));
+        double[] expected = model.predict(test.x);
+
+        for (int i = 0; i < 20; i++)
+        {
+            Assert.assertTrue(Arrays.equals(expected, model.predict(test.x, 4)));
+        }
+        // the threads of a prediction are reused by the next one instead of being started for every call
+        int threads = predictionThreads();
+        Assert.assertTrue("Found " + threads + " prediction threads", threads > 0 && threads < 20);
+
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(3);
+        try
+        {
+            Assert.assertTrue(Arrays.equals(expected, model.predict(test.x, executor, 3)));
+            Assert.assertEquals(3, executor.getTaskCount());
+            // the executor of the caller is not shut down
+            Assert.assertTrue(Arrays.equals(expected, model.predict(test.x, executor, 7)));
+            double[][] probEstimates = new double[test.numInstances][3];
+            Assert.assertTrue(Arrays.equals(expected,
+                                                      model.predictProbability(test.x, probEstimates, executor, 3)));
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.KernelType;
+import at.rovo.classifier.svm.Model;
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.struct.CompactProblem;
+import at.rovo.classifier.svm.struct.CsrMatrix;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import at.rovo.classifier.svm.struct.ProblemReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProblemReaderTest
+{
+    private final List<File> files = new ArrayList<>();
+
+    @After
+    public void deleteFiles()
+    {
+        for (File file : this.files)
+        {
+            file.delete();
+        }
+    }
+
+    private String write(String content) throws IOException
+    {
+        File file = File.createTempFile("problem", ".txt");
+        this.files.add(file);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * Creates numbers in the notations found in libSVM files, including the cases the fast path of the parser hands
+     * over to {@link Double#parseDouble(String)}.
+     */
+    private static List<String> numbers()
+    {
+        List<String> numbers = new ArrayList<>();
+        String[] special = { "0", "-0", "+0.0", "-0.0e5", "1", "-1", "+1", ".5", "5.", "-.25", "007", "0.000000001",
+                             "1e22", "1e23", "-1E-22", "1e-23", "9007199254740992", "9007199254740993",
+                             "1234567890123456789", "12345678901234567890", "0.1234567890123456789012345",
+                             "123456789012345678901234567890e-10", "1e308", "1.7976931348623157e308", "1e309",
+                             "2.2250738585072014E-308", "4.9e-324", "1e-400", "1e-99999999", "NaN", "-Infinity",
+                             "0x1.8p1", "1d", "1e+5", "1.e2", "9999999999999999999", "-0.9862497858134187000" };
+        for (String number : special)
+        {
+            numbers.add(number);
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++)
+        {
+            double value = Double.longBitsToDouble(random.nextLong());
+            if (Double.isNaN(value) || Double.isInfinite(value))
+            {
+                continue;
+            }
+            numbers.add(Double.toString(value));
+            numbers.add(String.format(Locale.ROOT, "%." + random.nextInt(20) + "e", value));
+            // the typical values of scaled features
+            numbers.add(String.format(Locale.ROOT, "%." + random.nextInt(20) + "f", random.nextGaussian()));
+            // random digits with a random position of the decimal point and a random exponent
+            StringBuilder digits = new StringBuilder(random.nextBoolean() ? "-" : "");
+            int length = 1 + random.nextInt(25);
+            int point = random.nextInt(length + 1);
+            for (int d = 0; d < length; d++)
+            {
+                digits.append(d == point ? "." : "").append(random.nextInt(10));
+            }
+            numbers.add(digits.append('e').append(random.nextInt(60) - 30).toString());
+        }
+        return numbers;
+    }
+
+    @Test
+    public void testNumbersAreParsedLikeDoubleParseDouble() throws IOException
+    {
+        List<String> numbers = numbers();
+        StringBuilder content = new StringBuilder();
+        for (String number : numbers)
+        {
+            content.append(number).append(" 1:").append(number).append('\n');
+        }
+        String fileName = write(content.toString());
+
+        CompactProblem prob = ProblemReader.read(fileName, 4);
+        CompactProblem single = ProblemReader.read(fileName, 4, true);
+
+        Assert.assertEquals(numbers.size(), prob.numInstances);
+        for (int i = 0; i < numbers.size(); i++)
+        {
+            double expected = Double.parseDouble(numbers.get(i));
+            Assert.assertEquals(numbers.get(i), Double.doubleToLongBits(expected),
+                                Double.doubleToLongBits(prob.y.get(i)));
+            Assert.assertEquals(numbers.get(i), Double.doubleToLongBits(expected),
+                                Double.doubleToLongBits(prob.x.get(i)[0].value));
+            Assert.assertEquals(numbers.get(i), Double.doubleToLongBits((float) expected),
+                                Double.doubleToLongBits(single.x.get(i)[0].value));
+        }
+    }
+
+    /**
+     * Creates samples of a random number of features, where the lines of the file are terminated by the given line
+     * break and every third line is followed by a blank line.
+     */
+    private static String samples(String lineBreak, boolean blankLines)
+    {
+        Random random = new Random(3);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 500; i++)
+        {
+            content.append(random.nextInt(3) - 1);
+            int index = 0;
+            for (int n = random.nextInt(8); n > 0; n--)
+            {
+                index += 1 + random.nextInt(20);
+                content.append(random.nextBoolean() ? " " : "\t").append(index).append(':')
+                       .append(String.format(Locale.ROOT, "%." + random.nextInt(10) + "f", random.nextGaussian()));
+            }
+            content.append(random.nextBoolean() ? "" : " ").append(lineBreak);
+            if (blankLines && i % 3 == 0)
+            {
+                // the blank lines do not draw random numbers, so the samples are the same with and without them
+                content.append(i % 2 == 0 ? lineBreak : " \t" + lineBreak);
+            }
+        }
+        // the last line does not need to be terminated
+        return content.append("1 3:0.5").toString();
+    }
+
+    private static void assertSameProblem(Problem expected, Problem actual)
+    {
+        Assert.assertEquals(expected.numInstances, actual.numInstances);
+        Assert.assertEquals(expected.getMaxIndex(), actual.getMaxIndex());
+        for (int i = 0; i < expected.numInstances; i++)
+        {
+            Assert.assertEquals(expected.y.get(i), actual.y.get(i), 0.);
+            Node[] x = expected.x.get(i);
+            Node[] y = actual.x.get(i);
+            Assert.assertEquals(x.length, y.length);
+            for (int n = 0; n < x.length; n++)
+            {
+                Assert.assertEquals(x[n].index, y[n].index);
+                Assert.assertEquals(x[n].value, y[n].value, 0.);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelReadingEqualsProblemCreate() throws IOException
+    {
+        Parameter param = Parameter.create(new String[0]);
+        Problem expected = Problem.create(write(samples("\n", false)), param);
+        String[] fileNames = { write(samples("\n", true)), write(samples("\r\n", false)),
+                               write(samples("\r\n", true)) };
+
+        // the chunks of each number of threads end at different lines
+        for (int nrThreads = 1; nrThreads <= 16; nrThreads++)
+        {
+            for (String fileName : fileNames)
+            {
+                assertSameProblem(expected, Problem.createCompact(fileName, param, nrThreads));
+            }
+        }
+    }
+
+    @Test
+    public void testMalformedInputReportsItsOffset() throws IOException
+    {
+        String valid = samples("\r\n", true) + "\r\n";
+        // the malformed line, the part of the line the reported offset points to and the reported error
+        String[][] cases = { { "1 3 4:1", " 4:1", "expected ':' after feature index" },
+                             { "1 3:abc", "abc", "invalid number" },
+                             { "abc 3:1", "abc 3:1", "invalid number" },
+                             { "1 x:1", "x:1", "expected feature index" } };
+        for (String[] malformed : cases)
+        {
+            String content = valid + malformed[0] + "\r\n" + valid;
+            String fileName = write(content);
+            int offset = content.indexOf(malformed[0]) + malformed[0].indexOf(malformed[1]);
+            for (int nrThreads : new int[] { 1, 3, 8 })
+            {
+                try
+                {
+                    ProblemReader.read(fileName, nrThreads);
+                    Assert.fail("Reading " + malformed[0] + " did not fail");
+                }
+                catch (IOException e)
+                {
+                    Assert.assertEquals("Wrong input format at byte " + offset + ": " + malformed[2], e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBlocksHoldTheSameSamples() throws IOException
+    {
+        String fileName = write(samples("\n", true));
+        CompactProblem expected = ProblemReader.read(fileName, 4);
+        // every chunk holding a sample starts a new block
+        CompactProblem blocked = ProblemReader.read(fileName, 4, false, 1);
+
+        CsrMatrix matrix = blocked.getMatrix();
+        Assert.assertNotSame(matrix.block(0), matrix.block(blocked.numInstances - 1));
+        Assert.assertEquals(expected.getMatrix().nnz(), matrix.nnz());
+        assertSameProblem(expected, blocked);
+        for (int i = 0; i < blocked.numInstances; i += 7)
+        {
+            for (int j = 0; j < blocked.numInstances; j += 11)
+            {
+                Assert.assertEquals(expected.getMatrix().dot(i, j, null), matrix.dot(i, j, null), 0.);
+            }
+        }
+
+        CompactProblem single = ProblemReader.read(fileName, 4, true, 1);
+        Assert.assertTrue(single.getMatrix().isSinglePrecision());
+        assertSameProblem(ProblemReader.read(fileName, 4, true), single);
+    }
+
+    @Test
+    public void testTrainingOnBlocksEqualsSingleBlock() throws IOException
+    {
+        String fileName = write(samples("\n", false));
+        for (KernelType kernelType : new KernelType[] { KernelType.RBF, KernelType.LINEAR })
+        {
+            Parameter param = Parameter.create(new String[0]);
+            param.kernelType = kernelType;
+            param.linearSolver = KernelType.LINEAR.equals(kernelType) ? 1 : 0;
+            param.gamma = 0.5;
+            SVM.rand.setSeed(42);
+            Model expected = new SVM(param, ProblemReader.read(fileName, 4)).getTrainedModel();
+            SVM.rand.setSeed(42);
+            CompactProblem blocked = ProblemReader.read(fileName, 4, false, 100);
+            Model actual = new SVM((Parameter) param.clone(), blocked).getTrainedModel();
+
+            Assert.assertEquals(expected.getNrSV(), actual.getNrSV());
+            for (Node[] x : blocked.x)
+            {
+                Assert.assertEquals(expected.predict(x), actual.predict(x), 0.);
+            }
+        }
+    }
+}
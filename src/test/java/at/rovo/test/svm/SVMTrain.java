@@ -43,6 +43,19 @@ class SVMTrain
                          "-e epsilon : set tolerance of termination criterion (default 0.001)\n" +
                          "-h shrinking : whether to use the shrinking heuristics, 0 or 1 (default 1)\n" +
                          "-b probability_estimates : whether to train a SVC or SVR model for probability estimates, 0 or 1 (default 0)\n" +
+                         "-l linear_solver : whether to use dual coordinate descent for C-SVC with a linear kernel, 0 or 1 (default 0)\n" +
+                         "-E epsilon : set tolerance of termination criterion of the linear solver (default 0.1)\n" +
+                         "-o multi_class : set the multi-class strategy of classification (default 0)\n" +
+                         "	0 -- one-vs-one\n" +
+                         "	1 -- one-vs-rest\n" +
+                         "-j threads : number of threads used to select the working set of large problems (default 1)\n" +
+                         "-a approximation : train a linear model on an approximated kernel (default 0)\n" +
+                         "	0 -- exact kernel\n" +
+                         "	1 -- random Fourier features (RBF kernel only)\n" +
+                         "	2 -- Nystroem approximation\n" +
+                         "-D components : number of components of the kernel approximation (default 500)\n" +
+                         "-f single_precision : whether to store the samples of the kernel and the support vectors as float, 0 or 1 (default 0)\n" +
+                         "-z lower,upper : scale the features into [lower,upper] inside the kernel, stored with the model\n" +
                          "-wi weight : set the parameter C of class i to weight*C, for C-SVC (default 1)\n" +
                          "-v n : n-fold cross validation mode\n" + "-q : quiet mode (no outputs)\n");
         System.exit(1);
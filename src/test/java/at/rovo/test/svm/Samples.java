@@ -0,0 +1,95 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import java.util.Random;
+
+/**
+ * Creates the synthetic samples and the parameters shared by the SVM tests. The samples are drawn from normal
+ * distributions with a fixed seed, so the same arguments always yield the same problem.
+ */
+public final class Samples
+{
+    private Samples()
+    {
+    }
+
+    /**
+     * Creates a sample whose features 1, 2, ... hold the given values.
+     */
+    public static Node[] sample(double... values)
+    {
+        Node[] x = new Node[values.length];
+        for (int d = 0; d < values.length; d++)
+        {
+            x[d] = new Node();
+            x[d].index = d + 1;
+            x[d].value = values[d];
+        }
+        return x;
+    }
+
+    /**
+     * Returns the labels 0, 1, ..., nrClass-1.
+     */
+    public static double[] classes(int nrClass)
+    {
+        double[] labels = new double[nrClass];
+        for (int c = 0; c < nrClass; c++)
+        {
+            labels[c] = c;
+        }
+        return labels;
+    }
+
+    /**
+     * Creates samples of overlapping clusters in two features. Sample i gets the label labels[i % labels.length], the
+     * first feature is centered at distance * label and the second one at 0.
+     */
+    public static Problem clusters(long seed, int count, double distance, double... labels)
+    {
+        Random random = new Random(seed);
+        Problem prob = new Problem();
+        for (int i = 0; i < count; i++)
+        {
+            double label = labels[i % labels.length];
+            prob.add(label, sample(distance * label + random.nextGaussian(), random.nextGaussian()));
+        }
+        return prob;
+    }
+
+    /**
+     * Creates samples of overlapping clusters with one feature per class, where sample i belongs to class c = i %
+     * nrClass and the cluster of class c is shifted by 1.5 along feature c. The features have the indices 1,
+     * 1 + indexStep, 1 + 2 * indexStep, ...
+     */
+    public static Problem shifted(long seed, int count, int nrClass, int indexStep)
+    {
+        Random random = new Random(seed);
+        Problem prob = new Problem();
+        for (int i = 0; i < count; i++)
+        {
+            int c = i % nrClass;
+            Node[] x = new Node[nrClass];
+            for (int d = 0; d < nrClass; d++)
+            {
+                x[d] = new Node();
+                x[d].index = indexStep * d + 1;
+                x[d].value = (d == c ? 1.5 : 0) + random.nextGaussian();
+            }
+            prob.add((double) c, x);
+        }
+        return prob;
+    }
+
+    /**
+     * Returns the default parameters of a C-SVC with an RBF kernel of the given gamma.
+     */
+    public static Parameter rbf(double gamma)
+    {
+        Parameter param = Parameter.create(new String[0]);
+        param.gamma = gamma;
+        return param;
+    }
+}
@@ -0,0 +1,95 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.kernel.Kernel;
+import at.rovo.classifier.svm.kernel.SharedKernelCache;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import at.rovo.classifier.svm.struct.ProblemView;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SharedKernelCacheTest
+{
+    /** The number of samples of each of the four classes **/
+    private static final int COUNT = 1024;
+
+    private Problem prob;
+    private Parameter param;
+
+    @Before
+    public void createProblem()
+    {
+        // the samples are grouped by their class like the samples of a one-vs-one training
+        Random random = new Random(5);
+        this.prob = new Problem();
+        for (int i = 0; i < 4 * COUNT; i++)
+        {
+            this.prob.add((double) (i / COUNT), Samples.sample(random.nextDouble(), random.nextDouble()));
+        }
+        this.param = Samples.rbf(2);
+    }
+
+    /**
+     * Creates the problem of the first and the third class.
+     */
+    private Problem pair()
+    {
+        int[] index = new int[2 * COUNT];
+        for (int k = 0; k < COUNT; k++)
+        {
+            index[k] = k;
+            index[COUNT + k] = 2 * COUNT + k;
+        }
+        return new ProblemView(this.prob, index);
+    }
+
+    @Test
+    public void testValuesOfPair()
+    {
+        SharedKernelCache cache = new SharedKernelCache(this.prob, this.param, 1 << 20);
+        Problem pair = pair();
+        int[] positions = cache.positionsOf(pair);
+        float[] data = new float[pair.numInstances];
+
+        cache.getValues(positions[3], positions, data, 0, data.length);
+        cache.getValues(positions[3], positions, data, 0, data.length);
+
+        for (int j = 0; j < data.length; j++)
+        {
+            Assert.assertEquals((float) Kernel.function(pair.x.get(3), pair.x.get(j), this.param), data[j], 0f);
+        }
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(1, cache.getHits());
+        // only the blocks of the two classes are allocated instead of a row over all four classes
+        Assert.assertEquals(pair.numInstances, cache.getSize());
+    }
+
+    @Test
+    public void testSizeLimit()
+    {
+        // the cache holds at least two full rows
+        SharedKernelCache cache = new SharedKernelCache(this.prob, this.param, 0);
+        Problem pair = pair();
+        int[] positions = cache.positionsOf(pair);
+        float[] data = new float[pair.numInstances];
+
+        for (int i = 0; i < 10; i++)
+        {
+            cache.getValues(positions[i], positions, data, 0, data.length);
+            Assert.assertTrue(cache.getSize() <= 2L * this.prob.numInstances);
+        }
+        cache.getValues(positions[9], positions, data, 0, data.length);
+        Assert.assertEquals(10, cache.getMisses());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(2L * this.prob.numInstances, cache.getSize());
+    }
+
+    @Test
+    public void testUnknownSamples()
+    {
+        SharedKernelCache cache = new SharedKernelCache(pair(), this.param, 1 << 20);
+        Assert.assertNull(cache.positionsOf(this.prob));
+    }
+}
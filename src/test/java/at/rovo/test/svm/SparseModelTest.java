@@ -0,0 +1,135 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.Model;
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.SVMType;
+import at.rovo.classifier.svm.struct.Node;
+import at.rovo.classifier.svm.struct.Parameter;
+import at.rovo.classifier.svm.struct.Problem;
+import at.rovo.classifier.svm.struct.Scaling;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SparseModelTest
+{
+    /** The number of samples of the training and the test set **/
+    private static final int COUNT = 60;
+
+    /**
+     * Creates samples with features at the indices 1, 2 and the provided index. The seed yields the same values for
+     * every index, so models trained on different indices of the last feature are equivalent.
+     */
+    private static List<Node[]> samples(int lastIndex, long seed)
+    {
+        Random random = new Random(seed);
+        List<Node[]> x = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++)
+        {
+            int[] index = new int[] { 1, 2, lastIndex };
+            Node[] sample = new Node[index.length];
+            for (int d = 0; d < index.length; d++)
+            {
+                sample[d] = new Node();
+                sample[d].index = index[d];
+                sample[d].value = random.nextGaussian();
+            }
+            x.add(sample);
+        }
+        return x;
+    }
+
+    private static Model train(Parameter param, List<Node[]> x)
+    {
+        Problem prob = new Problem();
+        for (Node[] sample : x)
+        {
+            prob.add(sample[0].value - 2 * sample[2].value, sample);
+        }
+        return new SVM(param, prob).getTrainedModel();
+    }
+
+    private static Parameter regression()
+    {
+        Parameter param = Parameter.create(new String[0]);
+        param.svmType = SVMType.EPSILON_SVR;
+        param.gamma = 0.5;
+        return param;
+    }
+
+    private static void assertSamePredictions(Model expected, List<Node[]> expectedX, Model actual,
+                                              List<Node[]> actualX)
+    {
+        double[] batch = actual.predict(actualX);
+        for (int i = 0; i < COUNT; i++)
+        {
+            double value = expected.predict(expectedX.get(i));
+            Assert.assertEquals(value, actual.predict(actualX.get(i)), 1e-9);
+            Assert.assertEquals(value, batch[i], 1e-9);
+        }
+    }
+
+    @Test
+    public void testHighFeatureIndexIsPredictedOnSparseFeatures()
+    {
+        // a dense buffer of the size of the highest feature index can not be allocated
+        Model expected = train(regression(), samples(3, 1));
+        Model actual = train(regression(), samples(Integer.MAX_VALUE - 1, 1));
+
+        assertSamePredictions(expected, samples(3, 2), actual, samples(Integer.MAX_VALUE - 1, 2));
+    }
+
+    @Test
+    public void testScaledHighFeatureIndexIsPredictedOnSparseFeatures()
+    {
+        Parameter param = regression();
+        param.scaling = new Scaling(-1, 1);
+        Model expected = train(param, samples(3, 1));
+        param = regression();
+        param.scaling = new Scaling(-1, 1);
+        Model actual = train(param, samples(2000000, 1));
+
+        assertSamePredictions(expected, samples(3, 2), actual, samples(2000000, 2));
+    }
+
+    @Test
+    public void testPersistedModelPredictsTheSame() throws Exception
+    {
+        List<Node[]> x = samples(3, 2);
+        Model model = train(regression(), samples(3, 1));
+        // the support vectors are only held as matrix after the first prediction
+        model.predict(x.get(0));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+        {
+            out.writeObject(model);
+        }
+        Model deserialized;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+        {
+            deserialized = (Model) in.readObject();
+        }
+        assertSamePredictions(model, x, deserialized, x);
+
+        File file = File.createTempFile("model", ".txt");
+        try
+        {
+            model.save(file.getAbsolutePath());
+            assertSamePredictions(model, x, Model.load(file.getAbsolutePath()), x);
+        }
+        finally
+        {
+            file.delete();
+        }
+        // the model still predicts after it got persisted
+        assertSamePredictions(deserialized, x, model, x);
+    }
+}
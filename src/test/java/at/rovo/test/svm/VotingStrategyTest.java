@@ -0,0 +1,77 @@
+package at.rovo.test.svm;
+
+import at.rovo.classifier.svm.Model;
+import at.rovo.classifier.svm.PredictionContext;
+import at.rovo.classifier.svm.SVM;
+import at.rovo.classifier.svm.VotingStrategy;
+import at.rovo.classifier.svm.struct.Problem;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VotingStrategyTest
+{
+    /** The number of classes **/
+    private static final int NR_CLASS = 6;
+
+    /**
+     * Creates samples of overlapping clusters, where the cluster of class c is shifted along feature c+1.
+     */
+    private static Problem problem(long seed, int count)
+    {
+        return Samples.shifted(seed, count, NR_CLASS, 1);
+    }
+
+    private static Model train()
+    {
+        return new SVM(Samples.rbf(0.2), problem(1, 600)).getTrainedModel();
+    }
+
+    private static int evaluatedDecisions(PredictionContext context)
+    {
+        int evaluated = 0;
+        for (double value : context.getDecisionValues())
+        {
+            evaluated += Double.isNaN(value) ? 0 : 1;
+        }
+        return evaluated;
+    }
+
+    @Test
+    public void testEarlyVotingPredictsLikeVoting()
+    {
+        Model model = train();
+        Problem test = problem(2, 600);
+        double[] expected = new double[test.numInstances];
+        for (int i = 0; i < test.numInstances; i++)
+        {
+            expected[i] = model.predict(test.x.get(i));
+        }
+
+        model.setVotingStrategy(VotingStrategy.EARLY_VOTING);
+        PredictionContext context = model.createPredictionContext();
+        int decisions = 0;
+        for (int i = 0; i < test.numInstances; i++)
+        {
+            Assert.assertEquals(expected[i], model.predict(test.x.get(i), context), 0);
+            decisions += evaluatedDecisions(context);
+        }
+        // a class which wins all of its decisions is certain after k-1 decisions
+        Assert.assertTrue(decisions < test.numInstances * NR_CLASS * (NR_CLASS - 1) / 2);
+    }
+
+    @Test
+    public void testDAGEvaluatesOneDecisionPerEliminatedClass()
+    {
+        Model model = train();
+        model.setVotingStrategy(VotingStrategy.DAG);
+        PredictionContext context = model.createPredictionContext();
+        Problem test = problem(2, 600);
+        int correct = 0;
+        for (int i = 0; i < test.numInstances; i++)
+        {
+            correct += model.predict(test.x.get(i), context) == test.y.get(i) ? 1 : 0;
+            Assert.assertEquals(NR_CLASS - 1, evaluatedDecisions(context));
+        }
+        Assert.assertTrue(correct > test.numInstances / 2);
+    }
+}